@@ -2,17 +2,26 @@ package com.dbbackup;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Profiles;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Main application class for Database Backup Utility
- * A Spring Boot CLI application for backing up various database systems
+ * A Spring Boot CLI application for backing up various database systems.
+ * With the {@code batch} profile active it runs the backups given as arguments and exits.
+ * With the {@code agent} profile active it runs the jobs a cluster coordinator hands out.
  */
 @SpringBootApplication
+@ConfigurationPropertiesScan
 @EnableScheduling
 public class DatabaseBackupApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(DatabaseBackupApplication.class, args);
+        ConfigurableApplicationContext context = SpringApplication.run(DatabaseBackupApplication.class, args);
+        if (context.getEnvironment().acceptsProfiles(Profiles.of("batch"))) {
+            System.exit(SpringApplication.exit(context));
+        }
     }
 }
@@ -0,0 +1,25 @@
+package com.dbbackup.command;
+
+import com.dbbackup.service.ClusterAgentService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Entry point of the {@code agent} profile: runs the backup jobs a cluster coordinator hands
+ * out until the process is stopped
+ */
+@Component
+@Profile("agent")
+@RequiredArgsConstructor
+public class AgentRunner implements ApplicationRunner {
+
+    private final ClusterAgentService clusterAgentService;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        clusterAgentService.run();
+    }
+}
@@ -1,28 +1,92 @@
 package com.dbbackup.command;
 
+import com.dbbackup.io.IndexedArchive;
 import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.BackupManifest;
+import com.dbbackup.model.BackupProgress;
 import com.dbbackup.model.BackupResult;
+import com.dbbackup.model.ClusterAgent;
+import com.dbbackup.model.ClusterJob;
+import com.dbbackup.model.ClusterJobState;
+import com.dbbackup.model.CompressionCodec;
+import com.dbbackup.model.CompressionDictionary;
 import com.dbbackup.model.DatabaseType;
+import com.dbbackup.model.DestinationResult;
+import com.dbbackup.model.DumpEngine;
+import com.dbbackup.model.ManifestJob;
+import com.dbbackup.model.ReplicationResult;
 import com.dbbackup.model.StorageType;
+import com.dbbackup.model.SweepResult;
+import com.dbbackup.model.ThrottleStage;
+import com.dbbackup.model.UploadTask;
 import com.dbbackup.service.BackupOrchestrator;
+import com.dbbackup.service.ClusterCoordinatorService;
+import com.dbbackup.service.CompressionService;
+import com.dbbackup.service.DictionaryService;
+import com.dbbackup.service.IncrementalChainService;
+import com.dbbackup.service.IndexedArchiveService;
+import com.dbbackup.service.EncryptionService;
+import com.dbbackup.service.ManifestService;
+import com.dbbackup.service.PhysicalBackupService;
+import com.dbbackup.service.PipelineService;
+import com.dbbackup.service.ProgressService;
+import com.dbbackup.service.ReplicationService;
+import com.dbbackup.service.SQLiteSweepService;
 import com.dbbackup.service.SchedulerService;
+import com.dbbackup.service.SyntheticFullService;
+import com.dbbackup.service.ThrottleService;
+import com.dbbackup.service.UploadQueueService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.jline.terminal.Terminal;
 import org.quartz.SchedulerException;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.annotation.Profile;
 import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
 import org.springframework.shell.standard.ShellOption;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Spring Shell commands for database backup operations
  */
 @ShellComponent
+@Profile("!batch & !agent")
 @Slf4j
 @RequiredArgsConstructor
 public class BackupCommands {
 
     private final BackupOrchestrator backupOrchestrator;
     private final SchedulerService schedulerService;
+    private final ThrottleService throttleService;
+    private final EncryptionService encryptionService;
+    private final UploadQueueService uploadQueueService;
+    private final ProgressService progressService;
+    private final CompressionService compressionService;
+    private final DictionaryService dictionaryService;
+    private final IncrementalChainService incrementalChainService;
+    private final IndexedArchiveService indexedArchiveService;
+    private final ManifestService manifestService;
+    private final PipelineService pipelineService;
+    private final SyntheticFullService syntheticFullService;
+    private final ReplicationService replicationService;
+    private final ClusterCoordinatorService clusterCoordinatorService;
+    private final PhysicalBackupService physicalBackupService;
+    private final SQLiteSweepService sqliteSweepService;
+    private final Terminal terminal;
+    /** Held while the progress line is drawn or cleared */
+    private final Object terminalLock = new Object();
 
     @ShellMethod(value = "Backup a MySQL database", key = "backup-mysql")
     public String backupMySQL(
@@ -32,10 +96,26 @@ public class BackupCommands {
             @ShellOption(help = "Username") String username,
             @ShellOption(help = "Password") String password,
             @ShellOption(help = "Backup directory path", defaultValue = "./backups") String backupPath,
-            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress) {
+            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress,
+            @ShellOption(help = "Encrypt backup with the configured master key", defaultValue = "false") boolean encrypt,
+            @ShellOption(help = "Max dump read rate per second, e.g. 20MB (0 = unlimited)", defaultValue = "0") String readLimit,
+            @ShellOption(help = "Max local write rate per second, e.g. 20MB (0 = unlimited)", defaultValue = "0") String writeLimit,
+            @ShellOption(help = "Dump engine (NATIVE, JDBC or PHYSICAL)", defaultValue = "NATIVE") DumpEngine engine,
+            @ShellOption(help = "Parallel connections for the JDBC engine (0 = configured default)", defaultValue = "0") int parallelism,
+            @ShellOption(help = "Tables to back up, comma-separated glob patterns such as 'orders,audit_*' (all if omitted)",
+                    defaultValue = ShellOption.NULL) String include,
+            @ShellOption(help = "Tables to leave out, comma-separated glob patterns", defaultValue = ShellOption.NULL) String exclude,
+            @ShellOption(help = "Compress with the newest version of this trained zstd dictionary",
+                    defaultValue = ShellOption.NULL) String dictionary,
+            @ShellOption(help = "Export only the key ranges changed since the previous backup (uses the JDBC engine), "
+                    + "or with PHYSICAL only the pages changed since it", defaultValue = "false") boolean incremental,
+            @ShellOption(help = "Write a seekable archive from which single tables can be extracted (uses the JDBC engine)",
+                    defaultValue = "false") boolean indexed,
+            @ShellOption(help = "The server is MariaDB, backed up with mariabackup by the PHYSICAL engine",
+                    defaultValue = "false") boolean mariadb) {
 
         BackupConfig config = BackupConfig.builder()
-                .databaseType(DatabaseType.MYSQL)
+                .databaseType(mariadb ? DatabaseType.MARIADB : DatabaseType.MYSQL)
                 .host(host)
                 .port(port)
                 .databaseName(database)
@@ -43,10 +123,20 @@ public class BackupCommands {
                 .password(password)
                 .backupPath(backupPath)
                 .compress(compress)
+                .encrypt(encrypt)
                 .storageType(StorageType.LOCAL)
+                .dumpReadBytesPerSecond(DataSize.parse(readLimit).toBytes())
+                .writeBytesPerSecond(DataSize.parse(writeLimit).toBytes())
+                .dumpEngine(engine)
+                .parallelism(parallelism)
+                .includeTables(patterns(include))
+                .excludeTables(patterns(exclude))
+                .dictionary(dictionary)
+                .incremental(incremental)
+                .indexedArchive(indexed)
                 .build();
 
-        BackupResult result = backupOrchestrator.executeBackup(config);
+        BackupResult result = executeWithProgress(config);
         return formatResult(result);
     }
 
@@ -58,7 +148,21 @@ public class BackupCommands {
             @ShellOption(help = "Username") String username,
             @ShellOption(help = "Password") String password,
             @ShellOption(help = "Backup directory path", defaultValue = "./backups") String backupPath,
-            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress) {
+            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress,
+            @ShellOption(help = "Encrypt backup with the configured master key", defaultValue = "false") boolean encrypt,
+            @ShellOption(help = "Max dump read rate per second, e.g. 20MB (0 = unlimited)", defaultValue = "0") String readLimit,
+            @ShellOption(help = "Max local write rate per second, e.g. 20MB (0 = unlimited)", defaultValue = "0") String writeLimit,
+            @ShellOption(help = "Dump engine (NATIVE, JDBC or PARALLEL_COPY)", defaultValue = "NATIVE") DumpEngine engine,
+            @ShellOption(help = "Parallel connections for the JDBC engine (0 = configured default)", defaultValue = "0") int parallelism,
+            @ShellOption(help = "Tables to back up, comma-separated glob patterns such as 'orders,audit_*' (all if omitted)",
+                    defaultValue = ShellOption.NULL) String include,
+            @ShellOption(help = "Tables to leave out, comma-separated glob patterns", defaultValue = ShellOption.NULL) String exclude,
+            @ShellOption(help = "Compress with the newest version of this trained zstd dictionary",
+                    defaultValue = ShellOption.NULL) String dictionary,
+            @ShellOption(help = "Export only the key ranges changed since the previous backup (uses the JDBC engine)",
+                    defaultValue = "false") boolean incremental,
+            @ShellOption(help = "Write a seekable archive from which single tables can be extracted (uses the JDBC engine)",
+                    defaultValue = "false") boolean indexed) {
 
         BackupConfig config = BackupConfig.builder()
                 .databaseType(DatabaseType.POSTGRESQL)
@@ -69,10 +173,20 @@ public class BackupCommands {
                 .password(password)
                 .backupPath(backupPath)
                 .compress(compress)
+                .encrypt(encrypt)
                 .storageType(StorageType.LOCAL)
+                .dumpReadBytesPerSecond(DataSize.parse(readLimit).toBytes())
+                .writeBytesPerSecond(DataSize.parse(writeLimit).toBytes())
+                .dumpEngine(engine)
+                .parallelism(parallelism)
+                .includeTables(patterns(include))
+                .excludeTables(patterns(exclude))
+                .dictionary(dictionary)
+                .incremental(incremental)
+                .indexedArchive(indexed)
                 .build();
 
-        BackupResult result = backupOrchestrator.executeBackup(config);
+        BackupResult result = executeWithProgress(config);
         return formatResult(result);
     }
 
@@ -84,7 +198,15 @@ public class BackupCommands {
             @ShellOption(help = "Username") String username,
             @ShellOption(help = "Password") String password,
             @ShellOption(help = "Backup directory path", defaultValue = "./backups") String backupPath,
-            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress) {
+            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress,
+            @ShellOption(help = "Encrypt backup with the configured master key", defaultValue = "false") boolean encrypt,
+            @ShellOption(help = "Dump each collection separately so a failed run can be resumed", defaultValue = "false") boolean perCollection,
+            @ShellOption(help = "Collections dumped at the same time with --per-collection", defaultValue = "1") int parallelism,
+            @ShellOption(help = "Collections to back up, comma-separated glob patterns (all if omitted)",
+                    defaultValue = ShellOption.NULL) String include,
+            @ShellOption(help = "Collections to leave out, comma-separated glob patterns", defaultValue = ShellOption.NULL) String exclude,
+            @ShellOption(help = "Write a seekable archive from which single collections can be extracted",
+                    defaultValue = "false") boolean indexed) {
 
         BackupConfig config = BackupConfig.builder()
                 .databaseType(DatabaseType.MONGODB)
@@ -95,10 +217,16 @@ public class BackupCommands {
                 .password(password)
                 .backupPath(backupPath)
                 .compress(compress)
+                .encrypt(encrypt)
+                .perCollection(perCollection)
+                .parallelism(parallelism)
+                .includeTables(patterns(include))
+                .excludeTables(patterns(exclude))
+                .indexedArchive(indexed)
                 .storageType(StorageType.LOCAL)
                 .build();
 
-        BackupResult result = backupOrchestrator.executeBackup(config);
+        BackupResult result = executeWithProgress(config);
         return formatResult(result);
     }
 
@@ -106,20 +234,46 @@ public class BackupCommands {
     public String backupSQLite(
             @ShellOption(help = "SQLite database file path") String databaseFile,
             @ShellOption(help = "Backup directory path", defaultValue = "./backups") String backupPath,
-            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress) {
+            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress,
+            @ShellOption(help = "Encrypt backup with the configured master key", defaultValue = "false") boolean encrypt,
+            @ShellOption(help = "Compress with the newest version of this trained zstd dictionary",
+                    defaultValue = ShellOption.NULL) String dictionary) {
 
         BackupConfig config = BackupConfig.builder()
                 .databaseType(DatabaseType.SQLITE)
                 .databaseName(databaseFile)
                 .backupPath(backupPath)
                 .compress(compress)
+                .encrypt(encrypt)
+                .dictionary(dictionary)
                 .storageType(StorageType.LOCAL)
                 .build();
 
-        BackupResult result = backupOrchestrator.executeBackup(config);
+        BackupResult result = executeWithProgress(config);
         return formatResult(result);
     }
 
+    @ShellMethod(value = "Backup the SQLite databases of a directory tree that changed since the last sweep", key = "sqlite-sweep")
+    public String sqliteSweep(
+            @ShellOption(help = "Directory to sweep, including its subdirectories") String directory,
+            @ShellOption(help = "Backup directory path; the tree is mirrored below it", defaultValue = "./backups") String backupPath,
+            @ShellOption(help = "Compress backups", defaultValue = "true") boolean compress,
+            @ShellOption(help = "Encrypt backups with the configured master key", defaultValue = "false") boolean encrypt,
+            @ShellOption(help = "Only count the databases that would be backed up", defaultValue = "false") boolean dryRun) {
+        try {
+            SweepResult result = sqliteSweepService.sweep(Path.of(directory), BackupConfig.builder()
+                    .backupPath(backupPath)
+                    .compress(compress)
+                    .encrypt(encrypt)
+                    .storageType(StorageType.LOCAL)
+                    .build(), dryRun);
+            return formatSweep(result, dryRun);
+        } catch (Exception e) {
+            log.error("SQLite sweep failed", e);
+            return "✗ SQLite sweep failed: " + e.getMessage();
+        }
+    }
+
     @ShellMethod(value = "Backup with cloud storage (AWS S3)", key = "backup-to-s3")
     public String backupToS3(
             @ShellOption(help = "Database type (MYSQL, POSTGRESQL, MONGODB, SQLITE)") String dbType,
@@ -133,7 +287,11 @@ public class BackupCommands {
             @ShellOption(help = "AWS region", defaultValue = "us-east-1") String region,
             @ShellOption(help = "AWS access key") String accessKey,
             @ShellOption(help = "AWS secret key") String secretKey,
-            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress) {
+            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress,
+            @ShellOption(help = "Encrypt backup with the configured master key", defaultValue = "false") boolean encrypt,
+            @ShellOption(help = "Max upload rate per second, e.g. 10MB (0 = unlimited)", defaultValue = "0") String uploadLimit,
+            @ShellOption(help = "Write a seekable archive from which single tables can be extracted in place with ranged reads",
+                    defaultValue = "false") boolean indexed) {
 
         BackupConfig config = BackupConfig.builder()
                 .databaseType(DatabaseType.valueOf(dbType.toUpperCase()))
@@ -144,14 +302,96 @@ public class BackupCommands {
                 .password(password)
                 .backupPath(backupPath)
                 .compress(compress)
+                .encrypt(encrypt)
                 .storageType(StorageType.AWS_S3)
                 .cloudBucket(bucket)
                 .cloudRegion(region)
                 .cloudAccessKey(accessKey)
                 .cloudSecretKey(secretKey)
+                .uploadBytesPerSecond(DataSize.parse(uploadLimit).toBytes())
+                .indexedArchive(indexed)
+                .build();
+
+        BackupResult result = executeWithProgress(config);
+        return formatResult(result);
+    }
+
+    @ShellMethod(value = "Backup with cloud storage (Azure Blob Storage)", key = "backup-to-azure")
+    public String backupToAzure(
+            @ShellOption(help = "Database type (MYSQL, POSTGRESQL, MONGODB, SQLITE)") String dbType,
+            @ShellOption(help = "Database host") String host,
+            @ShellOption(help = "Database port") int port,
+            @ShellOption(help = "Database name") String database,
+            @ShellOption(help = "Username") String username,
+            @ShellOption(help = "Password") String password,
+            @ShellOption(help = "Backup directory path", defaultValue = "./backups") String backupPath,
+            @ShellOption(help = "Blob container name") String container,
+            @ShellOption(help = "Storage account name") String accountName,
+            @ShellOption(help = "Storage account key") String accountKey,
+            @ShellOption(help = "Blob endpoint, e.g. http://127.0.0.1:10000/devstoreaccount1 for Azurite",
+                    defaultValue = ShellOption.NULL) String endpoint,
+            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress,
+            @ShellOption(help = "Encrypt backup with the configured master key", defaultValue = "false") boolean encrypt,
+            @ShellOption(help = "Max upload rate per second, e.g. 10MB (0 = unlimited)", defaultValue = "0") String uploadLimit) {
+
+        BackupConfig config = BackupConfig.builder()
+                .databaseType(DatabaseType.valueOf(dbType.toUpperCase()))
+                .host(host)
+                .port(port)
+                .databaseName(database)
+                .username(username)
+                .password(password)
+                .backupPath(backupPath)
+                .compress(compress)
+                .encrypt(encrypt)
+                .storageType(StorageType.AZURE_BLOB)
+                .cloudBucket(container)
+                .cloudAccessKey(accountName)
+                .cloudSecretKey(accountKey)
+                .cloudEndpoint(endpoint)
+                .uploadBytesPerSecond(DataSize.parse(uploadLimit).toBytes())
                 .build();
 
-        BackupResult result = backupOrchestrator.executeBackup(config);
+        BackupResult result = executeWithProgress(config);
+        return formatResult(result);
+    }
+
+    @ShellMethod(value = "Backup with cloud storage (Google Cloud Storage)", key = "backup-to-gcs")
+    public String backupToGcs(
+            @ShellOption(help = "Database type (MYSQL, POSTGRESQL, MONGODB, SQLITE)") String dbType,
+            @ShellOption(help = "Database host") String host,
+            @ShellOption(help = "Database port") int port,
+            @ShellOption(help = "Database name") String database,
+            @ShellOption(help = "Username") String username,
+            @ShellOption(help = "Password") String password,
+            @ShellOption(help = "Backup directory path", defaultValue = "./backups") String backupPath,
+            @ShellOption(help = "GCS bucket name") String bucket,
+            @ShellOption(help = "Service account JSON key file (application default credentials if omitted)",
+                    defaultValue = ShellOption.NULL) String credentialsFile,
+            @ShellOption(help = "Storage endpoint, e.g. http://localhost:4443 for a local emulator",
+                    defaultValue = ShellOption.NULL) String endpoint,
+            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress,
+            @ShellOption(help = "Encrypt backup with the configured master key", defaultValue = "false") boolean encrypt,
+            @ShellOption(help = "Max upload rate per second, e.g. 10MB (0 = unlimited)", defaultValue = "0") String uploadLimit) {
+
+        BackupConfig config = BackupConfig.builder()
+                .databaseType(DatabaseType.valueOf(dbType.toUpperCase()))
+                .host(host)
+                .port(port)
+                .databaseName(database)
+                .username(username)
+                .password(password)
+                .backupPath(backupPath)
+                .compress(compress)
+                .encrypt(encrypt)
+                .storageType(StorageType.GOOGLE_CLOUD)
+                .cloudBucket(bucket)
+                .cloudCredentialsFile(credentialsFile)
+                .cloudEndpoint(endpoint)
+                .uploadBytesPerSecond(DataSize.parse(uploadLimit).toBytes())
+                .build();
+
+        BackupResult result = executeWithProgress(config);
         return formatResult(result);
     }
 
@@ -165,7 +405,19 @@ public class BackupCommands {
             @ShellOption(help = "Password") String password,
             @ShellOption(help = "Backup directory path", defaultValue = "./backups") String backupPath,
             @ShellOption(help = "Cron expression (e.g., '0 0 2 * * ?' for daily at 2 AM)") String cron,
-            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress) {
+            @ShellOption(help = "Compress backup", defaultValue = "true") boolean compress,
+            @ShellOption(help = "Encrypt backup with the configured master key", defaultValue = "false") boolean encrypt,
+            @ShellOption(help = "Dump engine for MySQL/PostgreSQL (NATIVE, JDBC, PARALLEL_COPY for PostgreSQL or PHYSICAL for MySQL)", defaultValue = "NATIVE") DumpEngine engine,
+            @ShellOption(help = "Parallel connections for the JDBC engine (0 = configured default)", defaultValue = "0") int parallelism,
+            @ShellOption(help = "Tables to back up, comma-separated glob patterns such as 'orders,audit_*' (all if omitted)",
+                    defaultValue = ShellOption.NULL) String include,
+            @ShellOption(help = "Tables to leave out, comma-separated glob patterns", defaultValue = ShellOption.NULL) String exclude,
+            @ShellOption(help = "Compress with the newest version of this trained zstd dictionary",
+                    defaultValue = ShellOption.NULL) String dictionary,
+            @ShellOption(help = "MySQL/PostgreSQL: export only the key ranges changed since the previous backup",
+                    defaultValue = "false") boolean incremental,
+            @ShellOption(help = "MySQL/PostgreSQL/MongoDB: write a seekable archive from which single tables can be extracted",
+                    defaultValue = "false") boolean indexed) {
 
         try {
             BackupConfig config = BackupConfig.builder()
@@ -177,6 +429,14 @@ public class BackupCommands {
                     .password(password)
                     .backupPath(backupPath)
                     .compress(compress)
+                    .encrypt(encrypt)
+                    .dumpEngine(engine)
+                    .parallelism(parallelism)
+                    .includeTables(patterns(include))
+                    .excludeTables(patterns(exclude))
+                    .dictionary(dictionary)
+                    .incremental(incremental)
+                    .indexedArchive(indexed)
                     .storageType(StorageType.LOCAL)
                     .build();
 
@@ -210,9 +470,563 @@ public class BackupCommands {
         }
     }
 
+    @ShellMethod(value = "Load a backup manifest and register or refresh its schedules", key = "load-manifest")
+    public String loadManifest(@ShellOption(help = "Manifest file (YAML or JSON)") String file) {
+        try {
+            BackupManifest manifest = manifestService.load(Path.of(file));
+            long scheduled = manifest.getJobs().stream().filter(job -> job.getCron() != null).count();
+            int removed = schedulerService.syncSchedules(manifest);
+            return String.format("✓ Loaded %d jobs from %s: %d scheduled, %d removed schedules",
+                    manifest.getJobs().size(), manifest.getSource(), scheduled, removed);
+        } catch (Exception e) {
+            log.error("Failed to load manifest", e);
+            return "✗ Failed to load manifest: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "Run every job of a backup manifest now", key = "run-manifest")
+    public String runManifest(
+            @ShellOption(help = "Manifest file (YAML or JSON)") String file,
+            @ShellOption(help = "Jobs running at the same time (0 = manifest or configured default)",
+                    defaultValue = "0") int maxParallel) {
+        try {
+            BackupManifest manifest = manifestService.load(Path.of(file));
+            if (maxParallel > 0) {
+                manifest.setMaxParallel(maxParallel);
+            }
+            Map<String, BackupResult> results = manifestService.runAll(manifest);
+            long succeeded = results.values().stream().filter(BackupResult::isSuccess).count();
+            StringBuilder sb = new StringBuilder(String.format("%s %d of %d jobs succeeded%n",
+                    succeeded == results.size() ? "✓" : "✗", succeeded, results.size()));
+            results.forEach((name, result) -> sb.append(result.isSuccess()
+                    ? String.format("  ✓ %s: %s (%s)%n", name, result.getBackupFilePath(),
+                            BackupProgress.formatBytes(result.getFileSizeBytes()))
+                    : String.format("  ✗ %s: %s%n", name, result.getMessage())));
+            return sb.toString();
+        } catch (Exception e) {
+            log.error("Failed to run manifest", e);
+            return "✗ Failed to run manifest: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "Hand the jobs of a backup manifest to cluster agents", key = "cluster-submit")
+    public String clusterSubmit(
+            @ShellOption(help = "Manifest file (YAML or JSON)") String file,
+            @ShellOption(help = "Only this job of the manifest", defaultValue = ShellOption.NULL) String job,
+            @ShellOption(help = "Zone of the databases (derived from backup.cluster.zones if omitted)",
+                    defaultValue = ShellOption.NULL) String zone,
+            @ShellOption(help = "Wait this long for the results, e.g. 2h (0 = return at once)",
+                    defaultValue = "0") String wait) {
+        try {
+            BackupManifest manifest = manifestService.load(Path.of(file));
+            List<ManifestJob> jobs = manifest.getJobs().stream()
+                    .filter(manifestJob -> job == null || manifestJob.getName().equals(job))
+                    .toList();
+            if (jobs.isEmpty()) {
+                return "✗ No job " + job + " in " + file;
+            }
+            List<String> ids = jobs.stream().map(manifestJob -> clusterCoordinatorService.submit(manifestJob, zone).getId()).toList();
+            Duration timeout = DurationStyle.detectAndParse(wait);
+            if (timeout.isZero()) {
+                return String.format("✓ %d jobs queued for the cluster agents; see cluster-status%n", ids.size());
+            }
+            List<ClusterJob> finished = clusterCoordinatorService.await(ids, timeout);
+            long succeeded = finished.stream().filter(clusterJob -> clusterJob.getState() == ClusterJobState.SUCCEEDED).count();
+            StringBuilder sb = new StringBuilder(String.format("%s %d of %d jobs succeeded%n",
+                    succeeded == ids.size() ? "✓" : "✗", succeeded, ids.size()));
+            finished.forEach(clusterJob -> sb.append(formatClusterJob(clusterJob)));
+            return sb.toString();
+        } catch (Exception e) {
+            log.error("Failed to submit cluster jobs", e);
+            return "✗ Failed to submit cluster jobs: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "Show the cluster agents and the jobs handed to them", key = "cluster-status")
+    public String clusterStatus() {
+        if (!clusterCoordinatorService.isEnabled()) {
+            return "✗ Not a cluster coordinator; set backup.cluster.port";
+        }
+        StringBuilder sb = new StringBuilder("Agents:\n");
+        List<ClusterAgent> agents = clusterCoordinatorService.agents();
+        if (agents.isEmpty()) {
+            sb.append("  none yet\n");
+        }
+        agents.forEach(agent -> sb.append(String.format("  %s %s (zone %s): %d of %d slots busy, last seen %s%n",
+                agent.isAlive() ? "✓" : "✗", agent.getName(), agent.getZone() != null ? agent.getZone() : "none",
+                agent.getRunning(), agent.getSlots(), agent.getLastSeen())));
+        sb.append("Jobs:\n");
+        List<ClusterJob> jobs = clusterCoordinatorService.jobs();
+        if (jobs.isEmpty()) {
+            sb.append("  none\n");
+        }
+        jobs.forEach(clusterJob -> sb.append(formatClusterJob(clusterJob)));
+        return sb.toString();
+    }
+
+    private static String formatClusterJob(ClusterJob job) {
+        BackupResult result = job.getResult();
+        return switch (job.getState()) {
+            case SUCCEEDED -> String.format("  ✓ %s on %s: %s (%s)%n", job.getName(), job.getAgent(),
+                    result.getBackupFilePath(), BackupProgress.formatBytes(result.getFileSizeBytes()));
+            case FAILED -> String.format("  ✗ %s on %s: %s%n", job.getName(), job.getAgent(), result.getMessage());
+            case ASSIGNED -> String.format("  → %s running on %s (attempt %d)%n", job.getName(), job.getAgent(), job.getAttempts());
+            case QUEUED -> String.format("  … %s queued for zone %s%n", job.getName(),
+                    job.getZone() != null ? job.getZone() : "any");
+        };
+    }
+
+    @ShellMethod(value = "Decrypt an encrypted backup", key = "decrypt-backup")
+    public String decryptBackup(
+            @ShellOption(help = "Encrypted backup file") String file,
+            @ShellOption(help = "Output file (defaults to the file name without .enc)",
+                    defaultValue = ShellOption.NULL) String output) {
+        try {
+            String target = output != null ? output
+                    : file.endsWith(EncryptionService.SUFFIX)
+                    ? file.substring(0, file.length() - EncryptionService.SUFFIX.length())
+                    : file + ".dec";
+            encryptionService.decryptFile(file, target);
+            return "✓ Backup decrypted to: " + target;
+        } catch (Exception e) {
+            log.error("Failed to decrypt backup", e);
+            return "✗ Failed to decrypt backup: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "Decompress a gzip, zstd or LZ4 backup", key = "decompress-backup")
+    public String decompressBackup(
+            @ShellOption(help = "Compressed backup file (decrypt encrypted backups first)") String file,
+            @ShellOption(help = "Output file (defaults to the file name without its compression extension)",
+                    defaultValue = ShellOption.NULL) String output) {
+        try {
+            CompressionCodec codec = CompressionCodec.fromFileName(file);
+            if (codec == null) {
+                return "✗ Not a compressed backup: " + file;
+            }
+            String target = output != null ? output : file.substring(0, file.length() - codec.getExtension().length());
+            compressionService.decompressFile(file, target);
+            return "✓ Backup decompressed to: " + target;
+        } catch (Exception e) {
+            log.error("Failed to decompress backup", e);
+            return "✗ Failed to decompress backup: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "Write one restore script from the full and incremental backups of a chain", key = "restore-script")
+    public String restoreScript(
+            @ShellOption(help = "Database host", defaultValue = "localhost") String host,
+            @ShellOption(help = "Database port") int port,
+            @ShellOption(help = "Database name") String database,
+            @ShellOption(help = "Script to write") String output) {
+        try {
+            int backups = incrementalChainService.writeRestoreScript(BackupConfig.builder()
+                    .host(host)
+                    .port(port)
+                    .databaseName(database)
+                    .build(), Path.of(output));
+            return String.format("✓ Restore script written to %s from a full and %d incremental backups",
+                    output, backups - 1);
+        } catch (Exception e) {
+            log.error("Failed to write restore script", e);
+            return "✗ Failed to write restore script: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "List the physical backups to prepare, in order, to restore a database", key = "physical-chain")
+    public String physicalChain(
+            @ShellOption(help = "Database host", defaultValue = "localhost") String host,
+            @ShellOption(help = "Database port") int port,
+            @ShellOption(help = "Database name") String database) {
+        try {
+            List<Path> chain = physicalBackupService.chain(BackupConfig.builder()
+                    .host(host)
+                    .port(port)
+                    .databaseName(database)
+                    .build());
+            if (chain.isEmpty()) {
+                return "No physical backups recorded for " + database;
+            }
+            StringBuilder sb = new StringBuilder(String.format("Physical chain of %s: a full and %d incremental backups%n",
+                    database, chain.size() - 1));
+            for (Path backup : chain) {
+                Properties metadata = physicalBackupService.describe(backup);
+                sb.append(String.format("  %s %s (%s, LSN %s to %s)%n", Files.exists(backup) ? "✓" : "✗ missing:",
+                        backup, metadata.getProperty("physical.backup-type", "?"),
+                        metadata.getProperty("physical.from-lsn", "?"), metadata.getProperty("physical.to-lsn", "?")));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            log.error("Failed to read physical chain", e);
+            return "✗ Failed to read physical chain: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "Merge the incremental chain of a database into a synthetic full backup", key = "compact-chain")
+    public String compactChain(
+            @ShellOption(help = "Database host", defaultValue = "localhost") String host,
+            @ShellOption(help = "Database port") int port,
+            @ShellOption(help = "Database name") String database,
+            @ShellOption(help = "Trained zstd dictionary for the result", defaultValue = ShellOption.NULL) String dictionary) {
+        BackupResult result = syntheticFullService.compact(BackupConfig.builder()
+                .host(host)
+                .port(port)
+                .databaseName(database)
+                .dictionary(dictionary)
+                .build());
+        if (!result.isSuccess()) {
+            return "✗ " + result.getMessage();
+        }
+        if (result.getBackupFilePath() == null || result.getFileSizeBytes() == 0) {
+            return "✓ " + result.getMessage();
+        }
+        return String.format("""
+                ✓ %s
+                File: %s
+                Size: %.2f MB
+                Duration: %.2f seconds
+                """,
+                result.getMessage(),
+                result.getBackupFilePath(),
+                result.getFileSizeBytes() / (1024.0 * 1024.0),
+                result.getDurationMillis() / 1000.0);
+    }
+
+    @ShellMethod(value = "Schedule compaction of an incremental chain", key = "schedule-compaction")
+    public String scheduleCompaction(
+            @ShellOption(help = "Database host", defaultValue = "localhost") String host,
+            @ShellOption(help = "Database port") int port,
+            @ShellOption(help = "Database name") String database,
+            @ShellOption(help = "Cron expression (e.g., '0 0 3 ? * SUN' for weekly on Sunday at 3 AM)") String cron,
+            @ShellOption(help = "Trained zstd dictionary for the result", defaultValue = ShellOption.NULL) String dictionary) {
+        try {
+            schedulerService.scheduleCompaction(BackupConfig.builder()
+                    .host(host)
+                    .port(port)
+                    .databaseName(database)
+                    .dictionary(dictionary)
+                    .build(), cron);
+            return String.format("✓ Compaction scheduled for database '%s' with cron: %s", database, cron);
+        } catch (SchedulerException e) {
+            log.error("Failed to schedule compaction", e);
+            return "✗ Failed to schedule compaction: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "Cancel a scheduled compaction", key = "cancel-compaction")
+    public String cancelCompaction(
+            @ShellOption(help = "Database host", defaultValue = "localhost") String host,
+            @ShellOption(help = "Database port") int port,
+            @ShellOption(help = "Database name") String database) {
+        try {
+            return schedulerService.cancelScheduledCompaction(BackupConfig.builder()
+                    .host(host)
+                    .port(port)
+                    .databaseName(database)
+                    .build())
+                    ? String.format("✓ Cancelled scheduled compaction for database '%s'", database)
+                    : String.format("✗ No compaction scheduled for database '%s'", database);
+        } catch (SchedulerException e) {
+            log.error("Failed to cancel scheduled compaction", e);
+            return "✗ Failed to cancel scheduled compaction: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "Copy the backups in the catalog from one destination to another", key = "replicate")
+    public String replicate(
+            @ShellOption(help = "Source: 'local' or a destination under backup.destinations", defaultValue = ReplicationService.LOCAL) String from,
+            @ShellOption(help = "Target: 'local' or a destination under backup.destinations") String to,
+            @ShellOption(help = "Database whose backups to copy (all if omitted)", defaultValue = ShellOption.NULL) String database,
+            @ShellOption(help = "Only list what would be copied", defaultValue = "false") boolean dryRun) {
+        try {
+            ReplicationResult result = replicationService.replicate(database, from, to, dryRun);
+            StringBuilder sb = new StringBuilder();
+            sb.append(result.getFailed() == 0 ? "✓ " : "✗ ");
+            if (dryRun) {
+                sb.append(String.format("%d of %d objects would be copied from %s to %s%n",
+                        result.getStreamed(), result.getObjects(), from, to));
+            } else {
+                sb.append(String.format("Replicated %d objects from %s to %s in %.2f seconds%n",
+                        result.getObjects(), from, to, result.getDurationMillis() / 1000.0));
+                sb.append(String.format("Streamed: %d (%s)%n", result.getStreamed(),
+                        BackupProgress.formatBytes(result.getBytesStreamed())));
+                sb.append(String.format("Copied server-side: %d (%s)%n", result.getCopiedServerSide(),
+                        BackupProgress.formatBytes(result.getBytesCopiedServerSide())));
+            }
+            sb.append(String.format("Up to date: %d%n", result.getSkipped()));
+            if (result.getMissing() > 0) {
+                sb.append(String.format("Missing at the source: %d%n", result.getMissing()));
+            }
+            if (result.getFailed() > 0) {
+                sb.append(String.format("Failed: %d%n", result.getFailed()));
+                result.getErrors().forEach(error -> sb.append("  - ").append(error).append(System.lineSeparator()));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            log.error("Replication failed", e);
+            return "✗ Replication failed: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "List the tables and blocks of an indexed archive", key = "list-archive")
+    public String listArchive(
+            @ShellOption(help = "Archive file, or object key with --bucket") String file,
+            @ShellOption(help = "S3 bucket to read the archive from in place", defaultValue = ShellOption.NULL) String bucket,
+            @ShellOption(help = "AWS region", defaultValue = "us-east-1") String region,
+            @ShellOption(help = "AWS access key", defaultValue = ShellOption.NULL) String accessKey,
+            @ShellOption(help = "AWS secret key", defaultValue = ShellOption.NULL) String secretKey,
+            @ShellOption(help = "S3-compatible endpoint, e.g. http://localhost:9000 for MinIO",
+                    defaultValue = ShellOption.NULL) String endpoint) {
+        try {
+            List<IndexedArchive.Block> blocks = indexedArchiveService.list(file,
+                    s3Location(bucket, region, accessKey, secretKey, endpoint));
+            Map<String, long[]> sizes = new TreeMap<>();
+            for (IndexedArchive.Block block : blocks) {
+                long[] size = sizes.computeIfAbsent(block.getObject(), object -> new long[3]);
+                size[0]++;
+                size[1] += block.getLength();
+                size[2] += block.getRawLength();
+            }
+            StringBuilder sb = new StringBuilder(String.format("%d blocks, %d tables:%n",
+                    blocks.size(), IndexedArchiveService.objects(blocks).size()));
+            sizes.forEach((object, size) -> sb.append(String.format("  - %s: %d blocks, %s (%s uncompressed)%n",
+                    IndexedArchive.DATABASE.equals(object) ? "(database)" : object, size[0],
+                    BackupProgress.formatBytes(size[1]), BackupProgress.formatBytes(size[2]))));
+            return sb.toString();
+        } catch (Exception e) {
+            log.error("Failed to read archive index", e);
+            return "✗ Failed to read archive index: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "Extract one table or collection, or the whole database, from an indexed archive",
+            key = "extract-backup")
+    public String extractBackup(
+            @ShellOption(help = "Archive file, or object key with --bucket") String file,
+            @ShellOption(help = "Restore script to write, or directory for MongoDB and parallel COPY archives") String output,
+            @ShellOption(help = "Table or collection to extract, e.g. 'public.orders' (everything if omitted)",
+                    defaultValue = ShellOption.NULL) String table,
+            @ShellOption(help = "S3 bucket to read the archive from in place", defaultValue = ShellOption.NULL) String bucket,
+            @ShellOption(help = "AWS region", defaultValue = "us-east-1") String region,
+            @ShellOption(help = "AWS access key", defaultValue = ShellOption.NULL) String accessKey,
+            @ShellOption(help = "AWS secret key", defaultValue = ShellOption.NULL) String secretKey,
+            @ShellOption(help = "S3-compatible endpoint, e.g. http://localhost:9000 for MinIO",
+                    defaultValue = ShellOption.NULL) String endpoint) {
+        try {
+            int blocks = indexedArchiveService.extract(file, table, Path.of(output),
+                    s3Location(bucket, region, accessKey, secretKey, endpoint));
+            return String.format("✓ Extracted %s to %s (%d blocks)", table != null ? table : "all tables", output, blocks);
+        } catch (Exception e) {
+            log.error("Failed to extract from archive", e);
+            return "✗ Failed to extract from archive: " + e.getMessage();
+        }
+    }
+
+    private static BackupConfig s3Location(String bucket, String region, String accessKey, String secretKey,
+                                           String endpoint) {
+        if (bucket == null) {
+            return null;
+        }
+        return BackupConfig.builder()
+                .storageType(StorageType.AWS_S3)
+                .cloudBucket(bucket)
+                .cloudRegion(region)
+                .cloudAccessKey(accessKey)
+                .cloudSecretKey(secretKey)
+                .cloudEndpoint(endpoint)
+                .build();
+    }
+
+    @ShellMethod(value = "Train a zstd dictionary from sample backups", key = "train-dictionary")
+    public String trainDictionary(
+            @ShellOption(help = "Dictionary name") String name,
+            @ShellOption(help = "Sample backup files or directories, comma-separated") String samples) {
+        try {
+            List<Path> paths = patterns(samples).stream().map(Path::of).toList();
+            CompressionDictionary dictionary = dictionaryService.train(name, paths);
+            return String.format("✓ Trained dictionary '%s' version %d (id %d): %s from %s of %d samples",
+                    dictionary.getName(), dictionary.getVersion(), dictionary.getDictionaryId(),
+                    BackupProgress.formatBytes(dictionary.getSizeBytes()),
+                    BackupProgress.formatBytes(dictionary.getSampleBytes()), dictionary.getSampleFiles());
+        } catch (Exception e) {
+            log.error("Failed to train dictionary", e);
+            return "✗ Failed to train dictionary: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "List trained zstd dictionaries", key = "list-dictionaries")
+    public String listDictionaries() {
+        try {
+            List<CompressionDictionary> dictionaries = dictionaryService.list();
+            if (dictionaries.isEmpty()) {
+                return "No dictionaries trained";
+            }
+            StringBuilder sb = new StringBuilder("Dictionaries:\n");
+            for (CompressionDictionary dictionary : dictionaries) {
+                sb.append(String.format("  - %s v%d (id %d): %s, trained %s on %s of %d samples%n",
+                        dictionary.getName(), dictionary.getVersion(), dictionary.getDictionaryId(),
+                        BackupProgress.formatBytes(dictionary.getSizeBytes()), dictionary.getCreatedAt(),
+                        BackupProgress.formatBytes(dictionary.getSampleBytes()), dictionary.getSampleFiles()));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            log.error("Failed to list dictionaries", e);
+            return "✗ Failed to list dictionaries: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "Show pending cloud uploads", key = "upload-queue")
+    public String uploadQueue() {
+        if (!uploadQueueService.isEnabled()) {
+            return "Upload queue is disabled; cloud uploads run inline";
+        }
+        try {
+            StringBuilder sb = new StringBuilder();
+            List<UploadTask> pending = uploadQueueService.pendingTasks();
+            sb.append(String.format("Pending: %d, Failed: %d, Lag: %d s%n",
+                    pending.size(), uploadQueueService.failedCount(), uploadQueueService.lag().toSeconds()));
+            for (UploadTask task : pending) {
+                sb.append(String.format("  %s %s -> %s, attempts: %d%s%n",
+                        uploadQueueService.isInFlight(task.getId()) ? "[uploading]" : "[waiting]  ",
+                        task.getFilePath(), task.getConfig().getStorageType(), task.getAttempts(),
+                        task.getLastError() != null ? ", last error: " + task.getLastError() : ""));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            log.error("Failed to read upload queue", e);
+            return "✗ Failed to read upload queue: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "Requeue uploads that exhausted their retries", key = "retry-failed-uploads")
+    public String retryFailedUploads() {
+        try {
+            return String.format("✓ Requeued %d failed uploads", uploadQueueService.retryFailed());
+        } catch (Exception e) {
+            log.error("Failed to requeue uploads", e);
+            return "✗ Failed to requeue uploads: " + e.getMessage();
+        }
+    }
+
+    @ShellMethod(value = "Show progress of running backups", key = "running-jobs")
+    public String runningJobs() {
+        List<BackupProgress> running = progressService.snapshot();
+        String buffers = "Pipeline buffers: " + pipelineService.describe();
+        if (running.isEmpty()) {
+            return "No backups running" + System.lineSeparator() + buffers;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (BackupProgress progress : running) {
+            sb.append(progress.describe()).append(System.lineSeparator());
+        }
+        return sb.append(buffers).toString();
+    }
+
+    @ShellMethod(value = "Change a bandwidth limit at runtime", key = "set-throttle")
+    public String setThrottle(
+            @ShellOption(help = "Stage (DUMP_READ, LOCAL_WRITE, UPLOAD)") String stage,
+            @ShellOption(help = "Limit per second, e.g. 50MB (0 = unlimited)") String rate,
+            @ShellOption(help = "Database name or job id of running backups (global limit if omitted)",
+                    defaultValue = ShellOption.NULL) String database) {
+
+        ThrottleStage throttleStage = ThrottleStage.valueOf(stage.toUpperCase());
+        long bytesPerSecond = DataSize.parse(rate).toBytes();
+        if (database == null) {
+            throttleService.setGlobalRate(throttleStage, bytesPerSecond);
+            return String.format("✓ Global %s limit set to %s", throttleStage, rate);
+        }
+        int changed = throttleService.setJobRate(database, throttleStage, bytesPerSecond);
+        if (changed > 0) {
+            return String.format("✓ %s limit for '%s' set to %s (%d running backup(s))",
+                    throttleStage, database, rate, changed);
+        }
+        return String.format("✗ No running backup found for database '%s'", database);
+    }
+
+    @ShellMethod(value = "Show current bandwidth limits", key = "show-throttles")
+    public String showThrottles() {
+        return throttleService.describe();
+    }
+
+    /**
+     * Runs a backup in the foreground, redrawing a status line while it runs
+     */
+    private BackupResult executeWithProgress(BackupConfig request) {
+        if (Terminal.TYPE_DUMB.equals(terminal.getType()) || Terminal.TYPE_DUMB_COLOR.equals(terminal.getType())) {
+            return backupOrchestrator.executeBackup(request);
+        }
+        // The job id picks this run out of the others, which may back up a database of the same name
+        BackupConfig config = request.toBuilder().jobId(BackupOrchestrator.newJobId()).build();
+        AtomicInteger width = new AtomicInteger();
+        AtomicBoolean finished = new AtomicBoolean();
+        ProgressService.Subscription subscription = progressService.subscribe(running -> running.stream()
+                .filter(progress -> config.getJobId().equals(progress.getJobId()))
+                .findFirst()
+                .ifPresent(progress -> {
+                    String line = progress.describe();
+                    int columns = terminal.getWidth();
+                    if (columns > 1 && line.length() >= columns) {
+                        line = line.substring(0, columns - 1);
+                    }
+                    synchronized (terminalLock) {
+                        // A sample taken before the subscription was closed must not redraw the cleared line
+                        if (finished.get()) {
+                            return;
+                        }
+                        // Pad over the remains of a longer previous line
+                        terminal.writer().print("\r" + line + " ".repeat(Math.max(0, width.get() - line.length())));
+                        terminal.flush();
+                        width.set(line.length());
+                    }
+                }));
+        try {
+            return backupOrchestrator.executeBackup(config);
+        } finally {
+            synchronized (terminalLock) {
+                subscription.close();
+                finished.set(true);
+                if (width.get() > 0) {
+                    terminal.writer().print("\r" + " ".repeat(width.get()) + "\r");
+                    terminal.flush();
+                }
+            }
+        }
+    }
+
+    private List<String> patterns(String option) {
+        if (option == null || option.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(option.split(","))
+                .map(String::trim)
+                .filter(pattern -> !pattern.isEmpty())
+                .toList();
+    }
+
+    private String formatSweep(SweepResult result, boolean dryRun) {
+        StringBuilder sb = new StringBuilder(result.getFailed() == 0 ? "✓ " : "✗ ");
+        sb.append(String.format("Swept %d SQLite databases in %.2f seconds%n",
+                result.getScanned(), result.getDurationMillis() / 1000.0));
+        if (dryRun) {
+            sb.append(String.format("Would back up: %d%n", result.getBackedUp()));
+        } else {
+            sb.append(String.format("Backed up: %d (%s)%n", result.getBackedUp(),
+                    BackupProgress.formatBytes(result.getBytesWritten())));
+        }
+        sb.append(String.format("Unchanged: %d%n", result.getUnchanged()));
+        if (result.getIgnored() > 0) {
+            sb.append(String.format("Not SQLite databases: %d%n", result.getIgnored()));
+        }
+        if (result.getFailed() > 0) {
+            sb.append(String.format("Failed: %d%n", result.getFailed()));
+            result.getErrors().forEach(error -> sb.append("  - ").append(error).append(System.lineSeparator()));
+        }
+        return sb.toString();
+    }
+
     private String formatResult(BackupResult result) {
         if (result.isSuccess()) {
-            return String.format("""
+            StringBuilder sb = new StringBuilder(String.format("""
                     ✓ Backup completed successfully!
                     File: %s
                     Size: %.2f MB
@@ -220,7 +1034,15 @@ public class BackupCommands {
                     """,
                     result.getBackupFilePath(),
                     result.getFileSizeBytes() / (1024.0 * 1024.0),
-                    result.getDurationMillis() / 1000.0);
+                    result.getDurationMillis() / 1000.0));
+            if (result.getDestinations() != null) {
+                for (DestinationResult destination : result.getDestinations()) {
+                    sb.append(String.format("  %s %s: %s%s%n", destination.isSuccess() ? "✓" : "✗",
+                            destination.getDestination(), destination.getMessage(),
+                            destination.isQueued() ? " (queued for retry)" : ""));
+                }
+            }
+            return sb.toString();
         } else {
             return String.format("✗ Backup failed: %s", result.getMessage());
         }
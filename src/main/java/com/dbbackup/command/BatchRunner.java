@@ -0,0 +1,206 @@
+package com.dbbackup.command;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.BackupManifest;
+import com.dbbackup.model.BackupResult;
+import com.dbbackup.model.DatabaseType;
+import com.dbbackup.model.DumpEngine;
+import com.dbbackup.model.ManifestJob;
+import com.dbbackup.model.StorageType;
+import com.dbbackup.model.SweepResult;
+import com.dbbackup.service.ManifestService;
+import com.dbbackup.service.SQLiteSweepService;
+import com.dbbackup.service.UploadQueueService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Locale;
+
+/**
+ * Non-interactive entry point of the {@code batch} profile, for cron jobs and containers.
+ * Runs the backup described by the command-line options, or every job of a manifest under its
+ * limits, or sweeps a directory tree of SQLite databases with {@code --sweep},
+ * waits for queued cloud uploads and lets the application exit: 0 when every backup succeeded,
+ * 1 when a backup or upload failed, 2 for invalid arguments.
+ */
+@Component
+@Profile("batch")
+@Slf4j
+@RequiredArgsConstructor
+public class BatchRunner implements ApplicationRunner, ExitCodeGenerator {
+
+    private final ManifestService manifestService;
+    private final SQLiteSweepService sqliteSweepService;
+    private final UploadQueueService uploadQueueService;
+    private final BackupProperties properties;
+    private int exitCode;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        String sweepRoot = option(args, "sweep");
+        if (sweepRoot != null) {
+            sweep(args, sweepRoot);
+            return;
+        }
+        BackupManifest manifest;
+        try {
+            String manifestFile = option(args, "manifest");
+            manifest = manifestFile != null ? manifestService.load(Path.of(manifestFile)) : fromOptions(args);
+        } catch (IllegalArgumentException | IOException e) {
+            log.error("✗ Invalid batch arguments: {}", e.getMessage());
+            exitCode = 2;
+            return;
+        }
+        List<BackupConfig> jobs = manifest.getJobs().stream().map(ManifestJob::getConfig).toList();
+
+        int failedUploads = uploadQueueService.isEnabled() ? uploadQueueService.failedCount() : 0;
+        int failed = 0;
+        boolean uploadsFailed = false;
+        for (Map.Entry<String, BackupResult> entry : manifestService.runAll(manifest).entrySet()) {
+            BackupResult result = entry.getValue();
+            if (result.isSuccess()) {
+                log.info("✓ {}: {} ({} bytes)", entry.getKey(), result.getBackupFilePath(), result.getFileSizeBytes());
+                if (result.getDestinations() != null) {
+                    result.getDestinations().forEach(destination -> log.info("  {} {}: {}",
+                            destination.isSuccess() ? "✓" : "✗", destination.getDestination(),
+                            destination.isQueued() ? destination.getMessage() + " (queued for retry)" : destination.getMessage()));
+                }
+            } else {
+                log.error("✗ {}: {}", entry.getKey(), result.getMessage());
+                failed++;
+            }
+        }
+
+        boolean uploads = jobs.stream().anyMatch(job -> job.getStorageType() != StorageType.LOCAL
+                || job.getDestinations() != null && !job.getDestinations().isEmpty());
+        if (uploads && uploadQueueService.isEnabled()) {
+            // The queue workers are daemon threads, so pending uploads would die with the JVM
+            if (!uploadQueueService.awaitDrained(properties.getBatch().getDrainTimeout())) {
+                log.error("✗ {} cloud uploads still pending after {}; they resume on the next start",
+                        uploadQueueService.pendingTasks().size(), properties.getBatch().getDrainTimeout());
+                uploadsFailed = true;
+            } else if (uploadQueueService.failedCount() > failedUploads) {
+                log.error("✗ {} cloud uploads failed", uploadQueueService.failedCount() - failedUploads);
+                uploadsFailed = true;
+            }
+        }
+        log.info("Batch finished: {} of {} backups succeeded", jobs.size() - failed, jobs.size());
+        exitCode = failed == 0 && !uploadsFailed ? 0 : 1;
+    }
+
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Backs up the changed SQLite databases under a directory, e.g.
+     * {@code --sweep=/srv/users --backup-path=/backups/users}
+     */
+    private void sweep(ApplicationArguments args, String root) throws IOException {
+        BackupConfig template = defaults();
+        template.setBackupPath(option(args, "backup-path", template.getBackupPath()));
+        template.setCompress(Boolean.parseBoolean(option(args, "compress", String.valueOf(template.isCompress()))));
+        template.setEncrypt(Boolean.parseBoolean(option(args, "encrypt", "false")));
+        template.setWriteBytesPerSecond(DataSize.parse(option(args, "write-limit", "0")).toBytes());
+        SweepResult result;
+        try {
+            result = sqliteSweepService.sweep(Path.of(root), template, false);
+        } catch (IllegalArgumentException e) {
+            log.error("✗ Invalid batch arguments: {}", e.getMessage());
+            exitCode = 2;
+            return;
+        }
+        result.getErrors().forEach(error -> log.error("✗ {}", error));
+        log.info("Batch finished: {} SQLite databases backed up, {} unchanged, {} failed",
+                result.getBackedUp(), result.getUnchanged(), result.getFailed());
+        exitCode = result.getFailed() == 0 ? 0 : 1;
+    }
+
+    /**
+     * Builds a single-job manifest from options named like those of the shell commands, e.g.
+     * {@code --db-type=postgresql --database=shop --username=backup --password-env=PGPASSWORD}
+     */
+    private BackupManifest fromOptions(ApplicationArguments args) {
+        BackupConfig config = defaults();
+        String type = option(args, "db-type");
+        if (type == null) {
+            throw new IllegalArgumentException("--db-type or --manifest is required");
+        }
+        config.setDatabaseType(DatabaseType.valueOf(type.toUpperCase(Locale.ROOT)));
+        config.setDatabaseName(option(args, "database"));
+        config.setHost(option(args, "host", "localhost"));
+        config.setPort(Integer.parseInt(option(args, "port", "0")));
+        config.setUsername(option(args, "username"));
+        config.setPassword(args.containsOption("password-env")
+                ? System.getenv(option(args, "password-env")) : option(args, "password"));
+        config.setBackupPath(option(args, "backup-path", config.getBackupPath()));
+        config.setCompress(Boolean.parseBoolean(option(args, "compress", String.valueOf(config.isCompress()))));
+        config.setEncrypt(Boolean.parseBoolean(option(args, "encrypt", "false")));
+        String engine = option(args, "engine");
+        config.setDumpEngine(engine != null ? DumpEngine.valueOf(engine.toUpperCase(Locale.ROOT)) : null);
+        config.setParallelism(Integer.parseInt(option(args, "parallelism", "0")));
+        config.setIncludeTables(patterns(option(args, "include")));
+        config.setExcludeTables(patterns(option(args, "exclude")));
+        config.setDictionary(option(args, "dictionary"));
+        config.setIncremental(Boolean.parseBoolean(option(args, "incremental", "false")));
+        config.setIndexedArchive(Boolean.parseBoolean(option(args, "indexed", "false")));
+        config.setDumpReadBytesPerSecond(DataSize.parse(option(args, "read-limit", "0")).toBytes());
+        config.setWriteBytesPerSecond(DataSize.parse(option(args, "write-limit", "0")).toBytes());
+        config.setUploadBytesPerSecond(DataSize.parse(option(args, "upload-limit", "0")).toBytes());
+        config.setStorageType(StorageType.valueOf(option(args, "storage", "LOCAL").toUpperCase(Locale.ROOT)));
+        config.setCloudBucket(option(args, "bucket"));
+        config.setCloudRegion(option(args, "region"));
+        config.setCloudAccessKey(option(args, "access-key"));
+        config.setCloudSecretKey(option(args, "secret-key"));
+        config.setCloudEndpoint(option(args, "endpoint"));
+        config.setCloudCredentialsFile(option(args, "credentials-file"));
+        if (config.getDatabaseName() == null) {
+            throw new IllegalArgumentException("--database is required");
+        }
+        if (config.getPort() == 0) {
+            config.setPort(config.getDatabaseType().getDefaultPort());
+        }
+        ManifestJob job = ManifestJob.builder().name(config.getDatabaseName()).config(config).build();
+        return BackupManifest.builder().source("command line").jobs(List.of(job)).maxParallel(1).build();
+    }
+
+    private BackupConfig defaults() {
+        BackupConfig config = new BackupConfig();
+        config.setBackupPath(properties.getDefaultPath());
+        config.setCompress(properties.isCompressionEnabled());
+        config.setStorageType(StorageType.LOCAL);
+        return config;
+    }
+
+    private static String option(ApplicationArguments args, String name) {
+        return option(args, name, null);
+    }
+
+    private static String option(ApplicationArguments args, String name, String defaultValue) {
+        List<String> values = args.getOptionValues(name);
+        return values == null || values.isEmpty() ? defaultValue : values.get(values.size() - 1);
+    }
+
+    private static List<String> patterns(String option) {
+        if (option == null || option.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(option.split(","))
+                .map(String::trim)
+                .filter(pattern -> !pattern.isEmpty())
+                .toList();
+    }
+}
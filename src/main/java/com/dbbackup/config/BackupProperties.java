@@ -0,0 +1,372 @@
+package com.dbbackup.config;
+
+import com.dbbackup.model.BackupDestination;
+import com.dbbackup.model.CompressionMode;
+import com.dbbackup.model.EncryptionAlgorithm;
+import com.dbbackup.model.SyncPolicy;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Application-wide backup settings bound from the {@code backup.*} properties
+ */
+@Data
+@ConfigurationProperties(prefix = "backup")
+public class BackupProperties {
+
+    private String defaultPath = "./backups";
+    private boolean compressionEnabled = true;
+    private int retentionDays = 30;
+    private Throttle throttle = new Throttle();
+    private Encryption encryption = new Encryption();
+    private Azure azure = new Azure();
+    private Gcs gcs = new Gcs();
+    private UploadQueue uploadQueue = new UploadQueue();
+    private JdbcDump jdbcDump = new JdbcDump();
+    private Resume resume = new Resume();
+    private Catalog catalog = new Catalog();
+    private Progress progress = new Progress();
+    private Compression compression = new Compression();
+    private Dictionary dictionary = new Dictionary();
+    private Batch batch = new Batch();
+    private Manifest manifest = new Manifest();
+    private Incremental incremental = new Incremental();
+    private Archive archive = new Archive();
+    private Pipeline pipeline = new Pipeline();
+    private FanOut fanOut = new FanOut();
+    /** Named destinations that backups can be replicated between */
+    private Map<String, BackupDestination> destinations = new LinkedHashMap<>();
+    private Replication replication = new Replication();
+    private Pacing pacing = new Pacing();
+    private Cluster cluster = new Cluster();
+    private Physical physical = new Physical();
+    private SqliteSweep sqliteSweep = new SqliteSweep();
+    private LocalWrite localWrite = new LocalWrite();
+
+    /**
+     * Global bandwidth limits shared by all running jobs, in bytes per second (0 = unlimited)
+     */
+    @Data
+    public static class Throttle {
+        private long dumpReadBytesPerSecond;
+        private long writeBytesPerSecond;
+        private long uploadBytesPerSecond;
+    }
+
+    /**
+     * Settings for the chunked authenticated encryption stage
+     */
+    @Data
+    public static class Encryption {
+        private EncryptionAlgorithm algorithm = EncryptionAlgorithm.AES_GCM;
+        private DataSize chunkSize = DataSize.ofMegabytes(1);
+        /** Encryption threads, 0 = one per available processor */
+        private int threads;
+        /** File holding the base64-encoded 256-bit master key used to wrap data keys */
+        private String masterKeyFile;
+        /** Environment variable holding the base64-encoded master key when no file is set */
+        private String masterKeyEnv = "BACKUP_MASTER_KEY";
+        private String keyId = "default";
+    }
+
+    /**
+     * Settings for staged block uploads to Azure Blob Storage
+     */
+    @Data
+    public static class Azure {
+        private DataSize blockSize = DataSize.ofMegabytes(8);
+        /** Blocks staged in parallel per upload */
+        private int concurrency = 4;
+    }
+
+    /**
+     * Settings for resumable uploads to Google Cloud Storage
+     */
+    @Data
+    public static class Gcs {
+        private String endpoint = "https://storage.googleapis.com";
+        /** Bytes sent per request, rounded down to a multiple of 256 KiB */
+        private DataSize chunkSize = DataSize.ofMegabytes(16);
+        /** Objects at least this large are uploaded as parallel composite uploads */
+        private DataSize compositeThreshold = DataSize.ofGigabytes(4);
+        /** Number of parts uploaded in parallel for a composite upload (max 32) */
+        private int compositeParts = 8;
+        /** Attempts per chunk before the upload is abandoned */
+        private int maxRetries = 8;
+    }
+
+    /**
+     * Settings for the persistent queue that decouples cloud uploads from backup runs
+     */
+    @Data
+    public static class UploadQueue {
+        /** Upload in the background instead of blocking the backup run */
+        private boolean enabled = true;
+        private String directory = "./backups/.upload-queue";
+        private int workers = 2;
+        private Duration initialBackoff = Duration.ofSeconds(30);
+        private Duration maxBackoff = Duration.ofHours(1);
+        /** Attempts before a task is moved to the failed folder (0 = retry forever) */
+        private int maxAttempts = 20;
+    }
+
+    /**
+     * Settings for the in-process JDBC dump engine
+     */
+    @Data
+    public static class JdbcDump {
+        /** Worker connections used when a job does not set its own parallelism */
+        private int parallelism = 4;
+        /** Rows fetched per round trip where the driver supports cursor fetching */
+        private int fetchSize = 10000;
+        /** Tables with more estimated rows are split into primary-key ranges of this size */
+        private long splitRows = 1_000_000;
+        /** Write buffer per worker */
+        private DataSize bufferSize = DataSize.ofMegabytes(1);
+        /** Upper bound for a single multi-row INSERT statement */
+        private DataSize maxStatementSize = DataSize.ofMegabytes(1);
+        private int rowsPerStatement = 1000;
+    }
+
+    /**
+     * Settings for resuming chunked backups that failed part way
+     */
+    @Data
+    public static class Resume {
+        /** Reuse the finished chunks of the last failed run of the same database */
+        private boolean enabled = true;
+        /** Failed runs started longer ago than this are not resumed */
+        private Duration maxAge = Duration.ofDays(2);
+    }
+
+    /**
+     * Settings for the catalog of past backup runs
+     */
+    @Data
+    public static class Catalog {
+        private String directory = "./backups/.catalog";
+        /** Runs kept per database */
+        private int historySize = 20;
+    }
+
+    /**
+     * Settings for live progress reporting of running backups
+     */
+    @Data
+    public static class Progress {
+        private Duration sampleInterval = Duration.ofSeconds(1);
+        /** A job that moves no bytes for this long is reported as stalled */
+        private Duration stallTimeout = Duration.ofSeconds(30);
+    }
+
+    /**
+     * Settings for the compression stage
+     */
+    @Data
+    public static class Compression {
+        private CompressionMode mode = CompressionMode.GZIP;
+        /** Choices tried by adaptive mode, as {@code codec:level} */
+        private List<String> candidates = new ArrayList<>(List.of(
+                "zstd:1", "zstd:3", "zstd:9", "zstd:15", "gzip:1", "gzip:6", "lz4"));
+        /** Uncompressed bytes per second the chosen codec must sustain */
+        private DataSize targetThroughput = DataSize.ofMegabytes(50);
+        /** Time the compression of one file may take; raises the target when needed (unset = none) */
+        private Duration timeBudget;
+        /** Data sampled for each decision */
+        private DataSize sampleSize = DataSize.ofMegabytes(4);
+        /** The level is chosen again after this much input */
+        private DataSize reevaluateInterval = DataSize.ofMegabytes(256);
+    }
+
+    /**
+     * Settings for trained zstd dictionaries
+     */
+    @Data
+    public static class Dictionary {
+        private String directory = "./backups/.dictionaries";
+        /** Upper bound for a trained dictionary */
+        private DataSize maxSize = DataSize.ofKilobytes(112);
+        /** Sample data read for training, spread over the sample files */
+        private DataSize maxSampleBytes = DataSize.ofMegabytes(128);
+        /** Sample files are cut into pieces of this size for training */
+        private DataSize sampleChunkSize = DataSize.ofKilobytes(64);
+        /** zstd level used with a dictionary */
+        private int level = 9;
+    }
+
+    /**
+     * Settings for the non-interactive batch mode
+     */
+    @Data
+    public static class Batch {
+        /** How long to wait for queued cloud uploads before exiting */
+        private Duration drainTimeout = Duration.ofMinutes(30);
+    }
+
+    /**
+     * Default limits for running the jobs of a backup manifest together
+     */
+    @Data
+    public static class Manifest {
+        private int maxParallel = 4;
+        /** 0 = no limit per database host */
+        private int maxPerHost = 2;
+    }
+
+    /**
+     * Settings for row-hash incremental backups of MySQL/PostgreSQL
+     */
+    @Data
+    public static class Incremental {
+        /** Primary-key values per hashed chunk; kept for a chain until its next full backup */
+        private long chunkWidth = 10_000;
+        /** Incremental backups after a full one before the next full backup is taken */
+        private int maxChain = 7;
+        /** Threads that decode backups and filter rows when a chain is compacted, 0 = one per processor */
+        private int compactionThreads;
+    }
+
+    /**
+     * Settings for seekable indexed archives
+     */
+    @Data
+    public static class Archive {
+        /** Codec of the blocks the archive compresses itself, as {@code codec:level} */
+        private String codec = "zstd:3";
+    }
+
+    /**
+     * Settings for the shared buffer pool that copies and compression stream through
+     */
+    @Data
+    public static class Pipeline {
+        /** Size of each pooled direct buffer */
+        private DataSize bufferSize = DataSize.ofKilobytes(256);
+        /** Buffers in the pool; buffer size times this is all the pipeline ever allocates */
+        private int maxBuffers = 64;
+        /** Buffers one job leases, at least two so that reads overlap the later stages */
+        private int buffersPerJob = 4;
+    }
+
+    /**
+     * Settings for copying one backup to several destinations at once
+     */
+    @Data
+    public static class FanOut {
+        /** How far one destination may fall behind the fastest before it holds the others back */
+        private DataSize maxLag = DataSize.ofMegabytes(32);
+        /** How long a destination may hold the others back before it is dropped */
+        private Duration stallTimeout = Duration.ofMinutes(5);
+    }
+
+    /**
+     * Settings for replicating backups between destinations
+     */
+    @Data
+    public static class Replication {
+        /** Objects copied at once, and parts of one object copied at once */
+        private int threads = 4;
+        /** Size of the ranges large objects are copied in */
+        private DataSize partSize = DataSize.ofMegabytes(64);
+    }
+
+    /**
+     * Load-aware pacing of dump reads; a threshold of zero is not checked
+     */
+    @Data
+    public static class Pacing {
+        private boolean enabled;
+        /** How often the source database is sampled */
+        private Duration interval = Duration.ofSeconds(5);
+        private Duration maxReplicationLag = Duration.ofSeconds(30);
+        private int maxActiveConnections;
+        private int maxLockWaits;
+        private int maxThreadsRunning;
+        /** Reads pause while a value is at least this multiple of its threshold */
+        private double pauseAbove = 2.0;
+        /** Reads speed up again while every value is below this fraction of its threshold */
+        private double resumeBelow = 0.8;
+        /** Slowest read rate before reads are paused */
+        private DataSize minRate = DataSize.ofMegabytes(1);
+    }
+
+    /**
+     * Settings for handing backup jobs to agents on other hosts
+     */
+    @Data
+    public static class Cluster {
+        /** Port the coordinator listens on, 0 = not a coordinator */
+        private int port;
+        /** Address the coordinator listens on, empty = all interfaces */
+        private String bindAddress = "";
+        /** Shared secret agents send with every request; a coordinator does not start without one */
+        private String token = "";
+        /** Coordinator the agent reports to, e.g. http://backup-coordinator:8765 */
+        private String coordinatorUrl;
+        /** Unique name of the agent, default host name and process id */
+        private String agentName;
+        /** Zone of the agent, matched against the zones of the databases */
+        private String zone;
+        /** Jobs the agent runs at once */
+        private int slots = 1;
+        private Duration heartbeatInterval = Duration.ofSeconds(5);
+        /** Agents silent for this long are considered lost and their jobs handed to others */
+        private Duration heartbeatTimeout = Duration.ofSeconds(30);
+        /** Times a job is handed out before it fails for good */
+        private int maxAttempts = 3;
+        /** Host globs of the databases in each zone, by zone */
+        private Map<String, List<String>> zones = new LinkedHashMap<>();
+    }
+
+    /**
+     * Settings for physical hot backups of MySQL/MariaDB (--engine PHYSICAL)
+     */
+    @Data
+    public static class Physical {
+        /** Backup tool for MariaDB servers */
+        private String mariabackupCommand = "mariabackup";
+        /** Backup tool for MySQL servers */
+        private String xtrabackupCommand = "xtrabackup";
+        /** Data files the tool copies at once */
+        private int parallel = 4;
+        /** Further options passed to the tool, e.g. --slave-info */
+        private List<String> extraOptions = new ArrayList<>();
+    }
+
+    /**
+     * Settings for sweeping a directory tree of SQLite databases
+     */
+    @Data
+    public static class SqliteSweep {
+        /** File name globs of the databases to back up */
+        private List<String> include = new ArrayList<>(List.of("*.db", "*.sqlite", "*.sqlite3"));
+        /** Threads that list directories and read database headers */
+        private int scanThreads = 8;
+        /** Changed databases backed up at once */
+        private int backupThreads = 4;
+    }
+
+    /**
+     * Settings for writing backup files to local disk
+     */
+    @Data
+    public static class LocalWrite {
+        /** When backup files are forced to disk */
+        private SyncPolicy sync = SyncPolicy.COMMIT;
+        /** Bytes written between forces with the PERIODIC policy */
+        private DataSize syncInterval = DataSize.ofMegabytes(64);
+        /** Rename finished .part files over the backup atomically and force the rename to disk */
+        private boolean atomicRename = true;
+        /** Check the free space for copies and set their length up front, as a size hint (sparse on most file systems) */
+        private boolean preallocate = true;
+        /** Bytes handed to the kernel per call for copies of uncompressed files */
+        private DataSize transferChunkSize = DataSize.ofMegabytes(8);
+    }
+}
@@ -2,22 +2,26 @@ package com.dbbackup.config;
 
 import com.dbbackup.service.BackupLogService;
 import com.dbbackup.service.BackupOrchestrator;
+import com.dbbackup.service.SyntheticFullService;
 import lombok.RequiredArgsConstructor;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.scheduling.quartz.SchedulerFactoryBean;
 
 /**
  * Configuration for Quartz scheduler
  */
 @Configuration
+@Profile("!batch & !agent")
 @RequiredArgsConstructor
 public class QuartzConfig {
 
     private final BackupOrchestrator backupOrchestrator;
     private final BackupLogService backupLogService;
+    private final SyntheticFullService syntheticFullService;
 
     @Bean
     public Scheduler scheduler(SchedulerFactoryBean schedulerFactoryBean) throws SchedulerException {
@@ -26,6 +30,7 @@ public class QuartzConfig {
         // Add services to scheduler context so they can be accessed by jobs
         scheduler.getContext().put("backupOrchestrator", backupOrchestrator);
         scheduler.getContext().put("backupLogService", backupLogService);
+        scheduler.getContext().put("syntheticFullService", syntheticFullService);
         
         return scheduler;
     }
@@ -0,0 +1,629 @@
+package com.dbbackup.dump;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges the scripts of an incremental chain into one full script, offline. Rows of the full
+ * backup and of every incremental backup are kept unless a later incremental backup deleted
+ * their key range, and the newest version of each changed range comes from the incremental
+ * backup that reloaded it last. Only scripts written by the JDBC dump engine can be merged:
+ * one row per line, in COPY blocks (PostgreSQL) or multi-row INSERT statements (MySQL).
+ * Rows are filtered in batches on an executor and written back in order.
+ */
+@Slf4j
+public class ChainMerger {
+
+    private static final String COPY = "COPY ";
+    private static final String INSERT = "INSERT INTO ";
+    private static final byte[] INSERT_END = ") VALUES".getBytes(StandardCharsets.US_ASCII);
+    private static final String DELETE = "DELETE FROM ";
+    private static final String SETVAL = "SELECT pg_catalog.setval(";
+    /** Statements of the incremental header and footer that have no meaning in a full script */
+    private static final List<String> TRANSACTION = List.of("SET ", "BEGIN;", "START TRANSACTION;", "COMMIT;");
+    private static final byte[] COPY_END = "\\.\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int BATCH_ROWS = 10_000;
+    private static final int TEXT_CHUNK = 1 << 20;
+
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final AtomicLong keptRows = new AtomicLong();
+    private final AtomicLong droppedRows = new AtomicLong();
+
+    /**
+     * @param executor    runs the scans of the incremental scripts and the row batches
+     * @param maxInFlight batches filtered ahead of the writer
+     */
+    public ChainMerger(ExecutorService executor, int maxInFlight) {
+        this.executor = executor;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Writes the synthetic full script
+     *
+     * @param full         the plain script of the full backup
+     * @param incrementals the plain scripts of the incremental backups, oldest first
+     * @param out          the synthetic full script
+     * @return the number of rows written
+     * @throws IOException if a script cannot be read, is not a JDBC engine script or the output fails
+     */
+    public long merge(Path full, List<Path> incrementals, OutputStream out) throws IOException {
+        // The deletes of every incremental script are needed before any row can be judged
+        List<Future<Scan>> scans = new ArrayList<>();
+        for (Path incremental : incrementals) {
+            scans.add(executor.submit(() -> scan(incremental)));
+        }
+        List<Scan> scanned = new ArrayList<>();
+        for (Future<Scan> scan : scans) {
+            scanned.add(await(scan));
+        }
+        // later.get(i) holds the deletes of every script after source i (0 = the full script)
+        List<Map<String, DeletedKeys>> later = new ArrayList<>();
+        Map<String, DeletedKeys> union = new HashMap<>();
+        later.add(0, union);
+        for (int i = scanned.size() - 1; i >= 0; i--) {
+            union = merged(union, scanned.get(i).deleted);
+            later.add(0, union);
+        }
+
+        Writer writer = new Writer(out);
+        try {
+            boolean changesWritten = false;
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            try (LineReader reader = new LineReader(full)) {
+                byte[] line;
+                while ((line = reader.next()) != null) {
+                    if (isBlockStart(line)) {
+                        writer.write(text);
+                        if (!changesWritten) {
+                            // Data of the incremental backups goes before that of the full one,
+                            // after the schema and before constraints and indexes
+                            for (int i = 0; i < incrementals.size(); i++) {
+                                copyBlocks(incrementals.get(i), later.get(i + 1), writer);
+                            }
+                            changesWritten = true;
+                        }
+                        block(line, reader, later.get(0), writer);
+                    } else {
+                        text.write(line);
+                        text.write('\n');
+                        if (text.size() >= TEXT_CHUNK) {
+                            writer.write(text);
+                        }
+                    }
+                }
+            }
+            if (!changesWritten) {
+                for (int i = 0; i < incrementals.size(); i++) {
+                    copyBlocks(incrementals.get(i), later.get(i + 1), writer);
+                }
+            }
+            // Sequence values of the newest backup win, so they are set after those of the full one
+            for (Scan scan : scanned) {
+                for (byte[] sequence : scan.sequences) {
+                    text.write(sequence);
+                    text.write('\n');
+                }
+            }
+            writer.write(text);
+            writer.drain();
+        } finally {
+            writer.cancel();
+        }
+        log.info("Merged a full and {} incremental backups: {} rows kept, {} replaced or deleted",
+                incrementals.size(), keptRows.get(), droppedRows.get());
+        return keptRows.get();
+    }
+
+    /**
+     * Reads the deletes and sequence values of an incremental script and checks that it holds
+     * nothing else but data
+     */
+    private Scan scan(Path incremental) throws IOException {
+        Scan scan = new Scan();
+        try (LineReader reader = new LineReader(incremental)) {
+            byte[] bytes;
+            while ((bytes = reader.next()) != null) {
+                if (isBlockStart(bytes)) {
+                    skipBlock(bytes, reader);
+                    continue;
+                }
+                String line = new String(bytes, StandardCharsets.UTF_8);
+                if (line.startsWith(DELETE)) {
+                    addDelete(scan.deleted, line);
+                } else if (line.startsWith(SETVAL)) {
+                    scan.sequences.add(bytes);
+                } else if (!line.isEmpty() && TRANSACTION.stream().noneMatch(line::startsWith)) {
+                    throw new IOException("Unexpected statement in incremental backup " + incremental.getFileName()
+                            + ": " + abbreviate(line));
+                }
+            }
+        }
+        return scan;
+    }
+
+    private void copyBlocks(Path incremental, Map<String, DeletedKeys> deleted, Writer writer) throws IOException {
+        try (LineReader reader = new LineReader(incremental)) {
+            byte[] line;
+            while ((line = reader.next()) != null) {
+                if (isBlockStart(line)) {
+                    block(line, reader, deleted, writer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one COPY block or INSERT statement and submits its rows in batches
+     */
+    private void block(byte[] headerLine, LineReader reader, Map<String, DeletedKeys> deleted, Writer writer)
+            throws IOException {
+        Header header = Header.parse(new String(headerLine, StandardCharsets.UTF_8));
+        DeletedKeys keys = deleted.get(header.table);
+        int keyIndex = keys == null || keys.all ? -1 : header.columns.indexOf(keys.column);
+        if (keys != null && !keys.all && keyIndex < 0) {
+            throw new IOException("Key column " + keys.column + " not found in " + header.table);
+        }
+        List<byte[]> rows = new ArrayList<>();
+        byte[] line;
+        while ((line = reader.next()) != null) {
+            boolean last;
+            if (header.copy) {
+                if (isCopyEnd(line)) {
+                    break;
+                }
+                rows.add(line);
+                last = false;
+            } else {
+                if (line.length == 0 || line[0] != '(') {
+                    throw new IOException("Unexpected line in the data of " + header.table);
+                }
+                // Every row but the last ends with a comma; the separator is written again later
+                last = line[line.length - 1] == ';';
+                rows.add(Arrays.copyOf(line, line.length - 1));
+            }
+            if (rows.size() >= BATCH_ROWS) {
+                submitBatch(headerLine, header, rows, keys, keyIndex, writer);
+                rows = new ArrayList<>();
+            }
+            if (last) {
+                break;
+            }
+        }
+        if (line == null) {
+            throw new IOException("Script ends inside the data of " + header.table);
+        }
+        submitBatch(headerLine, header, rows, keys, keyIndex, writer);
+    }
+
+    private void submitBatch(byte[] headerLine, Header header, List<byte[]> rows, DeletedKeys keys, int keyIndex,
+                             Writer writer) throws IOException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        writer.submit(() -> {
+            ByteArrayOutputStream batch = new ByteArrayOutputStream(rows.size() * 64);
+            int kept = 0;
+            for (byte[] row : rows) {
+                if (keys != null && (keys.all || keys.contains(key(row, header.copy, keyIndex)))) {
+                    continue;
+                }
+                if (kept == 0) {
+                    batch.write(headerLine);
+                    batch.write('\n');
+                } else if (!header.copy) {
+                    batch.write(',');
+                    batch.write('\n');
+                }
+                batch.write(row);
+                if (header.copy) {
+                    batch.write('\n');
+                }
+                kept++;
+            }
+            if (kept > 0) {
+                if (header.copy) {
+                    batch.write(COPY_END);
+                } else {
+                    batch.write(';');
+                    batch.write('\n');
+                }
+            }
+            keptRows.addAndGet(kept);
+            droppedRows.addAndGet(rows.size() - kept);
+            return batch.toByteArray();
+        });
+    }
+
+    private static void skipBlock(byte[] headerLine, LineReader reader) throws IOException {
+        boolean copy = startsWith(headerLine, COPY);
+        byte[] line;
+        while ((line = reader.next()) != null) {
+            if (copy ? isCopyEnd(line) : line.length > 0 && line[line.length - 1] == ';') {
+                return;
+            }
+        }
+        throw new IOException("Script ends inside a data block");
+    }
+
+    /**
+     * Reads the key of a row: a tab-separated COPY line, or a parenthesized INSERT tuple whose
+     * strings are quoted with backslash escapes
+     */
+    private static long key(byte[] row, boolean copy, int index) throws IOException {
+        int start = copy ? 0 : 1;
+        int field = 0;
+        boolean quoted = false;
+        for (int i = start; i <= row.length; i++) {
+            byte b = i < row.length ? row[i] : (byte) (copy ? '\t' : ',');
+            if (!copy && quoted) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '\'') {
+                    quoted = false;
+                }
+                continue;
+            }
+            if (!copy && b == '\'') {
+                quoted = true;
+            } else if (b == (copy ? '\t' : ',') || (!copy && b == ')' && i == row.length - 1)) {
+                if (field == index) {
+                    String value = new String(row, start, i - start, StandardCharsets.US_ASCII).trim();
+                    try {
+                        return Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Row key is not an integer: " + abbreviate(value));
+                    }
+                }
+                field++;
+                start = i + 1;
+            }
+        }
+        throw new IOException("Row has no column " + (index + 1) + ": " + abbreviate(new String(row, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Parses a delete written by the incremental dump:
+     * {@code DELETE FROM <table>[ WHERE <key> >= <lower>[ AND <key> < <upper>]];}
+     */
+    private static void addDelete(Map<String, DeletedKeys> deleted, String line) throws IOException {
+        Cursor cursor = new Cursor(line, DELETE.length());
+        String table = cursor.identifier();
+        if (cursor.skip(";")) {
+            deleted.computeIfAbsent(table, key -> new DeletedKeys(null)).all = true;
+            return;
+        }
+        cursor.expect(" WHERE ");
+        String column = cursor.identifier();
+        cursor.expect(" >= ");
+        long lower = cursor.number();
+        Long upper = null;
+        if (cursor.skip(" AND ")) {
+            cursor.expect(column);
+            cursor.expect(" < ");
+            upper = cursor.number();
+        }
+        cursor.expect(";");
+        DeletedKeys keys = deleted.computeIfAbsent(table, key -> new DeletedKeys(column));
+        if (keys.column == null) {
+            keys.column = column;
+        }
+        keys.add(lower, upper);
+    }
+
+    private static Map<String, DeletedKeys> merged(Map<String, DeletedKeys> a, Map<String, DeletedKeys> b) {
+        Map<String, DeletedKeys> result = new HashMap<>();
+        for (Map<String, DeletedKeys> source : List.of(a, b)) {
+            source.forEach((table, keys) -> {
+                DeletedKeys target = result.computeIfAbsent(table, key -> new DeletedKeys(keys.column));
+                if (target.column == null) {
+                    target.column = keys.column;
+                }
+                target.all |= keys.all;
+                keys.ranges.forEach(target::add);
+            });
+        }
+        return result;
+    }
+
+    private static boolean isCopyEnd(byte[] line) {
+        return line.length == 2 && line[0] == '\\' && line[1] == '.';
+    }
+
+    private static boolean isBlockStart(byte[] line) {
+        // Inserts in trigger and routine bodies are passed through like any other statement
+        return startsWith(line, COPY) || startsWith(line, INSERT) && endsWith(line, INSERT_END);
+    }
+
+    private static boolean endsWith(byte[] line, byte[] suffix) {
+        return line.length >= suffix.length
+                && Arrays.equals(line, line.length - suffix.length, line.length, suffix, 0, suffix.length);
+    }
+
+    private static boolean startsWith(byte[] line, String prefix) {
+        if (line.length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String abbreviate(String text) {
+        return text.length() > 120 ? text.substring(0, 120) + "..." : text;
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while merging backups");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Failed to merge backups", e.getCause());
+        }
+    }
+
+    /**
+     * Deletes and sequence values found in one incremental script
+     */
+    private static class Scan {
+        private final Map<String, DeletedKeys> deleted = new HashMap<>();
+        private final List<byte[]> sequences = new ArrayList<>();
+    }
+
+    /**
+     * Key ranges deleted from one table, kept merged so that a lookup checks one range
+     */
+    private static class DeletedKeys {
+        private String column;
+        private boolean all;
+        /** Lower bound to exclusive upper bound, null for no upper bound */
+        private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+        DeletedKeys(String column) {
+            this.column = column;
+        }
+
+        void add(long lower, Long upper) {
+            Map.Entry<Long, Long> entry = ranges.floorEntry(lower);
+            if (entry != null && (entry.getValue() == null || entry.getValue() >= lower)) {
+                lower = entry.getKey();
+                upper = max(upper, entry.getValue());
+                ranges.remove(entry.getKey());
+            }
+            while ((entry = ranges.ceilingEntry(lower)) != null && (upper == null || entry.getKey() <= upper)) {
+                upper = max(upper, entry.getValue());
+                ranges.remove(entry.getKey());
+            }
+            ranges.put(lower, upper);
+        }
+
+        boolean contains(long key) {
+            Map.Entry<Long, Long> entry = ranges.floorEntry(key);
+            return entry != null && (entry.getValue() == null || key < entry.getValue());
+        }
+
+        private static Long max(Long a, Long b) {
+            return a == null || b == null ? null : Math.max(a, b);
+        }
+    }
+
+    /**
+     * Table and columns of a {@code COPY <table> (<columns>) FROM stdin;} or
+     * {@code INSERT INTO <table> (<columns>) VALUES} line
+     */
+    private static class Header {
+        private boolean copy;
+        private String table;
+        private final List<String> columns = new ArrayList<>();
+
+        static Header parse(String line) throws IOException {
+            Header header = new Header();
+            header.copy = line.startsWith(COPY);
+            Cursor cursor = new Cursor(line, header.copy ? COPY.length() : INSERT.length());
+            header.table = cursor.identifier();
+            cursor.expect(" (");
+            do {
+                cursor.skip(" ");
+                header.columns.add(cursor.identifier());
+            } while (cursor.skip(","));
+            cursor.expect(header.copy ? ") FROM stdin;" : ") VALUES");
+            return header;
+        }
+    }
+
+    /**
+     * Reads quoted identifiers, keywords and numbers from a statement
+     */
+    private static class Cursor {
+        private final String line;
+        private int position;
+
+        Cursor(String line, int position) {
+            this.line = line;
+            this.position = position;
+        }
+
+        /**
+         * Reads a possibly qualified identifier as written, quotes included
+         */
+        String identifier() throws IOException {
+            int start = position;
+            char quote = 0;
+            while (position < line.length()) {
+                char c = line.charAt(position);
+                if (quote != 0) {
+                    // A doubled quote stands for the quote character itself
+                    if (c == quote && !(position + 1 < line.length() && line.charAt(position + 1) == quote)) {
+                        quote = 0;
+                    } else if (c == quote) {
+                        position++;
+                    }
+                } else if (c == '"' || c == '`') {
+                    quote = c;
+                } else if (c == ' ' || c == ',' || c == ')' || c == ';') {
+                    break;
+                }
+                position++;
+            }
+            if (position == start || quote != 0) {
+                throw new IOException("Cannot read identifier in: " + abbreviate(line));
+            }
+            return line.substring(start, position);
+        }
+
+        long number() throws IOException {
+            int start = position;
+            if (position < line.length() && line.charAt(position) == '-') {
+                position++;
+            }
+            while (position < line.length() && Character.isDigit(line.charAt(position))) {
+                position++;
+            }
+            try {
+                return Long.parseLong(line.substring(start, position));
+            } catch (NumberFormatException e) {
+                throw new IOException("Cannot read number in: " + abbreviate(line));
+            }
+        }
+
+        boolean skip(String token) {
+            if (line.startsWith(token, position)) {
+                position += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        void expect(String token) throws IOException {
+            if (!skip(token)) {
+                throw new IOException("Expected '" + token + "' in: " + abbreviate(line));
+            }
+        }
+    }
+
+    /**
+     * Writes text and filtered batches in submission order, keeping a bounded number of batches
+     * in flight
+     */
+    private class Writer {
+        private final OutputStream out;
+        private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+
+        Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(ByteArrayOutputStream text) throws IOException {
+            if (text.size() > 0) {
+                inFlight.add(CompletableFuture.completedFuture(text.toByteArray()));
+                text.reset();
+                flushReady();
+            }
+        }
+
+        void submit(Callable<byte[]> batch) throws IOException {
+            inFlight.add(executor.submit(batch));
+            flushReady();
+        }
+
+        private void flushReady() throws IOException {
+            while (!inFlight.isEmpty() && (inFlight.size() > maxInFlight || inFlight.peekFirst().isDone())) {
+                out.write(await(inFlight.pollFirst()));
+            }
+        }
+
+        void drain() throws IOException {
+            while (!inFlight.isEmpty()) {
+                out.write(await(inFlight.pollFirst()));
+            }
+        }
+
+        void cancel() {
+            inFlight.forEach(future -> future.cancel(true));
+            inFlight.clear();
+        }
+    }
+
+    /**
+     * Reads a script line by line as bytes, so that rows are never decoded
+     */
+    private static class LineReader implements AutoCloseable {
+        private final InputStream in;
+        private final byte[] buffer = new byte[65536];
+        private int position;
+        private int limit;
+        private byte[] line = new byte[1024];
+
+        LineReader(Path file) throws IOException {
+            this.in = Files.newInputStream(file);
+        }
+
+        /**
+         * @return the next line without its line feed, or null at the end
+         */
+        byte[] next() throws IOException {
+            int length = 0;
+            while (true) {
+                if (position == limit) {
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return length > 0 ? Arrays.copyOf(line, length) : null;
+                    }
+                }
+                int end = position;
+                while (end < limit && buffer[end] != '\n') {
+                    end++;
+                }
+                int n = end - position;
+                if (length + n > line.length) {
+                    line = Arrays.copyOf(line, Math.max(line.length * 2, length + n));
+                }
+                System.arraycopy(buffer, position, line, length, n);
+                length += n;
+                position = end;
+                if (end < limit) {
+                    position++;
+                    return Arrays.copyOf(line, length);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.dbbackup.dump;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Row hashes of a database at its latest backup, for incremental backups. Every table is
+ * hashed in chunks of {@code chunkWidth} primary-key values (chunk {@code n} holds the keys in
+ * {@code [n * chunkWidth, (n + 1) * chunkWidth)}); tables without a split column are one chunk.
+ * The index also lists the chain of backups, full backup first, that restores the state it
+ * describes.
+ */
+public class ChunkHashIndex {
+
+    @Getter
+    private final long chunkWidth;
+    private final Map<String, TableHashes> tables = new TreeMap<>();
+    @Getter
+    @Setter
+    private List<String> chain = new ArrayList<>();
+    @Getter
+    @Setter
+    private Instant createdAt = Instant.now();
+
+    public ChunkHashIndex(long chunkWidth) {
+        this.chunkWidth = chunkWidth;
+    }
+
+    /**
+     * Loads an index
+     *
+     * @param file the index file
+     * @return the index, or null if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    public static ChunkHashIndex load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        ChunkHashIndex index = new ChunkHashIndex(Long.parseLong(properties.getProperty("chunk-width")));
+        index.createdAt = Instant.parse(properties.getProperty("created"));
+        int links = Integer.parseInt(properties.getProperty("chain", "0"));
+        for (int i = 0; i < links; i++) {
+            index.chain.add(properties.getProperty("chain." + i));
+        }
+        TableHashes[] byNumber = new TableHashes[Integer.parseInt(properties.getProperty("tables", "0"))];
+        for (int i = 0; i < byNumber.length; i++) {
+            String prefix = "table." + i + ".";
+            byNumber[i] = index.table(properties.getProperty(prefix + "name"), properties.getProperty(prefix + "signature"));
+        }
+        for (String key : properties.stringPropertyNames()) {
+            // table.<number>.chunk.<chunk>
+            int chunkAt = key.indexOf(".chunk.");
+            if (key.startsWith("table.") && chunkAt > 0) {
+                byNumber[Integer.parseInt(key.substring(6, chunkAt))].getChunks()
+                        .put(Long.parseLong(key.substring(chunkAt + 7)), properties.getProperty(key));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Writes the index, replacing the file atomically
+     *
+     * @param file the index file
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("chunk-width", String.valueOf(chunkWidth));
+        properties.setProperty("created", createdAt.toString());
+        properties.setProperty("chain", String.valueOf(chain.size()));
+        for (int i = 0; i < chain.size(); i++) {
+            properties.setProperty("chain." + i, chain.get(i));
+        }
+        properties.setProperty("tables", String.valueOf(tables.size()));
+        int i = 0;
+        for (TableHashes table : tables.values()) {
+            String prefix = "table." + i++ + ".";
+            properties.setProperty(prefix + "name", table.getName());
+            properties.setProperty(prefix + "signature", table.getSignature());
+            table.getChunks().forEach((chunk, hash) -> properties.setProperty(prefix + "chunk." + chunk, hash));
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = Path.of(file + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "Row hashes by primary-key chunk");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the hashes of a table, adding the table if it is new
+     *
+     * @param name      the qualified table name
+     * @param signature the table's column names and types, to detect schema changes
+     * @return the hashes
+     */
+    public synchronized TableHashes table(String name, String signature) {
+        return tables.computeIfAbsent(name, key -> new TableHashes(key, signature));
+    }
+
+    public TableHashes get(String name) {
+        return tables.get(name);
+    }
+
+    public Collection<TableHashes> getTables() {
+        return tables.values();
+    }
+
+    /**
+     * Explains why a newer index cannot be stored as changes on top of this one
+     *
+     * @param current the hashes of the database now
+     * @return the reason, or null if the tables and their columns are unchanged
+     */
+    public String incompatibility(ChunkHashIndex current) {
+        if (chunkWidth != current.chunkWidth) {
+            return "chunk width changed";
+        }
+        if (!tables.keySet().equals(current.tables.keySet())) {
+            return "tables were added or removed";
+        }
+        for (TableHashes table : current.tables.values()) {
+            if (!Objects.equals(table.getSignature(), tables.get(table.getName()).getSignature())) {
+                return "columns of " + table.getName() + " changed";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hashes of one table: row count and row hash sum by chunk number, as {@code rows:hash}
+     */
+    @Getter
+    public static class TableHashes {
+        private final String name;
+        private final String signature;
+        private final TreeMap<Long, String> chunks = new TreeMap<>();
+
+        TableHashes(String name, String signature) {
+            this.name = name;
+            this.signature = signature;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.dbbackup.dump;
+
+import com.dbbackup.model.BackupConfig;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Database-specific parts of the JDBC dump engine: catalog queries, snapshot handling,
+ * schema output and the row output format
+ */
+public interface DumpDialect {
+
+    /**
+     * Checks if this dialect handles the database type of the given configuration
+     *
+     * @param config the backup configuration
+     * @return true if supported
+     */
+    boolean supports(BackupConfig config);
+
+    String jdbcUrl(BackupConfig config);
+
+    /**
+     * Quotes an identifier
+     */
+    String quote(String identifier);
+
+    /**
+     * Quotes the (possibly schema-qualified) name of a table
+     */
+    default String quote(TableInfo table) {
+        return table.getSchema() != null ? quote(table.getSchema()) + "." + quote(table.getName()) : quote(table.getName());
+    }
+
+    /**
+     * Briefly blocks writes so that all worker snapshots start at the same point, when the
+     * database offers no way to share a snapshot. Returns false if the lock is not available.
+     */
+    default boolean lockForSnapshot(Connection connection) {
+        return false;
+    }
+
+    default void unlockAfterSnapshot(Connection connection) throws SQLException {
+    }
+
+    /**
+     * Starts a consistent read-only transaction on a connection
+     *
+     * @param snapshotId a snapshot exported by the coordinator to attach to, or null
+     */
+    void beginSnapshot(Connection connection, String snapshotId) throws SQLException;
+
+    /**
+     * Exports the coordinator's snapshot so workers can share it, or returns null if the
+     * database cannot share snapshots between sessions
+     */
+    default String exportSnapshot(Connection connection) throws SQLException {
+        return null;
+    }
+
+    /**
+     * Lists the base tables of the database with their size estimates
+     */
+    List<TableInfo> listTables(Connection connection, BackupConfig config) throws SQLException;
+
+    /**
+     * Builds the select list of a table's dump: every column except generated ones, which the
+     * database computes again when the rows are loaded
+     *
+     * @return the quoted columns, comma-separated, in table order
+     */
+    String selectList(Connection connection, TableInfo table) throws SQLException;
+
+    /**
+     * Writes everything that must exist before data is loaded
+     */
+    void writePreData(Connection connection, List<TableInfo> tables, SqlByteWriter writer)
+            throws SQLException, IOException;
+
+    /**
+     * Writes everything that is cheaper to create after data is loaded (constraints, indexes)
+     */
+    void writePostData(Connection connection, List<TableInfo> tables, SqlByteWriter writer)
+            throws SQLException, IOException;
+
+    /**
+     * Writes the objects of the database other than tables, e.g. views, triggers and routines,
+     * at the end of a dump of the whole database. Triggers are written only for the given tables.
+     */
+    default void writeDatabaseObjects(Connection connection, List<TableInfo> tables, SqlByteWriter writer)
+            throws SQLException, IOException {
+    }
+
+    /**
+     * Writes the post-data of one table for an archive that restores tables individually.
+     * Foreign keys go to their own writer, since they can only be added once every table they
+     * reference is complete.
+     */
+    default void writeTablePostData(Connection connection, TableInfo table, SqlByteWriter writer,
+                                    SqlByteWriter foreignKeys) throws SQLException, IOException {
+        writePostData(connection, List.of(table), writer);
+    }
+
+    /**
+     * Enables row streaming on a statement instead of materializing the whole result
+     */
+    void enableStreaming(Statement statement, int fetchSize) throws SQLException;
+
+    /**
+     * Writes all rows of a result set in the dialect's load format
+     *
+     * @return the number of rows written
+     */
+    long writeRows(ResultSet rows, TableInfo table, SqlByteWriter writer) throws SQLException, IOException;
+
+    /**
+     * Builds a query that hashes a table on the server, returning one row per chunk of
+     * {@code chunkWidth} split column values: the chunk number (key divided by the width,
+     * rounded down), its row count and the sum of a 64-bit hash of every row, as text.
+     * Tables without a split column are returned as the single chunk 0.
+     */
+    String chunkHashQuery(Connection connection, TableInfo table, long chunkWidth) throws SQLException;
+
+    /**
+     * Writes the start of an incremental script, which deletes and reloads key ranges of
+     * existing tables and so has to run with foreign key checks off
+     */
+    void writeIncrementalHeader(SqlByteWriter writer) throws IOException;
+
+    /**
+     * Writes the end of an incremental script, e.g. advancing sequences past the reloaded keys
+     */
+    void writeIncrementalFooter(Connection connection, List<TableInfo> tables, SqlByteWriter writer)
+            throws SQLException, IOException;
+}
@@ -0,0 +1,28 @@
+package com.dbbackup.dump;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome of an incremental JDBC dump: either a full dump that starts a new chain, or the
+ * changed key ranges since the previous backup. The hash index only replaces the previous one
+ * once the backup is committed.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IncrementalDump {
+    private Path output;
+    private boolean full;
+    /** Why a full dump was taken, null for incremental ones */
+    private String reason;
+    private ChunkHashIndex index;
+    private long rows;
+    private long chunks;
+    private long changedChunks;
+}
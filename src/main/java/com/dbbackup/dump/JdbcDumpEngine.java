@@ -0,0 +1,665 @@
+package com.dbbackup.dump;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.io.CompressionFrames;
+import com.dbbackup.io.DurableFile;
+import com.dbbackup.io.IndexedArchive;
+import com.dbbackup.io.IndexedArchiveWriter;
+import com.dbbackup.io.WorkerGate;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.ThrottleStage;
+import com.dbbackup.service.EncryptionService;
+import com.dbbackup.service.LocalWriteService;
+import com.dbbackup.service.ProgressService;
+import com.dbbackup.service.ThrottleService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Logical dump engine that reads tables over JDBC instead of spawning a dump tool.
+ * Large tables are split into primary-key ranges and dumped by parallel worker connections
+ * that share one consistent snapshot; each unit is written to its own part file, and the parts
+ * are concatenated in order into a single restorable script. Finished parts are recorded in a
+ * {@link ProgressJournal} so that a failed dump can be resumed. Incremental dumps export only
+ * the key ranges whose row hashes changed since the previous backup. Instead of a script, the
+ * parts can be written as an {@link IndexedArchive} from which single tables are restored.
+ */
+@Service
+@Slf4j
+public class JdbcDumpEngine {
+
+    private static final String PARTS_SUFFIX = ".parts";
+    private static final String INDEX_SUFFIX = ".chunks";
+
+    private final List<DumpDialect> dialects;
+    private final BackupProperties.JdbcDump settings;
+    private final BackupProperties.Resume resume;
+    private final BackupProperties.Incremental incremental;
+    private final Path catalogDirectory;
+    private final CompressionFrames.Choice archiveCodec;
+    private final ThrottleService throttleService;
+    private final ProgressService progressService;
+    private final LocalWriteService localWriteService;
+    private final ThreadLocal<byte[]> buffers;
+
+    public JdbcDumpEngine(List<DumpDialect> dialects, BackupProperties properties, ThrottleService throttleService,
+                          ProgressService progressService, LocalWriteService localWriteService) {
+        this.dialects = dialects;
+        this.settings = properties.getJdbcDump();
+        this.resume = properties.getResume();
+        this.incremental = properties.getIncremental();
+        this.catalogDirectory = Path.of(properties.getCatalog().getDirectory());
+        this.archiveCodec = CompressionFrames.Choice.parse(properties.getArchive().getCodec());
+        this.throttleService = throttleService;
+        this.progressService = progressService;
+        this.localWriteService = localWriteService;
+        this.buffers = ThreadLocal.withInitial(() -> new byte[(int) settings.getBufferSize().toBytes()]);
+    }
+
+    /**
+     * Dumps the configured database into a single SQL file, or an indexed archive if the
+     * backup asks for one
+     *
+     * @param config the backup configuration
+     * @param output the file to write
+     * @return the number of rows dumped
+     * @throws IOException  if the dump cannot be written
+     * @throws SQLException if the database cannot be read
+     */
+    public long dump(BackupConfig config, Path output) throws IOException, SQLException {
+        DumpDialect dialect = dialectFor(config);
+        int parallelism = Math.max(1, config.getParallelism() > 0 ? config.getParallelism() : settings.getParallelism());
+        Path partsDirectory = output.resolveSibling(output.getFileName() + PARTS_SUFFIX);
+        Files.createDirectories(partsDirectory);
+        ProgressJournal journal = ProgressJournal.open(partsDirectory, config.instanceKey());
+
+        boolean complete = false;
+        try (SnapshotSession session = SnapshotSession.open(dialect, config, parallelism)) {
+            Connection coordinator = session.getCoordinator();
+            List<TableInfo> tables = TableFilter.of(config).apply(dialect.listTables(coordinator, config));
+            List<WorkUnit> units;
+            if (journal.hasPlan()) {
+                units = journal.reconcile(tables);
+            } else {
+                units = session.plan(tables, settings.getSplitRows());
+                journal.savePlan(units);
+            }
+            List<WorkUnit> pending = new ArrayList<>();
+            long resumedRows = 0;
+            for (WorkUnit unit : units) {
+                if (journal.isComplete(unit, unitPath(partsDirectory, unit))) {
+                    resumedRows += journal.completedRows(unit);
+                } else {
+                    pending.add(unit);
+                }
+            }
+            progressService.estimateDumpBytes(config, SnapshotSession.estimatedBytes(units, pending));
+            if (pending.size() < units.size()) {
+                // Redone chunks read a newer snapshot than the reused ones
+                log.warn("Resuming JDBC dump of {}: reusing {} of {} chunks; chunks are consistent individually "
+                        + "but not with each other", config.getDatabaseName(), units.size() - pending.size(), units.size());
+            }
+            log.info("JDBC dump of {}: {} tables in {} units over {} connections",
+                    config.getDatabaseName(), tables.size(), pending.size(), session.getParallelism());
+
+            // An indexed archive keeps the schema of each table in blocks of its own
+            boolean indexed = config.isIndexedArchive();
+            Path preData = partsDirectory.resolve("pre-data.sql");
+            localWriteService.write(preData, config, out -> {
+                SqlByteWriter writer = new SqlByteWriter(out, buffers.get());
+                dialect.writePreData(coordinator, indexed ? List.of() : tables, writer);
+                writer.flush();
+                return null;
+            });
+
+            long rows = resumedRows + session.run(pending, throttleService.workers(config), (connection, unit) -> {
+                Path part = unitPath(partsDirectory, unit);
+                MessageDigest digest = ProgressJournal.newDigest();
+                long count = dumpUnit(dialect, config, connection, unit, part, digest);
+                journal.markDone(unit, part, count, digest);
+                return count;
+            });
+
+            Path postData = partsDirectory.resolve("post-data.sql");
+            localWriteService.write(postData, config, out -> {
+                SqlByteWriter writer = new SqlByteWriter(out, buffers.get());
+                dialect.writePostData(coordinator, indexed ? List.of() : tables, writer);
+                if (TableFilter.of(config).isEmpty()) {
+                    dialect.writeDatabaseObjects(coordinator, tables, writer);
+                } else {
+                    log.warn("JDBC dump of {} selects tables; views, triggers and routines are left out",
+                            config.getDatabaseName());
+                }
+                writer.flush();
+                return null;
+            });
+
+            if (indexed) {
+                writeArchive(dialect, config, coordinator, tables, units, partsDirectory, output);
+            } else {
+                List<Path> parts = new ArrayList<>();
+                parts.add(preData);
+                units.forEach(unit -> parts.add(unitPath(partsDirectory, unit)));
+                parts.add(postData);
+                concatenate(parts, output);
+            }
+            complete = true;
+            log.info("JDBC dump of {} completed: {} rows", config.getDatabaseName(), rows);
+            return rows;
+        } finally {
+            journal.close();
+            // Finished chunks of a failed run are kept for the next attempt
+            if (complete || !journal.hasPlan()) {
+                deleteDirectory(partsDirectory);
+            }
+        }
+    }
+
+    /**
+     * Dumps only the key ranges whose rows changed since the previous backup of the database.
+     * Every table is hashed on the server in chunks of primary-key values and compared with
+     * the {@link ChunkHashIndex} of the previous backup; the output deletes each changed or
+     * emptied range and reloads the changed ones, so the chain of backups restores the
+     * database when applied in order. A full dump is taken instead when there is nothing
+     * usable to compare with. The new index takes effect with {@link #commitIncremental}.
+     *
+     * @param config the backup configuration
+     * @param output the file to write a full dump to; changes go to a {@code .incr.sql} file next to it
+     * @return the dump
+     * @throws IOException  if the dump cannot be written
+     * @throws SQLException if the database cannot be read
+     */
+    public IncrementalDump dumpIncremental(BackupConfig config, Path output) throws IOException, SQLException {
+        DumpDialect dialect = dialectFor(config);
+        int parallelism = Math.max(1, config.getParallelism() > 0 ? config.getParallelism() : settings.getParallelism());
+        ChunkHashIndex previous = ChunkHashIndex.load(indexPath(config));
+        ChunkHashIndex current;
+        String reason;
+        try (SnapshotSession session = SnapshotSession.open(dialect, config, parallelism)) {
+            List<TableInfo> tables = TableFilter.of(config).apply(dialect.listTables(session.getCoordinator(), config));
+            current = hashTables(session, dialect, tables, Math.max(1, incremental.getChunkWidth()),
+                    throttleService.workers(config));
+            reason = fullDumpReason(previous, current);
+            if (reason == null) {
+                current.setChain(new ArrayList<>(previous.getChain()));
+                String name = output.getFileName().toString().replaceFirst("\\.sql$", "") + ".incr.sql";
+                return dumpChanges(session, dialect, config, tables, previous, current, output.resolveSibling(name));
+            }
+        }
+        // Hashed before the dump, so rows changed in between are merely exported again next time
+        log.info("Full JDBC dump of {} to start a new incremental chain: {}", config.getDatabaseName(), reason);
+        long rows = dump(config, output);
+        long chunks = current.getTables().stream().mapToLong(table -> table.getChunks().size()).sum();
+        return IncrementalDump.builder()
+                .output(output)
+                .full(true)
+                .reason(reason)
+                .index(current)
+                .rows(rows)
+                .chunks(chunks)
+                .changedChunks(chunks)
+                .build();
+    }
+
+    /**
+     * Makes the hash index of a finished incremental dump the one the next backup compares with
+     *
+     * @param config       the backup configuration
+     * @param dump         the dump
+     * @param artifactPath the backup file the dump was stored as
+     * @throws IOException if the index cannot be written
+     */
+    public void commitIncremental(BackupConfig config, IncrementalDump dump, String artifactPath) throws IOException {
+        ChunkHashIndex index = dump.getIndex();
+        index.getChain().add(artifactPath);
+        index.save(indexPath(config));
+    }
+
+    /**
+     * Returns the backups that restore a database's latest incremental backup, full backup first
+     *
+     * @param config the host, port and name of the database
+     * @return the backup files in the order to apply them, empty if there is no chain
+     * @throws IOException if the hash index cannot be read
+     */
+    public List<String> incrementalChain(BackupConfig config) throws IOException {
+        ChunkHashIndex index = ChunkHashIndex.load(indexPath(config));
+        return index != null ? index.getChain() : List.of();
+    }
+
+    /**
+     * Replaces a database's chain with a single backup that restores the same state, such as a
+     * synthetic full backup merged from the chain. The row hashes stay, since they describe
+     * that state, so the next incremental backup builds on the new backup.
+     *
+     * @param config       the host, port and name of the database
+     * @param expected     the chain the backup was made from
+     * @param artifactPath the backup replacing the chain
+     * @throws IOException if the chain changed in the meantime or the index cannot be written
+     */
+    public synchronized void replaceChain(BackupConfig config, List<String> expected, String artifactPath)
+            throws IOException {
+        ChunkHashIndex index = ChunkHashIndex.load(indexPath(config));
+        if (index == null || !index.getChain().equals(expected)) {
+            throw new IOException("The chain of " + config.instanceKey() + " changed while it was merged");
+        }
+        index.setChain(new ArrayList<>(List.of(artifactPath)));
+        index.save(indexPath(config));
+    }
+
+    private String fullDumpReason(ChunkHashIndex previous, ChunkHashIndex current) {
+        if (previous == null || previous.getChain().isEmpty()) {
+            return "no previous backup to compare with";
+        }
+        if (previous.getChain().size() > incremental.getMaxChain()) {
+            return "chain reached " + incremental.getMaxChain() + " incremental backups";
+        }
+        for (String artifact : previous.getChain()) {
+            if (!Files.exists(Path.of(artifact)) && !Files.exists(Path.of(artifact + EncryptionService.SUFFIX))) {
+                return "backup " + artifact + " of the chain is missing";
+            }
+        }
+        return previous.incompatibility(current);
+    }
+
+    private ChunkHashIndex hashTables(SnapshotSession session, DumpDialect dialect, List<TableInfo> tables,
+                                      long chunkWidth, WorkerGate gate) throws IOException, SQLException {
+        long start = System.currentTimeMillis();
+        ChunkHashIndex index = new ChunkHashIndex(chunkWidth);
+        List<WorkUnit> units = new ArrayList<>();
+        // Partitioned tables are hashed through their partitions
+        tables.stream().filter(table -> !table.isPartitioned())
+                .forEach(table -> units.add(WorkUnit.builder().table(table).build()));
+        units.sort(Comparator.comparingLong((WorkUnit unit) -> unit.getTable().getEstimatedBytes()).reversed());
+        long chunks = session.run(units, gate, (connection, unit) -> {
+            TableInfo table = unit.getTable();
+            ChunkHashIndex.TableHashes hashes = index.table(table.qualifiedName(), signature(dialect, connection, table));
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(dialect.chunkHashQuery(connection, table, chunkWidth))) {
+                while (rs.next()) {
+                    hashes.getChunks().put(rs.getLong(1), rs.getLong(2) + ":" + rs.getString(3));
+                }
+            }
+            return hashes.getChunks().size();
+        });
+        log.info("Hashed {} tables in {} chunks in {} ms", tables.size(), chunks, System.currentTimeMillis() - start);
+        return index;
+    }
+
+    /**
+     * Describes the columns of a table, so that a schema change forces a full dump
+     */
+    private String signature(DumpDialect dialect, Connection connection, TableInfo table) throws SQLException {
+        StringBuilder signature = new StringBuilder("key ").append(table.getSplitColumn());
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT * FROM " + dialect.quote(table) + " WHERE 1 = 0")) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                signature.append(", ").append(metaData.getColumnName(i)).append(' ').append(metaData.getColumnTypeName(i))
+                        .append('(').append(metaData.getPrecision(i)).append(',').append(metaData.getScale(i)).append(')');
+            }
+        }
+        return signature.toString();
+    }
+
+    private IncrementalDump dumpChanges(SnapshotSession session, DumpDialect dialect, BackupConfig config,
+                                        List<TableInfo> tables, ChunkHashIndex previous, ChunkHashIndex current,
+                                        Path output) throws IOException, SQLException {
+        long width = current.getChunkWidth();
+        List<WorkUnit> deletes = new ArrayList<>();
+        List<WorkUnit> exports = new ArrayList<>();
+        long chunks = 0;
+        long changedChunks = 0;
+        long estimatedBytes = 0;
+        for (TableInfo table : tables) {
+            if (table.isPartitioned()) {
+                continue;
+            }
+            Map<Long, String> before = previous.get(table.qualifiedName()).getChunks();
+            Map<Long, String> after = current.get(table.qualifiedName()).getChunks();
+            TreeSet<Long> changed = new TreeSet<>();
+            before.forEach((chunk, hash) -> {
+                if (!hash.equals(after.get(chunk))) {
+                    changed.add(chunk);
+                }
+            });
+            after.keySet().stream().filter(chunk -> !before.containsKey(chunk)).forEach(changed::add);
+            chunks += after.size();
+            changedChunks += changed.size();
+            if (changed.isEmpty()) {
+                continue;
+            }
+            if (table.getSplitColumn() == null) {
+                deletes.add(WorkUnit.builder().table(table).build());
+                exports.add(WorkUnit.builder().table(table).build());
+                estimatedBytes += table.getEstimatedBytes();
+                continue;
+            }
+
+            // Runs of adjacent chunks become one range; ranges that are empty now are only deleted
+            long tableRows = after.values().stream().mapToLong(JdbcDumpEngine::chunkRows).sum();
+            long exportedRows = 0;
+            Long first = null;
+            long last = 0;
+            boolean hasRows = false;
+            for (Long chunk : changed) {
+                if (first != null && chunk != last + 1) {
+                    addRange(table, first, last, width, hasRows, deletes, exports);
+                    first = null;
+                }
+                if (first == null) {
+                    first = chunk;
+                    hasRows = false;
+                }
+                last = chunk;
+                if (after.containsKey(chunk)) {
+                    hasRows = true;
+                    exportedRows += chunkRows(after.get(chunk));
+                }
+            }
+            addRange(table, first, last, width, hasRows, deletes, exports);
+            estimatedBytes += tableRows > 0 ? (long) ((double) table.getEstimatedBytes() * exportedRows / tableRows) : 0;
+        }
+        for (int i = 0; i < exports.size(); i++) {
+            exports.get(i).setIndex(i);
+        }
+        progressService.estimateDumpBytes(config, estimatedBytes);
+        log.info("Incremental JDBC dump of {}: {} of {} chunks changed, {} ranges to reload",
+                config.getDatabaseName(), changedChunks, chunks, exports.size());
+
+        Path partsDirectory = output.resolveSibling(output.getFileName() + PARTS_SUFFIX);
+        Files.createDirectories(partsDirectory);
+        try {
+            // Every delete comes before every reload, so ranges can be applied in any order
+            Path header = partsDirectory.resolve("pre-data.sql");
+            localWriteService.write(header, config, out -> {
+                SqlByteWriter writer = new SqlByteWriter(out, buffers.get());
+                dialect.writeIncrementalHeader(writer);
+                for (WorkUnit delete : deletes) {
+                    writeDelete(dialect, delete, writer);
+                }
+                writer.raw((byte) '\n');
+                writer.flush();
+                return null;
+            });
+
+            long rows = session.run(exports, throttleService.workers(config), (connection, unit) ->
+                    dumpUnit(dialect, config, connection, unit, unitPath(partsDirectory, unit), null));
+
+            Path footer = partsDirectory.resolve("post-data.sql");
+            localWriteService.write(footer, config, out -> {
+                SqlByteWriter writer = new SqlByteWriter(out, buffers.get());
+                dialect.writeIncrementalFooter(session.getCoordinator(), tables, writer);
+                writer.flush();
+                return null;
+            });
+
+            List<Path> parts = new ArrayList<>();
+            parts.add(header);
+            exports.forEach(unit -> parts.add(unitPath(partsDirectory, unit)));
+            parts.add(footer);
+            concatenate(parts, output);
+            log.info("Incremental JDBC dump of {} completed: {} rows", config.getDatabaseName(), rows);
+            return IncrementalDump.builder()
+                    .output(output)
+                    .index(current)
+                    .rows(rows)
+                    .chunks(chunks)
+                    .changedChunks(changedChunks)
+                    .build();
+        } finally {
+            deleteDirectory(partsDirectory);
+        }
+    }
+
+    private static void addRange(TableInfo table, long first, long last, long width, boolean hasRows,
+                                 List<WorkUnit> deletes, List<WorkUnit> exports) {
+        // Clamped at the ends of the key space instead of overflowing
+        long lower = first < Long.MIN_VALUE / width ? Long.MIN_VALUE : first * width;
+        Long upper = last >= Long.MAX_VALUE / width ? null : (last + 1) * width;
+        WorkUnit range = WorkUnit.builder().table(table).lowerBound(lower).upperBound(upper).build();
+        deletes.add(range);
+        if (hasRows) {
+            exports.add(WorkUnit.builder().table(table).lowerBound(lower).upperBound(upper).build());
+        }
+    }
+
+    private static long chunkRows(String hash) {
+        return Long.parseLong(hash.substring(0, hash.indexOf(':')));
+    }
+
+    private void writeDelete(DumpDialect dialect, WorkUnit unit, SqlByteWriter writer) throws IOException {
+        writer.ascii("DELETE FROM ").utf8(dialect.quote(unit.getTable()));
+        if (unit.isRange()) {
+            String column = dialect.quote(unit.getTable().getSplitColumn());
+            writer.ascii(" WHERE ").utf8(column).ascii(" >= ").number(unit.getLowerBound());
+            if (unit.getUpperBound() != null) {
+                writer.ascii(" AND ").utf8(column).ascii(" < ").number(unit.getUpperBound());
+            }
+        }
+        writer.ascii(";\n");
+    }
+
+    /**
+     * Hash index of a database, kept per server so that databases of the same name on different
+     * servers have chains of their own
+     */
+    private Path indexPath(BackupConfig config) {
+        return catalogDirectory.resolve(config.instanceKey().replaceAll("[^A-Za-z0-9._-]", "_") + INDEX_SUFFIX);
+    }
+
+    /**
+     * Returns the output of the last failed run of the database when it can be resumed,
+     * or the given output otherwise
+     *
+     * @param config        the backup configuration
+     * @param defaultOutput the output for a new run, named {@code <database>_<timestamp><suffix>}
+     * @param suffix        the output name suffix
+     * @return the output to dump to
+     * @throws IOException if the backup directory cannot be listed
+     */
+    public Path resumeOrDefault(BackupConfig config, Path defaultOutput, String suffix) throws IOException {
+        if (!resume.isEnabled()) {
+            return defaultOutput;
+        }
+        return ProgressJournal.findIncompleteRun(defaultOutput.getParent(), config.getDatabaseName(),
+                        config.instanceKey(), suffix + PARTS_SUFFIX, resume.getMaxAge())
+                .map(parts -> {
+                    String name = parts.getFileName().toString();
+                    log.info("Resuming failed run {}", parts);
+                    return parts.resolveSibling(name.substring(0, name.length() - PARTS_SUFFIX.length()));
+                })
+                .orElse(defaultOutput);
+    }
+
+    /**
+     * Lists the tables selected by the include/exclude filters of a backup, e.g. to pass them
+     * to a native dump tool that has no pattern matching of its own
+     *
+     * @param config the backup configuration
+     * @return the selected tables, largest first
+     * @throws SQLException if the catalog cannot be read
+     */
+    public List<TableInfo> listTables(BackupConfig config) throws SQLException {
+        DumpDialect dialect = dialectFor(config);
+        try (Connection connection = DriverManager.getConnection(dialect.jdbcUrl(config),
+                config.getUsername(), config.getPassword())) {
+            List<TableInfo> tables = new ArrayList<>(TableFilter.of(config).apply(dialect.listTables(connection, config)));
+            tables.sort(Comparator.comparingLong(TableInfo::getEstimatedBytes).reversed());
+            return tables;
+        }
+    }
+
+    private DumpDialect dialectFor(BackupConfig config) {
+        return dialects.stream()
+                .filter(candidate -> candidate.supports(config))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "JDBC dump engine does not support " + config.getDatabaseType()));
+    }
+
+    private long dumpUnit(DumpDialect dialect, BackupConfig config, Connection connection, WorkUnit unit,
+                          Path part, MessageDigest digest) throws IOException, SQLException {
+        long start = System.currentTimeMillis();
+        TableInfo table = unit.getTable();
+        StringBuilder sql = new StringBuilder("SELECT ").append(dialect.selectList(connection, table))
+                .append(" FROM ").append(dialect.quote(table));
+        if (unit.isRange()) {
+            sql.append(" WHERE ").append(unit.rangeCondition(dialect.quote(table.getSplitColumn())));
+        }
+
+        long rowCount;
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString(),
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            dialect.enableStreaming(statement, settings.getFetchSize());
+            rowCount = localWriteService.write(part, config, digest, file -> {
+                try (OutputStream out = throttleService.throttle(file, ThrottleStage.DUMP_READ, config)) {
+                    SqlByteWriter writer = new SqlByteWriter(out, buffers.get());
+                    long count;
+                    try (ResultSet rows = statement.executeQuery()) {
+                        count = dialect.writeRows(rows, table, writer);
+                    }
+                    writer.flush();
+                    return count;
+                }
+            });
+        }
+        log.debug("Dumped {}: {} rows in {} ms", unit.describe(), rowCount, System.currentTimeMillis() - start);
+        return rowCount;
+    }
+
+    private Path unitPath(Path partsDirectory, WorkUnit unit) {
+        return partsDirectory.resolve(String.format("%06d.sql", unit.getIndex()));
+    }
+
+    /**
+     * Writes the parts as an {@link IndexedArchive} in restore order: the database header,
+     * the schema of each table, the data, the constraints and indexes of each table, their
+     * foreign keys and the database footer
+     */
+    private void writeArchive(DumpDialect dialect, BackupConfig config, Connection coordinator, List<TableInfo> tables,
+                              List<WorkUnit> units, Path partsDirectory, Path output) throws IOException, SQLException {
+        List<Path> preParts = new ArrayList<>();
+        List<Path> postParts = new ArrayList<>();
+        List<Path> foreignKeyParts = new ArrayList<>();
+        for (int i = 0; i < tables.size(); i++) {
+            Path pre = partsDirectory.resolve(String.format("pre-%06d.sql", i));
+            Path post = partsDirectory.resolve(String.format("post-%06d.sql", i));
+            Path foreignKeys = partsDirectory.resolve(String.format("fk-%06d.sql", i));
+            TableInfo table = tables.get(i);
+            localWriteService.write(pre, config, out -> {
+                SqlByteWriter writer = new SqlByteWriter(out, buffers.get());
+                dialect.writePreData(coordinator, List.of(table), writer);
+                writer.flush();
+                return null;
+            });
+            // Constraints and foreign keys come from one pass over the table
+            localWriteService.write(post, config, postOut ->
+                    localWriteService.write(foreignKeys, config, foreignKeyOut -> {
+                        SqlByteWriter writer = new SqlByteWriter(postOut, buffers.get());
+                        SqlByteWriter foreignKeyWriter = new SqlByteWriter(foreignKeyOut, new byte[8192]);
+                        dialect.writeTablePostData(coordinator, table, writer, foreignKeyWriter);
+                        writer.flush();
+                        foreignKeyWriter.flush();
+                        return null;
+                    }));
+            preParts.add(pre);
+            postParts.add(post);
+            foreignKeyParts.add(foreignKeys);
+        }
+
+        try (DurableFile durable = localWriteService.create(output, -1)) {
+            try (IndexedArchiveWriter archive = new IndexedArchiveWriter(throttleService.throttle(
+                    new BufferedOutputStream(durable.outputStream(), 65536), ThrottleStage.LOCAL_WRITE, config),
+                    archiveCodec)) {
+                archive.addCompressed(IndexedArchive.DATABASE, IndexedArchive.PRE_DATA, partsDirectory.resolve("pre-data.sql"));
+                for (int i = 0; i < tables.size(); i++) {
+                    archive.addCompressed(objectName(tables.get(i)), IndexedArchive.PRE_DATA, preParts.get(i));
+                }
+                for (WorkUnit unit : units) {
+                    archive.addCompressed(objectName(unit.getTable()), IndexedArchive.DATA,
+                            unitPath(partsDirectory, unit));
+                }
+                for (List<Path> parts : List.of(postParts, foreignKeyParts)) {
+                    for (int i = 0; i < tables.size(); i++) {
+                        Path part = parts.get(i);
+                        if (Files.size(part) > 0) {
+                            archive.addCompressed(objectName(tables.get(i)), IndexedArchive.POST_DATA, part);
+                        }
+                    }
+                }
+                Path postData = partsDirectory.resolve("post-data.sql");
+                if (Files.size(postData) > 0) {
+                    archive.addCompressed(IndexedArchive.DATABASE, IndexedArchive.POST_DATA, postData);
+                }
+                log.info("Indexed archive of {}: {} blocks", config.getDatabaseName(), archive.getBlocks().size());
+            }
+            durable.commit();
+        }
+    }
+
+    /**
+     * Name of a table in an indexed archive: {@code schema.table}, or the table name alone
+     */
+    static String objectName(TableInfo table) {
+        return table.getSchema() != null ? table.getSchema() + "." + table.getName() : table.getName();
+    }
+
+    private void concatenate(List<Path> parts, Path output) throws IOException {
+        long total = 0;
+        for (Path part : parts) {
+            total += Files.size(part);
+        }
+        try (DurableFile target = localWriteService.create(output, total)) {
+            for (Path part : parts) {
+                try (FileChannel source = FileChannel.open(part, StandardOpenOption.READ)) {
+                    long size = source.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += target.transferFrom(source, position, size - position);
+                    }
+                }
+            }
+            target.commit();
+        }
+    }
+
+    static void deleteDirectory(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    log.warn("Failed to delete dump part {}", path);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Failed to clean up dump parts in {}", directory, e);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package com.dbbackup.dump;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.DatabaseType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * MySQL/MariaDB dialect: multi-row INSERT statements, values copied as the raw bytes
+ * returned by the text protocol
+ */
+@Component
+@Slf4j
+public class MySQLDumpDialect implements DumpDialect {
+
+    /** Connection attribute {@code program_name} of the dump connections, so that the load monitor can leave them out */
+    public static final String APPLICATION_NAME = PostgreSQLDumpDialect.APPLICATION_NAME;
+
+    private static final Set<String> INTEGER_TYPES = Set.of("tinyint", "smallint", "mediumint", "int", "bigint");
+
+    private static final SqlByteWriter.ByteEscaper STRING_ESCAPER = (writer, b) -> {
+        switch (b) {
+            case 0 -> writer.raw((byte) '\\').raw((byte) '0');
+            case '\'' -> writer.raw((byte) '\\').raw((byte) '\'');
+            case '\\' -> writer.raw((byte) '\\').raw((byte) '\\');
+            case '\n' -> writer.raw((byte) '\\').raw((byte) 'n');
+            case '\r' -> writer.raw((byte) '\\').raw((byte) 'r');
+            case 0x1A -> writer.raw((byte) '\\').raw((byte) 'Z');
+            default -> writer.raw(b);
+        }
+    };
+
+    private final BackupProperties.JdbcDump settings;
+
+    public MySQLDumpDialect(BackupProperties properties) {
+        this.settings = properties.getJdbcDump();
+    }
+
+    @Override
+    public boolean supports(BackupConfig config) {
+        return config.getDatabaseType() == DatabaseType.MYSQL
+                || config.getDatabaseType() == DatabaseType.MARIADB;
+    }
+
+    @Override
+    public String jdbcUrl(BackupConfig config) {
+        // tinyInt1isBit=false keeps TINYINT(1) numeric so its text value is copied unchanged
+        return String.format("jdbc:mysql://%s:%d/%s?characterEncoding=UTF-8&tinyInt1isBit=false"
+                        + "&connectionAttributes=program_name:%s",
+                config.getHost(), config.getPort(), config.getDatabaseName(), APPLICATION_NAME);
+    }
+
+    @Override
+    public String quote(String identifier) {
+        return "`" + identifier.replace("`", "``") + "`";
+    }
+
+    @Override
+    public boolean lockForSnapshot(Connection connection) {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("FLUSH TABLES WITH READ LOCK");
+            return true;
+        } catch (SQLException e) {
+            log.warn("FLUSH TABLES WITH READ LOCK not permitted, worker snapshots may differ slightly: {}",
+                    e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void unlockAfterSnapshot(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("UNLOCK TABLES");
+        }
+    }
+
+    @Override
+    public void beginSnapshot(Connection connection, String snapshotId) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // TIMESTAMP values are read in UTC, and the dump header loads them in UTC
+            statement.execute("SET time_zone = '+00:00'");
+            statement.execute("SET SESSION TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+            statement.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT, READ ONLY");
+        }
+    }
+
+    @Override
+    public List<TableInfo> listTables(Connection connection, BackupConfig config) throws SQLException {
+        Map<String, String> splitColumns = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement("""
+                SELECT k.TABLE_NAME, MIN(k.COLUMN_NAME), MIN(c.DATA_TYPE), COUNT(*)
+                FROM information_schema.KEY_COLUMN_USAGE k
+                JOIN information_schema.COLUMNS c
+                  ON c.TABLE_SCHEMA = k.TABLE_SCHEMA AND c.TABLE_NAME = k.TABLE_NAME AND c.COLUMN_NAME = k.COLUMN_NAME
+                WHERE k.TABLE_SCHEMA = ? AND k.CONSTRAINT_NAME = 'PRIMARY'
+                GROUP BY k.TABLE_NAME
+                """)) {
+            statement.setString(1, config.getDatabaseName());
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    if (rs.getInt(4) == 1 && INTEGER_TYPES.contains(rs.getString(3).toLowerCase())) {
+                        splitColumns.put(rs.getString(1), rs.getString(2));
+                    }
+                }
+            }
+        }
+
+        List<TableInfo> tables = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("""
+                SELECT TABLE_NAME, COALESCE(TABLE_ROWS, 0), COALESCE(DATA_LENGTH, 0)
+                FROM information_schema.TABLES
+                WHERE TABLE_SCHEMA = ? AND TABLE_TYPE = 'BASE TABLE'
+                ORDER BY TABLE_NAME
+                """)) {
+            statement.setString(1, config.getDatabaseName());
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    tables.add(TableInfo.builder()
+                            .name(rs.getString(1))
+                            .estimatedRows(rs.getLong(2))
+                            .estimatedBytes(rs.getLong(3))
+                            .splitColumn(splitColumns.get(rs.getString(1)))
+                            .build());
+                }
+            }
+        }
+        return tables;
+    }
+
+    @Override
+    public String selectList(Connection connection, TableInfo table) throws SQLException {
+        // Columns with an expression default show DEFAULT_GENERATED and are dumped
+        List<String> columns = new ArrayList<>();
+        for (String[] column : list(connection, """
+                SELECT COLUMN_NAME FROM information_schema.COLUMNS
+                WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?
+                  AND EXTRA NOT LIKE '%VIRTUAL GENERATED%' AND EXTRA NOT LIKE '%STORED GENERATED%'
+                ORDER BY ORDINAL_POSITION
+                """, table.getName())) {
+            columns.add(quote(column[0]));
+        }
+        return String.join(",", columns);
+    }
+
+    @Override
+    public void writePreData(Connection connection, List<TableInfo> tables, SqlByteWriter writer)
+            throws SQLException, IOException {
+        writer.ascii("SET NAMES utf8mb4;\n")
+                .ascii("SET TIME_ZONE='+00:00';\n")
+                .ascii("SET FOREIGN_KEY_CHECKS=0;\n")
+                .ascii("SET UNIQUE_CHECKS=0;\n")
+                .ascii("SET SQL_MODE='NO_AUTO_VALUE_ON_ZERO';\n\n");
+        try (Statement statement = connection.createStatement()) {
+            for (TableInfo table : tables) {
+                try (ResultSet rs = statement.executeQuery("SHOW CREATE TABLE " + quote(table))) {
+                    if (rs.next()) {
+                        writer.ascii("DROP TABLE IF EXISTS ").utf8(quote(table)).ascii(";\n")
+                                .utf8(rs.getString(2)).ascii(";\n\n");
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void writePostData(Connection connection, List<TableInfo> tables, SqlByteWriter writer) throws IOException {
+        writer.ascii("SET UNIQUE_CHECKS=1;\n").ascii("SET FOREIGN_KEY_CHECKS=1;\n");
+    }
+
+    /**
+     * Writes routines, then views, then the triggers of the dumped tables, each in the SQL mode
+     * it was created with. Views are first created as stand-in tables, as mysqldump does, so
+     * that views referring to other views can be created in any order. Routine and trigger
+     * bodies are delimited by {@code ;;}, so the script is restored with the {@code mysql} client.
+     */
+    @Override
+    public void writeDatabaseObjects(Connection connection, List<TableInfo> tables, SqlByteWriter writer)
+            throws SQLException, IOException {
+        try (Statement statement = connection.createStatement()) {
+            for (String[] routine : list(connection, """
+                    SELECT ROUTINE_TYPE, ROUTINE_NAME FROM information_schema.ROUTINES
+                    WHERE ROUTINE_SCHEMA = DATABASE() ORDER BY ROUTINE_TYPE, ROUTINE_NAME
+                    """, null)) {
+                try (ResultSet rs = statement.executeQuery("SHOW CREATE " + routine[0] + " " + quote(routine[1]))) {
+                    if (rs.next() && rs.getString(3) != null) {
+                        writeCompound(writer, rs.getString(2),
+                                "DROP " + routine[0] + " IF EXISTS " + quote(routine[1]), rs.getString(3));
+                    } else {
+                        // The definition is shown only to its definer and to users with SHOW_ROUTINE
+                        log.warn("No privilege to read the definition of {} {}, left out of the dump",
+                                routine[0].toLowerCase(), routine[1]);
+                    }
+                }
+            }
+
+            List<String[]> views = list(connection, """
+                    SELECT TABLE_NAME FROM information_schema.VIEWS
+                    WHERE TABLE_SCHEMA = DATABASE() ORDER BY TABLE_NAME
+                    """, null);
+            for (String[] view : views) {
+                writer.ascii("DROP VIEW IF EXISTS ").utf8(quote(view[0])).ascii(";\n")
+                        .ascii("DROP TABLE IF EXISTS ").utf8(quote(view[0])).ascii(";\n")
+                        .ascii("CREATE TABLE ").utf8(quote(view[0])).ascii(" (");
+                List<String[]> columns = list(connection, """
+                        SELECT COLUMN_NAME FROM information_schema.COLUMNS
+                        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? ORDER BY ORDINAL_POSITION
+                        """, view[0]);
+                for (int i = 0; i < columns.size(); i++) {
+                    writer.ascii(i > 0 ? ", " : "").utf8(quote(columns.get(i)[0])).ascii(" TINYINT");
+                }
+                writer.ascii(");\n");
+            }
+            for (String[] view : views) {
+                try (ResultSet rs = statement.executeQuery("SHOW CREATE VIEW " + quote(view[0]))) {
+                    if (rs.next()) {
+                        writer.ascii("\nDROP TABLE IF EXISTS ").utf8(quote(view[0])).ascii(";\n")
+                                .utf8(rs.getString(2)).ascii(";\n");
+                    }
+                }
+            }
+            writer.raw((byte) '\n');
+
+            Set<String> dumped = new HashSet<>();
+            tables.forEach(table -> dumped.add(table.getName()));
+            for (String[] trigger : list(connection, """
+                    SELECT TRIGGER_NAME, EVENT_OBJECT_TABLE FROM information_schema.TRIGGERS
+                    WHERE TRIGGER_SCHEMA = DATABASE() ORDER BY EVENT_OBJECT_TABLE, ACTION_ORDER
+                    """, null)) {
+                if (!dumped.contains(trigger[1])) {
+                    continue;
+                }
+                try (ResultSet rs = statement.executeQuery("SHOW CREATE TRIGGER " + quote(trigger[0]))) {
+                    if (rs.next()) {
+                        writeCompound(writer, rs.getString(2), "DROP TRIGGER IF EXISTS " + quote(trigger[0]),
+                                rs.getString(3));
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeCompound(SqlByteWriter writer, String sqlMode, String drop, String create) throws IOException {
+        writer.ascii("SET SESSION SQL_MODE='").utf8(sqlMode.replace("'", "''")).ascii("';\n")
+                .utf8(drop).ascii(";\n")
+                .ascii("DELIMITER ;;\n").utf8(create).ascii(" ;;\n").ascii("DELIMITER ;\n\n");
+    }
+
+    private List<String[]> list(Connection connection, String sql, String parameter) throws SQLException {
+        List<String[]> rows = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            if (parameter != null) {
+                statement.setString(1, parameter);
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                int columns = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    String[] row = new String[columns];
+                    for (int i = 0; i < columns; i++) {
+                        row[i] = rs.getString(i + 1);
+                    }
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public String chunkHashQuery(Connection connection, TableInfo table, long chunkWidth) throws SQLException {
+        // ISNULL marks keep NULL apart from empty values, which CONCAT_WS would both skip
+        StringBuilder row = new StringBuilder("CONCAT_WS('|'");
+        try (PreparedStatement statement = connection.prepareStatement("""
+                SELECT COLUMN_NAME FROM information_schema.COLUMNS
+                WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?
+                ORDER BY ORDINAL_POSITION
+                """)) {
+            statement.setString(1, table.getName());
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    String column = quote(rs.getString(1));
+                    row.append(", ").append(column).append(", ISNULL(").append(column).append(")");
+                }
+            }
+        }
+        row.append(")");
+        // The first 64 bits of each row's MD5, summed so that row order does not matter
+        String hash = "CAST(COALESCE(SUM(CAST(CONV(LEFT(MD5(" + row + "), 16), 16, 10) AS UNSIGNED)), 0) AS CHAR)";
+        if (table.getSplitColumn() == null) {
+            return "SELECT 0, COUNT(*), " + hash + " FROM " + quote(table);
+        }
+        // DIV truncates towards zero, so negative keys are moved down one chunk
+        String column = quote(table.getSplitColumn());
+        String chunk = "(" + column + " DIV " + chunkWidth + " - (" + column + " MOD " + chunkWidth + " < 0))";
+        return "SELECT " + chunk + ", COUNT(*), " + hash + " FROM " + quote(table) + " GROUP BY 1";
+    }
+
+    @Override
+    public void writeIncrementalHeader(SqlByteWriter writer) throws IOException {
+        writer.ascii("SET NAMES utf8mb4;\n")
+                .ascii("SET TIME_ZONE='+00:00';\n")
+                .ascii("SET FOREIGN_KEY_CHECKS=0;\n")
+                .ascii("SET SQL_MODE='NO_AUTO_VALUE_ON_ZERO';\n")
+                .ascii("START TRANSACTION;\n\n");
+    }
+
+    @Override
+    public void writeIncrementalFooter(Connection connection, List<TableInfo> tables, SqlByteWriter writer)
+            throws IOException {
+        // Reloaded rows move AUTO_INCREMENT forward on their own
+        writer.ascii("COMMIT;\n").ascii("SET FOREIGN_KEY_CHECKS=1;\n");
+    }
+
+    @Override
+    public void enableStreaming(Statement statement, int fetchSize) throws SQLException {
+        // Connector/J streams rows one at a time only with this special fetch size
+        statement.setFetchSize(Integer.MIN_VALUE);
+    }
+
+    @Override
+    public long writeRows(ResultSet rows, TableInfo table, SqlByteWriter writer) throws SQLException, IOException {
+        ResultSetMetaData metaData = rows.getMetaData();
+        int columns = metaData.getColumnCount();
+        ValueKind[] kinds = new ValueKind[columns + 1];
+        StringBuilder prefix = new StringBuilder("INSERT INTO ").append(quote(table)).append(" (");
+        for (int i = 1; i <= columns; i++) {
+            kinds[i] = ValueKind.of(metaData.getColumnType(i), metaData.getColumnTypeName(i));
+            prefix.append(i > 1 ? "," : "").append(quote(metaData.getColumnName(i)));
+        }
+        byte[] insertPrefix = prefix.append(") VALUES\n").toString().getBytes(StandardCharsets.UTF_8);
+
+        long maxStatementBytes = settings.getMaxStatementSize().toBytes();
+        long rowCount = 0;
+        int rowsInStatement = 0;
+        long statementStart = 0;
+        while (rows.next()) {
+            if (rowsInStatement == 0) {
+                statementStart = writer.getWritten();
+                writer.raw(insertPrefix);
+            } else {
+                writer.ascii(",\n");
+            }
+            writer.raw((byte) '(');
+            for (int i = 1; i <= columns; i++) {
+                if (i > 1) {
+                    writer.raw((byte) ',');
+                }
+                byte[] value = rows.getBytes(i);
+                if (value == null) {
+                    writer.ascii("NULL");
+                } else if (kinds[i] == ValueKind.NUMBER) {
+                    writer.raw(value);
+                } else if (kinds[i] == ValueKind.BINARY) {
+                    writer.ascii(value.length == 0 ? "''" : "X'").hex(value);
+                    if (value.length > 0) {
+                        writer.raw((byte) '\'');
+                    }
+                } else {
+                    writer.raw((byte) '\'').escaped(value, STRING_ESCAPER).raw((byte) '\'');
+                }
+            }
+            writer.raw((byte) ')');
+            rowCount++;
+            rowsInStatement++;
+            if (rowsInStatement >= settings.getRowsPerStatement()
+                    || writer.getWritten() - statementStart >= maxStatementBytes) {
+                writer.ascii(";\n");
+                rowsInStatement = 0;
+            }
+        }
+        if (rowsInStatement > 0) {
+            writer.ascii(";\n");
+        }
+        return rowCount;
+    }
+
+    private enum ValueKind {
+        NUMBER, BINARY, TEXT;
+
+        static ValueKind of(int sqlType, String typeName) {
+            switch (sqlType) {
+                case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT,
+                        Types.DECIMAL, Types.NUMERIC, Types.REAL, Types.FLOAT, Types.DOUBLE:
+                    return NUMBER;
+                case Types.BIT, Types.BINARY, Types.VARBINARY, Types.LONGVARBINARY, Types.BLOB:
+                    return BINARY;
+                default:
+                    return typeName.toUpperCase().contains("BLOB") ? BINARY : TEXT;
+            }
+        }
+    }
+}
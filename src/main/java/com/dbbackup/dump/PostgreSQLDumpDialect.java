@@ -0,0 +1,661 @@
+package com.dbbackup.dump;
+
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.DatabaseType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * PostgreSQL dialect: {@code COPY ... FROM stdin} blocks in text format, with tables created
+ * from the catalog and constraints and indexes added after the data. Partitioned tables are
+ * created with their partition key and their rows are dumped from the partitions.
+ */
+@Component
+@Slf4j
+public class PostgreSQLDumpDialect implements DumpDialect {
+
+    /** application_name of the connections this application opens, so it can tell them apart from other sessions */
+    public static final String APPLICATION_NAME = "database-backup-utility";
+
+    private static final SqlByteWriter.ByteEscaper COPY_ESCAPER = (writer, b) -> {
+        switch (b) {
+            case '\\' -> writer.raw((byte) '\\').raw((byte) '\\');
+            case '\t' -> writer.raw((byte) '\\').raw((byte) 't');
+            case '\n' -> writer.raw((byte) '\\').raw((byte) 'n');
+            case '\r' -> writer.raw((byte) '\\').raw((byte) 'r');
+            default -> writer.raw(b);
+        }
+    };
+
+    /**
+     * Sequences in the given schemas (first parameter) that are owned by one of the given tables
+     * (second parameter), or by no table at all, so that restoring some tables leaves the
+     * sequences of the others alone. The sequence of an identity column ({@code d.deptype = 'i'})
+     * is created with its column, and {@code c} and {@code a} name that table and column.
+     */
+    private static final String SEQUENCES = """
+            FROM pg_sequences s
+            LEFT JOIN pg_depend d ON d.classid = 'pg_class'::regclass AND d.refclassid = 'pg_class'::regclass
+                 AND d.objid = format('%I.%I', s.schemaname, s.sequencename)::regclass AND d.deptype IN ('a', 'i')
+            LEFT JOIN pg_class c ON d.deptype = 'i' AND c.oid = d.refobjid
+            LEFT JOIN pg_attribute a ON d.deptype = 'i' AND a.attrelid = d.refobjid AND a.attnum = d.refobjsubid
+            WHERE s.schemaname = ANY (?) AND (d.refobjid IS NULL OR d.refobjid = ANY (?::text[]::regclass[]))
+            """;
+
+    /** Schemas that hold user objects, as a condition on {@code n.nspname} */
+    private static final String USER_SCHEMA =
+            "n.nspname NOT IN ('pg_catalog', 'information_schema') AND n.nspname NOT LIKE 'pg\\_%'";
+
+    /**
+     * Enum, composite and domain types the columns of the given tables (parameter) depend on,
+     * directly, as array elements, as domain base types or as fields of composite types, in
+     * creation order. The last column is the definition following the type name.
+     */
+    private static final String TYPES = """
+            WITH RECURSIVE used(oid) AS (
+                SELECT a.atttypid FROM pg_attribute a
+                WHERE a.attrelid = ANY (?::text[]::regclass[]) AND a.attnum > 0 AND NOT a.attisdropped
+                UNION
+                SELECT x.oid FROM used u
+                JOIN pg_type t ON t.oid = u.oid
+                CROSS JOIN LATERAL unnest(ARRAY[t.typelem, t.typbasetype] || ARRAY(
+                    SELECT a.atttypid FROM pg_attribute a
+                    WHERE a.attrelid = t.typrelid AND a.attnum > 0 AND NOT a.attisdropped)) AS x(oid)
+                WHERE x.oid <> 0
+            )
+            SELECT n.nspname, t.typname, t.typtype,
+                   CASE t.typtype
+                   WHEN 'e' THEN 'AS ENUM (' || COALESCE((SELECT string_agg(quote_literal(e.enumlabel), ', '
+                                                                  ORDER BY e.enumsortorder)
+                                                        FROM pg_enum e WHERE e.enumtypid = t.oid), '') || ')'
+                   WHEN 'c' THEN 'AS (' || COALESCE((SELECT string_agg(quote_ident(a.attname) || ' '
+                                                                  || format_type(a.atttypid, a.atttypmod), ', '
+                                                                  ORDER BY a.attnum)
+                                                     FROM pg_attribute a
+                                                     WHERE a.attrelid = t.typrelid AND a.attnum > 0
+                                                       AND NOT a.attisdropped), '') || ')'
+                   ELSE 'AS ' || format_type(t.typbasetype, t.typtypmod)
+                        || COALESCE(' DEFAULT ' || t.typdefault, '')
+                        || CASE WHEN t.typnotnull THEN ' NOT NULL' ELSE '' END
+                        || COALESCE((SELECT string_agg(' CONSTRAINT ' || quote_ident(k.conname) || ' '
+                                                       || pg_get_constraintdef(k.oid), '' ORDER BY k.conname)
+                                     FROM pg_constraint k WHERE k.contypid = t.oid AND k.contype = 'c'), '')
+                   END
+            FROM used u
+            JOIN pg_type t ON t.oid = u.oid
+            JOIN pg_namespace n ON n.oid = t.typnamespace
+            WHERE (t.typtype IN ('e', 'd')
+                   OR (t.typtype = 'c' AND EXISTS (SELECT 1 FROM pg_class r WHERE r.oid = t.typrelid AND r.relkind = 'c')))
+              AND %s
+            ORDER BY t.oid
+            """.formatted(USER_SCHEMA);
+
+    @Override
+    public boolean supports(BackupConfig config) {
+        return config.getDatabaseType() == DatabaseType.POSTGRESQL;
+    }
+
+    @Override
+    public String jdbcUrl(BackupConfig config) {
+        // Text results only: after a few executions the driver switches prepared statements to
+        // binary transfer, where getBytes no longer returns the server's text output
+        return String.format("jdbc:postgresql://%s:%d/%s?prepareThreshold=0&binaryTransfer=false&ApplicationName=%s",
+                config.getHost(), config.getPort(), config.getDatabaseName(), APPLICATION_NAME);
+    }
+
+    @Override
+    public String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    @Override
+    public void beginSnapshot(Connection connection, String snapshotId) throws SQLException {
+        // Cursor-based fetching in the driver requires an open transaction
+        connection.setAutoCommit(false);
+        connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        connection.setReadOnly(true);
+        if (snapshotId != null) {
+            // Must be the first statement of the transaction
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET TRANSACTION SNAPSHOT '" + snapshotId.replace("'", "''") + "'");
+            }
+        }
+    }
+
+    @Override
+    public String exportSnapshot(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT pg_export_snapshot()")) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    @Override
+    public List<TableInfo> listTables(Connection connection, BackupConfig config) throws SQLException {
+        List<TableInfo> tables = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             // Partitions come after the tables they are partitions of, level by level
+             ResultSet rs = statement.executeQuery("""
+                     WITH RECURSIVE tree(oid, depth) AS (
+                         SELECT c.oid, 0 FROM pg_class c WHERE c.relkind IN ('r', 'p') AND NOT c.relispartition
+                         UNION ALL
+                         SELECT i.inhrelid, t.depth + 1 FROM tree t
+                         JOIN pg_inherits i ON i.inhparent = t.oid
+                         JOIN pg_class p ON p.oid = i.inhrelid AND p.relispartition
+                     )
+                     SELECT n.nspname, c.relname, GREATEST(c.reltuples, 0)::bigint, pg_table_size(c.oid),
+                            (SELECT a.attname
+                             FROM pg_constraint k
+                             JOIN pg_attribute a ON a.attrelid = k.conrelid AND a.attnum = k.conkey[1]
+                             WHERE k.conrelid = c.oid AND k.contype = 'p' AND array_length(k.conkey, 1) = 1
+                               AND a.atttypid IN ('int2'::regtype, 'int4'::regtype, 'int8'::regtype)),
+                            c.relkind = 'p', pn.nspname, pc.relname
+                     FROM tree t
+                     JOIN pg_class c ON c.oid = t.oid
+                     JOIN pg_namespace n ON n.oid = c.relnamespace
+                     LEFT JOIN pg_inherits i ON c.relispartition AND i.inhrelid = c.oid
+                     LEFT JOIN pg_class pc ON pc.oid = i.inhparent
+                     LEFT JOIN pg_namespace pn ON pn.oid = pc.relnamespace
+                     WHERE %s
+                     ORDER BY t.depth, n.nspname, c.relname
+                     """.formatted(USER_SCHEMA))) {
+            while (rs.next()) {
+                tables.add(TableInfo.builder()
+                        .schema(rs.getString(1))
+                        .name(rs.getString(2))
+                        .estimatedRows(rs.getLong(3))
+                        .estimatedBytes(rs.getLong(4))
+                        .splitColumn(rs.getString(5))
+                        .partitioned(rs.getBoolean(6))
+                        .partitionOf(rs.getString(8) != null ? quote(rs.getString(7)) + "." + quote(rs.getString(8)) : null)
+                        .build());
+            }
+        }
+        return tables;
+    }
+
+    @Override
+    public String selectList(Connection connection, TableInfo table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("""
+                SELECT attname FROM pg_attribute
+                WHERE attrelid = ?::regclass AND attnum > 0 AND NOT attisdropped AND attgenerated = ''
+                ORDER BY attnum
+                """)) {
+            statement.setString(1, quote(table));
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    columns.add(quote(rs.getString(1)));
+                }
+            }
+        }
+        return String.join(", ", columns);
+    }
+
+    @Override
+    public void writePreData(Connection connection, List<TableInfo> tables, SqlByteWriter writer)
+            throws SQLException, IOException {
+        writer.ascii("SET client_encoding = 'UTF8';\n")
+                .ascii("SET standard_conforming_strings = on;\n\n");
+
+        List<String[]> types = new ArrayList<>();
+        if (!tables.isEmpty()) {
+            try (PreparedStatement statement = connection.prepareStatement(TYPES)) {
+                statement.setArray(1, tableArray(connection, tables));
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        types.add(new String[]{rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4)});
+                    }
+                }
+            }
+        }
+
+        Set<String> schemas = new LinkedHashSet<>();
+        tables.forEach(table -> schemas.add(table.getSchema()));
+        Set<String> createdSchemas = new LinkedHashSet<>(schemas);
+        types.forEach(type -> createdSchemas.add(type[0]));
+        for (String schema : createdSchemas) {
+            if (!"public".equals(schema)) {
+                writer.ascii("CREATE SCHEMA IF NOT EXISTS ").utf8(quote(schema)).ascii(";\n");
+            }
+        }
+        // Dropped before the sequences are created, since dropping a table also drops the sequences it owns
+        for (TableInfo table : tables) {
+            writer.ascii("DROP TABLE IF EXISTS ").utf8(quote(table)).ascii(" CASCADE;\n");
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT s.schemaname, s.sequencename, s.data_type::text, s.start_value, s.increment_by, "
+                        + "s.min_value, s.max_value, s.cycle " + SEQUENCES
+                        + "AND d.deptype IS DISTINCT FROM 'i' ORDER BY 1, 2")) {
+            setSequenceFilter(connection, statement, schemas, tables);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    writer.ascii("CREATE SEQUENCE IF NOT EXISTS ")
+                            .utf8(quote(rs.getString(1)) + "." + quote(rs.getString(2)))
+                            .ascii(" AS ").ascii(rs.getString(3))
+                            .ascii(" START WITH ").number(rs.getLong(4))
+                            .ascii(" INCREMENT BY ").number(rs.getLong(5))
+                            .ascii(" MINVALUE ").number(rs.getLong(6))
+                            .ascii(" MAXVALUE ").number(rs.getLong(7))
+                            .ascii(rs.getBoolean(8) ? " CYCLE;\n" : " NO CYCLE;\n");
+                }
+            }
+        }
+        writer.raw((byte) '\n');
+
+        // Types may be shared with tables that are not restored, so existing ones are kept
+        for (String[] type : types) {
+            writer.ascii("DO $dump$ BEGIN\n    CREATE ").ascii("d".equals(type[2]) ? "DOMAIN " : "TYPE ")
+                    .utf8(quote(type[0]) + "." + quote(type[1])).raw((byte) ' ').utf8(type[3])
+                    .ascii(";\nEXCEPTION WHEN duplicate_object THEN NULL;\nEND $dump$;\n\n");
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement("""
+                SELECT a.attname, format_type(a.atttypid, a.atttypmod), a.attnotnull,
+                       pg_get_expr(d.adbin, d.adrelid), a.attidentity,
+                       s.start_value, s.increment_by, s.min_value, s.max_value, s.cycle, a.attgenerated
+                FROM pg_attribute a
+                LEFT JOIN pg_attrdef d ON d.adrelid = a.attrelid AND d.adnum = a.attnum
+                LEFT JOIN pg_sequences s ON a.attidentity <> ''
+                     AND format('%I.%I', s.schemaname, s.sequencename) = pg_get_serial_sequence(?, a.attname)
+                WHERE a.attrelid = ?::regclass AND a.attnum > 0 AND NOT a.attisdropped
+                ORDER BY a.attnum
+                """);
+             PreparedStatement partitioning = connection.prepareStatement("""
+                SELECT pg_get_expr(c.relpartbound, c.oid), CASE WHEN c.relkind = 'p' THEN pg_get_partkeydef(c.oid) END
+                FROM pg_class c WHERE c.oid = ?::regclass
+                """)) {
+            for (TableInfo table : tables) {
+                String bound = null;
+                String partitionKey = null;
+                if (table.isPartitioned() || table.getPartitionOf() != null) {
+                    partitioning.setString(1, quote(table));
+                    try (ResultSet rs = partitioning.executeQuery()) {
+                        rs.next();
+                        bound = rs.getString(1);
+                        partitionKey = rs.getString(2);
+                    }
+                }
+                writer.ascii("CREATE TABLE ").utf8(quote(table));
+                if (table.getPartitionOf() != null) {
+                    // Columns, and the constraints and indexes added to the parent later, come from the parent
+                    writer.ascii(" PARTITION OF ").utf8(table.getPartitionOf()).raw((byte) ' ').utf8(bound);
+                } else {
+                    writeColumns(statement, table, writer);
+                }
+                if (partitionKey != null) {
+                    writer.ascii(" PARTITION BY ").utf8(partitionKey);
+                }
+                writer.ascii(";\n\n");
+            }
+        }
+
+        if (!tables.isEmpty()) {
+            try (PreparedStatement statement = connection.prepareStatement("""
+                    SELECT s.schemaname, s.sequencename, n.nspname, c.relname, a.attname
+                    FROM pg_sequences s
+                    JOIN pg_depend d ON d.classid = 'pg_class'::regclass AND d.refclassid = 'pg_class'::regclass
+                         AND d.objid = format('%I.%I', s.schemaname, s.sequencename)::regclass AND d.deptype = 'a'
+                    JOIN pg_class c ON c.oid = d.refobjid
+                    JOIN pg_namespace n ON n.oid = c.relnamespace
+                    JOIN pg_attribute a ON a.attrelid = d.refobjid AND a.attnum = d.refobjsubid
+                    WHERE d.refobjid = ANY (?::text[]::regclass[])
+                    ORDER BY 1, 2
+                    """)) {
+                statement.setArray(1, tableArray(connection, tables));
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        // Serial columns: the sequence goes when its table is dropped
+                        writer.ascii("ALTER SEQUENCE ").utf8(quote(rs.getString(1)) + "." + quote(rs.getString(2)))
+                                .ascii(" OWNED BY ").utf8(quote(rs.getString(3)) + "." + quote(rs.getString(4)) + "."
+                                        + quote(rs.getString(5))).ascii(";\n");
+                    }
+                }
+            }
+            writer.raw((byte) '\n');
+        }
+    }
+
+    private void writeColumns(PreparedStatement statement, TableInfo table, SqlByteWriter writer)
+            throws SQLException, IOException {
+        statement.setString(1, quote(table));
+        statement.setString(2, quote(table));
+        writer.ascii(" (");
+        try (ResultSet rs = statement.executeQuery()) {
+            boolean first = true;
+            while (rs.next()) {
+                writer.ascii(first ? "\n    " : ",\n    ")
+                        .utf8(quote(rs.getString(1))).raw((byte) ' ').utf8(rs.getString(2));
+                if (rs.getString(4) != null) {
+                    // A stored generated column keeps its expression in pg_attrdef, like a default
+                    writer.ascii("s".equals(rs.getString(11)) ? " GENERATED ALWAYS AS (" : " DEFAULT ")
+                            .utf8(rs.getString(4)).ascii("s".equals(rs.getString(11)) ? ") STORED" : "");
+                }
+                String identity = rs.getString(5);
+                if (identity != null && !identity.isEmpty()) {
+                    // 'a' = GENERATED ALWAYS, 'd' = BY DEFAULT; COPY loads both kinds as given
+                    writer.ascii("a".equals(identity) ? " GENERATED ALWAYS AS IDENTITY"
+                            : " GENERATED BY DEFAULT AS IDENTITY");
+                    if (rs.getObject(6) != null) {
+                        writer.ascii(" (START WITH ").number(rs.getLong(6))
+                                .ascii(" INCREMENT BY ").number(rs.getLong(7))
+                                .ascii(" MINVALUE ").number(rs.getLong(8))
+                                .ascii(" MAXVALUE ").number(rs.getLong(9))
+                                .ascii(rs.getBoolean(10) ? " CYCLE)" : " NO CYCLE)");
+                    }
+                }
+                if (rs.getBoolean(3)) {
+                    writer.ascii(" NOT NULL");
+                }
+                first = false;
+            }
+        }
+        writer.ascii("\n)");
+    }
+
+    @Override
+    public void writePostData(Connection connection, List<TableInfo> tables, SqlByteWriter writer)
+            throws SQLException, IOException {
+        List<String> foreignKeys = new ArrayList<>();
+        writeConstraintsAndIndexes(connection, tables, writer, foreignKeys);
+        for (String foreignKey : foreignKeys) {
+            writer.utf8(foreignKey);
+        }
+
+        writeSequenceValues(connection, tables, writer);
+    }
+
+    @Override
+    public void writeTablePostData(Connection connection, TableInfo table, SqlByteWriter writer,
+                                   SqlByteWriter foreignKeys) throws SQLException, IOException {
+        List<String> statements = new ArrayList<>();
+        writeConstraintsAndIndexes(connection, List.of(table), writer, statements);
+        writeSequenceValues(connection, List.of(table), writer);
+        for (String foreignKey : statements) {
+            foreignKeys.utf8(foreignKey);
+        }
+    }
+
+    /**
+     * Writes functions and procedures, then views and materialized views, then the triggers of
+     * the dumped tables. Function bodies are not checked when they are created, so functions may
+     * refer to tables and to each other in any order; views are created in the order they were
+     * created in the database, so that views on other views follow them. Objects that belong to
+     * an extension are left to the extension. Other kinds of objects are not dumped and are
+     * reported in the log.
+     */
+    @Override
+    public void writeDatabaseObjects(Connection connection, List<TableInfo> tables, SqlByteWriter writer)
+            throws SQLException, IOException {
+        writer.ascii("SET check_function_bodies = false;\n\n");
+        Set<String> schemas = new LinkedHashSet<>();
+        tables.forEach(table -> schemas.add(table.getSchema()));
+
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("""
+                     SELECT n.nspname, pg_get_functiondef(p.oid)
+                     FROM pg_proc p
+                     JOIN pg_namespace n ON n.oid = p.pronamespace
+                     WHERE p.prokind IN ('f', 'p') AND %s
+                       AND NOT EXISTS (SELECT 1 FROM pg_depend e
+                                       WHERE e.classid = 'pg_proc'::regclass AND e.objid = p.oid AND e.deptype = 'e')
+                     ORDER BY p.oid
+                     """.formatted(USER_SCHEMA))) {
+            while (rs.next()) {
+                writeSchema(rs.getString(1), schemas, writer);
+                writer.utf8(rs.getString(2).stripTrailing()).ascii(";\n\n");
+            }
+        }
+
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("""
+                     SELECT n.nspname, c.relname, c.relkind = 'm', array_to_string(c.reloptions, ', '),
+                            pg_get_viewdef(c.oid)
+                     FROM pg_class c
+                     JOIN pg_namespace n ON n.oid = c.relnamespace
+                     WHERE c.relkind IN ('v', 'm') AND %s
+                       AND NOT EXISTS (SELECT 1 FROM pg_depend e
+                                       WHERE e.classid = 'pg_class'::regclass AND e.objid = c.oid AND e.deptype = 'e')
+                     ORDER BY c.oid
+                     """.formatted(USER_SCHEMA))) {
+            while (rs.next()) {
+                writeSchema(rs.getString(1), schemas, writer);
+                String name = quote(rs.getString(1)) + "." + quote(rs.getString(2));
+                String kind = rs.getBoolean(3) ? "MATERIALIZED VIEW " : "VIEW ";
+                writer.ascii("DROP ").ascii(kind).ascii("IF EXISTS ").utf8(name).ascii(" CASCADE;\n")
+                        .ascii("CREATE ").ascii(kind).utf8(name);
+                if (rs.getString(4) != null && !rs.getString(4).isEmpty()) {
+                    writer.ascii(" WITH (").utf8(rs.getString(4)).raw((byte) ')');
+                }
+                String query = rs.getString(5).strip();
+                writer.ascii(" AS\n").utf8(query.endsWith(";") ? query.substring(0, query.length() - 1) : query)
+                        .ascii(";\n\n");
+            }
+        }
+
+        if (!tables.isEmpty()) {
+            // Triggers of partitions cloned from their parent's are created with the parent's;
+            // tgparentid exists only since PostgreSQL 13, before which clones are internal
+            try (PreparedStatement statement = connection.prepareStatement("""
+                    SELECT n.nspname, c.relname, t.tgname, pg_get_triggerdef(t.oid)
+                    FROM pg_trigger t
+                    JOIN pg_class c ON c.oid = t.tgrelid
+                    JOIN pg_namespace n ON n.oid = c.relnamespace
+                    WHERE t.tgrelid = ANY (?::text[]::regclass[]) AND NOT t.tgisinternal
+                      AND COALESCE((to_jsonb(t) ->> 'tgparentid')::oid, 0) = 0
+                    ORDER BY n.nspname, c.relname, t.tgname
+                    """)) {
+                statement.setArray(1, tableArray(connection, tables));
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        writer.ascii("DROP TRIGGER IF EXISTS ").utf8(quote(rs.getString(3))).ascii(" ON ")
+                                .utf8(quote(rs.getString(1)) + "." + quote(rs.getString(2))).ascii(";\n")
+                                .utf8(rs.getString(4)).ascii(";\n");
+                    }
+                }
+            }
+            writer.raw((byte) '\n');
+        }
+
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("""
+                     SELECT (SELECT count(*) FROM pg_extension WHERE extname <> 'plpgsql'),
+                            (SELECT count(*) FROM pg_proc p JOIN pg_namespace n ON n.oid = p.pronamespace
+                             WHERE p.prokind IN ('a', 'w') AND %1$s
+                               AND NOT EXISTS (SELECT 1 FROM pg_depend e WHERE e.classid = 'pg_proc'::regclass
+                                               AND e.objid = p.oid AND e.deptype = 'e')),
+                            (SELECT count(*) FROM pg_policy),
+                            (SELECT count(*) FROM pg_rewrite WHERE rulename <> '_RETURN'),
+                            (SELECT count(*) FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace
+                             WHERE c.relkind = 'f' AND %1$s)
+                     """.formatted(USER_SCHEMA))) {
+            rs.next();
+            List<String> skipped = new ArrayList<>();
+            String[] kinds = {"extensions", "aggregates", "row security policies", "rules", "foreign tables"};
+            for (int i = 0; i < kinds.length; i++) {
+                if (rs.getLong(i + 1) > 0) {
+                    skipped.add(rs.getLong(i + 1) + " " + kinds[i]);
+                }
+            }
+            if (!skipped.isEmpty()) {
+                log.warn("JDBC dump leaves out {} of the database; use the native engine to back them up",
+                        String.join(", ", skipped));
+            }
+        }
+    }
+
+    private void writeSchema(String schema, Set<String> created, SqlByteWriter writer) throws IOException {
+        if (!"public".equals(schema) && created.add(schema)) {
+            writer.ascii("CREATE SCHEMA IF NOT EXISTS ").utf8(quote(schema)).ascii(";\n");
+        }
+    }
+
+    private void writeConstraintsAndIndexes(Connection connection, List<TableInfo> tables, SqlByteWriter writer,
+                                            List<String> foreignKeys) throws SQLException, IOException {
+        // Constraints and indexes of a partition that come from its parent are created with the parent's
+        try (PreparedStatement constraints = connection.prepareStatement("""
+                SELECT conname, pg_get_constraintdef(oid), contype, conparentid <> 0 OR NOT conislocal
+                FROM pg_constraint WHERE conrelid = ?::regclass AND contype IN ('p', 'u', 'c', 'x', 'f')
+                ORDER BY contype = 'p' DESC, conname
+                """);
+             PreparedStatement indexes = connection.prepareStatement("""
+                SELECT pg_get_indexdef(i.indexrelid)
+                FROM pg_index i
+                WHERE i.indrelid = ?::regclass
+                  AND NOT EXISTS (SELECT 1 FROM pg_constraint c WHERE c.conindid = i.indexrelid)
+                  AND NOT EXISTS (SELECT 1 FROM pg_inherits h WHERE h.inhrelid = i.indexrelid)
+                ORDER BY i.indexrelid
+                """)) {
+            for (TableInfo table : tables) {
+                constraints.setString(1, quote(table));
+                try (ResultSet rs = constraints.executeQuery()) {
+                    while (rs.next()) {
+                        if (table.getPartitionOf() != null && rs.getBoolean(4)) {
+                            continue;
+                        }
+                        String statement = "ALTER TABLE " + quote(table) + " ADD CONSTRAINT "
+                                + quote(rs.getString(1)) + " " + rs.getString(2) + ";\n";
+                        if ("f".equals(rs.getString(3))) {
+                            // Foreign keys go last so that every referenced key exists
+                            foreignKeys.add(statement);
+                        } else {
+                            writer.utf8(statement);
+                        }
+                    }
+                }
+                indexes.setString(1, quote(table));
+                try (ResultSet rs = indexes.executeQuery()) {
+                    while (rs.next()) {
+                        String index = rs.getString(1);
+                        if (table.isPartitioned()) {
+                            // ON ONLY leaves the partitions without the index; without it, it is built on each
+                            index = index.replaceFirst(" ON ONLY ", " ON ");
+                        }
+                        writer.utf8(index).ascii(";\n");
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public String chunkHashQuery(Connection connection, TableInfo table, long chunkWidth) {
+        // The first 64 bits of each row's md5, summed so that row order does not matter
+        String hash = "coalesce(sum(('x' || substr(md5(ROW(r.*)::text), 1, 16))::bit(64)::bigint::numeric), 0)::text";
+        if (table.getSplitColumn() == null) {
+            return "SELECT 0, count(*), " + hash + " FROM " + quote(table) + " r";
+        }
+        // Integer division truncates towards zero, so negative keys are moved down one chunk
+        String column = "r." + quote(table.getSplitColumn());
+        String chunk = "(" + column + " / " + chunkWidth + " - (" + column + " % " + chunkWidth + " < 0)::int)";
+        return "SELECT " + chunk + ", count(*), " + hash + " FROM " + quote(table) + " r GROUP BY 1";
+    }
+
+    @Override
+    public void writeIncrementalHeader(SqlByteWriter writer) throws IOException {
+        writer.ascii("SET client_encoding = 'UTF8';\n")
+                .ascii("SET standard_conforming_strings = on;\n")
+                .ascii("BEGIN;\n")
+                // Disables foreign key triggers for the transaction, as pg_dump --disable-triggers does
+                .ascii("SET LOCAL session_replication_role = replica;\n\n");
+    }
+
+    @Override
+    public void writeIncrementalFooter(Connection connection, List<TableInfo> tables, SqlByteWriter writer)
+            throws SQLException, IOException {
+        writeSequenceValues(connection, tables, writer);
+        writer.ascii("COMMIT;\n");
+    }
+
+    private void writeSequenceValues(Connection connection, List<TableInfo> tables, SqlByteWriter writer)
+            throws SQLException, IOException {
+        Set<String> schemas = new LinkedHashSet<>();
+        tables.forEach(table -> schemas.add(table.getSchema()));
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT s.schemaname, s.sequencename, s.last_value, c.relname, a.attname " + SEQUENCES
+                        + "AND s.last_value IS NOT NULL ORDER BY 1, 2")) {
+            setSequenceFilter(connection, statement, schemas, tables);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    if (rs.getString(5) != null) {
+                        // The restored identity column names its sequence itself
+                        String table = quote(rs.getString(1)) + "." + quote(rs.getString(4));
+                        writer.ascii("SELECT pg_catalog.setval(pg_catalog.pg_get_serial_sequence('")
+                                .utf8(table.replace("'", "''")).ascii("', '")
+                                .utf8(rs.getString(5).replace("'", "''")).ascii("'), ");
+                    } else {
+                        String sequence = quote(rs.getString(1)) + "." + quote(rs.getString(2));
+                        writer.ascii("SELECT pg_catalog.setval('").utf8(sequence.replace("'", "''")).ascii("', ");
+                    }
+                    writer.number(rs.getLong(3)).ascii(", true);\n");
+                }
+            }
+        }
+    }
+
+    private Array tableArray(Connection connection, List<TableInfo> tables) throws SQLException {
+        return connection.createArrayOf("text", tables.stream().map(this::quote).toArray());
+    }
+
+    private void setSequenceFilter(Connection connection, PreparedStatement statement, Set<String> schemas,
+                                   List<TableInfo> tables) throws SQLException {
+        statement.setArray(1, connection.createArrayOf("text", schemas.toArray()));
+        statement.setArray(2, tableArray(connection, tables));
+    }
+
+    @Override
+    public void enableStreaming(Statement statement, int fetchSize) throws SQLException {
+        statement.setFetchSize(fetchSize);
+    }
+
+    @Override
+    public long writeRows(ResultSet rows, TableInfo table, SqlByteWriter writer) throws SQLException, IOException {
+        ResultSetMetaData metaData = rows.getMetaData();
+        int columns = metaData.getColumnCount();
+        boolean[] bytea = new boolean[columns + 1];
+        writer.ascii("COPY ").utf8(quote(table)).ascii(" (");
+        for (int i = 1; i <= columns; i++) {
+            bytea[i] = "bytea".equals(metaData.getColumnTypeName(i));
+            writer.ascii(i > 1 ? ", " : "").utf8(quote(metaData.getColumnName(i)));
+        }
+        writer.ascii(") FROM stdin;\n");
+
+        long rowCount = 0;
+        while (rows.next()) {
+            for (int i = 1; i <= columns; i++) {
+                if (i > 1) {
+                    writer.raw((byte) '\t');
+                }
+                // The driver returns the server's UTF-8 text output, which is what COPY reads back,
+                // except for bytea, which it decodes
+                byte[] value = rows.getBytes(i);
+                if (value == null) {
+                    writer.ascii("\\N");
+                } else if (bytea[i]) {
+                    writer.ascii("\\\\x").hex(value);
+                } else {
+                    writer.escaped(value, COPY_ESCAPER);
+                }
+            }
+            writer.raw((byte) '\n');
+            rowCount++;
+        }
+        writer.ascii("\\.\n\n");
+        return rowCount;
+    }
+}
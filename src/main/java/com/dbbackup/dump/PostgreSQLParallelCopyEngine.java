@@ -0,0 +1,295 @@
+package com.dbbackup.dump;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.ThrottleStage;
+import com.dbbackup.service.LocalWriteService;
+import com.dbbackup.service.ProgressService;
+import com.dbbackup.service.ThrottleService;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * PostgreSQL export that streams {@code COPY ... TO STDOUT (FORMAT binary)} from parallel
+ * worker connections attached to one exported snapshot. Each table or primary-key range is
+ * written to its own gzip chunk file next to the schema scripts, a manifest and a restore script.
+ * Finished chunks are recorded in a {@link ProgressJournal} so that a failed export can be resumed.
+ * Every file is written under the local write policy and appears under its name only once complete.
+ */
+@Service
+@Slf4j
+public class PostgreSQLParallelCopyEngine {
+
+    public static final String MANIFEST = "manifest.properties";
+    public static final String FORMAT = "pg-copy-binary";
+
+    private final PostgreSQLDumpDialect dialect;
+    private final BackupProperties.JdbcDump settings;
+    private final BackupProperties.Resume resume;
+    private final ThrottleService throttleService;
+    private final ProgressService progressService;
+    private final LocalWriteService localWriteService;
+
+    public PostgreSQLParallelCopyEngine(PostgreSQLDumpDialect dialect, BackupProperties properties,
+                                        ThrottleService throttleService, ProgressService progressService,
+                                        LocalWriteService localWriteService) {
+        this.dialect = dialect;
+        this.settings = properties.getJdbcDump();
+        this.resume = properties.getResume();
+        this.throttleService = throttleService;
+        this.progressService = progressService;
+        this.localWriteService = localWriteService;
+    }
+
+    /**
+     * Exports the configured database into a directory of chunk files
+     *
+     * @param config    the backup configuration
+     * @param directory the directory to create
+     * @return the number of rows exported
+     * @throws IOException  if the export cannot be written
+     * @throws SQLException if the database cannot be read
+     */
+    public long export(BackupConfig config, Path directory) throws IOException, SQLException {
+        int parallelism = Math.max(1, config.getParallelism() > 0 ? config.getParallelism() : settings.getParallelism());
+        Path dataDirectory = directory.resolve("data");
+        Files.createDirectories(dataDirectory);
+        ProgressJournal journal = ProgressJournal.open(directory, config.instanceKey());
+
+        try (SnapshotSession session = SnapshotSession.open(dialect, config, parallelism)) {
+            Connection coordinator = session.getCoordinator();
+            List<TableInfo> tables = TableFilter.of(config).apply(dialect.listTables(coordinator, config));
+            List<WorkUnit> units;
+            if (journal.hasPlan()) {
+                units = journal.reconcile(tables);
+            } else {
+                units = session.plan(tables, settings.getSplitRows());
+                journal.savePlan(units);
+            }
+            Map<Integer, Long> rowCounts = new ConcurrentHashMap<>();
+            List<WorkUnit> pending = new ArrayList<>();
+            for (WorkUnit unit : units) {
+                if (journal.isComplete(unit, dataDirectory.resolve(chunkName(unit)))) {
+                    rowCounts.put(unit.getIndex(), journal.completedRows(unit));
+                } else {
+                    pending.add(unit);
+                }
+            }
+            progressService.estimateDumpBytes(config, SnapshotSession.estimatedBytes(units, pending));
+            if (pending.size() < units.size()) {
+                // Redone chunks read a newer snapshot than the reused ones
+                log.warn("Resuming parallel COPY export of {}: reusing {} of {} chunks; chunks are consistent "
+                        + "individually but not with each other", config.getDatabaseName(),
+                        units.size() - pending.size(), units.size());
+            }
+            log.info("Parallel COPY export of {} (snapshot {}): {} tables in {} chunks over {} connections",
+                    config.getDatabaseName(), session.getSnapshotId(), tables.size(), pending.size(),
+                    session.getParallelism());
+
+            localWriteService.write(directory.resolve("pre-data.sql"), config, out -> {
+                SqlByteWriter writer = new SqlByteWriter(out, (int) settings.getBufferSize().toBytes());
+                dialect.writePreData(coordinator, tables, writer);
+                writer.flush();
+                return null;
+            });
+
+            session.run(pending, throttleService.workers(config), (connection, unit) -> {
+                Path chunk = dataDirectory.resolve(chunkName(unit));
+                MessageDigest digest = ProgressJournal.newDigest();
+                long count = copyOut(connection, unit, chunk, config, digest);
+                journal.markDone(unit, chunk, count, digest);
+                rowCounts.put(unit.getIndex(), count);
+                return count;
+            });
+            long rows = rowCounts.values().stream().mapToLong(Long::longValue).sum();
+
+            localWriteService.write(directory.resolve("post-data.sql"), config, out -> {
+                SqlByteWriter writer = new SqlByteWriter(out, (int) settings.getBufferSize().toBytes());
+                dialect.writePostData(coordinator, tables, writer);
+                writer.flush();
+                return null;
+            });
+
+            writeManifest(directory, config, session.getSnapshotId(), units, rowCounts);
+            writeRestoreScript(directory, units, config);
+            journal.finish();
+            log.info("Parallel COPY export of {} completed: {} rows", config.getDatabaseName(), rows);
+            return rows;
+        } catch (IOException | SQLException | RuntimeException e) {
+            journal.close();
+            // Finished chunks of a failed run are kept for the next attempt
+            if (!journal.hasPlan()) {
+                JdbcDumpEngine.deleteDirectory(directory);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the export directory of the last failed run of the database when it can be
+     * resumed, or the given directory otherwise
+     *
+     * @param config           the backup configuration
+     * @param defaultDirectory the directory for a new run, named {@code <database>_<timestamp><suffix>}
+     * @param suffix           the directory name suffix
+     * @return the directory to export to
+     * @throws IOException if the backup directory cannot be listed
+     */
+    public Path resumeOrDefault(BackupConfig config, Path defaultDirectory, String suffix) throws IOException {
+        if (!resume.isEnabled()) {
+            return defaultDirectory;
+        }
+        Optional<Path> incomplete = ProgressJournal.findIncompleteRun(defaultDirectory.getParent(),
+                config.getDatabaseName(), config.instanceKey(), suffix, resume.getMaxAge());
+        incomplete.ifPresent(directory -> log.info("Resuming failed run {}", directory));
+        return incomplete.orElse(defaultDirectory);
+    }
+
+    private long copyOut(Connection connection, WorkUnit unit, Path chunk, BackupConfig config,
+                         MessageDigest digest) throws IOException, SQLException {
+        long start = System.currentTimeMillis();
+        CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        // Raw COPY bytes count against the read limit, compressed bytes against the write limit
+        String sql = copySql(connection, unit);
+        long rows = localWriteService.write(chunk, config, digest, file -> {
+            try (OutputStream gzip = new FastGzipOutputStream(file);
+                 OutputStream out = throttleService.throttle(gzip, ThrottleStage.DUMP_READ, config)) {
+                return copyManager.copyOut(sql, out);
+            }
+        });
+        log.debug("Exported {}: {} rows in {} ms", unit.describe(), rows, System.currentTimeMillis() - start);
+        return rows;
+    }
+
+    private String copySql(Connection connection, WorkUnit unit) throws SQLException {
+        TableInfo table = unit.getTable();
+        if (!unit.isRange()) {
+            // Leaves out generated columns, as COPY FROM of the restore expects
+            return "COPY " + dialect.quote(table) + " TO STDOUT (FORMAT binary)";
+        }
+        // COPY takes no bind parameters; the bounds are plain longs
+        return "COPY (SELECT " + dialect.selectList(connection, table) + " FROM " + dialect.quote(table) + " WHERE "
+                + unit.rangeCondition(dialect.quote(table.getSplitColumn())) + ") TO STDOUT (FORMAT binary)";
+    }
+
+    private String chunkName(WorkUnit unit) {
+        return String.format("%06d.copy.gz", unit.getIndex());
+    }
+
+    private void writeManifest(Path directory, BackupConfig config, String snapshotId, List<WorkUnit> units,
+                               Map<Integer, Long> rowCounts) throws IOException, SQLException {
+        Properties manifest = new Properties();
+        manifest.setProperty("format", FORMAT);
+        manifest.setProperty("version", "1");
+        manifest.setProperty("database", config.getDatabaseName());
+        manifest.setProperty("snapshot", String.valueOf(snapshotId));
+        manifest.setProperty("created", Instant.now().toString());
+        manifest.setProperty("chunks", String.valueOf(units.size()));
+        for (WorkUnit unit : units) {
+            String prefix = "chunk." + unit.getIndex() + ".";
+            manifest.setProperty(prefix + "file", "data/" + chunkName(unit));
+            manifest.setProperty(prefix + "table", dialect.quote(unit.getTable()));
+            manifest.setProperty(prefix + "object", JdbcDumpEngine.objectName(unit.getTable()));
+            manifest.setProperty(prefix + "rows", String.valueOf(rowCounts.getOrDefault(unit.getIndex(), 0L)));
+            if (unit.isRange()) {
+                manifest.setProperty(prefix + "split-column", unit.getTable().getSplitColumn());
+                if (unit.getLowerBound() != null) {
+                    manifest.setProperty(prefix + "lower", String.valueOf(unit.getLowerBound()));
+                }
+                if (unit.getUpperBound() != null) {
+                    manifest.setProperty(prefix + "upper", String.valueOf(unit.getUpperBound()));
+                }
+            }
+        }
+        localWriteService.write(directory.resolve(MANIFEST), config, out -> {
+            manifest.store(out, "Parallel COPY export");
+            return null;
+        });
+    }
+
+    /**
+     * Reads which table each chunk file of an export belongs to
+     *
+     * @param directory the export directory
+     * @return the table of each chunk, as {@code schema.table}, by file path relative to the directory
+     * @throws IOException if the manifest cannot be read
+     */
+    public static Map<String, String> tablesByFile(Path directory) throws IOException {
+        Properties manifest = new Properties();
+        try (InputStream in = Files.newInputStream(directory.resolve(MANIFEST))) {
+            manifest.load(in);
+        }
+        Map<String, String> tables = new HashMap<>();
+        int chunks = Integer.parseInt(manifest.getProperty("chunks", "0"));
+        for (int i = 0; i < chunks; i++) {
+            String prefix = "chunk." + i + ".";
+            tables.put(manifest.getProperty(prefix + "file"), manifest.getProperty(prefix + "object"));
+        }
+        return tables;
+    }
+
+    /**
+     * Writes a psql-based script that loads the export into the database named by the
+     * standard PG* environment variables
+     */
+    private void writeRestoreScript(Path directory, List<WorkUnit> units, BackupConfig config)
+            throws IOException, SQLException {
+        StringBuilder script = new StringBuilder("""
+                #!/bin/sh
+                # Restores this export with psql; connection settings come from PGHOST, PGDATABASE, etc.
+                set -e
+                cd "$(dirname "$0")"
+                psql -v ON_ERROR_STOP=1 -f pre-data.sql
+                """);
+        for (WorkUnit unit : units) {
+            String copy = "\\copy " + dialect.quote(unit.getTable()) + " FROM pstdin (FORMAT binary)";
+            script.append("gunzip -c data/").append(chunkName(unit))
+                    .append(" | psql -v ON_ERROR_STOP=1 -c '").append(copy.replace("'", "'\\''")).append("'\n");
+        }
+        script.append("psql -v ON_ERROR_STOP=1 -f post-data.sql\n");
+
+        Path file = directory.resolve("restore.sh");
+        localWriteService.write(file, config, out -> {
+            out.write(script.toString().getBytes(StandardCharsets.UTF_8));
+            return null;
+        });
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rwxr-xr-x"));
+        } catch (UnsupportedOperationException e) {
+            log.debug("POSIX permissions not supported for {}", file);
+        }
+    }
+
+    /**
+     * Gzip at the fastest level: chunk compression must keep up with a COPY stream per core
+     */
+    private static class FastGzipOutputStream extends GZIPOutputStream {
+        FastGzipOutputStream(OutputStream out) throws IOException {
+            super(out, 65536);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+}
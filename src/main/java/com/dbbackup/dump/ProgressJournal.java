@@ -0,0 +1,431 @@
+package com.dbbackup.dump;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Progress journal of a chunked backup, kept in the run's working directory.
+ * The plan (which table or key range goes into which chunk, and of which server and database)
+ * is written once when the run starts; every finished chunk then appends a line with its row
+ * count, size and SHA-256. Lines carry their own CRC so that a line torn by a crash is ignored.
+ * A retry of the run reuses the plan and skips every chunk whose file still matches its journal
+ * entry. The working directory is locked while a run has its journal open, so a run that is
+ * still going is never taken for a failed one.
+ */
+@Slf4j
+public class ProgressJournal implements Closeable {
+
+    public static final String PLAN_FILE = "plan.properties";
+    public static final String JOURNAL_FILE = "journal.log";
+    public static final String LOCK_FILE = ".lock";
+    /** Plan property naming the server and database of the run, see {@code BackupConfig.instanceKey()} */
+    private static final String INSTANCE = "instance";
+    /** Working directories locked by runs of this process */
+    private static final Set<Path> LOCKED = ConcurrentHashMap.newKeySet();
+
+    private final Path directory;
+    private final String instance;
+    private final Map<Integer, Entry> completed = new HashMap<>();
+    private final DirectoryLock lock;
+    private Properties plan;
+
+    private ProgressJournal(Path directory, String instance, DirectoryLock lock) {
+        this.directory = directory;
+        this.instance = instance;
+        this.lock = lock;
+    }
+
+    /**
+     * Locks a working directory and opens its journal, loading any plan and completed chunks
+     *
+     * @param directory the run's working directory
+     * @param instance  the server and database of the run
+     * @return the journal, to be closed when the run ends
+     * @throws IOException if another run holds the directory, the plan belongs to another
+     *                     server or database, or an existing journal cannot be read
+     */
+    public static ProgressJournal open(Path directory, String instance) throws IOException {
+        DirectoryLock lock = lock(directory);
+        if (lock == null) {
+            throw new IOException(directory + " is in use by another run");
+        }
+        ProgressJournal journal = new ProgressJournal(directory, instance, lock);
+        try {
+            Path planFile = directory.resolve(PLAN_FILE);
+            if (Files.exists(planFile)) {
+                Properties plan = loadPlan(planFile);
+                if (!instance.equals(plan.getProperty(INSTANCE))) {
+                    throw new IOException(String.format("%s holds a run of %s, not of %s", directory,
+                            plan.getProperty(INSTANCE, "an unknown server"), instance));
+                }
+                journal.plan = plan;
+                journal.readEntries();
+            }
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the newest unfinished run of a database in a backup directory. A run is unfinished
+     * while its working directory, named {@code <database>_<yyyyMMdd_HHmmss><suffix>}, still
+     * holds a plan. Runs of the same database name on another server, and runs still going,
+     * are left alone.
+     *
+     * @param backupDirectory the directory holding backups
+     * @param databaseName    the database the run belongs to
+     * @param instance        the server and database of the run
+     * @param suffix          the working directory suffix
+     * @param maxAge          runs started longer ago are not resumed
+     * @return the working directory of the run to resume
+     * @throws IOException if the backup directory cannot be listed
+     */
+    public static Optional<Path> findIncompleteRun(Path backupDirectory, String databaseName, String instance,
+                                                   String suffix, Duration maxAge) throws IOException {
+        if (!Files.isDirectory(backupDirectory)) {
+            return Optional.empty();
+        }
+        Instant cutoff = Instant.now().minus(maxAge);
+        Path newest = null;
+        Instant newestStart = null;
+        Pattern runName = Pattern.compile(Pattern.quote(databaseName) + "_\\d{8}_\\d{6}" + Pattern.quote(suffix));
+        try (DirectoryStream<Path> candidates = Files.newDirectoryStream(backupDirectory,
+                entry -> runName.matcher(entry.getFileName().toString()).matches() && Files.isDirectory(entry))) {
+            for (Path candidate : candidates) {
+                Path planFile = candidate.resolve(PLAN_FILE);
+                if (!Files.exists(planFile)) {
+                    continue;
+                }
+                Instant started = Files.getLastModifiedTime(planFile).toInstant();
+                if (!started.isAfter(cutoff) || (newestStart != null && !started.isAfter(newestStart))) {
+                    continue;
+                }
+                if (!instance.equals(loadPlan(planFile).getProperty(INSTANCE))) {
+                    log.debug("{} holds a run of another server, not resumed", candidate);
+                    continue;
+                }
+                DirectoryLock lock = lock(candidate);
+                if (lock == null) {
+                    log.info("{} is in use by another run, not resumed", candidate);
+                    continue;
+                }
+                lock.close();
+                newest = candidate;
+                newestStart = started;
+            }
+        }
+        return Optional.ofNullable(newest);
+    }
+
+    /**
+     * Marks the run as finished: removes the plan and journal, so the directory is no longer
+     * taken for a failed run, and releases the lock
+     */
+    public void finish() throws IOException {
+        Files.deleteIfExists(directory.resolve(PLAN_FILE));
+        Files.deleteIfExists(directory.resolve(JOURNAL_FILE));
+        plan = null;
+        close();
+        Files.deleteIfExists(directory.resolve(LOCK_FILE));
+    }
+
+    /**
+     * Releases the lock on the working directory; the plan and journal are kept for a retry
+     */
+    @Override
+    public void close() throws IOException {
+        lock.close();
+    }
+
+    public boolean hasPlan() {
+        return plan != null;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Records the plan of a new run
+     */
+    public void savePlan(List<WorkUnit> units) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(INSTANCE, instance);
+        // Highest index + 1: units dropped on resume leave gaps that must not shift later chunks
+        int count = units.stream().mapToInt(WorkUnit::getIndex).max().orElse(-1) + 1;
+        properties.setProperty("units", String.valueOf(count));
+        for (WorkUnit unit : units) {
+            String prefix = "unit." + unit.getIndex() + ".";
+            TableInfo table = unit.getTable();
+            if (table.getSchema() != null) {
+                properties.setProperty(prefix + "schema", table.getSchema());
+            }
+            properties.setProperty(prefix + "name", table.getName());
+            if (unit.isRange()) {
+                properties.setProperty(prefix + "split-column", table.getSplitColumn());
+                if (unit.getLowerBound() != null) {
+                    properties.setProperty(prefix + "lower", String.valueOf(unit.getLowerBound()));
+                }
+                if (unit.getUpperBound() != null) {
+                    properties.setProperty(prefix + "upper", String.valueOf(unit.getUpperBound()));
+                }
+            }
+        }
+        Path temp = directory.resolve(PLAN_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "Backup plan");
+        }
+        Files.move(temp, directory.resolve(PLAN_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        plan = properties;
+    }
+
+    /**
+     * Rebuilds the saved plan against the current tables. Chunks of tables that no longer
+     * exist are dropped and tables that are new since the plan was made are appended as
+     * whole-table chunks, so that chunk numbers of finished work stay valid.
+     *
+     * @param tables the tables that exist now
+     * @return the units to dump, in plan order
+     */
+    public List<WorkUnit> reconcile(List<TableInfo> tables) throws IOException {
+        Map<String, TableInfo> current = tables.stream()
+                .collect(Collectors.toMap(TableInfo::qualifiedName, Function.identity(), (a, b) -> a));
+        List<WorkUnit> units = new ArrayList<>();
+        Set<String> planned = new HashSet<>();
+        boolean changed = false;
+        int count = Integer.parseInt(plan.getProperty("units", "0"));
+        for (int i = 0; i < count; i++) {
+            String prefix = "unit." + i + ".";
+            String schema = plan.getProperty(prefix + "schema");
+            String name = plan.getProperty(prefix + "name");
+            if (name == null) {
+                continue;
+            }
+            String qualifiedName = schema != null ? schema + "." + name : name;
+            planned.add(qualifiedName);
+            TableInfo table = current.get(qualifiedName);
+            if (table == null) {
+                log.warn("Table {} no longer exists, dropping it from the resumed backup", qualifiedName);
+                changed = true;
+                continue;
+            }
+            String lower = plan.getProperty(prefix + "lower");
+            String upper = plan.getProperty(prefix + "upper");
+            if (lower != null || upper != null) {
+                table.setSplitColumn(plan.getProperty(prefix + "split-column"));
+            }
+            units.add(WorkUnit.builder()
+                    .index(i)
+                    .table(table)
+                    .lowerBound(lower != null ? Long.valueOf(lower) : null)
+                    .upperBound(upper != null ? Long.valueOf(upper) : null)
+                    .build());
+        }
+        int next = count;
+        // Unit indexes are file names, so new tables go after every planned chunk
+        for (TableInfo table : tables) {
+            if (!planned.contains(table.qualifiedName()) && !table.isPartitioned()) {
+                units.add(WorkUnit.builder().index(next++).table(table).build());
+                changed = true;
+            }
+        }
+        if (changed) {
+            savePlan(units);
+        }
+        return units;
+    }
+
+    /**
+     * Checks if a chunk was finished by an earlier attempt and its file is intact
+     */
+    public boolean isComplete(WorkUnit unit, Path chunk) throws IOException {
+        Entry entry = completed.get(unit.getIndex());
+        if (entry == null || !Files.exists(chunk)) {
+            return false;
+        }
+        if (Files.size(chunk) != entry.getBytes() || !entry.getSha256().equals(sha256(chunk))) {
+            log.warn("Chunk {} of {} does not match the journal and will be redone", chunk.getFileName(),
+                    unit.describe());
+            return false;
+        }
+        return true;
+    }
+
+    public long completedRows(WorkUnit unit) {
+        Entry entry = completed.get(unit.getIndex());
+        return entry != null ? entry.getRows() : 0;
+    }
+
+    /**
+     * Creates the digest that a chunk is hashed with while it is written
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Records a finished chunk. The entry is forced to disk before returning.
+     *
+     * @param digest the {@link #newDigest() digest} of every byte written to the chunk
+     */
+    public synchronized void markDone(WorkUnit unit, Path chunk, long rows, MessageDigest digest) throws IOException {
+        Entry entry = new Entry(unit.getIndex(), rows, Files.size(chunk), HexFormat.of().formatHex(digest.digest()));
+        String body = entry.getIndex() + " " + entry.getRows() + " " + entry.getBytes() + " " + entry.getSha256();
+        String line = body + " " + Long.toHexString(crc(body)) + "\n";
+        try (FileChannel channel = FileChannel.open(directory.resolve(JOURNAL_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII)));
+            channel.force(false);
+        }
+        completed.put(entry.getIndex(), entry);
+    }
+
+    private void readEntries() throws IOException {
+        Path journalFile = directory.resolve(JOURNAL_FILE);
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int lastSpace = line.lastIndexOf(' ');
+                if (lastSpace < 0) {
+                    continue;
+                }
+                String body = line.substring(0, lastSpace);
+                if (!Long.toHexString(crc(body)).equals(line.substring(lastSpace + 1))) {
+                    log.warn("Ignoring damaged journal line in {}", journalFile);
+                    continue;
+                }
+                String[] fields = body.split(" ");
+                Entry entry = new Entry(Integer.parseInt(fields[0]), Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2]), fields[3]);
+                completed.put(entry.getIndex(), entry);
+            }
+        }
+    }
+
+    private static Properties loadPlan(Path planFile) throws IOException {
+        Properties plan = new Properties();
+        try (InputStream in = Files.newInputStream(planFile)) {
+            plan.load(in);
+        }
+        return plan;
+    }
+
+    /**
+     * Locks a working directory, or returns null if another run, in this process or another,
+     * holds it. Runs of this process are told apart before the file is opened, since closing
+     * any channel of a file drops the process's locks on it on some platforms.
+     */
+    private static DirectoryLock lock(Path directory) throws IOException {
+        Path key = directory.toAbsolutePath().normalize();
+        if (!LOCKED.add(key)) {
+            return null;
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(key.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return new DirectoryLock(key, lock);
+            }
+            channel.close();
+            LOCKED.remove(key);
+            return null;
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            LOCKED.remove(key);
+            throw e;
+        }
+    }
+
+    /**
+     * Lock held on a working directory by a run of this process
+     */
+    private record DirectoryLock(Path directory, FileLock lock) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            if (lock.channel().isOpen()) {
+                try {
+                    lock.channel().close();
+                } finally {
+                    LOCKED.remove(directory);
+                }
+            }
+        }
+    }
+
+    private static long crc(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.US_ASCII));
+        return crc.getValue();
+    }
+
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[65536];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * A finished chunk
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Entry {
+        private int index;
+        private long rows;
+        private long bytes;
+        private String sha256;
+    }
+}
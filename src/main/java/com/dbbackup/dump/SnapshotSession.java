@@ -0,0 +1,242 @@
+package com.dbbackup.dump;
+
+import com.dbbackup.io.WorkerGate;
+import com.dbbackup.model.BackupConfig;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A coordinator connection plus worker connections that all read the same consistent
+ * snapshot, and the pool that runs work units on them
+ */
+@Slf4j
+class SnapshotSession implements AutoCloseable {
+
+    private final DumpDialect dialect;
+    @Getter
+    private final Connection coordinator;
+    private final List<Connection> workers;
+    @Getter
+    private final String snapshotId;
+
+    private SnapshotSession(DumpDialect dialect, Connection coordinator, List<Connection> workers, String snapshotId) {
+        this.dialect = dialect;
+        this.coordinator = coordinator;
+        this.workers = workers;
+        this.snapshotId = snapshotId;
+    }
+
+    /**
+     * Opens the coordinator and worker connections and starts their snapshots
+     */
+    static SnapshotSession open(DumpDialect dialect, BackupConfig config, int parallelism) throws SQLException {
+        List<Connection> connections = new ArrayList<>();
+        try {
+            // Open every connection first so that all snapshots can be started back to back
+            for (int i = 0; i <= parallelism; i++) {
+                connections.add(DriverManager.getConnection(dialect.jdbcUrl(config),
+                        config.getUsername(), config.getPassword()));
+            }
+            Connection coordinator = connections.get(0);
+            List<Connection> workers = new ArrayList<>(connections.subList(1, connections.size()));
+            boolean locked = dialect.lockForSnapshot(coordinator);
+            String snapshotId;
+            try {
+                dialect.beginSnapshot(coordinator, null);
+                snapshotId = dialect.exportSnapshot(coordinator);
+                for (Connection worker : workers) {
+                    dialect.beginSnapshot(worker, snapshotId);
+                }
+            } finally {
+                if (locked) {
+                    dialect.unlockAfterSnapshot(coordinator);
+                }
+            }
+            return new SnapshotSession(dialect, coordinator, workers, snapshotId);
+        } catch (SQLException | RuntimeException e) {
+            connections.forEach(SnapshotSession::closeQuietly);
+            throw e;
+        }
+    }
+
+    int getParallelism() {
+        return workers.size();
+    }
+
+    /**
+     * Splits tables above the given row count into primary-key ranges. Units are ordered by
+     * estimated size, largest first, so that the longest-running work starts early and the
+     * workers finish close together instead of waiting on one large table started last.
+     */
+    List<WorkUnit> plan(List<TableInfo> tables, long splitRows) throws SQLException {
+        long rowsPerUnit = Math.max(1, splitRows);
+        List<WorkUnit> units = new ArrayList<>();
+        for (TableInfo table : tables) {
+            if (table.isPartitioned()) {
+                // Holds no rows of its own; they are read from its partitions
+                continue;
+            }
+            if (table.getSplitColumn() == null || table.getEstimatedRows() <= rowsPerUnit) {
+                units.add(WorkUnit.builder().table(table).build());
+                continue;
+            }
+            String column = dialect.quote(table.getSplitColumn());
+            long min;
+            long max;
+            try (Statement statement = coordinator.createStatement();
+                 ResultSet rs = statement.executeQuery(
+                         "SELECT MIN(" + column + "), MAX(" + column + ") FROM " + dialect.quote(table))) {
+                rs.next();
+                min = rs.getLong(1);
+                max = rs.getLong(2);
+                if (rs.wasNull()) {
+                    units.add(WorkUnit.builder().table(table).build());
+                    continue;
+                }
+            }
+            long ranges = Math.min((table.getEstimatedRows() + rowsPerUnit - 1) / rowsPerUnit, 1024);
+            // Width computed in double to stay clear of overflow on very wide key spaces
+            double width = ((double) max - (double) min + 1) / ranges;
+            // Open at both ends: a resumed run reuses the plan, and keys may have moved past MIN and MAX since
+            Long lower = null;
+            for (long i = 1; i <= ranges; i++) {
+                Long upper = i == ranges ? null : min + (long) (width * i);
+                if (upper != null && upper <= (lower != null ? lower : min)) {
+                    continue;
+                }
+                units.add(WorkUnit.builder().table(table).lowerBound(lower).upperBound(upper).build());
+                if (upper == null) {
+                    break;
+                }
+                lower = upper;
+            }
+        }
+
+        // Stable sort: the ranges of one table stay in key order
+        Map<WorkUnit, Long> sizes = unitBytes(units);
+        List<WorkUnit> ordered = new ArrayList<>(units);
+        ordered.sort(Comparator.comparingLong((WorkUnit unit) -> sizes.get(unit)).reversed());
+        for (int i = 0; i < ordered.size(); i++) {
+            ordered.get(i).setIndex(i);
+        }
+        return ordered;
+    }
+
+    /**
+     * Estimates the bytes the given units will read, spreading each table's catalog size
+     * evenly over its units
+     */
+    static long estimatedBytes(List<WorkUnit> units, List<WorkUnit> pending) {
+        Map<WorkUnit, Long> sizes = unitBytes(units);
+        long bytes = 0;
+        for (WorkUnit unit : pending) {
+            bytes += sizes.getOrDefault(unit, unit.getTable().getEstimatedBytes());
+        }
+        return bytes;
+    }
+
+    private static Map<WorkUnit, Long> unitBytes(List<WorkUnit> units) {
+        Map<TableInfo, Long> unitsPerTable = new IdentityHashMap<>();
+        units.forEach(unit -> unitsPerTable.merge(unit.getTable(), 1L, Long::sum));
+        Map<WorkUnit, Long> sizes = new IdentityHashMap<>();
+        for (WorkUnit unit : units) {
+            sizes.put(unit, unit.getTable().getEstimatedBytes() / unitsPerTable.get(unit.getTable()));
+        }
+        return sizes;
+    }
+
+    /**
+     * Runs every unit on a worker connection and returns the sum of the task results.
+     * Each unit passes the gate first, so fewer connections read at once while it is lowered.
+     * The first failure cancels the remaining units.
+     */
+    long run(List<WorkUnit> units, WorkerGate gate, UnitTask task) throws IOException, SQLException {
+        BlockingQueue<Connection> idle = new ArrayBlockingQueue<>(workers.size(), false, workers);
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(workers.size(), runnable -> {
+            Thread thread = new Thread(runnable, "dump-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicLong total = new AtomicLong();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (WorkUnit unit : units) {
+                futures.add(executor.submit(() -> {
+                    gate.enter();
+                    try {
+                        Connection connection = idle.take();
+                        try {
+                            total.addAndGet(task.run(connection, unit));
+                        } finally {
+                            idle.put(connection);
+                        }
+                    } finally {
+                        gate.exit();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            return total.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Dump interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Dump worker failed", cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() {
+        workers.forEach(SnapshotSession::closeQuietly);
+        closeQuietly(coordinator);
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug("Failed to close dump connection", e);
+        }
+    }
+
+    /**
+     * Dumps one work unit on a worker connection
+     */
+    @FunctionalInterface
+    interface UnitTask {
+        long run(Connection connection, WorkUnit unit) throws IOException, SQLException;
+    }
+}
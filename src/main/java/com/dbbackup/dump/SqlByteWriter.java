@@ -0,0 +1,157 @@
+package com.dbbackup.dump;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes SQL text into a reusable byte buffer, encoding and escaping values in place
+ * so that rows are written without building intermediate strings
+ */
+public class SqlByteWriter {
+
+    /** Passes bytes through unchanged */
+    public static final ByteEscaper UNESCAPED = (writer, b) -> writer.raw(b);
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position;
+    private long written;
+
+    public SqlByteWriter(OutputStream out, int bufferSize) {
+        this(out, new byte[Math.max(bufferSize, 64)]);
+    }
+
+    /**
+     * Creates a writer over a caller-owned buffer so that workers can reuse it between units
+     */
+    public SqlByteWriter(OutputStream out, byte[] buffer) {
+        this.out = out;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the number of bytes written so far, including buffered bytes
+     */
+    public long getWritten() {
+        return written + position;
+    }
+
+    public SqlByteWriter raw(byte[] bytes) throws IOException {
+        return raw(bytes, 0, bytes.length);
+    }
+
+    public SqlByteWriter raw(byte[] bytes, int off, int len) throws IOException {
+        if (len > buffer.length - position) {
+            flushBuffer();
+            if (len > buffer.length) {
+                out.write(bytes, off, len);
+                written += len;
+                return this;
+            }
+        }
+        System.arraycopy(bytes, off, buffer, position, len);
+        position += len;
+        return this;
+    }
+
+    public SqlByteWriter raw(byte b) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = b;
+        return this;
+    }
+
+    /**
+     * Writes ASCII text such as keywords and numbers
+     */
+    public SqlByteWriter ascii(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            raw((byte) text.charAt(i));
+        }
+        return this;
+    }
+
+    public SqlByteWriter number(long value) throws IOException {
+        return ascii(Long.toString(value));
+    }
+
+    /**
+     * Writes UTF-8 text unchanged
+     */
+    public SqlByteWriter utf8(CharSequence text) throws IOException {
+        return utf8(text, UNESCAPED);
+    }
+
+    /**
+     * Writes UTF-8 text, passing each encoded byte through the escaper
+     */
+    public SqlByteWriter utf8(CharSequence text, ByteEscaper escaper) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                escaper.write(this, (byte) c);
+            } else if (c < 0x800) {
+                raw((byte) (0xC0 | (c >> 6)));
+                raw((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                raw((byte) (0xF0 | (cp >> 18)));
+                raw((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                raw((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                raw((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                raw((byte) (0xE0 | (c >> 12)));
+                raw((byte) (0x80 | ((c >> 6) & 0x3F)));
+                raw((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes raw bytes, passing each one through the escaper
+     */
+    public SqlByteWriter escaped(byte[] bytes, ByteEscaper escaper) throws IOException {
+        for (byte b : bytes) {
+            escaper.write(this, b);
+        }
+        return this;
+    }
+
+    /**
+     * Writes bytes as lowercase hexadecimal digits
+     */
+    public SqlByteWriter hex(byte[] bytes) throws IOException {
+        for (byte b : bytes) {
+            raw(HEX[(b >> 4) & 0xF]);
+            raw(HEX[b & 0xF]);
+        }
+        return this;
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            written += position;
+            position = 0;
+        }
+    }
+
+    /**
+     * Escapes single bytes of a value for a particular output syntax
+     */
+    @FunctionalInterface
+    public interface ByteEscaper {
+        void write(SqlByteWriter writer, byte b) throws IOException;
+    }
+}
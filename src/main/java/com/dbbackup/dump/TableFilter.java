@@ -0,0 +1,100 @@
+package com.dbbackup.dump;
+
+import com.dbbackup.model.BackupConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Include/exclude selection of tables or collections by glob pattern. A pattern matches
+ * the plain name or the schema-qualified name; {@code *} matches any run of characters and
+ * {@code ?} a single character. Nothing included means everything is included, and
+ * exclusions win over inclusions.
+ */
+public final class TableFilter {
+
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+
+    private TableFilter(List<String> includes, List<String> excludes) {
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+    }
+
+    /**
+     * Creates the filter of a backup configuration
+     *
+     * @param config the backup configuration
+     * @return the filter
+     */
+    public static TableFilter of(BackupConfig config) {
+        return new TableFilter(config.getIncludeTables(), config.getExcludeTables());
+    }
+
+    /**
+     * @return true if the filter selects everything
+     */
+    public boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    public boolean matches(TableInfo table) {
+        String name = table.getName();
+        String qualifiedName = table.qualifiedName();
+        if (!includes.isEmpty() && !anyMatch(includes, name, qualifiedName)) {
+            return false;
+        }
+        return !anyMatch(excludes, name, qualifiedName);
+    }
+
+    /**
+     * Returns the selected tables, keeping their order
+     */
+    public List<TableInfo> apply(List<TableInfo> tables) {
+        if (isEmpty()) {
+            return tables;
+        }
+        List<TableInfo> selected = new ArrayList<>();
+        for (TableInfo table : tables) {
+            if (matches(table)) {
+                selected.add(table);
+            }
+        }
+        return selected;
+    }
+
+    private static boolean anyMatch(List<Pattern> patterns, String name, String qualifiedName) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(name).matches() || pattern.matcher(qualifiedName).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Pattern> compile(List<String> globs) {
+        List<Pattern> patterns = new ArrayList<>();
+        if (globs == null) {
+            return patterns;
+        }
+        for (String glob : globs) {
+            if (glob == null || glob.isBlank()) {
+                continue;
+            }
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+            for (char c : glob.trim().toCharArray()) {
+                if (c == '*' || c == '?') {
+                    regex.append(Pattern.quote(literal.toString())).append(c == '*' ? ".*" : ".");
+                    literal.setLength(0);
+                } else {
+                    literal.append(c);
+                }
+            }
+            regex.append(Pattern.quote(literal.toString()));
+            patterns.add(Pattern.compile(regex.toString(), Pattern.DOTALL));
+        }
+        return patterns;
+    }
+}
@@ -0,0 +1,31 @@
+package com.dbbackup.dump;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A table selected for a logical dump, with the catalog statistics used for planning
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TableInfo {
+    private String schema;
+    private String name;
+    /** Single-column integer primary key usable for range splitting, or null */
+    private String splitColumn;
+    private long estimatedRows;
+    /** Data size without indexes, the part of the table a dump has to read */
+    private long estimatedBytes;
+    /** Partitioned table: created with its partition key, its rows are dumped with its partitions */
+    private boolean partitioned;
+    /** Quoted name of the partitioned table this table is a partition of, or null */
+    private String partitionOf;
+
+    public String qualifiedName() {
+        return schema != null ? schema + "." + name : name;
+    }
+}
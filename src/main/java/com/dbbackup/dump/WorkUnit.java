@@ -0,0 +1,50 @@
+package com.dbbackup.dump;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A slice of a table dumped by one worker: the whole table, or a primary-key range
+ * {@code [lowerBound, upperBound)} of it. The first range of a table has no lower bound and
+ * the last no upper bound, so that keys outside the span seen when planning, e.g. rows
+ * inserted before a resumed run, are still dumped.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WorkUnit {
+    private int index;
+    private TableInfo table;
+    private Long lowerBound;
+    private Long upperBound;
+
+    public boolean isRange() {
+        return lowerBound != null || upperBound != null;
+    }
+
+    /**
+     * Returns the condition selecting the range, e.g. {@code "id" >= 1000 AND "id" < 2000}
+     *
+     * @param column the quoted split column
+     */
+    public String rangeCondition(String column) {
+        StringBuilder condition = new StringBuilder();
+        if (lowerBound != null) {
+            condition.append(column).append(" >= ").append(lowerBound);
+        }
+        if (upperBound != null) {
+            condition.append(condition.length() > 0 ? " AND " : "").append(column).append(" < ").append(upperBound);
+        }
+        return condition.toString();
+    }
+
+    public String describe() {
+        return isRange()
+                ? String.format("%s [%s, %s)", table.qualifiedName(), lowerBound != null ? lowerBound : "start",
+                        upperBound != null ? upperBound : "end")
+                : table.qualifiedName();
+    }
+}
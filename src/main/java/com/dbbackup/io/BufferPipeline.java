@@ -0,0 +1,145 @@
+package com.dbbackup.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Moves a source through a chain of {@link PipelineStage}s in leased direct buffers. With
+ * more than one buffer, a reader thread fills buffers ahead while the caller's thread runs
+ * the stages; the reader waits once every buffer is filled, so a slow stage holds the source
+ * back instead of letting memory grow.
+ */
+public final class BufferPipeline {
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private BufferPipeline() {
+    }
+
+    /**
+     * Reads the source to the end through the stages, then finishes them
+     *
+     * @param source the source; it may be closed if the run is interrupted or fails
+     * @param stages the first stage
+     * @param lease  the job's buffers; every buffer the stages have not taken is used for reading
+     * @return the number of bytes read from the source
+     * @throws IOException if reading or a stage fails
+     */
+    public static long run(ReadableByteChannel source, PipelineStage stages, BufferPool.Lease lease) throws IOException {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        while (lease.remaining() > 0) {
+            buffers.add(lease.take());
+        }
+        if (buffers.isEmpty()) {
+            throw new IllegalStateException("No buffer left to read into");
+        }
+        long total = buffers.size() == 1
+                ? runInline(source, stages, buffers.get(0))
+                : runReadAhead(source, stages, buffers);
+        stages.finish();
+        return total;
+    }
+
+    private static long runInline(ReadableByteChannel source, PipelineStage stages, ByteBuffer buffer) throws IOException {
+        long total = 0;
+        boolean more = true;
+        while (more) {
+            buffer.clear();
+            more = fill(source, buffer);
+            buffer.flip();
+            if (buffer.hasRemaining()) {
+                total += buffer.remaining();
+                stages.write(buffer);
+            }
+        }
+        return total;
+    }
+
+    private static long runReadAhead(ReadableByteChannel source, PipelineStage stages, List<ByteBuffer> buffers)
+            throws IOException {
+        BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(buffers.size(), false, buffers);
+        // One more slot than buffers, so that the end marker always fits
+        BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(buffers.size() + 1);
+        AtomicReference<IOException> failure = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> {
+            try {
+                boolean more = true;
+                while (more) {
+                    ByteBuffer buffer = free.take().clear();
+                    more = fill(source, buffer);
+                    buffer.flip();
+                    if (buffer.hasRemaining()) {
+                        filled.put(buffer);
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, new InterruptedIOException("Pipeline read interrupted"));
+            } catch (IOException e) {
+                failure.compareAndSet(null, e);
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, new IOException("Pipeline read failed", e));
+            } finally {
+                filled.offer(END);
+            }
+        }, Thread.currentThread().getName() + "-read");
+        reader.setDaemon(true);
+        reader.start();
+
+        long total = 0;
+        try {
+            ByteBuffer buffer;
+            while ((buffer = filled.take()) != END) {
+                total += buffer.remaining();
+                stages.write(buffer);
+                free.put(buffer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Pipeline interrupted");
+        } finally {
+            stop(reader);
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return total;
+    }
+
+    /**
+     * Reads until the buffer is full or the source ends
+     *
+     * @return false once the source has ended
+     */
+    private static boolean fill(ReadableByteChannel source, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void stop(Thread reader) {
+        // Only still running when a stage failed; its buffers must not be touched once the lease is closed
+        reader.interrupt();
+        boolean interrupted = false;
+        while (reader.isAlive()) {
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
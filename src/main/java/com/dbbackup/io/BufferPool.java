@@ -0,0 +1,129 @@
+package com.dbbackup.io;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-size pool of reusable direct buffers shared by all running jobs. Buffers are
+ * allocated on first use and never freed, so the pool never holds more than
+ * {@code bufferSize * maxBuffers} bytes. A job leases all the buffers it needs at once and
+ * waits, in arrival order, while the pool is exhausted; since a lease never grows, jobs
+ * cannot deadlock each other waiting for buffers.
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<ByteBuffer> free = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxBuffers) {
+        if (bufferSize < 1 || maxBuffers < 1) {
+            throw new IllegalArgumentException("Buffer size and count must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.permits = new Semaphore(maxBuffers, true);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getMaxBuffers() {
+        return maxBuffers;
+    }
+
+    /**
+     * @return the buffers not currently leased
+     */
+    public int available() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * @return the buffers allocated so far, leased or not
+     */
+    public int allocated() {
+        return allocated.get();
+    }
+
+    /**
+     * Leases buffers, blocking until that many are free
+     *
+     * @param count the number of buffers
+     * @return the lease, to be closed once the buffers are no longer used
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public Lease acquire(int count) throws InterruptedIOException {
+        if (count < 1 || count > maxBuffers) {
+            throw new IllegalArgumentException("Cannot lease " + count + " of " + maxBuffers + " buffers");
+        }
+        try {
+            permits.acquire(count);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for pipeline buffers");
+        }
+        List<ByteBuffer> buffers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ByteBuffer buffer = free.poll();
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(bufferSize);
+                allocated.incrementAndGet();
+            }
+            buffers.add(buffer.clear());
+        }
+        return new Lease(buffers);
+    }
+
+    /**
+     * Buffers leased by one job. Each buffer is handed out once by {@link #take()}; all of
+     * them go back to the pool when the lease is closed.
+     */
+    public class Lease implements Closeable {
+        private final List<ByteBuffer> buffers;
+        private int taken;
+        private boolean closed;
+
+        private Lease(List<ByteBuffer> buffers) {
+            this.buffers = buffers;
+        }
+
+        /**
+         * @return the next buffer not yet handed out, cleared
+         */
+        public ByteBuffer take() {
+            if (taken == buffers.size()) {
+                throw new IllegalStateException("All " + buffers.size() + " leased buffers are in use");
+            }
+            return buffers.get(taken++);
+        }
+
+        /**
+         * @return the buffers not yet handed out
+         */
+        public int remaining() {
+            return buffers.size() - taken;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (ByteBuffer buffer : buffers) {
+                free.push(buffer.clear());
+            }
+            permits.release(buffers.size());
+        }
+    }
+}
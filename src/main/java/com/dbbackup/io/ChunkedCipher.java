@@ -0,0 +1,126 @@
+package com.dbbackup.io;
+
+import com.dbbackup.model.EncryptionAlgorithm;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+
+/**
+ * Chunked authenticated encryption format shared by the encrypting stream and the reader.
+ *
+ * <p>Layout: a 16-byte header (magic, version, algorithm, chunk size, nonce prefix) followed by
+ * chunks of {@code chunkSize} plaintext bytes, each sealed on its own with a 16-byte tag. The nonce
+ * is the prefix plus the chunk index, and the associated data binds the header, the index and a
+ * final-chunk flag, so reordering, splicing and truncation are all detected. Chunk {@code i} starts
+ * at {@code HEADER_SIZE + i * (chunkSize + TAG_SIZE)}, which allows random-access decryption.
+ */
+public final class ChunkedCipher {
+
+    public static final int HEADER_SIZE = 16;
+    public static final int TAG_SIZE = 16;
+    private static final int MAGIC = 0x44424B45; // "DBKE"
+    private static final byte VERSION = 1;
+
+    private final EncryptionAlgorithm algorithm;
+    private final SecretKey key;
+    private final int chunkSize;
+    private final byte[] header;
+    private final int noncePrefix;
+
+    public ChunkedCipher(EncryptionAlgorithm algorithm, SecretKey key, int chunkSize, int noncePrefix) {
+        this.algorithm = algorithm;
+        this.key = key;
+        this.chunkSize = chunkSize;
+        this.noncePrefix = noncePrefix;
+        this.header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .put(VERSION)
+                .put((byte) algorithm.getId())
+                .putShort((short) 0)
+                .putInt(chunkSize)
+                .putInt(noncePrefix)
+                .array();
+    }
+
+    /**
+     * Parses a file header
+     *
+     * @param header the first {@link #HEADER_SIZE} bytes of an encrypted file
+     * @param key    the data key
+     * @return the cipher for that file
+     */
+    public static ChunkedCipher fromHeader(byte[] header, SecretKey key) {
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        if (buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+            throw new IllegalArgumentException("Not an encrypted backup file");
+        }
+        EncryptionAlgorithm algorithm = EncryptionAlgorithm.fromId(buffer.get());
+        buffer.getShort();
+        int chunkSize = buffer.getInt();
+        int noncePrefix = buffer.getInt();
+        return new ChunkedCipher(algorithm, key, chunkSize, noncePrefix);
+    }
+
+    public byte[] header() {
+        return header.clone();
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Seals one chunk
+     *
+     * @param index     the chunk index
+     * @param plaintext the chunk contents
+     * @param length    the number of plaintext bytes
+     * @param last      whether this is the final chunk
+     * @return the ciphertext including the tag
+     * @throws GeneralSecurityException if encryption fails
+     */
+    public byte[] seal(long index, byte[] plaintext, int length, boolean last) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(algorithm.getTransformation());
+        cipher.init(Cipher.ENCRYPT_MODE, key, parameters(index));
+        cipher.updateAAD(associatedData(index, last));
+        return cipher.doFinal(plaintext, 0, length);
+    }
+
+    /**
+     * Opens one chunk, verifying its tag
+     *
+     * @param index      the chunk index
+     * @param ciphertext the chunk ciphertext including the tag
+     * @param length     the number of ciphertext bytes
+     * @param last       whether this is the final chunk
+     * @return the plaintext
+     * @throws GeneralSecurityException if the chunk was tampered with or the key is wrong
+     */
+    public byte[] open(long index, byte[] ciphertext, int length, boolean last) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(algorithm.getTransformation());
+        cipher.init(Cipher.DECRYPT_MODE, key, parameters(index));
+        cipher.updateAAD(associatedData(index, last));
+        return cipher.doFinal(ciphertext, 0, length);
+    }
+
+    private AlgorithmParameterSpec parameters(long index) {
+        byte[] nonce = ByteBuffer.allocate(12).putInt(noncePrefix).putLong(index).array();
+        if (algorithm == EncryptionAlgorithm.AES_GCM) {
+            return new GCMParameterSpec(TAG_SIZE * 8, nonce);
+        }
+        return new IvParameterSpec(nonce);
+    }
+
+    private byte[] associatedData(long index, boolean last) {
+        return ByteBuffer.allocate(HEADER_SIZE + 9)
+                .put(header)
+                .putLong(index)
+                .put((byte) (last ? 1 : 0))
+                .array();
+    }
+}
@@ -0,0 +1,110 @@
+package com.dbbackup.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Output stream that encrypts its input in independent authenticated chunks.
+ * Chunks are sealed in parallel on the given executor and written in order; at most
+ * {@code maxInFlight} chunks are buffered, which bounds memory use.
+ */
+public class ChunkedEncryptingOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final ChunkedCipher cipher;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+
+    private byte[] buffer;
+    private int position;
+    private long chunkIndex;
+    private boolean closed;
+
+    public ChunkedEncryptingOutputStream(OutputStream out, ChunkedCipher cipher,
+                                         ExecutorService executor, int maxInFlight) throws IOException {
+        this.out = out;
+        this.cipher = cipher;
+        this.executor = executor;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.buffer = new byte[cipher.getChunkSize()];
+        out.write(cipher.header());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (position == buffer.length) {
+                // More data follows, so the buffered chunk is not the last one
+                submit(false);
+            }
+            int n = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submit(true);
+            while (!inFlight.isEmpty()) {
+                writeHead();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        final byte[] chunk = buffer;
+        final int length = position;
+        final long index = chunkIndex++;
+        inFlight.addLast(executor.submit(() -> cipher.seal(index, chunk, length, last)));
+        buffer = new byte[cipher.getChunkSize()];
+        position = 0;
+        while (inFlight.size() >= maxInFlight) {
+            writeHead();
+        }
+    }
+
+    private void writeHead() throws IOException {
+        try {
+            out.write(inFlight.removeFirst().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encrypting");
+        } catch (ExecutionException e) {
+            throw new IOException("Chunk encryption failed", e.getCause());
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.dbbackup.io;
+
+import com.dbbackup.model.CompressionCodec;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+
+import java.io.BufferedInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.function.LongFunction;
+
+/**
+ * Opens and decodes compressed frames, and measures codecs on sample data.
+ * Closing a frame finishes it but leaves the underlying output open, so that the next
+ * frame, possibly at another level, can follow it.
+ */
+public final class CompressionFrames {
+
+    private CompressionFrames() {
+    }
+
+    /**
+     * Starts a frame
+     *
+     * @param choice the codec and level
+     * @param out    the output, left open when the frame is closed
+     * @return the stream to write uncompressed data to
+     * @throws IOException if the frame header cannot be written
+     */
+    public static OutputStream open(Choice choice, OutputStream out) throws IOException {
+        OutputStream shielded = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.flush();
+            }
+        };
+        return switch (choice.getCodec()) {
+            case GZIP -> {
+                GzipParameters parameters = new GzipParameters();
+                parameters.setCompressionLevel(choice.getLevel());
+                yield new GzipCompressorOutputStream(shielded, parameters);
+            }
+            case ZSTD -> new ZstdOutputStream(shielded, choice.getLevel());
+            case LZ4 -> new LZ4FrameOutputStream(shielded, LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB);
+        };
+    }
+
+    /**
+     * Starts a zstd frame that references a trained dictionary
+     *
+     * @param level      the compression level
+     * @param dictionary the dictionary contents
+     * @param out        the output, left open when the frame is closed
+     * @return the stream to write uncompressed data to
+     * @throws IOException if the frame header cannot be written
+     */
+    public static OutputStream openZstd(int level, byte[] dictionary, OutputStream out) throws IOException {
+        ZstdOutputStream zstd = (ZstdOutputStream) open(new Choice(CompressionCodec.ZSTD, level), out);
+        return zstd.setDict(dictionary);
+    }
+
+    /**
+     * Decodes a stream of concatenated frames
+     *
+     * @param in           the compressed input
+     * @param codec        the codec of the frames
+     * @param dictionaries looks up a zstd dictionary by its id; only called when a frame
+     *                     references one
+     * @return the uncompressed stream
+     * @throws IOException if the stream cannot be read or a referenced dictionary is unknown
+     */
+    public static InputStream decode(InputStream in, CompressionCodec codec, LongFunction<byte[]> dictionaries)
+            throws IOException {
+        return switch (codec) {
+            case GZIP -> new GzipCompressorInputStream(in, true);
+            case LZ4 -> new LZ4FrameInputStream(in);
+            case ZSTD -> {
+                BufferedInputStream buffered = new BufferedInputStream(in, 65536);
+                // The dictionary id sits in the frame header, which is at most 18 bytes
+                buffered.mark(18);
+                byte[] header = buffered.readNBytes(18);
+                buffered.reset();
+                long dictionaryId = header.length >= 6 ? Zstd.getDictIdFromFrame(header) : 0;
+                ZstdInputStream zstd = new ZstdInputStream(buffered);
+                if (dictionaryId != 0) {
+                    byte[] dictionary = dictionaries.apply(dictionaryId);
+                    if (dictionary == null) {
+                        zstd.close();
+                        throw new IOException("Backup was compressed with unknown zstd dictionary " + dictionaryId);
+                    }
+                    zstd.setDict(dictionary);
+                }
+                yield zstd;
+            }
+        };
+    }
+
+    /**
+     * Compresses sample data and measures the output size and time taken
+     *
+     * @param choice the codec and level
+     * @param data   the sample
+     * @param length the number of sample bytes
+     * @return the measurement
+     * @throws IOException if the codec fails
+     */
+    public static Sample measure(Choice choice, byte[] data, int length) throws IOException {
+        CountingSink sink = new CountingSink();
+        long start = System.nanoTime();
+        try (OutputStream frame = open(choice, sink)) {
+            frame.write(data, 0, length);
+        }
+        return new Sample(choice, length, sink.count, Math.max(1, System.nanoTime() - start));
+    }
+
+    /**
+     * A codec at one level, written as {@code codec:level} (e.g. {@code zstd:3})
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Choice {
+        private CompressionCodec codec;
+        private int level;
+
+        public static Choice parse(String text) {
+            String[] parts = text.trim().split(":");
+            CompressionCodec codec = CompressionCodec.valueOf(parts[0].toUpperCase(Locale.ROOT));
+            int level = parts.length > 1 ? Integer.parseInt(parts[1]) : codec.getMinLevel();
+            if (level < codec.getMinLevel() || level > codec.getMaxLevel()) {
+                throw new IllegalArgumentException("Level " + level + " out of range for " + codec + ": " + text);
+            }
+            return new Choice(codec, level);
+        }
+
+        @Override
+        public String toString() {
+            return codec.name().toLowerCase(Locale.ROOT) + ":" + level;
+        }
+    }
+
+    /**
+     * Result of compressing a sample with one choice
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Sample {
+        private Choice choice;
+        private long inputBytes;
+        private long outputBytes;
+        private long nanos;
+
+        public double ratio() {
+            return inputBytes > 0 ? (double) outputBytes / inputBytes : 1.0;
+        }
+
+        /**
+         * @return uncompressed bytes consumed per second
+         */
+        public double bytesPerSecond() {
+            return inputBytes * 1e9 / nanos;
+        }
+    }
+
+    private static class CountingSink extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.dbbackup.io;
+
+import com.dbbackup.model.SyncPolicy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Backup file that only appears complete once {@link #commit()} succeeded. The data goes to a
+ * {@code .part} file next to the target, which is renamed over the target on commit, so an
+ * existing backup stays in place until its replacement is complete. With atomic rename the
+ * rename is atomic and forced to disk, so a crash leaves either the previous file or the new
+ * one but never a truncated one. The sync policy decides how often the data is forced to disk;
+ * a committed file is forced unless the policy is {@link SyncPolicy#NONE}. Closing a file that
+ * was not committed deletes what was written and leaves the target alone.
+ */
+public final class DurableFile implements WritableByteChannel {
+
+    /** Suffix of files still being written */
+    public static final String PARTIAL_SUFFIX = ".part";
+
+    private final Path target;
+    private final Path path;
+    private final boolean atomicRename;
+    private final SyncPolicy sync;
+    private final long syncInterval;
+    private final FileChannel channel;
+    private long unsynced;
+    private boolean committed;
+
+    /**
+     * @param target       the file to write
+     * @param sync         when the data is forced to disk
+     * @param syncInterval bytes written between forces for {@link SyncPolicy#PERIODIC}
+     * @param atomicRename rename atomically and force the rename to disk; file systems without
+     *                     atomic rename get a plain rename that is as durable as they make it
+     * @param expectedSize the expected size, checked against the free space and set as the file
+     *                     length up front as a hint to the file system, or -1 if unknown
+     * @throws IOException if the file cannot be created or there is not enough space for the expected size
+     */
+    public DurableFile(Path target, SyncPolicy sync, long syncInterval, boolean atomicRename,
+                       long expectedSize) throws IOException {
+        this.target = target;
+        this.path = target.resolveSibling(target.getFileName() + PARTIAL_SUFFIX);
+        this.atomicRename = atomicRename;
+        this.sync = sync;
+        this.syncInterval = Math.max(1, syncInterval);
+        if (expectedSize > 0) {
+            Path directory = target.toAbsolutePath().getParent();
+            long usable = Files.getFileStore(directory).getUsableSpace();
+            if (usable < expectedSize) {
+                throw new IOException(String.format("Not enough space in %s: %d bytes needed, %d usable",
+                        directory, expectedSize, usable));
+            }
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        if (expectedSize > 0) {
+            // Only a size hint: Java has no fallocate, so on most file systems the length stays
+            // sparse until written and a full disk can still fail the write. Trimmed on commit.
+            channel.write(ByteBuffer.allocate(1), expectedSize - 1);
+        }
+    }
+
+    public Path getTarget() {
+        return target;
+    }
+
+    @Override
+    public int write(ByteBuffer buffer) throws IOException {
+        int written = channel.write(buffer);
+        written(written);
+        return written;
+    }
+
+    /**
+     * Copies a range of a file without passing it through the heap, by {@code sendfile} or
+     * {@code copy_file_range} where the platform has them
+     *
+     * @param source   the file to copy from
+     * @param position the position in the source
+     * @param count    the maximum number of bytes to copy
+     * @return the number of bytes copied, 0 at the end of the source
+     * @throws IOException if reading or writing fails
+     */
+    public long transferFrom(FileChannel source, long position, long count) throws IOException {
+        long transferred = source.transferTo(position, count, channel);
+        written(transferred);
+        return transferred;
+    }
+
+    /**
+     * Returns a stream writing to this file for stream-based writers. Closing the stream leaves
+     * the file open, so that it can be committed afterwards.
+     */
+    public OutputStream outputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+                while (buffer.hasRemaining()) {
+                    DurableFile.this.write(buffer);
+                }
+            }
+        };
+    }
+
+    /**
+     * Completes the file: trims the length to what was written, forces the data to disk as the
+     * policy asks and renames the file over the target
+     *
+     * @throws IOException if the file cannot be forced or renamed
+     */
+    public void commit() throws IOException {
+        if (committed) {
+            return;
+        }
+        if (channel.size() > channel.position()) {
+            channel.truncate(channel.position());
+        }
+        if (sync != SyncPolicy.NONE) {
+            channel.force(true);
+        }
+        channel.close();
+        if (atomicRename) {
+            Files.move(path, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            Files.move(path, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+        if (atomicRename && sync != SyncPolicy.NONE) {
+            forceDirectory(target.toAbsolutePath().getParent());
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Closes the file, deleting it unless it was committed
+     */
+    @Override
+    public void close() throws IOException {
+        if (committed) {
+            return;
+        }
+        try {
+            channel.close();
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private void written(long bytes) throws IOException {
+        if (sync == SyncPolicy.PERIODIC) {
+            unsynced += bytes;
+            if (unsynced >= syncInterval) {
+                // Bounds the dirty pages, so the force on commit does not stall on the whole file
+                channel.force(false);
+                unsynced = 0;
+            }
+        }
+    }
+
+    /**
+     * Forces a directory entry, such as a rename, to disk. Not every platform can open a
+     * directory; there the rename is as durable as the platform makes it.
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // e.g. Windows
+        }
+    }
+}
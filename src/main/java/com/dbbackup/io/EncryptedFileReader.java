@@ -0,0 +1,125 @@
+package com.dbbackup.io;
+
+import javax.crypto.SecretKey;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+
+/**
+ * Random-access reader for files written by {@link ChunkedEncryptingOutputStream}.
+ * Any chunk can be decrypted and authenticated on its own without reading the rest of the file.
+ */
+public class EncryptedFileReader implements Closeable {
+
+    private final FileChannel channel;
+    private final ChunkedCipher cipher;
+    private final long chunkCount;
+    private final int sealedChunkSize;
+
+    public EncryptedFileReader(Path path, SecretKey key) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(ChunkedCipher.HEADER_SIZE);
+        readFully(header, 0);
+        this.cipher = ChunkedCipher.fromHeader(header.array(), key);
+        this.sealedChunkSize = cipher.getChunkSize() + ChunkedCipher.TAG_SIZE;
+        long body = channel.size() - ChunkedCipher.HEADER_SIZE;
+        this.chunkCount = (body + sealedChunkSize - 1) / sealedChunkSize;
+        if (chunkCount == 0) {
+            throw new IOException("Encrypted file is truncated: " + path);
+        }
+    }
+
+    public long getChunkCount() {
+        return chunkCount;
+    }
+
+    public int getChunkSize() {
+        return cipher.getChunkSize();
+    }
+
+    /**
+     * Returns the size of the plaintext, which takes decrypting the last chunk
+     *
+     * @return the plaintext size in bytes
+     * @throws IOException if the last chunk cannot be read or fails authentication
+     */
+    public long plaintextSize() throws IOException {
+        return (chunkCount - 1) * cipher.getChunkSize() + readChunk(chunkCount - 1).length;
+    }
+
+    /**
+     * Decrypts a single chunk
+     *
+     * @param index the chunk index
+     * @return the plaintext of the chunk
+     * @throws IOException if the chunk cannot be read or fails authentication
+     */
+    public byte[] readChunk(long index) throws IOException {
+        if (index < 0 || index >= chunkCount) {
+            throw new IndexOutOfBoundsException("Chunk " + index + " of " + chunkCount);
+        }
+        long offset = ChunkedCipher.HEADER_SIZE + index * sealedChunkSize;
+        int length = (int) Math.min(sealedChunkSize, channel.size() - offset);
+        ByteBuffer sealed = ByteBuffer.allocate(length);
+        readFully(sealed, offset);
+        try {
+            return cipher.open(index, sealed.array(), length, index == chunkCount - 1);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Chunk " + index + " failed authentication", e);
+        }
+    }
+
+    /**
+     * Decrypts a plaintext byte range
+     *
+     * @param offset the plaintext offset
+     * @param length the number of bytes to read
+     * @param out    the destination
+     * @throws IOException if a chunk cannot be read or fails authentication
+     */
+    public void readRange(long offset, long length, OutputStream out) throws IOException {
+        long chunk = offset / cipher.getChunkSize();
+        int skip = (int) (offset % cipher.getChunkSize());
+        while (length > 0 && chunk < chunkCount) {
+            byte[] plaintext = readChunk(chunk++);
+            int n = (int) Math.min(length, plaintext.length - skip);
+            if (n <= 0) {
+                break;
+            }
+            out.write(plaintext, skip, n);
+            length -= n;
+            skip = 0;
+        }
+    }
+
+    /**
+     * Decrypts the whole file
+     *
+     * @param out the destination
+     * @throws IOException if a chunk cannot be read or fails authentication
+     */
+    public void decryptTo(OutputStream out) throws IOException {
+        for (long i = 0; i < chunkCount; i++) {
+            out.write(readChunk(i));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new IOException("Unexpected end of encrypted file");
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.dbbackup.io;
+
+import com.dbbackup.model.CompressionCodec;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.LongFunction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Seekable backup archive: a sequence of independently readable blocks followed by an index
+ * and a fixed-size footer. Each block holds part of one object (a table, collection or the
+ * whole-database DDL), either compressed on its own or stored as-is when it is already
+ * compressed. Reading the footer and the index takes two small reads from the end of the
+ * file, after which any object can be read without touching the rest of the archive.
+ *
+ * <pre>
+ * [block 0] [block 1] ... [index: properties] [footer: "DBXINDEX", index offset (8), index length (4), index CRC32 (4)]
+ * </pre>
+ */
+public final class IndexedArchive {
+
+    public static final String EXTENSION = ".dbx";
+    /** Object name of blocks that belong to the whole database rather than one table */
+    public static final String DATABASE = "*";
+    public static final String PRE_DATA = "pre-data";
+    public static final String DATA = "data";
+    public static final String POST_DATA = "post-data";
+
+    static final byte[] MAGIC = "DBXINDEX".getBytes(StandardCharsets.US_ASCII);
+    static final int FOOTER_SIZE = 24;
+
+    private IndexedArchive() {
+    }
+
+    /**
+     * Reads the block index of an archive
+     *
+     * @param source the archive
+     * @return the blocks in archive order
+     * @throws IOException if the archive cannot be read or is not an indexed archive
+     */
+    public static List<Block> readIndex(RangeSource source) throws IOException {
+        long size = source.size();
+        if (size < FOOTER_SIZE) {
+            throw new IOException("Not an indexed archive: too short");
+        }
+        ByteBuffer footer;
+        try (InputStream in = source.open(size - FOOTER_SIZE, FOOTER_SIZE)) {
+            footer = ByteBuffer.wrap(in.readNBytes(FOOTER_SIZE));
+        }
+        byte[] magic = new byte[MAGIC.length];
+        footer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not an indexed archive: footer not found");
+        }
+        long indexOffset = footer.getLong();
+        int indexLength = footer.getInt();
+        long indexCrc = Integer.toUnsignedLong(footer.getInt());
+
+        byte[] index;
+        try (InputStream in = source.open(indexOffset, indexLength)) {
+            index = in.readNBytes(indexLength);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(index);
+        if (index.length != indexLength || crc.getValue() != indexCrc) {
+            throw new IOException("Archive index is corrupt");
+        }
+        Properties properties = new Properties();
+        properties.load(new ByteArrayInputStream(index));
+        int count = Integer.parseInt(properties.getProperty("blocks", "0"));
+        List<Block> blocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String prefix = "block." + i + ".";
+            String codec = properties.getProperty(prefix + "codec");
+            blocks.add(Block.builder()
+                    .object(properties.getProperty(prefix + "object"))
+                    .section(properties.getProperty(prefix + "section"))
+                    .file(properties.getProperty(prefix + "file"))
+                    .codec(codec != null ? CompressionCodec.valueOf(codec) : null)
+                    .offset(Long.parseLong(properties.getProperty(prefix + "offset")))
+                    .length(Long.parseLong(properties.getProperty(prefix + "length")))
+                    .rawLength(Long.parseLong(properties.getProperty(prefix + "raw-length")))
+                    .crc(Long.parseLong(properties.getProperty(prefix + "crc")))
+                    .build());
+        }
+        return blocks;
+    }
+
+    static byte[] writeIndex(List<Block> blocks) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("format", "1");
+        properties.setProperty("blocks", String.valueOf(blocks.size()));
+        for (int i = 0; i < blocks.size(); i++) {
+            Block block = blocks.get(i);
+            String prefix = "block." + i + ".";
+            properties.setProperty(prefix + "object", block.getObject());
+            properties.setProperty(prefix + "section", block.getSection());
+            if (block.getFile() != null) {
+                properties.setProperty(prefix + "file", block.getFile());
+            }
+            if (block.getCodec() != null) {
+                properties.setProperty(prefix + "codec", block.getCodec().name());
+            }
+            properties.setProperty(prefix + "offset", String.valueOf(block.getOffset()));
+            properties.setProperty(prefix + "length", String.valueOf(block.getLength()));
+            properties.setProperty(prefix + "raw-length", String.valueOf(block.getRawLength()));
+            properties.setProperty(prefix + "crc", String.valueOf(block.getCrc()));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        properties.store(out, "Indexed archive blocks");
+        return out.toByteArray();
+    }
+
+    /**
+     * Opens the contents of a block, decompressed if it was compressed by the archive
+     *
+     * @param source       the archive
+     * @param block        the block
+     * @param dictionaries looks up zstd dictionaries by id
+     * @return the block contents; reading to the end fails if the stored bytes are corrupt
+     * @throws IOException if the block cannot be read
+     */
+    public static InputStream openBlock(RangeSource source, Block block, LongFunction<byte[]> dictionaries)
+            throws IOException {
+        InputStream stored = new VerifyingInputStream(source.open(block.getOffset(), block.getLength()), block);
+        return block.getCodec() != null ? CompressionFrames.decode(stored, block.getCodec(), dictionaries) : stored;
+    }
+
+    /**
+     * Opens a local archive file
+     */
+    public static RangeSource localFile(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        return new RangeSource() {
+            @Override
+            public long size() throws IOException {
+                return channel.size();
+            }
+
+            @Override
+            public InputStream open(long offset, long length) {
+                // Positional reads, so that several blocks can be open at once
+                return new InputStream() {
+                    private long position = offset;
+                    private final long end = offset + length;
+
+                    @Override
+                    public int read() throws IOException {
+                        byte[] one = new byte[1];
+                        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if (position >= end) {
+                            return -1;
+                        }
+                        ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, end - position));
+                        int read = channel.read(buffer, position);
+                        if (read < 0) {
+                            throw new IOException("Archive ends inside a block");
+                        }
+                        position += read;
+                        return read;
+                    }
+                };
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Opens a local archive encrypted by the backup, decrypting only the chunks a read needs
+     *
+     * @param reader the reader of the encrypted file, closed with the source
+     */
+    public static RangeSource encrypted(EncryptedFileReader reader) {
+        return new RangeSource() {
+            @Override
+            public long size() throws IOException {
+                return reader.plaintextSize();
+            }
+
+            @Override
+            public InputStream open(long offset, long length) {
+                return new InputStream() {
+                    private long position = offset;
+                    private final long end = offset + length;
+                    private byte[] piece = new byte[0];
+                    private int pieceOffset;
+
+                    @Override
+                    public int read() throws IOException {
+                        byte[] one = new byte[1];
+                        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if (pieceOffset == piece.length) {
+                            if (position >= end) {
+                                return -1;
+                            }
+                            // One encryption chunk at a time
+                            int chunkSize = reader.getChunkSize();
+                            long n = Math.min(end - position, chunkSize - position % chunkSize);
+                            ByteArrayOutputStream decrypted = new ByteArrayOutputStream((int) n);
+                            reader.readRange(position, n, decrypted);
+                            if (decrypted.size() == 0) {
+                                throw new IOException("Archive ends inside a block");
+                            }
+                            piece = decrypted.toByteArray();
+                            pieceOffset = 0;
+                            position += piece.length;
+                        }
+                        int n = Math.min(len, piece.length - pieceOffset);
+                        System.arraycopy(piece, pieceOffset, b, off, n);
+                        pieceOffset += n;
+                        return n;
+                    }
+                };
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    /**
+     * Random read access to an archive, locally or in cloud storage
+     */
+    public interface RangeSource extends Closeable {
+
+        long size() throws IOException;
+
+        /**
+         * Opens {@code length} bytes starting at {@code offset}
+         */
+        InputStream open(long offset, long length) throws IOException;
+    }
+
+    /**
+     * One block of an archive
+     */
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Block {
+        /** Table or collection name, or {@link #DATABASE} */
+        private String object;
+        /** {@link #PRE_DATA}, {@link #DATA} or {@link #POST_DATA} */
+        private String section;
+        /** Original file name of a stored block, null for blocks compressed by the archive */
+        private String file;
+        /** Codec the block was compressed with, null if stored as-is */
+        private CompressionCodec codec;
+        private long offset;
+        private long length;
+        private long rawLength;
+        /** CRC32 of the bytes as stored */
+        private long crc;
+    }
+
+    /**
+     * Checks the stored bytes of a block against its CRC once they are read to the end
+     */
+    private static class VerifyingInputStream extends CheckedInputStream {
+        private final Block block;
+        private long read;
+
+        VerifyingInputStream(InputStream in, Block block) {
+            super(in, new CRC32());
+            this.block = block;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                verify();
+            } else {
+                read++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n < 0) {
+                verify();
+            } else {
+                read += n;
+            }
+            return n;
+        }
+
+        private void verify() throws IOException {
+            if (read != block.getLength() || getChecksum().getValue() != block.getCrc()) {
+                throw new IOException("Block of " + block.getObject() + " at offset " + block.getOffset() + " is corrupt");
+            }
+        }
+    }
+}
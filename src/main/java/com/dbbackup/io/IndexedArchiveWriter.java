@@ -0,0 +1,156 @@
+package com.dbbackup.io;
+
+import com.dbbackup.io.CompressionFrames.Choice;
+import com.dbbackup.io.IndexedArchive.Block;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Writes an {@link IndexedArchive}: blocks are appended in the order they are added, and the
+ * index and footer are written on close
+ */
+public class IndexedArchiveWriter implements Closeable {
+
+    private final CountingOutputStream out;
+    private final Choice choice;
+    private final List<Block> blocks = new ArrayList<>();
+    private final byte[] buffer = new byte[65536];
+
+    /**
+     * @param out    the archive output, closed with the writer
+     * @param choice codec and level of the blocks the archive compresses itself
+     */
+    public IndexedArchiveWriter(OutputStream out, Choice choice) {
+        this.out = new CountingOutputStream(out);
+        this.choice = choice;
+    }
+
+    /**
+     * Creates a writer for stored blocks only
+     *
+     * @param out the archive output, closed with the writer
+     */
+    public IndexedArchiveWriter(OutputStream out) {
+        this(out, null);
+    }
+
+    /**
+     * Adds a file as a block compressed on its own
+     *
+     * @param object  the table or collection, or {@link IndexedArchive#DATABASE}
+     * @param section the restore section
+     * @param file    the uncompressed contents
+     * @throws IOException if the file cannot be read or the archive written
+     */
+    public void addCompressed(String object, String section, Path file) throws IOException {
+        if (choice == null) {
+            throw new IllegalStateException("Archive was opened for stored blocks only");
+        }
+        long offset = out.count;
+        out.crc.reset();
+        long rawLength = 0;
+        try (InputStream in = Files.newInputStream(file);
+             OutputStream frame = CompressionFrames.open(choice, out)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                frame.write(buffer, 0, read);
+                rawLength += read;
+            }
+        }
+        blocks.add(Block.builder()
+                .object(object)
+                .section(section)
+                .codec(choice.getCodec())
+                .offset(offset)
+                .length(out.count - offset)
+                .rawLength(rawLength)
+                .crc(out.crc.getValue())
+                .build());
+    }
+
+    /**
+     * Adds a file as-is, e.g. one that is already compressed
+     *
+     * @param object   the table or collection, or {@link IndexedArchive#DATABASE}
+     * @param section  the restore section
+     * @param file     the file
+     * @param fileName the name to extract the file as, relative to the output directory
+     * @throws IOException if the file cannot be read or the archive written
+     */
+    public void addStored(String object, String section, Path file, String fileName) throws IOException {
+        long offset = out.count;
+        out.crc.reset();
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        long length = out.count - offset;
+        blocks.add(Block.builder()
+                .object(object)
+                .section(section)
+                .file(fileName)
+                .offset(offset)
+                .length(length)
+                .rawLength(length)
+                .crc(out.crc.getValue())
+                .build());
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (out) {
+            byte[] index = IndexedArchive.writeIndex(blocks);
+            long indexOffset = out.count;
+            out.crc.reset();
+            out.write(index);
+            ByteBuffer footer = ByteBuffer.allocate(IndexedArchive.FOOTER_SIZE)
+                    .put(IndexedArchive.MAGIC)
+                    .putLong(indexOffset)
+                    .putInt(index.length)
+                    .putInt((int) out.crc.getValue());
+            out.write(footer.array());
+        }
+    }
+
+    /**
+     * Tracks the archive offset and the CRC of the bytes written since the last reset
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final CRC32 crc = new CRC32();
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            crc.update(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.dbbackup.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * One stage of a {@link BufferPipeline}. A stage consumes the remaining bytes of each buffer
+ * it is given, usually passing them or what it makes of them to the next stage, and must not
+ * keep a reference to the buffer after returning: the buffer is refilled right away.
+ */
+public interface PipelineStage {
+
+    /**
+     * Consumes the bytes between the buffer's position and limit
+     */
+    void write(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Flushes what the stage still holds after the last buffer, then finishes the next stage
+     */
+    default void finish() throws IOException {
+    }
+}
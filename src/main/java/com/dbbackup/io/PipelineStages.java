@@ -0,0 +1,187 @@
+package com.dbbackup.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * The stages buffer pipelines are built from. Stages that produce output, like the gzip
+ * stage, write it into a buffer of their own taken from the job's lease.
+ */
+public final class PipelineStages {
+
+    private static final byte[] GZIP_HEADER = {
+            0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private PipelineStages() {
+    }
+
+    /**
+     * Blocks until a number of bytes may pass, e.g. to charge a throttle
+     */
+    @FunctionalInterface
+    public interface Limiter {
+        void acquire(long bytes) throws IOException;
+    }
+
+    /**
+     * Updates a checksum with every byte that passes
+     */
+    public static PipelineStage checksum(Checksum checksum, PipelineStage next) {
+        return new PipelineStage() {
+            @Override
+            public void write(ByteBuffer buffer) throws IOException {
+                int position = buffer.position();
+                checksum.update(buffer);
+                next.write(buffer.position(position));
+            }
+
+            @Override
+            public void finish() throws IOException {
+                next.finish();
+            }
+        };
+    }
+
+    /**
+     * Charges every buffer against a limiter before passing it on
+     */
+    public static PipelineStage limited(Limiter limiter, PipelineStage next) {
+        return new PipelineStage() {
+            @Override
+            public void write(ByteBuffer buffer) throws IOException {
+                limiter.acquire(buffer.remaining());
+                next.write(buffer);
+            }
+
+            @Override
+            public void finish() throws IOException {
+                next.finish();
+            }
+        };
+    }
+
+    /**
+     * Compresses into the gzip format, deflating straight from the input buffer into a
+     * direct output buffer
+     *
+     * @param level  the deflate level
+     * @param output the buffer the compressed bytes are collected in
+     * @param next   the stage receiving the compressed bytes
+     */
+    public static PipelineStage gzip(int level, ByteBuffer output, PipelineStage next) {
+        CRC32 crc = new CRC32();
+        return checksum(crc, new DeflateStage(level, output, next, crc));
+    }
+
+    /**
+     * Writes to a channel, straight from the buffer
+     */
+    public static PipelineStage channel(WritableByteChannel channel) {
+        return buffer -> {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        };
+    }
+
+    /**
+     * Writes to a stream, for sinks that only take arrays such as the encryption stream.
+     * This is the one stage that copies, through a scratch array of its own.
+     *
+     * @param out         the stream, flushed but not closed on finish
+     * @param scratchSize the size of the scratch array
+     */
+    public static PipelineStage stream(OutputStream out, int scratchSize) {
+        byte[] scratch = new byte[scratchSize];
+        return new PipelineStage() {
+            @Override
+            public void write(ByteBuffer buffer) throws IOException {
+                while (buffer.hasRemaining()) {
+                    int n = Math.min(buffer.remaining(), scratch.length);
+                    buffer.get(scratch, 0, n);
+                    out.write(scratch, 0, n);
+                }
+            }
+
+            @Override
+            public void finish() throws IOException {
+                out.flush();
+            }
+        };
+    }
+
+    /**
+     * Raw deflate between the gzip header and trailer; the CRC is kept by the checksum stage
+     * in front of it
+     */
+    private static class DeflateStage implements PipelineStage {
+        private final Deflater deflater;
+        private final ByteBuffer output;
+        private final PipelineStage next;
+        private final CRC32 crc;
+        private boolean started;
+
+        DeflateStage(int level, ByteBuffer output, PipelineStage next, CRC32 crc) {
+            this.deflater = new Deflater(level, true);
+            this.output = output;
+            this.next = next;
+            this.crc = crc;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer) throws IOException {
+            start();
+            deflater.setInput(buffer);
+            while (!deflater.needsInput()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+            // The buffer is refilled once this returns, so the deflater must let go of it
+            deflater.setInput(EMPTY);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            try {
+                start();
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate(Deflater.NO_FLUSH);
+                }
+                output.clear().order(ByteOrder.LITTLE_ENDIAN)
+                        .putInt((int) crc.getValue())
+                        .putInt((int) deflater.getBytesRead())
+                        .order(ByteOrder.BIG_ENDIAN)
+                        .flip();
+                next.write(output);
+            } finally {
+                deflater.end();
+            }
+            next.finish();
+        }
+
+        private void start() throws IOException {
+            if (!started) {
+                started = true;
+                next.write(output.clear().put(GZIP_HEADER).flip());
+            }
+        }
+
+        private void deflate(int flush) throws IOException {
+            output.clear();
+            deflater.deflate(output, flush);
+            output.flip();
+            if (output.hasRemaining()) {
+                next.write(output);
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.dbbackup.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Final stage that hands one stream to several targets at once, each consuming it on a thread
+ * of its own. Every target has a bounded queue of chunks: a slow target falls behind by up to
+ * its queue before it holds the pipeline back, and a target that fails or stops making progress
+ * for the stall timeout is dropped while the others carry on. Chunks are copied once from the
+ * pipeline buffer and shared by all queues.
+ */
+public final class TeeStage implements PipelineStage, AutoCloseable {
+
+    private static final byte[] END = new byte[0];
+
+    /**
+     * Consumes the stream of one target, e.g. by uploading it. The stream ends after the last
+     * chunk; a target that returns before reading it to the end counts as failed.
+     */
+    @FunctionalInterface
+    public interface Target {
+        void consume(InputStream in) throws IOException;
+    }
+
+    /**
+     * What became of one target
+     */
+    public static final class Outcome {
+        private final String name;
+        private final Throwable failure;
+        private final long bytes;
+        private final long durationMillis;
+
+        Outcome(String name, Throwable failure, long bytes, long durationMillis) {
+            this.name = name;
+            this.failure = failure;
+            this.bytes = bytes;
+            this.durationMillis = durationMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** The error the target failed with, null if it consumed the whole stream */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        public boolean isSuccess() {
+            return failure == null;
+        }
+
+        /** Bytes the target read */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+    }
+
+    private final List<Branch> branches = new ArrayList<>();
+    private final long stallTimeoutNanos;
+
+    /**
+     * Starts a thread for every target
+     *
+     * @param targets      the targets by name, in the order their outcomes are reported
+     * @param queueChunks  how many chunks a target may fall behind the fastest one
+     * @param stallTimeout how long a target may hold the pipeline back before it is dropped
+     */
+    public TeeStage(Map<String, Target> targets, int queueChunks, Duration stallTimeout) {
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("No targets to write to");
+        }
+        this.stallTimeoutNanos = stallTimeout.toNanos();
+        String prefix = Thread.currentThread().getName() + "-tee-";
+        targets.forEach((name, target) -> branches.add(new Branch(name, target, Math.max(1, queueChunks))));
+        for (int i = 0; i < branches.size(); i++) {
+            branches.get(i).start(prefix + (i + 1));
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer buffer) throws IOException {
+        byte[] chunk = new byte[buffer.remaining()];
+        buffer.get(chunk);
+        boolean accepted = false;
+        for (Branch branch : branches) {
+            accepted |= branch.offer(chunk);
+        }
+        if (!accepted) {
+            throw new IOException("Every target failed: " + outcomes().stream()
+                    .map(outcome -> outcome.getName() + ": " + outcome.getFailure().getMessage())
+                    .reduce((a, b) -> a + "; " + b).orElse(""));
+        }
+    }
+
+    /**
+     * Ends the stream of every target still running and waits until they have consumed it
+     */
+    @Override
+    public void finish() throws IOException {
+        for (Branch branch : branches) {
+            branch.offer(END);
+        }
+        for (Branch branch : branches) {
+            branch.join();
+        }
+    }
+
+    /**
+     * Stops the targets still running, e.g. after reading the source failed. Does nothing
+     * after {@link #finish()}.
+     */
+    @Override
+    public void close() {
+        abort(new IOException("Stream aborted"));
+    }
+
+    /**
+     * Stops the targets still running, failing them with the cause
+     */
+    public void abort(Throwable cause) {
+        for (Branch branch : branches) {
+            if (branch.thread.isAlive()) {
+                branch.fail(cause);
+            }
+        }
+        for (Branch branch : branches) {
+            branch.join();
+        }
+    }
+
+    /**
+     * Returns the outcome of every target, in the order the targets were given
+     */
+    public List<Outcome> outcomes() {
+        List<Outcome> outcomes = new ArrayList<>();
+        for (Branch branch : branches) {
+            long end = branch.endNanos != 0 ? branch.endNanos : System.nanoTime();
+            outcomes.add(new Outcome(branch.name, branch.failure, branch.bytes,
+                    TimeUnit.NANOSECONDS.toMillis(end - branch.startNanos)));
+        }
+        return outcomes;
+    }
+
+    private final class Branch {
+        private final String name;
+        private final Target target;
+        private final BlockingQueue<byte[]> queue;
+        private Thread thread;
+        private volatile Throwable failure;
+        private volatile boolean done;
+        private volatile long bytes;
+        private long startNanos;
+        private volatile long endNanos;
+
+        Branch(String name, Target target, int capacity) {
+            this.name = name;
+            this.target = target;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void start(String threadName) {
+            startNanos = System.nanoTime();
+            thread = new Thread(this::run, threadName);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Queues a chunk, waiting while the queue is full
+         *
+         * @return false once the target has failed
+         */
+        boolean offer(byte[] chunk) throws InterruptedIOException {
+            long waitingSince = System.nanoTime();
+            try {
+                while (!done) {
+                    if (queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                    if (System.nanoTime() - waitingSince > stallTimeoutNanos) {
+                        fail(new IOException("No progress for " + Duration.ofNanos(stallTimeoutNanos).toSeconds()
+                                + " s, dropped so that the other targets can continue"));
+                    }
+                }
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing to " + name);
+            }
+        }
+
+        void fail(Throwable error) {
+            if (failure == null) {
+                failure = error;
+            }
+            done = true;
+            thread.interrupt();
+        }
+
+        void join() {
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    if (failure != null) {
+                        // A dropped target may be stuck in a call that ignores interrupts; its thread is a daemon
+                        thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(Math.min(stallTimeoutNanos, TimeUnit.SECONDS.toNanos(10)))));
+                        break;
+                    }
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    fail(new InterruptedIOException("Interrupted"));
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void run() {
+            ChunkInputStream in = new ChunkInputStream();
+            try {
+                target.consume(in);
+                if (!in.ended && failure == null) {
+                    failure = new IOException("Stopped reading after " + bytes + " bytes");
+                }
+            } catch (Throwable e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            } finally {
+                endNanos = System.nanoTime();
+                done = true;
+                queue.clear();
+            }
+        }
+
+        private final class ChunkInputStream extends InputStream {
+            private byte[] chunk = new byte[0];
+            private int position;
+            private boolean ended;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                while (position == chunk.length) {
+                    if (ended || !next()) {
+                        return -1;
+                    }
+                }
+                int n = Math.min(len, chunk.length - position);
+                System.arraycopy(chunk, position, b, off, n);
+                position += n;
+                bytes += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return chunk.length - position;
+            }
+
+            private boolean next() throws IOException {
+                if (failure != null) {
+                    throw new IOException("Target dropped", failure);
+                }
+                try {
+                    byte[] taken = queue.take();
+                    if (taken == END) {
+                        ended = true;
+                        return false;
+                    }
+                    chunk = taken;
+                    position = 0;
+                    return true;
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Stream to " + name + " aborted");
+                }
+            }
+        }
+    }
+}
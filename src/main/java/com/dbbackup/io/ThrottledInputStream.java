@@ -0,0 +1,56 @@
+package com.dbbackup.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+
+/**
+ * Input stream that charges every byte read against one or more token buckets
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    private final List<TokenBucket> buckets;
+
+    public ThrottledInputStream(InputStream in, List<TokenBucket> buckets) {
+        super(in);
+        this.buckets = buckets;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            charge(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            charge(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        charge(skipped);
+        return skipped;
+    }
+
+    private void charge(long bytes) throws IOException {
+        try {
+            for (TokenBucket bucket : buckets) {
+                bucket.acquire(bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling read");
+        }
+    }
+}
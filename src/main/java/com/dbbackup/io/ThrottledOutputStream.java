@@ -0,0 +1,43 @@
+package com.dbbackup.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Output stream that charges every byte written against one or more token buckets
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+
+    private final List<TokenBucket> buckets;
+
+    public ThrottledOutputStream(OutputStream out, List<TokenBucket> buckets) {
+        super(out);
+        this.buckets = buckets;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        charge(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        charge(len);
+        out.write(b, off, len);
+    }
+
+    private void charge(long bytes) throws IOException {
+        try {
+            for (TokenBucket bucket : buckets) {
+                bucket.acquire(bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling write");
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.dbbackup.io;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket rate limiter measured in bytes per second.
+ * The rate can be changed at any time and takes effect for callers that are already waiting.
+ * A rate of zero or less disables limiting. Charged bytes are counted whether or not a limit
+ * is set, so the bucket also serves as a throughput meter. A paused bucket holds every caller
+ * until it is resumed, whatever its rate.
+ */
+public class TokenBucket {
+
+    private static final long MAX_SLEEP_NANOS = 100_000_000L;
+
+    private final LongAdder charged = new LongAdder();
+    private volatile long ratePerSecond;
+    private volatile boolean paused;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(long ratePerSecond) {
+        this.ratePerSecond = ratePerSecond;
+        this.tokens = Math.max(ratePerSecond, 0);
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public long getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    /**
+     * @return the total number of bytes charged so far
+     */
+    public long getCharged() {
+        return charged.sum();
+    }
+
+    /**
+     * Changes the rate; waiting callers pick up the new rate within 100 ms
+     *
+     * @param ratePerSecond the new rate in bytes per second (0 = unlimited)
+     */
+    public synchronized void setRatePerSecond(long ratePerSecond) {
+        refill();
+        this.ratePerSecond = ratePerSecond;
+        if (ratePerSecond > 0) {
+            tokens = Math.min(tokens, ratePerSecond);
+        } else {
+            tokens = 0;
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Holds or releases callers; held callers continue within 100 ms of being released
+     *
+     * @param paused whether callers are held
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    /**
+     * Takes the given number of bytes from the bucket, blocking until the debt is paid off.
+     * Requests larger than the bucket capacity are allowed and simply wait longer.
+     *
+     * @param permits the number of bytes
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(long permits) throws InterruptedException {
+        if (permits <= 0) {
+            return;
+        }
+        charged.add(permits);
+        while (paused) {
+            Thread.sleep(MAX_SLEEP_NANOS / 1_000_000L);
+        }
+        if (ratePerSecond <= 0) {
+            return;
+        }
+        synchronized (this) {
+            refill();
+            tokens -= permits;
+        }
+        while (true) {
+            long sleepNanos;
+            synchronized (this) {
+                refill();
+                long rate = ratePerSecond;
+                if (rate <= 0 || tokens >= 0) {
+                    return;
+                }
+                sleepNanos = (long) (-tokens / rate * 1_000_000_000L);
+            }
+            long nanos = Math.max(1_000_000L, Math.min(sleepNanos, MAX_SLEEP_NANOS));
+            Thread.sleep(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        long rate = ratePerSecond;
+        if (rate > 0) {
+            tokens = Math.min(rate, tokens + (now - lastRefillNanos) * rate / 1_000_000_000.0);
+        }
+        lastRefillNanos = now;
+    }
+}
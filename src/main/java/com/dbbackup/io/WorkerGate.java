@@ -0,0 +1,57 @@
+package com.dbbackup.io;
+
+/**
+ * Limits how many workers of a job run at once. The limit can be changed at any time: lowering
+ * it lets running workers finish their current task and holds back new tasks until fewer are
+ * running. A limit of zero or less disables limiting.
+ */
+public class WorkerGate {
+
+    private int limit;
+    private int active;
+
+    public WorkerGate(int limit) {
+        this.limit = limit;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of workers running a task
+     */
+    public synchronized int getActive() {
+        return active;
+    }
+
+    /**
+     * Changes the limit; waiting workers pick up a raised limit at once
+     *
+     * @param limit the new limit (0 = unlimited)
+     */
+    public synchronized void setLimit(int limit) {
+        this.limit = limit;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the worker may start a task
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void enter() throws InterruptedException {
+        while (limit > 0 && active >= limit) {
+            wait();
+        }
+        active++;
+    }
+
+    /**
+     * Ends a task started with {@link #enter()}
+     */
+    public synchronized void exit() {
+        active--;
+        notifyAll();
+    }
+}
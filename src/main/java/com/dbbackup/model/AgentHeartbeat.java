@@ -0,0 +1,27 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What an agent reports to the coordinator on every heartbeat. The coordinator answers with
+ * the jobs it hands to the agent.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AgentHeartbeat {
+    private String agent;
+    private String zone;
+    private int slots;
+    /** Ids of the jobs the agent is running */
+    private List<String> running;
+    /** Results of jobs finished since the last heartbeat the coordinator answered, by job id */
+    private Map<String, BackupResult> finished;
+}
@@ -5,11 +5,13 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+
 /**
  * Configuration model for database backup operations
  */
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class BackupConfig {
@@ -26,4 +28,39 @@ public class BackupConfig {
     private String cloudRegion;
     private String cloudAccessKey;
     private String cloudSecretKey;
+    private String cloudEndpoint;
+    private String cloudCredentialsFile;
+    private long dumpReadBytesPerSecond;
+    private long writeBytesPerSecond;
+    private long uploadBytesPerSecond;
+    private boolean encrypt;
+    /** Dump engine for MySQL/PostgreSQL, null means the native dump tool */
+    private DumpEngine dumpEngine;
+    /** Parallel worker connections for the JDBC engine, 0 = configured default */
+    private int parallelism;
+    /** MongoDB only: dump collection by collection so a failed run can be resumed */
+    private boolean perCollection;
+    /** Glob patterns of the tables or collections to back up, empty means all */
+    private List<String> includeTables;
+    /** Glob patterns of tables or collections to leave out */
+    private List<String> excludeTables;
+    /** Trained zstd dictionary to compress with, null for none */
+    private String dictionary;
+    /** MySQL/PostgreSQL only: export just the key ranges changed since the previous backup */
+    private boolean incremental;
+    /** Writes a seekable archive with a block index, from which single tables can be extracted */
+    private boolean indexedArchive;
+    /** Places to copy the backup to besides its storage type, all written at once from one read */
+    private List<BackupDestination> destinations;
+    /** Identifies one run while it is running, set by the orchestrator; never shared between runs */
+    private String jobId;
+
+    /**
+     * Identifies the backed-up database across servers, for state kept between runs and for
+     * telling apart databases of the same name: {@code host:port/database}, or the database
+     * alone when there is no server (SQLite)
+     */
+    public String instanceKey() {
+        return host != null ? host + ":" + port + "/" + databaseName : String.valueOf(databaseName);
+    }
 }
@@ -0,0 +1,28 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A further place a backup is copied to, with the same fields as the storage of a
+ * {@link BackupConfig}. A LOCAL destination is a second directory, e.g. a mounted share.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BackupDestination {
+    private StorageType storageType;
+    /** LOCAL only: the directory to copy to */
+    private String backupPath;
+    private String cloudBucket;
+    private String cloudRegion;
+    private String cloudAccessKey;
+    private String cloudSecretKey;
+    private String cloudEndpoint;
+    private String cloudCredentialsFile;
+    /** Upload limit of this destination alone, on top of the job's limit (0 = unlimited) */
+    private long uploadBytesPerSecond;
+}
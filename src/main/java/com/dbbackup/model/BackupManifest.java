@@ -0,0 +1,26 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * A loaded backup manifest: many jobs with shared defaults and the limits for running them
+ * together
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BackupManifest {
+    /** The file the manifest was loaded from */
+    private String source;
+    private List<ManifestJob> jobs;
+    /** Jobs running at the same time */
+    private int maxParallel;
+    /** Jobs running at the same time against one database host */
+    private int maxPerHost;
+}
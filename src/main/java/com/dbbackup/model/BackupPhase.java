@@ -0,0 +1,10 @@
+package com.dbbackup.model;
+
+/**
+ * Stages a running backup goes through
+ */
+public enum BackupPhase {
+    DUMP,
+    ENCRYPT,
+    UPLOAD
+}
@@ -0,0 +1,89 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Point-in-time progress of a running backup
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BackupProgress {
+    private String databaseName;
+    /** Job id of the run, telling runs of equally named databases apart */
+    private String jobId;
+    private DatabaseType databaseType;
+    private BackupPhase phase;
+    private Instant startedAt;
+    private Duration elapsed;
+    /** Bytes transferred so far per stage */
+    private Map<ThrottleStage, Long> bytes;
+    /** Smoothed current rate per stage in bytes per second */
+    private Map<ThrottleStage, Long> rates;
+    /** Expected dump size from past runs or catalog statistics, 0 if unknown */
+    private long expectedDumpBytes;
+    /** Estimated time to the end of the dump, null if unknown */
+    private Duration eta;
+    /** True when no stage has moved any bytes for a while */
+    private boolean stalled;
+
+    /**
+     * Formats the progress as a single status line
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder(databaseName);
+        if (jobId != null) {
+            sb.append(" (").append(jobId).append(')');
+        }
+        sb.append(" [").append(phase).append("] ");
+        long dumped = bytes.getOrDefault(ThrottleStage.DUMP_READ, 0L);
+        sb.append("read ").append(formatBytes(dumped));
+        if (expectedDumpBytes > 0) {
+            sb.append('/').append(formatBytes(expectedDumpBytes))
+                    .append(String.format(" (%d%%)", Math.min(100, dumped * 100 / expectedDumpBytes)));
+        }
+        sb.append(" @ ").append(formatBytes(rates.getOrDefault(ThrottleStage.DUMP_READ, 0L))).append("/s");
+        sb.append(", written ").append(formatBytes(bytes.getOrDefault(ThrottleStage.LOCAL_WRITE, 0L)))
+                .append(" @ ").append(formatBytes(rates.getOrDefault(ThrottleStage.LOCAL_WRITE, 0L))).append("/s");
+        long uploaded = bytes.getOrDefault(ThrottleStage.UPLOAD, 0L);
+        if (uploaded > 0) {
+            sb.append(", uploaded ").append(formatBytes(uploaded))
+                    .append(" @ ").append(formatBytes(rates.getOrDefault(ThrottleStage.UPLOAD, 0L))).append("/s");
+        }
+        sb.append(", elapsed ").append(formatDuration(elapsed));
+        if (eta != null) {
+            sb.append(", ETA ").append(formatDuration(eta));
+        }
+        if (stalled) {
+            sb.append(" - STALLED");
+        }
+        return sb.toString();
+    }
+
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        String[] units = {"KB", "MB", "GB", "TB"};
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format("%.1f %s", value, units[unit]);
+    }
+
+    public static String formatDuration(Duration duration) {
+        long seconds = duration.toSeconds();
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+}
@@ -6,6 +6,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * Result of a backup operation
@@ -21,4 +22,6 @@ public class BackupResult {
     private long fileSizeBytes;
     private LocalDateTime timestamp;
     private long durationMillis;
+    /** Result per destination when the backup was copied to several at once, otherwise null */
+    private List<DestinationResult> destinations;
 }
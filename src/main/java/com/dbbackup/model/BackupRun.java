@@ -0,0 +1,30 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * A finished backup run as recorded in the backup catalog
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BackupRun {
+    private String databaseName;
+    private DatabaseType databaseType;
+    private Instant startedAt;
+    private long durationMillis;
+    private boolean success;
+    private long dumpBytes;
+    private long writeBytes;
+    private long uploadBytes;
+    private String artifactPath;
+    private long artifactBytes;
+    /** Merged offline from an incremental chain rather than taken from the database */
+    private boolean synthetic;
+}
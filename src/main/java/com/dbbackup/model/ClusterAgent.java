@@ -0,0 +1,27 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * An agent known to the cluster coordinator
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterAgent {
+    private String name;
+    private String zone;
+    /** Jobs the agent runs at once */
+    private int slots;
+    /** Jobs currently assigned to the agent */
+    private int running;
+    private Instant lastSeen;
+    /** False once no heartbeat arrived within the heartbeat timeout */
+    private boolean alive;
+}
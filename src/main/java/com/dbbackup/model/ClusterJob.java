@@ -0,0 +1,36 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * A backup job submitted to the cluster coordinator, as tracked by the coordinator and as
+ * sent to the agent that runs it
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterJob {
+    /** Assigned by the coordinator on submission */
+    private String id;
+    /** Name of the manifest job */
+    private String name;
+    private BackupConfig config;
+    /** Zone of the database; agents of this zone are preferred, null for any agent */
+    private String zone;
+    private ClusterJobState state;
+    /** Agent running the job, or the one that ran it last */
+    private String agent;
+    /** Times the job was handed to an agent */
+    private int attempts;
+    private Instant submittedAt;
+    private Instant assignedAt;
+    private Instant finishedAt;
+    /** Reported by the agent, or set by the coordinator when the job was given up */
+    private BackupResult result;
+}
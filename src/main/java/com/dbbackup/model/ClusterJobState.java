@@ -0,0 +1,18 @@
+package com.dbbackup.model;
+
+/**
+ * States of a backup job handed to cluster agents
+ */
+public enum ClusterJobState {
+    /** Waiting for an agent with a free slot */
+    QUEUED,
+    /** Handed to an agent, which has not reported a result yet */
+    ASSIGNED,
+    SUCCEEDED,
+    /** The backup failed, or the job was lost with its agent too often */
+    FAILED;
+
+    public boolean isFinished() {
+        return this == SUCCEEDED || this == FAILED;
+    }
+}
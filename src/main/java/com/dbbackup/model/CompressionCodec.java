@@ -0,0 +1,48 @@
+package com.dbbackup.model;
+
+/**
+ * Codecs available to the compression stage. Frames of one codec can be concatenated,
+ * so a stream may switch levels part way and still decode with the standard tools.
+ */
+public enum CompressionCodec {
+    GZIP(".gz", 1, 9),
+    ZSTD(".zst", 1, 22),
+    LZ4(".lz4", 1, 1);
+
+    private final String extension;
+    private final int minLevel;
+    private final int maxLevel;
+
+    CompressionCodec(String extension, int minLevel, int maxLevel) {
+        this.extension = extension;
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public int getMinLevel() {
+        return minLevel;
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * Returns the codec of a compressed file by its extension
+     *
+     * @param fileName the file name
+     * @return the codec, or null if the name has no known extension
+     */
+    public static CompressionCodec fromFileName(String fileName) {
+        for (CompressionCodec codec : values()) {
+            if (fileName.endsWith(codec.extension)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
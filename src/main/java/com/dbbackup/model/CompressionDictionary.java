@@ -0,0 +1,26 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * One version of a trained zstd dictionary
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CompressionDictionary {
+    private String name;
+    private int version;
+    /** Id stored in the dictionary and in every frame compressed with it */
+    private long dictionaryId;
+    private long sizeBytes;
+    private int sampleFiles;
+    private long sampleBytes;
+    private Instant createdAt;
+}
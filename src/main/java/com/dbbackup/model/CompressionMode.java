@@ -0,0 +1,11 @@
+package com.dbbackup.model;
+
+/**
+ * How the compression stage chooses its codec
+ */
+public enum CompressionMode {
+    /** Gzip at the default level */
+    GZIP,
+    /** Codec and level picked from a sample of the data against a throughput target or time budget */
+    ADAPTIVE
+}
@@ -4,9 +4,22 @@ package com.dbbackup.model;
  * Supported database types
  */
 public enum DatabaseType {
-    MYSQL,
-    POSTGRESQL,
-    MONGODB,
-    SQLITE,
-    MARIADB
+    MYSQL(3306),
+    POSTGRESQL(5432),
+    MONGODB(27017),
+    SQLITE(0),
+    MARIADB(3306);
+
+    private final int defaultPort;
+
+    DatabaseType(int defaultPort) {
+        this.defaultPort = defaultPort;
+    }
+
+    /**
+     * @return the usual server port, 0 for file-based databases
+     */
+    public int getDefaultPort() {
+        return defaultPort;
+    }
 }
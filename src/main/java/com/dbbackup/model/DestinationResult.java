@@ -0,0 +1,24 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Result of copying a backup to one of several destinations
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DestinationResult {
+    /** Where the backup went, e.g. {@code s3://bucket/name} */
+    private String destination;
+    private boolean success;
+    private String message;
+    private long bytes;
+    private long durationMillis;
+    /** Queued in the upload queue to be retried */
+    private boolean queued;
+}
@@ -0,0 +1,15 @@
+package com.dbbackup.model;
+
+/**
+ * How logical dumps are produced
+ */
+public enum DumpEngine {
+    /** Client tools such as mysqldump and pg_dump */
+    NATIVE,
+    /** In-process parallel dump over the JDBC driver */
+    JDBC,
+    /** PostgreSQL only: parallel binary COPY into compressed chunk files */
+    PARALLEL_COPY,
+    /** MySQL/MariaDB only: physical hot backup streamed by xtrabackup or mariabackup */
+    PHYSICAL
+}
@@ -0,0 +1,40 @@
+package com.dbbackup.model;
+
+/**
+ * Authenticated ciphers supported by the backup encryption stage
+ */
+public enum EncryptionAlgorithm {
+    AES_GCM(1, "AES/GCM/NoPadding", "AES"),
+    CHACHA20_POLY1305(2, "ChaCha20-Poly1305", "ChaCha20");
+
+    private final int id;
+    private final String transformation;
+    private final String keyAlgorithm;
+
+    EncryptionAlgorithm(int id, String transformation, String keyAlgorithm) {
+        this.id = id;
+        this.transformation = transformation;
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTransformation() {
+        return transformation;
+    }
+
+    public String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    public static EncryptionAlgorithm fromId(int id) {
+        for (EncryptionAlgorithm algorithm : values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown encryption algorithm id: " + id);
+    }
+}
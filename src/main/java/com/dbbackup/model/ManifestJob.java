@@ -0,0 +1,21 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One job of a backup manifest: a resolved backup configuration and its optional schedule
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ManifestJob {
+    /** Unique within the manifest; also names the scheduled job */
+    private String name;
+    private BackupConfig config;
+    /** Quartz cron expression, null for jobs that only run with run-all */
+    private String cron;
+}
@@ -0,0 +1,34 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Result of replicating catalog entries from one destination to another
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReplicationResult {
+    /** Backups and metadata files considered */
+    private int objects;
+    /** Copied through this host */
+    private int streamed;
+    /** Copied by the storage service itself */
+    private int copiedServerSide;
+    /** Already present at the target with the same checksum */
+    private int skipped;
+    /** Listed in the catalog but not found at the source, e.g. removed by retention */
+    private int missing;
+    private int failed;
+    private long bytesStreamed;
+    private long bytesCopiedServerSide;
+    private long durationMillis;
+    /** One line per failed object */
+    private List<String> errors;
+}
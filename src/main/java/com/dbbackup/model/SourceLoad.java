@@ -0,0 +1,24 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Health of a source database sampled by the load monitor; null where the server does not report a value
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SourceLoad {
+    /** How far the replica being read, or the slowest replica of the primary being read, is behind */
+    private Double replicationLagSeconds;
+    /** Client sessions running a statement, apart from this application's where the server can tell them apart */
+    private Integer activeConnections;
+    /** Sessions waiting for a lock */
+    private Integer lockWaits;
+    /** Threads executing on the server (MySQL {@code Threads_running}, MongoDB active clients) */
+    private Integer threadsRunning;
+}
@@ -0,0 +1,30 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Result of sweeping a directory tree of SQLite databases
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SweepResult {
+    /** Files matching the include patterns */
+    private int scanned;
+    /** Unchanged since the last sweep by size, modification time and change counter */
+    private int unchanged;
+    private int backedUp;
+    /** Matching the include patterns but not SQLite databases */
+    private int ignored;
+    private int failed;
+    private long bytesWritten;
+    private long durationMillis;
+    /** One line per failed file */
+    private List<String> errors;
+}
@@ -0,0 +1,13 @@
+package com.dbbackup.model;
+
+/**
+ * When backup files written locally are forced to disk
+ */
+public enum SyncPolicy {
+    /** Left to the operating system; a crash may lose a backup reported as written */
+    NONE,
+    /** Once, when the file is complete and before it is reported as written */
+    COMMIT,
+    /** Every sync interval of written bytes, and when the file is complete */
+    PERIODIC
+}
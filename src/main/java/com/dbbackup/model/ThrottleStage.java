@@ -0,0 +1,10 @@
+package com.dbbackup.model;
+
+/**
+ * Pipeline stages that can be bandwidth limited
+ */
+public enum ThrottleStage {
+    DUMP_READ,
+    LOCAL_WRITE,
+    UPLOAD
+}
@@ -0,0 +1,25 @@
+package com.dbbackup.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * A completed backup waiting in the upload queue
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadTask {
+    private String id;
+    private String filePath;
+    private BackupConfig config;
+    private int attempts;
+    private Instant enqueuedAt;
+    private Instant nextAttemptAt;
+    private String lastError;
+}
@@ -0,0 +1,274 @@
+package com.dbbackup.service;
+
+import com.azure.core.http.HttpClient;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobServiceClient;
+import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.specialized.BlockBlobClient;
+import com.azure.storage.common.StorageSharedKeyCredential;
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.ThrottleStage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Azure Blob Storage backend using staged block uploads (Put Block / Put Block List).
+ * Blocks are staged in parallel while the next block is being read, so data streamed
+ * from the pipeline is uploaded as it is produced. Service clients and the underlying
+ * HTTP connection pool are shared across jobs.
+ */
+@Service
+@Slf4j
+public class AzureBlobStorageService {
+
+    private final BackupProperties.Azure settings;
+    private final ThrottleService throttleService;
+    private final BackupMetadataService metadataService;
+    /** Created on first use, so that runs without Azure uploads don't load the HTTP stack */
+    private volatile HttpClient httpClient;
+    private final Map<String, BlobServiceClient> serviceClients = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    public AzureBlobStorageService(BackupProperties properties, ThrottleService throttleService,
+                                   BackupMetadataService metadataService) {
+        this.settings = properties.getAzure();
+        this.throttleService = throttleService;
+        this.metadataService = metadataService;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "azure-upload-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Uploads a backup file and its metadata sidecar
+     *
+     * @param filePath the path to the backup file
+     * @param config   the backup configuration (account name, key, container and optional endpoint)
+     * @throws IOException if the upload fails
+     */
+    public void uploadFile(String filePath, BackupConfig config) throws IOException {
+        try (InputStream in = Files.newInputStream(Path.of(filePath))) {
+            uploadStream(in, filePath, config);
+        }
+    }
+
+    /**
+     * Uploads a stream of a backup file, then the file's metadata sidecar
+     *
+     * @param in       the content of the backup, read to the end
+     * @param filePath the path to the backup file, naming the blob
+     * @param config   the backup configuration (account name, key, container and optional endpoint)
+     * @throws IOException if the upload fails
+     */
+    public void uploadStream(InputStream in, String filePath, BackupConfig config) throws IOException {
+        String blobName = new File(filePath).getName();
+        log.info("Uploading to Azure Blob Storage container: {}", config.getCloudBucket());
+
+        uploadBlob(in, blobName, config);
+
+        Path metadataPath = metadataService.metadataPath(filePath);
+        if (Files.exists(metadataPath)) {
+            try (InputStream metadata = Files.newInputStream(metadataPath)) {
+                uploadBlob(metadata, blobName + BackupMetadataService.SUFFIX, config);
+            }
+        }
+
+        log.info("Successfully uploaded to Azure Blob Storage: {}/{}", config.getCloudBucket(), blobName);
+    }
+
+    /**
+     * Uploads a stream as a block blob. The block list is committed, and the blob becomes
+     * visible, only once the stream was read to its end; if reading or staging fails, nothing
+     * is committed and the staged blocks expire on the service side.
+     *
+     * @param in       the content, read to the end
+     * @param blobName the blob name
+     * @param config   the backup configuration
+     * @throws IOException if reading or uploading fails
+     */
+    private void uploadBlob(InputStream in, String blobName, BackupConfig config) throws IOException {
+        BlobContainerClient container = serviceClient(config).getBlobContainerClient(config.getCloudBucket());
+        container.createIfNotExists();
+        BlockBlobClient blob = container.getBlobClient(blobName).getBlockBlobClient();
+        try (BlockUploadOutputStream upload = new BlockUploadOutputStream(blob,
+                (int) settings.getBlockSize().toBytes(), Math.max(1, settings.getConcurrency()))) {
+            in.transferTo(throttleService.throttle(upload, ThrottleStage.UPLOAD, config));
+            upload.commit();
+        }
+    }
+
+    private BlobServiceClient serviceClient(BackupConfig config) {
+        String endpoint = config.getCloudEndpoint() != null
+                ? config.getCloudEndpoint()
+                : String.format("https://%s.blob.core.windows.net", config.getCloudAccessKey());
+        return serviceClients.computeIfAbsent(endpoint + "|" + config.getCloudAccessKey(), key ->
+                new BlobServiceClientBuilder()
+                        .endpoint(endpoint)
+                        .credential(new StorageSharedKeyCredential(
+                                config.getCloudAccessKey(), config.getCloudSecretKey()))
+                        .httpClient(httpClient())
+                        .buildClient());
+    }
+
+    private HttpClient httpClient() {
+        HttpClient client = httpClient;
+        if (client == null) {
+            synchronized (this) {
+                if (httpClient == null) {
+                    httpClient = HttpClient.createDefault();
+                }
+                client = httpClient;
+            }
+        }
+        return client;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Buffers writes into blocks and stages each full block on the shared executor,
+     * keeping at most {@code concurrency} blocks in flight. Closing the stream without
+     * {@link #commit()} abandons the upload.
+     */
+    private class BlockUploadOutputStream extends OutputStream {
+
+        private final BlockBlobClient blob;
+        private final int blockSize;
+        private final Semaphore permits;
+        private final List<String> blockIds = new ArrayList<>();
+        private final List<Future<?>> pending = new ArrayList<>();
+        private byte[] buffer;
+        private int position;
+        private boolean closed;
+
+        BlockUploadOutputStream(BlockBlobClient blob, int blockSize, int concurrency) {
+            this.blob = blob;
+            this.blockSize = blockSize;
+            this.permits = new Semaphore(concurrency);
+            this.buffer = new byte[blockSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, blockSize - position);
+                System.arraycopy(b, off, buffer, position, n);
+                position += n;
+                off += n;
+                len -= n;
+                if (position == blockSize) {
+                    stageBuffer();
+                }
+            }
+        }
+
+        /**
+         * Stages the last block, waits for all blocks and commits the block list
+         */
+        void commit() throws IOException {
+            if (closed) {
+                throw new IOException("Upload of " + blob.getBlobName() + " already closed");
+            }
+            if (position > 0 || blockIds.isEmpty()) {
+                stageBuffer();
+            }
+            for (Future<?> future : pending) {
+                await(future);
+            }
+            blob.commitBlockList(blockIds, true);
+            closed = true;
+            log.debug("Committed {} blocks to {}", blockIds.size(), blob.getBlobName());
+        }
+
+        /**
+         * Abandons the upload unless it was committed: blocks still being staged are cancelled
+         * and the block list is left uncommitted
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.forEach(future -> future.cancel(true));
+            log.warn("Upload of {} abandoned, nothing committed", blob.getBlobName());
+        }
+
+        private void stageBuffer() throws IOException {
+            // Block ids must all have the same length within a blob
+            String blockId = Base64.getEncoder().encodeToString(
+                    ByteBuffer.allocate(8).putLong(blockIds.size()).array());
+            blockIds.add(blockId);
+            byte[] block = buffer;
+            int length = position;
+            buffer = new byte[blockSize];
+            position = 0;
+
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to stage block");
+            }
+            pending.add(executor.submit(() -> {
+                try {
+                    blob.stageBlock(blockId, new ByteArrayInputStream(block, 0, length), length);
+                } finally {
+                    permits.release();
+                }
+            }));
+            // Surface failures early instead of after the whole stream was read
+            for (Future<?> future : pending) {
+                if (future.isDone()) {
+                    await(future);
+                }
+            }
+            pending.removeIf(Future::isDone);
+        }
+
+        private void await(Future<?> future) throws IOException {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while staging blocks");
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to stage block: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.model.BackupRun;
+import com.dbbackup.model.DatabaseType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Catalog of past backup runs, kept as one history file per database
+ * ({@code <catalog>/<database>.history}) holding the most recent runs, newest first
+ */
+@Service
+@Slf4j
+public class BackupCatalogService {
+
+    private static final String SUFFIX = ".history";
+
+    private final Path directory;
+    private final int historySize;
+
+    public BackupCatalogService(BackupProperties properties) {
+        this.directory = Path.of(properties.getCatalog().getDirectory());
+        this.historySize = Math.max(1, properties.getCatalog().getHistorySize());
+    }
+
+    /**
+     * Adds a finished run to the history of its database
+     *
+     * @param run the finished run
+     * @throws IOException if the history cannot be written
+     */
+    public synchronized void record(BackupRun run) throws IOException {
+        List<BackupRun> runs = new ArrayList<>();
+        runs.add(run);
+        runs.addAll(history(run.getDatabaseName()));
+        if (runs.size() > historySize) {
+            runs = runs.subList(0, historySize);
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty("runs", String.valueOf(runs.size()));
+        for (int i = 0; i < runs.size(); i++) {
+            write(properties, "run." + i + ".", runs.get(i));
+        }
+        Files.createDirectories(directory);
+        Path path = historyPath(run.getDatabaseName());
+        Path temp = Path.of(path + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "Backup history of " + run.getDatabaseName());
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the recorded runs of a database, newest first
+     *
+     * @param databaseName the database name
+     * @return the runs, empty if none were recorded
+     * @throws IOException if the history cannot be read
+     */
+    public synchronized List<BackupRun> history(String databaseName) throws IOException {
+        Path path = historyPath(databaseName);
+        List<BackupRun> runs = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return runs;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        }
+        int count = Integer.parseInt(properties.getProperty("runs", "0"));
+        for (int i = 0; i < count; i++) {
+            try {
+                runs.add(read(properties, "run." + i + "."));
+            } catch (RuntimeException e) {
+                log.warn("Ignoring unreadable entry {} in {}", i, path);
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Returns the names of all databases with a recorded history
+     *
+     * @return the database names, sorted
+     * @throws IOException if the catalog cannot be read
+     */
+    public synchronized List<String> databases() throws IOException {
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return names;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                Properties properties = new Properties();
+                try (InputStream in = Files.newInputStream(file)) {
+                    properties.load(in);
+                }
+                // File names are sanitized, so the name is taken from the runs
+                String name = properties.getProperty("run.0.database");
+                if (name != null) {
+                    names.add(name);
+                }
+            }
+        }
+        names.sort(null);
+        return names;
+    }
+
+    /**
+     * Returns the most recent successful run of a database that read from the database, so
+     * that its sizes and duration can predict the next backup
+     *
+     * @param databaseName the database name
+     * @return the run, empty if the database has never been backed up successfully
+     */
+    public Optional<BackupRun> lastSuccessful(String databaseName) {
+        try {
+            return history(databaseName).stream().filter(run -> run.isSuccess() && !run.isSynthetic()).findFirst();
+        } catch (IOException e) {
+            log.warn("Failed to read backup history of {}", databaseName, e);
+            return Optional.empty();
+        }
+    }
+
+    private Path historyPath(String databaseName) {
+        // SQLite jobs are named after their file path
+        return directory.resolve(String.valueOf(databaseName).replaceAll("[^A-Za-z0-9._-]", "_") + SUFFIX);
+    }
+
+    private void write(Properties properties, String prefix, BackupRun run) {
+        properties.setProperty(prefix + "database", run.getDatabaseName());
+        if (run.getDatabaseType() != null) {
+            properties.setProperty(prefix + "type", run.getDatabaseType().name());
+        }
+        properties.setProperty(prefix + "started", run.getStartedAt().toString());
+        properties.setProperty(prefix + "duration-ms", String.valueOf(run.getDurationMillis()));
+        properties.setProperty(prefix + "success", String.valueOf(run.isSuccess()));
+        properties.setProperty(prefix + "dump-bytes", String.valueOf(run.getDumpBytes()));
+        properties.setProperty(prefix + "write-bytes", String.valueOf(run.getWriteBytes()));
+        properties.setProperty(prefix + "upload-bytes", String.valueOf(run.getUploadBytes()));
+        if (run.getArtifactPath() != null) {
+            properties.setProperty(prefix + "artifact", run.getArtifactPath());
+        }
+        properties.setProperty(prefix + "artifact-bytes", String.valueOf(run.getArtifactBytes()));
+        if (run.isSynthetic()) {
+            properties.setProperty(prefix + "synthetic", "true");
+        }
+    }
+
+    private BackupRun read(Properties properties, String prefix) {
+        String type = properties.getProperty(prefix + "type");
+        return BackupRun.builder()
+                .databaseName(properties.getProperty(prefix + "database"))
+                .databaseType(type != null ? DatabaseType.valueOf(type) : null)
+                .startedAt(Instant.parse(properties.getProperty(prefix + "started")))
+                .durationMillis(Long.parseLong(properties.getProperty(prefix + "duration-ms", "0")))
+                .success(Boolean.parseBoolean(properties.getProperty(prefix + "success")))
+                .dumpBytes(Long.parseLong(properties.getProperty(prefix + "dump-bytes", "0")))
+                .writeBytes(Long.parseLong(properties.getProperty(prefix + "write-bytes", "0")))
+                .uploadBytes(Long.parseLong(properties.getProperty(prefix + "upload-bytes", "0")))
+                .artifactPath(properties.getProperty(prefix + "artifact"))
+                .artifactBytes(Long.parseLong(properties.getProperty(prefix + "artifact-bytes", "0")))
+                .synthetic(Boolean.parseBoolean(properties.getProperty(prefix + "synthetic")))
+                .build();
+    }
+}
@@ -0,0 +1,70 @@
+package com.dbbackup.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Service for the metadata sidecar stored next to each backup artifact ({@code <artifact>.meta})
+ */
+@Service
+@Slf4j
+public class BackupMetadataService {
+
+    public static final String SUFFIX = ".meta";
+
+    /**
+     * Returns the sidecar path of a backup artifact
+     *
+     * @param artifactPath the backup artifact path
+     * @return the metadata file path
+     */
+    public Path metadataPath(String artifactPath) {
+        return Path.of(artifactPath + SUFFIX);
+    }
+
+    /**
+     * Reads the metadata of a backup artifact
+     *
+     * @param artifactPath the backup artifact path
+     * @return the metadata, empty if the artifact has none
+     * @throws IOException if the sidecar cannot be read
+     */
+    public Properties read(String artifactPath) throws IOException {
+        Properties properties = new Properties();
+        Path path = metadataPath(artifactPath);
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Merges entries into the metadata of a backup artifact
+     *
+     * @param artifactPath the backup artifact path
+     * @param entries      the entries to add or replace
+     * @throws IOException if the sidecar cannot be written
+     */
+    public void update(String artifactPath, Map<String, String> entries) throws IOException {
+        Properties properties = read(artifactPath);
+        properties.putAll(entries);
+        Path path = metadataPath(artifactPath);
+        Path temp = Path.of(path + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "Backup metadata");
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Updated backup metadata: {}", path);
+    }
+}
@@ -1,13 +1,20 @@
 package com.dbbackup.service;
 
 import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.BackupDestination;
+import com.dbbackup.model.BackupPhase;
 import com.dbbackup.model.BackupResult;
+import com.dbbackup.model.DestinationResult;
 import com.dbbackup.model.StorageType;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Orchestrates the backup process, coordinating between backup services and storage
@@ -20,14 +27,29 @@ public class BackupOrchestrator {
     private final List<BackupService> backupServices;
     private final StorageService storageService;
     private final BackupLogService logService;
+    private final ThrottleService throttleService;
+    private final EncryptionService encryptionService;
+    private final UploadQueueService uploadQueueService;
+    private final ProgressService progressService;
+    private final LoadMonitorService loadMonitorService;
+
+    /**
+     * Returns a new job id, identifying one run of a backup
+     */
+    public static String newJobId() {
+        return UUID.randomUUID().toString().substring(0, 8);
+    }
 
     /**
      * Executes a complete backup operation
      *
-     * @param config the backup configuration
+     * @param request the backup configuration, given a job id for this run unless it has one
      * @return the result of the backup operation
      */
-    public BackupResult executeBackup(BackupConfig config) {
+    public BackupResult executeBackup(BackupConfig request) {
+        // Each run gets its own id, without touching a configuration that may be reused
+        BackupConfig config = request.getJobId() != null ? request
+                : request.toBuilder().jobId(newJobId()).build();
         log.info("Starting backup operation for database: {} ({})", 
                 config.getDatabaseName(), config.getDatabaseType());
 
@@ -51,25 +73,111 @@ public class BackupOrchestrator {
             return result;
         }
 
-        // Perform the backup
-        BackupResult result = backupService.backup(config);
-
-        // Log the result
-        logService.logBackupResult(config, result);
-
-        // If backup was successful and cloud storage is configured, upload to cloud
-        if (result.isSuccess() && config.getStorageType() != StorageType.LOCAL) {
-            try {
-                log.info("Uploading backup to cloud storage: {}", config.getStorageType());
-                storageService.uploadToCloud(result.getBackupFilePath(), config);
-                log.info("Cloud upload completed successfully");
-            } catch (Exception e) {
-                log.error("Failed to upload backup to cloud storage", e);
-                // Don't fail the entire backup if cloud upload fails
-                result.setMessage(result.getMessage() + " (Cloud upload failed: " + e.getMessage() + ")");
+        throttleService.register(config);
+        loadMonitorService.watch(config);
+        progressService.begin(config);
+        BackupResult result = null;
+        try {
+            // Perform the backup
+            result = backupService.backup(config);
+            // The source is read only by the dump
+            loadMonitorService.unwatch(config);
+
+            // Encrypt artifacts that did not pass through the compression stage
+            if (result.isSuccess() && config.isEncrypt()) {
+                progressService.setPhase(config, BackupPhase.ENCRYPT);
+                encryptIfNeeded(result, config);
             }
+
+            // Log the result
+            logService.logBackupResult(config, result);
+
+            // With further destinations, copy to all of them at once
+            if (result.isSuccess() && config.getDestinations() != null && !config.getDestinations().isEmpty()) {
+                progressService.setPhase(config, BackupPhase.UPLOAD);
+                copyToDestinations(result, config);
+            } else if (result.isSuccess() && config.getStorageType() != StorageType.LOCAL && uploadQueueService.isEnabled()) {
+                try {
+                    uploadQueueService.enqueue(result.getBackupFilePath(), config);
+                    result.setMessage(result.getMessage() + " (Queued for cloud upload)");
+                } catch (Exception e) {
+                    log.error("Failed to queue backup for cloud upload", e);
+                    result.setMessage(result.getMessage() + " (Cloud upload could not be queued: " + e.getMessage() + ")");
+                }
+            } else if (result.isSuccess() && config.getStorageType() != StorageType.LOCAL) {
+                progressService.setPhase(config, BackupPhase.UPLOAD);
+                try {
+                    log.info("Uploading backup to cloud storage: {}", config.getStorageType());
+                    storageService.uploadToCloud(result.getBackupFilePath(), config);
+                    log.info("Cloud upload completed successfully");
+                } catch (Exception e) {
+                    log.error("Failed to upload backup to cloud storage", e);
+                    // Don't fail the entire backup if cloud upload fails
+                    result.setMessage(result.getMessage() + " (Cloud upload failed: " + e.getMessage() + ")");
+                }
+            }
+
+            return result;
+        } finally {
+            progressService.finish(config, result != null ? result
+                    : BackupResult.builder().success(false).message("Backup aborted").build());
+            loadMonitorService.unwatch(config);
+            throttleService.unregister(config);
         }
+    }
+
+    private void copyToDestinations(BackupResult result, BackupConfig config) {
+        List<BackupDestination> destinations = storageService.destinations(config);
+        List<DestinationResult> results;
+        try {
+            results = storageService.uploadToAll(result.getBackupFilePath(), destinations, config);
+        } catch (Exception e) {
+            log.error("Failed to copy backup to its destinations", e);
+            result.setMessage(result.getMessage() + " (Copy to destinations failed: " + e.getMessage() + ")");
+            return;
+        }
+
+        int copied = 0;
+        int queued = 0;
+        for (int i = 0; i < results.size(); i++) {
+            DestinationResult destinationResult = results.get(i);
+            BackupDestination destination = destinations.get(i);
+            if (destinationResult.isSuccess()) {
+                copied++;
+            } else if (uploadQueueService.isEnabled() && destination.getStorageType() != StorageType.LOCAL) {
+                // A failed destination is retried on its own, like any queued upload
+                try {
+                    uploadQueueService.enqueue(result.getBackupFilePath(), storageService.targetConfig(config, destination));
+                    destinationResult.setQueued(true);
+                    queued++;
+                } catch (Exception e) {
+                    log.error("Failed to queue upload to {}", destinationResult.getDestination(), e);
+                }
+            }
+        }
+        result.setDestinations(results);
+        result.setMessage(result.getMessage() + String.format(" (Copied to %d of %d destinations%s)",
+                copied, results.size(), queued > 0 ? ", " + queued + " queued for retry" : ""));
+    }
 
-        return result;
+    private void encryptIfNeeded(BackupResult result, BackupConfig config) {
+        String path = result.getBackupFilePath();
+        if (path.endsWith(EncryptionService.SUFFIX)) {
+            return;
+        }
+        if (!new File(path).isFile()) {
+            log.warn("Cannot encrypt directory backup without compression: {}", path);
+            result.setMessage(result.getMessage() + " (Not encrypted: enable compression to encrypt directory backups)");
+            return;
+        }
+        try {
+            String encryptedPath = encryptionService.encryptFile(path, config);
+            result.setBackupFilePath(encryptedPath);
+            result.setFileSizeBytes(Files.size(Path.of(encryptedPath)));
+        } catch (Exception e) {
+            log.error("Failed to encrypt backup", e);
+            result.setSuccess(false);
+            result.setMessage("Backup encryption failed: " + e.getMessage());
+        }
     }
 }
@@ -0,0 +1,182 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.model.AgentHeartbeat;
+import com.dbbackup.model.BackupResult;
+import com.dbbackup.model.ClusterJob;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Agent side of the cluster mode: reports to the coordinator on every heartbeat, and right
+ * after a job finished, and runs the jobs handed to it in the answers. Results the coordinator
+ * has not taken yet are sent again with the next heartbeat, so running jobs carry on and
+ * nothing is lost while the coordinator cannot be reached.
+ */
+@Service
+@Profile("agent")
+@Slf4j
+public class ClusterAgentService {
+
+    private static final TypeReference<List<ClusterJob>> JOBS = new TypeReference<>() {
+    };
+
+    private final BackupOrchestrator backupOrchestrator;
+    private final BackupProperties.Cluster settings;
+    private final ObjectMapper mapper = ClusterCoordinatorService.objectMapper();
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final Map<String, ClusterJob> running = new ConcurrentHashMap<>();
+    private final Map<String, BackupResult> finished = new ConcurrentHashMap<>();
+    private final Object signal = new Object();
+    private final String name;
+    private final ExecutorService workers;
+    private boolean reportDue;
+    private volatile boolean stopped;
+
+    public ClusterAgentService(BackupOrchestrator backupOrchestrator, BackupProperties properties) {
+        this.backupOrchestrator = backupOrchestrator;
+        this.settings = properties.getCluster();
+        this.name = settings.getAgentName() != null && !settings.getAgentName().isBlank()
+                ? settings.getAgentName() : defaultName();
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, settings.getSlots()), runnable -> {
+            Thread thread = new Thread(runnable, "agent-job-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reports to the coordinator and runs the jobs it hands out until the application stops
+     *
+     * @throws InterruptedException if interrupted while waiting for the next heartbeat
+     */
+    public void run() throws InterruptedException {
+        if (settings.getCoordinatorUrl() == null || settings.getCoordinatorUrl().isBlank()) {
+            throw new IllegalStateException("backup.cluster.coordinator-url is not set");
+        }
+        URI uri = URI.create(settings.getCoordinatorUrl().replaceAll("/+$", "")
+                + ClusterCoordinatorService.HEARTBEAT_PATH);
+        log.info("Agent {} (zone {}, {} slots) reporting to {}", name,
+                settings.getZone() != null ? settings.getZone() : "none", Math.max(1, settings.getSlots()), uri);
+        boolean connected = true;
+        while (!stopped) {
+            try {
+                heartbeat(uri).forEach(this::start);
+                if (!connected) {
+                    log.info("✓ Coordinator reachable again");
+                    connected = true;
+                }
+            } catch (IOException e) {
+                if (connected) {
+                    log.warn("✗ Coordinator unreachable, running jobs carry on: {}", e.getMessage());
+                    connected = false;
+                }
+            }
+            synchronized (signal) {
+                if (!reportDue && !stopped) {
+                    signal.wait(Math.max(100, settings.getHeartbeatInterval().toMillis()));
+                }
+                reportDue = false;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopped = true;
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        workers.shutdownNow();
+    }
+
+    private List<ClusterJob> heartbeat(URI uri) throws IOException, InterruptedException {
+        // Running before finished: a job leaves running only after its result is in finished
+        List<String> runningIds = new ArrayList<>(running.keySet());
+        Map<String, BackupResult> results = new LinkedHashMap<>(finished);
+        AgentHeartbeat heartbeat = AgentHeartbeat.builder()
+                .agent(name)
+                .zone(settings.getZone())
+                .slots(Math.max(1, settings.getSlots()))
+                .running(runningIds)
+                .finished(results)
+                .build();
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .header(ClusterCoordinatorService.TOKEN_HEADER, settings.getToken() != null ? settings.getToken() : "")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(heartbeat)))
+                .build();
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IOException("Coordinator answered " + response.statusCode() + ": "
+                    + new String(response.body()).trim());
+        }
+        finished.keySet().removeAll(results.keySet());
+        return mapper.readValue(response.body(), JOBS);
+    }
+
+    private void start(ClusterJob job) {
+        if (running.containsKey(job.getId()) || finished.containsKey(job.getId())) {
+            return;
+        }
+        running.put(job.getId(), job);
+        log.info("→ Running cluster job {} (attempt {})", job.getName(), job.getAttempts());
+        workers.execute(() -> {
+            BackupResult result;
+            try {
+                result = backupOrchestrator.executeBackup(job.getConfig());
+            } catch (RuntimeException e) {
+                log.error("Cluster job {} failed", job.getName(), e);
+                result = BackupResult.builder()
+                        .success(false)
+                        .message(e.getMessage())
+                        .timestamp(LocalDateTime.now())
+                        .build();
+            }
+            log.info("{} Cluster job {}: {}", result.isSuccess() ? "✓" : "✗", job.getName(),
+                    result.isSuccess() ? result.getBackupFilePath() : result.getMessage());
+            finished.put(job.getId(), result);
+            running.remove(job.getId());
+            synchronized (signal) {
+                reportDue = true;
+                signal.notifyAll();
+            }
+        });
+    }
+
+    private static String defaultName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "agent";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+}
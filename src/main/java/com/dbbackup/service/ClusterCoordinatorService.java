@@ -0,0 +1,459 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.model.AgentHeartbeat;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.BackupResult;
+import com.dbbackup.model.ClusterAgent;
+import com.dbbackup.model.ClusterJob;
+import com.dbbackup.model.ClusterJobState;
+import com.dbbackup.model.ManifestJob;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Coordinator side of the cluster mode: hands submitted backup jobs to agents on other hosts
+ * and collects their results. Agents only ever call the coordinator, with a JSON heartbeat
+ * that lists the jobs they run and the results they finished, and get the jobs handed to them
+ * in the answer. A job goes to an agent of its database's zone while one of them is alive, two
+ * jobs for the same database never run at once, and the jobs of an agent that stops sending
+ * heartbeats, or no longer reports a job it was given, are handed to another agent.
+ */
+@Service
+@Profile("!batch & !agent")
+@Slf4j
+public class ClusterCoordinatorService {
+
+    public static final String HEARTBEAT_PATH = "/cluster/heartbeat";
+    public static final String STATUS_PATH = "/cluster/status";
+    public static final String TOKEN_HEADER = "X-Backup-Token";
+
+    /** Finished jobs kept for cluster-status and waiting callers */
+    private static final int MAX_FINISHED = 1000;
+
+    private final BackupLogService backupLogService;
+    private final BackupProperties.Cluster settings;
+    private final ObjectMapper mapper = objectMapper();
+    private final Map<String, Pattern> zonePatterns = new LinkedHashMap<>();
+    private final Map<String, ClusterJob> jobs = new LinkedHashMap<>();
+    private final Deque<ClusterJob> queue = new ArrayDeque<>();
+    private final Map<String, ClusterAgent> agents = new LinkedHashMap<>();
+    private HttpServer server;
+    private ExecutorService handlers;
+    private ScheduledExecutorService sweeper;
+
+    public ClusterCoordinatorService(BackupLogService backupLogService, BackupProperties properties) {
+        this.backupLogService = backupLogService;
+        this.settings = properties.getCluster();
+        settings.getZones().forEach((zone, globs) -> globs.forEach(glob -> zonePatterns.put(glob, globPattern(glob))));
+    }
+
+    /**
+     * JSON mapping of the messages between coordinator and agents
+     */
+    public static ObjectMapper objectMapper() {
+        return new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (settings.getPort() <= 0) {
+            return;
+        }
+        if (settings.getToken() == null || settings.getToken().isEmpty()) {
+            // Jobs are handed out with their passwords and cloud keys
+            throw new IllegalStateException("The cluster coordinator needs a token; set backup.cluster.token");
+        }
+        AtomicInteger counter = new AtomicInteger();
+        handlers = Executors.newFixedThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "cluster-http-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        String bindAddress = settings.getBindAddress();
+        server = HttpServer.create(bindAddress == null || bindAddress.isEmpty()
+                ? new InetSocketAddress(settings.getPort())
+                : new InetSocketAddress(bindAddress, settings.getPort()), 0);
+        server.setExecutor(handlers);
+        server.createContext(HEARTBEAT_PATH, exchange -> handle(exchange, "POST", this::readHeartbeat));
+        server.createContext(STATUS_PATH, exchange -> handle(exchange, "GET", in -> status()));
+        server.start();
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(100, settings.getHeartbeatInterval().toMillis());
+        sweeper.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Cluster coordinator listening on {}", server.getAddress());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (server != null) {
+            server.stop(0);
+            handlers.shutdownNow();
+            sweeper.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return server != null;
+    }
+
+    /**
+     * Queues a job for the next agent with a free slot
+     *
+     * @param job the manifest job
+     * @param zone the zone of its database, null to derive it from backup.cluster.zones
+     * @return the queued job
+     */
+    public synchronized ClusterJob submit(ManifestJob job, String zone) {
+        if (!isEnabled()) {
+            throw new IllegalStateException("Not a cluster coordinator; set backup.cluster.port");
+        }
+        ClusterJob clusterJob = ClusterJob.builder()
+                .id(UUID.randomUUID().toString())
+                .name(job.getName())
+                .config(job.getConfig())
+                .zone(zone != null ? zone : zoneOf(job.getConfig()))
+                .state(ClusterJobState.QUEUED)
+                .submittedAt(Instant.now())
+                .build();
+        jobs.put(clusterJob.getId(), clusterJob);
+        queue.addLast(clusterJob);
+        log.info("Queued cluster job {} ({}) for zone {}", clusterJob.getName(), clusterJob.getId(),
+                clusterJob.getZone() != null ? clusterJob.getZone() : "any");
+        return clusterJob;
+    }
+
+    /**
+     * Waits until the jobs have finished
+     *
+     * @param ids the job ids
+     * @param timeout how long to wait at most
+     * @return the jobs as they are when they finished or the wait timed out
+     * @throws InterruptedException if the wait is interrupted
+     */
+    public synchronized List<ClusterJob> await(Collection<String> ids, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (ids.stream().map(jobs::get).anyMatch(job -> job != null && !job.getState().isFinished())) {
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) {
+                break;
+            }
+            wait(left);
+        }
+        return ids.stream().map(jobs::get).filter(job -> job != null).map(ClusterCoordinatorService::withoutConfig).toList();
+    }
+
+    /**
+     * Returns every known job, oldest first, without its configuration
+     */
+    public synchronized List<ClusterJob> jobs() {
+        return jobs.values().stream().map(ClusterCoordinatorService::withoutConfig).toList();
+    }
+
+    /**
+     * Returns every known agent
+     */
+    public synchronized List<ClusterAgent> agents() {
+        return agents.values().stream().map(agent -> ClusterAgent.builder()
+                .name(agent.getName())
+                .zone(agent.getZone())
+                .slots(agent.getSlots())
+                .running(assignedTo(agent.getName()).size())
+                .lastSeen(agent.getLastSeen())
+                .alive(agent.isAlive())
+                .build()).toList();
+    }
+
+    /**
+     * Takes the results an agent reports, takes back jobs it no longer runs and hands it jobs
+     * for its free slots
+     *
+     * @param heartbeat the agent's report
+     * @return the jobs newly handed to the agent
+     */
+    synchronized List<ClusterJob> heartbeat(AgentHeartbeat heartbeat) {
+        if (heartbeat.getAgent() == null || heartbeat.getAgent().isBlank()) {
+            throw new IllegalArgumentException("Heartbeat without agent name");
+        }
+        String name = heartbeat.getAgent();
+        ClusterAgent agent = agents.computeIfAbsent(name, key -> {
+            log.info("Agent {} joined (zone {}, {} slots)", key, heartbeat.getZone(), heartbeat.getSlots());
+            return ClusterAgent.builder().name(key).alive(true).build();
+        });
+        if (!agent.isAlive()) {
+            log.info("Agent {} is back", name);
+        }
+        agent.setZone(heartbeat.getZone());
+        agent.setSlots(Math.max(1, heartbeat.getSlots()));
+        agent.setLastSeen(Instant.now());
+        agent.setAlive(true);
+
+        if (heartbeat.getFinished() != null) {
+            heartbeat.getFinished().forEach((id, result) -> finish(jobs.get(id), name, result));
+        }
+        Set<String> running = heartbeat.getRunning() != null ? new HashSet<>(heartbeat.getRunning()) : Set.of();
+        for (String id : running) {
+            ClusterJob job = jobs.get(id);
+            if (job != null && job.getState() == ClusterJobState.QUEUED) {
+                // Taken back while the agent was out of touch, but it kept running the job
+                queue.remove(job);
+                job.setState(ClusterJobState.ASSIGNED);
+                job.setAgent(name);
+                log.info("Agent {} still runs cluster job {}", name, job.getName());
+            }
+        }
+        for (ClusterJob job : assignedTo(name)) {
+            if (!running.contains(job.getId())) {
+                requeue(job, "agent " + name + " no longer runs it");
+            }
+        }
+
+        List<ClusterJob> handed = new ArrayList<>();
+        int free = agent.getSlots() - assignedTo(name).size();
+        Set<String> liveZones = new HashSet<>();
+        agents.values().stream().filter(ClusterAgent::isAlive).forEach(live -> liveZones.add(live.getZone()));
+        Set<String> busyDatabases = new HashSet<>();
+        jobs.values().stream().filter(job -> job.getState() == ClusterJobState.ASSIGNED)
+                .forEach(job -> busyDatabases.add(databaseOf(job)));
+        for (Iterator<ClusterJob> iterator = queue.iterator(); free > 0 && iterator.hasNext(); ) {
+            ClusterJob job = iterator.next();
+            // Another zone's job only goes here when no agent of that zone is alive
+            boolean local = job.getZone() == null || job.getZone().equals(agent.getZone())
+                    || !liveZones.contains(job.getZone());
+            if (!local || busyDatabases.contains(databaseOf(job))) {
+                continue;
+            }
+            iterator.remove();
+            job.setState(ClusterJobState.ASSIGNED);
+            job.setAgent(name);
+            job.setAttempts(job.getAttempts() + 1);
+            job.setAssignedAt(Instant.now());
+            busyDatabases.add(databaseOf(job));
+            free--;
+            handed.add(ClusterJob.builder()
+                    .id(job.getId())
+                    .name(job.getName())
+                    .config(job.getConfig())
+                    .zone(job.getZone())
+                    .attempts(job.getAttempts())
+                    .build());
+            log.info("→ Cluster job {} handed to agent {} (attempt {})", job.getName(), name, job.getAttempts());
+        }
+        return handed;
+    }
+
+    /**
+     * Takes back the jobs of agents whose heartbeats stopped
+     */
+    synchronized void sweep() {
+        try {
+            Instant cutoff = Instant.now().minus(settings.getHeartbeatTimeout());
+            Instant forget = Instant.now().minus(settings.getHeartbeatTimeout().multipliedBy(10));
+            for (Iterator<ClusterAgent> iterator = agents.values().iterator(); iterator.hasNext(); ) {
+                ClusterAgent agent = iterator.next();
+                if (agent.isAlive() && agent.getLastSeen().isBefore(cutoff)) {
+                    agent.setAlive(false);
+                    log.warn("✗ Agent {} lost: no heartbeat for {}", agent.getName(), settings.getHeartbeatTimeout());
+                    assignedTo(agent.getName()).forEach(job -> requeue(job, "agent " + agent.getName() + " lost"));
+                } else if (!agent.isAlive() && agent.getLastSeen().isBefore(forget)) {
+                    iterator.remove();
+                }
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic sweep
+            log.error("Cluster sweep failed", e);
+        }
+    }
+
+    private void finish(ClusterJob job, String agent, BackupResult result) {
+        if (job == null || job.getState().isFinished() || result == null) {
+            return;
+        }
+        if (job.getState() == ClusterJobState.QUEUED) {
+            queue.remove(job);
+        }
+        job.setState(result.isSuccess() ? ClusterJobState.SUCCEEDED : ClusterJobState.FAILED);
+        job.setAgent(agent);
+        job.setResult(result);
+        job.setFinishedAt(Instant.now());
+        backupLogService.logBackupResult(job.getConfig(), result);
+        prune();
+        notifyAll();
+    }
+
+    private void requeue(ClusterJob job, String reason) {
+        if (job.getAttempts() >= settings.getMaxAttempts()) {
+            log.error("✗ Cluster job {} given up after {} attempts: {}", job.getName(), job.getAttempts(), reason);
+            finish(job, job.getAgent(), BackupResult.builder()
+                    .success(false)
+                    .message("Given up after " + job.getAttempts() + " attempts, last: " + reason)
+                    .timestamp(LocalDateTime.now())
+                    .build());
+            return;
+        }
+        log.warn("Cluster job {} queued again: {}", job.getName(), reason);
+        job.setState(ClusterJobState.QUEUED);
+        queue.addFirst(job);
+    }
+
+    private List<ClusterJob> assignedTo(String agent) {
+        return jobs.values().stream()
+                .filter(job -> job.getState() == ClusterJobState.ASSIGNED && agent.equals(job.getAgent()))
+                .toList();
+    }
+
+    private void prune() {
+        long finished = jobs.values().stream().filter(job -> job.getState().isFinished()).count();
+        for (Iterator<ClusterJob> iterator = jobs.values().iterator(); finished > MAX_FINISHED && iterator.hasNext(); ) {
+            if (iterator.next().getState().isFinished()) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+
+    private String zoneOf(BackupConfig config) {
+        if (config.getHost() == null) {
+            return null;
+        }
+        String host = config.getHost().toLowerCase(Locale.ROOT);
+        for (Map.Entry<String, List<String>> zone : settings.getZones().entrySet()) {
+            if (zone.getValue().stream().anyMatch(glob -> zonePatterns.get(glob).matcher(host).matches())) {
+                return zone.getKey();
+            }
+        }
+        return null;
+    }
+
+    private static String databaseOf(ClusterJob job) {
+        return job.getConfig().instanceKey();
+    }
+
+    private static Pattern globPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : glob.toLowerCase(Locale.ROOT).toCharArray()) {
+            regex.append(c == '*' ? ".*" : c == '?' ? "." : Pattern.quote(String.valueOf(c)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /** Jobs carry passwords and cloud keys, which only the agent running them gets */
+    private static ClusterJob withoutConfig(ClusterJob job) {
+        return ClusterJob.builder()
+                .id(job.getId())
+                .name(job.getName())
+                .zone(job.getZone())
+                .state(job.getState())
+                .agent(job.getAgent())
+                .attempts(job.getAttempts())
+                .submittedAt(job.getSubmittedAt())
+                .assignedAt(job.getAssignedAt())
+                .finishedAt(job.getFinishedAt())
+                .result(job.getResult())
+                .build();
+    }
+
+    private Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("agents", agents());
+        status.put("jobs", jobs());
+        return status;
+    }
+
+    private List<ClusterJob> readHeartbeat(InputStream in) throws IOException {
+        return heartbeat(mapper.readValue(in, AgentHeartbeat.class));
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        Object handle(InputStream in) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        try (exchange) {
+            if (!authorized(exchange.getRequestHeaders().getFirst(TOKEN_HEADER))) {
+                respond(exchange, 401, "Invalid cluster token");
+                return;
+            }
+            if (!method.equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, method + " only");
+                return;
+            }
+            Object answer;
+            try (InputStream in = exchange.getRequestBody()) {
+                answer = handler.handle(in);
+            } catch (IOException | IllegalArgumentException e) {
+                respond(exchange, 400, e.getMessage());
+                return;
+            }
+            byte[] body = mapper.writeValueAsBytes(answer);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cluster request {} failed: {}", exchange.getRequestURI(), e.getMessage());
+        }
+    }
+
+    private boolean authorized(String token) {
+        String expected = settings.getToken();
+        return token != null && MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -1,5 +1,19 @@
 package com.dbbackup.service;
 
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.io.CompressionFrames;
+import com.dbbackup.io.CompressionFrames.Choice;
+import com.dbbackup.io.CompressionFrames.Sample;
+import com.dbbackup.io.DurableFile;
+import com.dbbackup.io.IndexedArchive;
+import com.dbbackup.io.IndexedArchiveWriter;
+import com.dbbackup.io.PipelineStage;
+import com.dbbackup.io.PipelineStages;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.CompressionCodec;
+import com.dbbackup.model.CompressionDictionary;
+import com.dbbackup.model.CompressionMode;
+import com.dbbackup.model.ThrottleStage;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
@@ -7,8 +21,19 @@ import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 /**
  * Service for compressing backup files
@@ -17,6 +42,34 @@ import java.nio.file.Path;
 @Slf4j
 public class CompressionService {
 
+    /** A level must save more than this share of output over a faster one to be preferred */
+    private static final double MIN_GAIN = 0.01;
+    /** Scratch array of the stage that hands pooled buffers to array-based streams */
+    private static final int STREAM_SCRATCH = 65536;
+
+    private final ThrottleService throttleService;
+    private final EncryptionService encryptionService;
+    private final BackupMetadataService metadataService;
+    private final DictionaryService dictionaryService;
+    private final PipelineService pipelineService;
+    private final LocalWriteService localWriteService;
+    private final BackupProperties.Compression settings;
+    private final int dictionaryLevel;
+
+    public CompressionService(ThrottleService throttleService, EncryptionService encryptionService,
+                              BackupMetadataService metadataService, DictionaryService dictionaryService,
+                              PipelineService pipelineService, LocalWriteService localWriteService,
+                              BackupProperties properties) {
+        this.throttleService = throttleService;
+        this.encryptionService = encryptionService;
+        this.metadataService = metadataService;
+        this.dictionaryService = dictionaryService;
+        this.pipelineService = pipelineService;
+        this.localWriteService = localWriteService;
+        this.settings = properties.getCompression();
+        this.dictionaryLevel = properties.getDictionary().getLevel();
+    }
+
     /**
      * Compresses a file using GZIP
      *
@@ -25,18 +78,32 @@ public class CompressionService {
      * @throws IOException if compression fails
      */
     public String compressFile(String sourceFile) throws IOException {
-        String compressedFile = sourceFile + ".gz";
-        log.info("Compressing file: {} to {}", sourceFile, compressedFile);
+        return compressFile(sourceFile, null);
+    }
 
-        try (FileInputStream fis = new FileInputStream(sourceFile);
-             FileOutputStream fos = new FileOutputStream(compressedFile);
-             GzipCompressorOutputStream gzos = new GzipCompressorOutputStream(fos)) {
+    /**
+     * Compresses a file using GZIP, the job's trained zstd dictionary, or the adaptive codec
+     * selection when configured, applying the local write limits of the given job. When the job
+     * requests encryption, the compressed stream is encrypted on the way to disk.
+     *
+     * @param sourceFile the file to compress
+     * @param config     the backup configuration, or null to apply only the global limits
+     * @return the path to the compressed file
+     * @throws IOException if compression fails
+     */
+    public String compressFile(String sourceFile, BackupConfig config) throws IOException {
+        if (config != null && config.getDictionary() != null) {
+            return compressWithDictionary(sourceFile, config);
+        }
+        if (settings.getMode() == CompressionMode.ADAPTIVE) {
+            return compressAdaptive(sourceFile, config);
+        }
+        boolean encrypt = config != null && config.isEncrypt();
+        String compressedFile = sourceFile + (encrypt ? ".gz" + EncryptionService.SUFFIX : ".gz");
+        log.info("Compressing file: {} to {}", sourceFile, compressedFile);
 
-            byte[] buffer = new byte[8192];
-            int len;
-            while ((len = fis.read(buffer)) > 0) {
-                gzos.write(buffer, 0, len);
-            }
+        try (FileChannel in = FileChannel.open(Path.of(sourceFile))) {
+            compressStream(in, null, compressedFile, config);
         }
 
         // Delete the original uncompressed file
@@ -46,6 +113,238 @@ public class CompressionService {
         return compressedFile;
     }
 
+    /**
+     * Compresses a stream with GZIP straight into a file, e.g. the output of a backup tool that
+     * would otherwise be written uncompressed first. When the job requests encryption, the
+     * compressed stream is encrypted on the way to disk.
+     *
+     * @param source         the stream to compress
+     * @param readStage      the limit reading the source is charged against, or null
+     * @param compressedFile the file to write, ending in {@code .gz} or {@code .gz.enc}
+     * @param config         the backup configuration, or null to apply only the global limits
+     * @return the number of uncompressed bytes read
+     * @throws IOException if reading, compressing or writing fails
+     */
+    public long compressStream(ReadableByteChannel source, ThrottleStage readStage, String compressedFile,
+                               BackupConfig config) throws IOException {
+        boolean encrypt = config != null && config.isEncrypt();
+        // Deflated from pooled direct buffers straight into the file, or into the encryption stream
+        try (DurableFile out = localWriteService.create(Path.of(compressedFile), -1)) {
+            long read;
+            if (encrypt) {
+                try (OutputStream sink = encryptionService.encrypt(throttleService.throttle(
+                        out.outputStream(), ThrottleStage.LOCAL_WRITE, config), compressedFile)) {
+                    read = pipelineService.run(source, lease -> read(readStage, config,
+                            PipelineStages.gzip(Deflater.DEFAULT_COMPRESSION, lease.take(),
+                                    PipelineStages.stream(sink, STREAM_SCRATCH))));
+                }
+            } else {
+                read = pipelineService.run(source, lease -> read(readStage, config,
+                        PipelineStages.gzip(Deflater.DEFAULT_COMPRESSION, lease.take(),
+                                pipelineService.limited(ThrottleStage.LOCAL_WRITE, config, PipelineStages.channel(out)))));
+            }
+            out.commit();
+            return read;
+        }
+    }
+
+    private PipelineStage read(ThrottleStage readStage, BackupConfig config, PipelineStage next) {
+        return readStage != null ? pipelineService.limited(readStage, config, next) : next;
+    }
+
+    /**
+     * Compresses a file as a zstd frame that references the newest version of the job's
+     * dictionary. The frame header carries the dictionary id, which is how the matching
+     * version is found again on decompression; name and version are kept in the metadata.
+     */
+    private String compressWithDictionary(String sourceFile, BackupConfig config) throws IOException {
+        CompressionDictionary dictionary = dictionaryService.current(config.getDictionary())
+                .orElseThrow(() -> new IllegalArgumentException("Dictionary not trained: " + config.getDictionary()));
+        byte[] contents = dictionaryService.load(dictionary);
+        Path source = Path.of(sourceFile);
+        long total = Files.size(source);
+        String compressedFile = sourceFile + CompressionCodec.ZSTD.getExtension()
+                + (config.isEncrypt() ? EncryptionService.SUFFIX : "");
+        log.info("Compressing file: {} to {} with dictionary {} v{}", sourceFile, compressedFile,
+                dictionary.getName(), dictionary.getVersion());
+
+        try (DurableFile out = localWriteService.create(Path.of(compressedFile), -1)) {
+            try (InputStream in = Files.newInputStream(source);
+                 OutputStream fos = throttleService.throttle(
+                         new BufferedOutputStream(out.outputStream(), 65536), ThrottleStage.LOCAL_WRITE, config);
+                 OutputStream sink = config.isEncrypt() ? encryptionService.encrypt(fos, compressedFile) : fos;
+                 OutputStream frame = CompressionFrames.openZstd(dictionaryLevel, contents, sink)) {
+                in.transferTo(frame);
+            }
+            out.commit();
+        }
+
+        Files.deleteIfExists(source);
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put("compression.codec", CompressionCodec.ZSTD.name());
+        metadata.put("compression.level", String.valueOf(dictionaryLevel));
+        metadata.put("compression.dictionary", dictionary.getName());
+        metadata.put("compression.dictionary-version", String.valueOf(dictionary.getVersion()));
+        metadata.put("compression.dictionary-id", String.valueOf(dictionary.getDictionaryId()));
+        metadata.put("compression.input-bytes", String.valueOf(total));
+        metadataService.update(compressedFile, metadata);
+        log.info("Compression completed. Compressed file size: {} bytes", Files.size(Path.of(compressedFile)));
+        return compressedFile;
+    }
+
+    /**
+     * Decompresses a gzip, zstd or LZ4 backup, looking up the dictionary a zstd backup was
+     * compressed with. Encrypted backups must be decrypted first.
+     *
+     * @param sourceFile the compressed file
+     * @param outputFile the file to write the uncompressed data to
+     * @throws IOException if the file cannot be decompressed
+     */
+    public void decompressFile(String sourceFile, String outputFile) throws IOException {
+        CompressionCodec codec = CompressionCodec.fromFileName(sourceFile);
+        if (codec == null) {
+            throw new IllegalArgumentException("Not a compressed backup: " + sourceFile);
+        }
+        try (InputStream in = CompressionFrames.decode(
+                new BufferedInputStream(new FileInputStream(sourceFile), 65536), codec, dictionaryService::findById);
+             DurableFile out = localWriteService.create(Path.of(outputFile), -1)) {
+            try (OutputStream buffered = new BufferedOutputStream(out.outputStream(), 65536)) {
+                in.transferTo(buffered);
+            }
+            out.commit();
+        }
+        log.info("Decompressed {} to {}", sourceFile, outputFile);
+    }
+
+    /**
+     * Compresses a file with the codec and level that give the best ratio at the required
+     * throughput. The choice is made on a sample from the start of the file; every
+     * reevaluation interval the level is chosen again on a fresh sample and a new frame is
+     * started, so the output stays a valid stream of its codec. The codec, and with it the
+     * file extension, is fixed by the first choice.
+     */
+    private String compressAdaptive(String sourceFile, BackupConfig config) throws IOException {
+        Path source = Path.of(sourceFile);
+        long total = Files.size(source);
+        long startNanos = System.nanoTime();
+        List<Choice> candidates = settings.getCandidates().stream().map(Choice::parse).toList();
+        if (candidates.isEmpty()) {
+            throw new IllegalStateException("No adaptive compression candidates configured");
+        }
+        int sampleSize = (int) Math.max(64 * 1024, Math.min(settings.getSampleSize().toBytes(), Integer.MAX_VALUE - 8));
+        long interval = Math.max(sampleSize, settings.getReevaluateInterval().toBytes());
+        boolean encrypt = config != null && config.isEncrypt();
+
+        byte[] sample = new byte[sampleSize];
+        byte[] buffer = new byte[65536];
+        List<String> frames = new ArrayList<>();
+        Sample first;
+        String compressedFile;
+        try (InputStream in = Files.newInputStream(source)) {
+            int length = in.readNBytes(sample, 0, sampleSize);
+            first = choose(candidates, sample, length, requiredRate(total, 0, startNanos));
+            CompressionCodec codec = first.getChoice().getCodec();
+            List<Choice> levels = candidates.stream().filter(choice -> choice.getCodec() == codec).toList();
+            if (levels.size() < 2) {
+                // Nothing to re-evaluate, so the whole file goes into one frame
+                interval = Long.MAX_VALUE;
+            }
+            compressedFile = sourceFile + codec.getExtension() + (encrypt ? EncryptionService.SUFFIX : "");
+            log.info("Compressing file: {} to {} ({} chosen at {}% ratio)", sourceFile, compressedFile,
+                    first.getChoice(), Math.round(first.ratio() * 100));
+
+            try (DurableFile out = localWriteService.create(Path.of(compressedFile), -1)) {
+                try (OutputStream fos = throttleService.throttle(
+                        new BufferedOutputStream(out.outputStream(), 65536), ThrottleStage.LOCAL_WRITE, config);
+                     OutputStream sink = encrypt ? encryptionService.encrypt(fos, compressedFile) : fos) {
+                    Choice choice = first.getChoice();
+                    long position = 0;
+                    while (length > 0) {
+                        frames.add(position + "=" + choice);
+                        long frameEnd = position + interval;
+                        try (OutputStream frame = CompressionFrames.open(choice, sink)) {
+                            frame.write(sample, 0, length);
+                            position += length;
+                            int read;
+                            while (position < frameEnd
+                                    && (read = in.read(buffer, 0, (int) Math.min(buffer.length, frameEnd - position))) > 0) {
+                                frame.write(buffer, 0, read);
+                                position += read;
+                            }
+                        }
+                        length = in.readNBytes(sample, 0, sampleSize);
+                        if (length > 0 && levels.size() > 1) {
+                            Choice next = choose(levels, sample, length, requiredRate(total, position, startNanos)).getChoice();
+                            if (!next.equals(choice)) {
+                                log.info("Switching compression of {} from {} to {} at {} bytes", sourceFile, choice, next, position);
+                            }
+                            choice = next;
+                        }
+                    }
+                }
+                out.commit();
+            }
+        }
+
+        Files.deleteIfExists(source);
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put("compression.mode", CompressionMode.ADAPTIVE.name());
+        metadata.put("compression.codec", first.getChoice().getCodec().name());
+        metadata.put("compression.frames", String.join(",", frames));
+        metadata.put("compression.sample-ratio", String.format(Locale.ROOT, "%.4f", first.ratio()));
+        metadata.put("compression.sample-throughput", String.valueOf(Math.round(first.bytesPerSecond())));
+        metadata.put("compression.input-bytes", String.valueOf(total));
+        metadataService.update(compressedFile, metadata);
+        log.info("Compression completed. Compressed file size: {} bytes", Files.size(Path.of(compressedFile)));
+        return compressedFile;
+    }
+
+    /**
+     * Uncompressed bytes per second needed to meet the throughput target and, when set, to
+     * finish the rest of the file within the time budget
+     */
+    private double requiredRate(long total, long position, long startNanos) {
+        double required = settings.getTargetThroughput().toBytes();
+        Duration budget = settings.getTimeBudget();
+        if (budget != null && !budget.isZero()) {
+            double secondsLeft = (budget.toNanos() - (System.nanoTime() - startNanos)) / 1e9;
+            if (secondsLeft <= 0) {
+                return Double.MAX_VALUE;
+            }
+            required = Math.max(required, (total - position) / secondsLeft);
+        }
+        return required;
+    }
+
+    /**
+     * Measures every candidate on the sample. Among those fast enough, the smallest output wins,
+     * unless a faster one comes within {@link #MIN_GAIN} of it; when none is fast enough, the
+     * fastest wins.
+     */
+    private Sample choose(List<Choice> candidates, byte[] sample, int length, double requiredRate) throws IOException {
+        List<Sample> samples = new ArrayList<>();
+        // Native codecs load and allocate their contexts on first use, which must not count against them
+        for (Choice candidate : candidates) {
+            CompressionFrames.measure(candidate, sample, Math.min(length, 64 * 1024));
+        }
+        for (Choice candidate : candidates) {
+            Sample result = CompressionFrames.measure(candidate, sample, length);
+            log.debug("Compression sample {}: ratio {}, {} MB/s", candidate,
+                    String.format(Locale.ROOT, "%.3f", result.ratio()), Math.round(result.bytesPerSecond() / (1024 * 1024)));
+            samples.add(result);
+        }
+        List<Sample> fastEnough = samples.stream().filter(result -> result.bytesPerSecond() >= requiredRate).toList();
+        Comparator<Sample> fastest = Comparator.comparingDouble(Sample::bytesPerSecond);
+        if (fastEnough.isEmpty()) {
+            return samples.stream().max(fastest).orElseThrow();
+        }
+        long smallest = fastEnough.stream().mapToLong(Sample::getOutputBytes).min().orElseThrow();
+        return fastEnough.stream()
+                .filter(result -> result.getOutputBytes() <= smallest * (1 + MIN_GAIN))
+                .max(fastest)
+                .orElseThrow();
+    }
+
     /**
      * Compresses a file into a tar.gz archive
      *
@@ -59,22 +358,21 @@ public class CompressionService {
 
         File source = new File(sourceFile);
 
-        try (FileOutputStream fos = new FileOutputStream(compressedFile);
-             GzipCompressorOutputStream gzos = new GzipCompressorOutputStream(fos);
-             TarArchiveOutputStream taos = new TarArchiveOutputStream(gzos)) {
+        try (DurableFile out = localWriteService.create(Path.of(compressedFile), -1)) {
+            try (GzipCompressorOutputStream gzos = new GzipCompressorOutputStream(
+                    new BufferedOutputStream(out.outputStream(), 65536));
+                 TarArchiveOutputStream taos = new TarArchiveOutputStream(gzos)) {
 
-            TarArchiveEntry entry = new TarArchiveEntry(source, source.getName());
-            taos.putArchiveEntry(entry);
+                TarArchiveEntry entry = new TarArchiveEntry(source, source.getName());
+                taos.putArchiveEntry(entry);
 
-            try (FileInputStream fis = new FileInputStream(source)) {
-                byte[] buffer = new byte[8192];
-                int len;
-                while ((len = fis.read(buffer)) > 0) {
-                    taos.write(buffer, 0, len);
+                try (FileChannel in = FileChannel.open(source.toPath())) {
+                    pipelineService.run(in, lease -> PipelineStages.stream(taos, STREAM_SCRATCH));
                 }
-            }
 
-            taos.closeArchiveEntry();
+                taos.closeArchiveEntry();
+            }
+            out.commit();
         }
 
         // Delete the original uncompressed file
@@ -83,4 +381,97 @@ public class CompressionService {
 
         return compressedFile;
     }
+
+    /**
+     * Packs a directory of already-compressed files into an uncompressed tar archive and
+     * removes the directory
+     *
+     * @param sourceDirectory the directory to archive
+     * @param config          the backup configuration, or null to apply only the global limits
+     * @return the path to the archive
+     * @throws IOException if archiving fails
+     */
+    public String archiveDirectory(String sourceDirectory, BackupConfig config) throws IOException {
+        Path source = Path.of(sourceDirectory);
+        String archiveFile = sourceDirectory + ".tar";
+        log.info("Archiving directory: {} to {}", sourceDirectory, archiveFile);
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(source)) {
+            files = walk.filter(Files::isRegularFile).sorted().toList();
+        }
+        try (DurableFile out = localWriteService.create(Path.of(archiveFile), -1)) {
+            try (OutputStream fos = throttleService.throttle(
+                    new BufferedOutputStream(out.outputStream(), 65536), ThrottleStage.LOCAL_WRITE, config);
+                 TarArchiveOutputStream taos = new TarArchiveOutputStream(fos)) {
+                taos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+                taos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+                for (Path file : files) {
+                    String name = source.getFileName() + "/" + source.relativize(file).toString().replace(File.separatorChar, '/');
+                    taos.putArchiveEntry(new TarArchiveEntry(file.toFile(), name));
+                    Files.copy(file, taos);
+                    taos.closeArchiveEntry();
+                }
+            }
+            out.commit();
+        }
+
+        // Delete the original directory, deepest entries first
+        try (Stream<Path> walk = Files.walk(source)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+        log.info("Archiving completed. Archive size: {} bytes", Files.size(Path.of(archiveFile)));
+
+        return archiveFile;
+    }
+
+    /**
+     * Packs a directory of already-compressed files into an {@link IndexedArchive} of stored
+     * blocks, so that the files of one table or collection can be extracted on their own, and
+     * removes the directory
+     *
+     * @param sourceDirectory the directory to archive
+     * @param objects         the table or collection of each file, by path relative to the
+     *                        directory; other files belong to the whole database
+     * @param config          the backup configuration, or null to apply only the global limits
+     * @return the path to the archive
+     * @throws IOException if archiving fails
+     */
+    public String archiveDirectoryIndexed(String sourceDirectory, Map<String, String> objects, BackupConfig config)
+            throws IOException {
+        Path source = Path.of(sourceDirectory);
+        String archiveFile = sourceDirectory + IndexedArchive.EXTENSION;
+        log.info("Archiving directory: {} to indexed archive {}", sourceDirectory, archiveFile);
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(source)) {
+            files = walk.filter(Files::isRegularFile).sorted().toList();
+        }
+        try (DurableFile out = localWriteService.create(Path.of(archiveFile), -1)) {
+            try (IndexedArchiveWriter archive = new IndexedArchiveWriter(throttleService.throttle(
+                    new BufferedOutputStream(out.outputStream(), 65536), ThrottleStage.LOCAL_WRITE, config))) {
+                for (Path file : files) {
+                    String name = source.relativize(file).toString().replace(File.separatorChar, '/');
+                    String object = objects.get(name);
+                    if (object != null) {
+                        archive.addStored(object, IndexedArchive.DATA, file, name);
+                    } else {
+                        archive.addStored(IndexedArchive.DATABASE, IndexedArchive.PRE_DATA, file, name);
+                    }
+                }
+            }
+            out.commit();
+        }
+
+        try (Stream<Path> walk = Files.walk(source)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+        log.info("Archiving completed. Archive size: {} bytes", Files.size(Path.of(archiveFile)));
+
+        return archiveFile;
+    }
 }
@@ -0,0 +1,275 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.io.CompressionFrames;
+import com.dbbackup.model.CompressionCodec;
+import com.dbbackup.model.CompressionDictionary;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Trains and stores zstd dictionaries for fleets of small databases that share a schema.
+ * Each dictionary name keeps every version it was trained to ({@code <name>/v<N>.dict}) so that
+ * older backups stay readable; the newest version is used for new backups. Backups find their
+ * dictionary again by the dictionary id that zstd writes into every frame header.
+ */
+@Service
+@Slf4j
+public class DictionaryService {
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9._-]+");
+    private static final String INDEX_FILE = "dictionary.properties";
+
+    private final BackupProperties.Dictionary settings;
+    private final Path directory;
+    private final Map<Long, byte[]> cache = new ConcurrentHashMap<>();
+
+    public DictionaryService(BackupProperties properties) {
+        this.settings = properties.getDictionary();
+        this.directory = Path.of(settings.getDirectory());
+    }
+
+    /**
+     * Trains a new version of a dictionary from sample backups. Compressed samples are
+     * decompressed first; encrypted ones are skipped.
+     *
+     * @param name    the dictionary name
+     * @param samples sample files, or directories to take every backup file from
+     * @return the new version
+     * @throws IOException if the samples cannot be read or hold too little data to train on
+     */
+    public synchronized CompressionDictionary train(String name, List<Path> samples) throws IOException {
+        Path home = home(name);
+        List<Path> files = sampleFiles(samples);
+        if (files.isEmpty()) {
+            throw new IOException("No sample files found");
+        }
+        long budget = settings.getMaxSampleBytes().toBytes();
+        int chunkSize = (int) Math.max(1024, settings.getSampleChunkSize().toBytes());
+        // Spread the budget so that every file contributes, not just the first few
+        long perFile = Math.max(chunkSize, budget / files.size());
+        ZstdDictTrainer trainer = new ZstdDictTrainer((int) Math.min(budget, Integer.MAX_VALUE - 8),
+                (int) settings.getMaxSize().toBytes());
+
+        long sampleBytes = 0;
+        int used = 0;
+        for (Path file : files) {
+            CompressionCodec codec = CompressionCodec.fromFileName(file.getFileName().toString());
+            try (InputStream raw = Files.newInputStream(file);
+                 InputStream in = codec != null ? CompressionFrames.decode(raw, codec, this::findById) : raw) {
+                long taken = 0;
+                byte[] chunk;
+                while (taken < perFile && (chunk = in.readNBytes(chunkSize)).length > 0) {
+                    if (!trainer.addSample(chunk)) {
+                        break;
+                    }
+                    taken += chunk.length;
+                }
+                sampleBytes += taken;
+                used++;
+            } catch (IOException e) {
+                log.warn("Skipping unreadable sample {}: {}", file, e.getMessage());
+            }
+            if (sampleBytes >= budget) {
+                break;
+            }
+        }
+
+        byte[] dictionary;
+        try {
+            dictionary = trainer.trainSamples();
+        } catch (ZstdException e) {
+            throw new IOException("Training failed, more sample data is needed: " + e.getMessage(), e);
+        }
+
+        Properties index = readIndex(home);
+        int version = Integer.parseInt(index.getProperty("current", "0")) + 1;
+        long dictionaryId = Zstd.getDictIdFromDict(dictionary);
+        Files.createDirectories(home);
+        Path temp = home.resolve("v" + version + ".dict.tmp");
+        Files.write(temp, dictionary);
+        Files.move(temp, home.resolve("v" + version + ".dict"), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        CompressionDictionary trained = CompressionDictionary.builder()
+                .name(name)
+                .version(version)
+                .dictionaryId(dictionaryId)
+                .sizeBytes(dictionary.length)
+                .sampleFiles(used)
+                .sampleBytes(sampleBytes)
+                .createdAt(Instant.now())
+                .build();
+        String prefix = "v." + version + ".";
+        index.setProperty(prefix + "id", String.valueOf(dictionaryId));
+        index.setProperty(prefix + "size", String.valueOf(dictionary.length));
+        index.setProperty(prefix + "sample-files", String.valueOf(used));
+        index.setProperty(prefix + "sample-bytes", String.valueOf(sampleBytes));
+        index.setProperty(prefix + "created", trained.getCreatedAt().toString());
+        index.setProperty("current", String.valueOf(version));
+        writeIndex(home, index);
+        cache.put(dictionaryId, dictionary);
+        log.info("Trained dictionary {} v{} (id {}): {} bytes from {} bytes of {} samples",
+                name, version, dictionaryId, dictionary.length, sampleBytes, used);
+        return trained;
+    }
+
+    /**
+     * Returns the newest version of a dictionary
+     *
+     * @param name the dictionary name
+     * @return the version, empty if the dictionary was never trained
+     * @throws IOException if the dictionary index cannot be read
+     */
+    public Optional<CompressionDictionary> current(String name) throws IOException {
+        Properties index = readIndex(home(name));
+        int version = Integer.parseInt(index.getProperty("current", "0"));
+        return version > 0 ? Optional.of(describe(name, version, index)) : Optional.empty();
+    }
+
+    /**
+     * Lists every version of every dictionary
+     *
+     * @return the versions, by name and version
+     * @throws IOException if the dictionary directory cannot be read
+     */
+    public List<CompressionDictionary> list() throws IOException {
+        List<CompressionDictionary> dictionaries = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return dictionaries;
+        }
+        try (DirectoryStream<Path> homes = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path home : homes) {
+                String name = home.getFileName().toString();
+                Properties index = readIndex(home);
+                int current = Integer.parseInt(index.getProperty("current", "0"));
+                for (int version = 1; version <= current; version++) {
+                    if (index.getProperty("v." + version + ".id") != null) {
+                        dictionaries.add(describe(name, version, index));
+                    }
+                }
+            }
+        }
+        dictionaries.sort(Comparator.comparing(CompressionDictionary::getName)
+                .thenComparingInt(CompressionDictionary::getVersion));
+        return dictionaries;
+    }
+
+    /**
+     * Loads the contents of a dictionary version
+     */
+    public byte[] load(CompressionDictionary dictionary) throws IOException {
+        byte[] cached = cache.get(dictionary.getDictionaryId());
+        if (cached != null) {
+            return cached;
+        }
+        byte[] contents = Files.readAllBytes(home(dictionary.getName()).resolve("v" + dictionary.getVersion() + ".dict"));
+        cache.put(dictionary.getDictionaryId(), contents);
+        return contents;
+    }
+
+    /**
+     * Finds the contents of a dictionary by the id found in a compressed frame
+     *
+     * @param dictionaryId the dictionary id
+     * @return the contents, or null if no stored dictionary has the id
+     */
+    public byte[] findById(long dictionaryId) {
+        byte[] cached = cache.get(dictionaryId);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            for (CompressionDictionary dictionary : list()) {
+                if (dictionary.getDictionaryId() == dictionaryId) {
+                    return load(dictionary);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to look up dictionary {}", dictionaryId, e);
+        }
+        return null;
+    }
+
+    private CompressionDictionary describe(String name, int version, Properties index) {
+        String prefix = "v." + version + ".";
+        String created = index.getProperty(prefix + "created");
+        return CompressionDictionary.builder()
+                .name(name)
+                .version(version)
+                .dictionaryId(Long.parseLong(index.getProperty(prefix + "id")))
+                .sizeBytes(Long.parseLong(index.getProperty(prefix + "size", "0")))
+                .sampleFiles(Integer.parseInt(index.getProperty(prefix + "sample-files", "0")))
+                .sampleBytes(Long.parseLong(index.getProperty(prefix + "sample-bytes", "0")))
+                .createdAt(created != null ? Instant.parse(created) : null)
+                .build();
+    }
+
+    private List<Path> sampleFiles(List<Path> samples) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path sample : samples) {
+            if (Files.isDirectory(sample)) {
+                try (Stream<Path> walk = Files.walk(sample)) {
+                    walk.filter(Files::isRegularFile).sorted().forEach(files::add);
+                }
+            } else if (Files.isRegularFile(sample)) {
+                files.add(sample);
+            } else {
+                log.warn("Sample {} does not exist", sample);
+            }
+        }
+        files.removeIf(file -> {
+            String fileName = file.getFileName().toString();
+            return fileName.endsWith(BackupMetadataService.SUFFIX) || fileName.endsWith(EncryptionService.SUFFIX)
+                    || fileName.endsWith(".tmp");
+        });
+        return files;
+    }
+
+    private Path home(String name) {
+        if (name == null || !NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid dictionary name: " + name);
+        }
+        return directory.resolve(name);
+    }
+
+    private Properties readIndex(Path home) throws IOException {
+        Properties index = new Properties();
+        Path file = home.resolve(INDEX_FILE);
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                index.load(in);
+            }
+        }
+        return index;
+    }
+
+    private void writeIndex(Path home, Properties index) throws IOException {
+        Path temp = home.resolve(INDEX_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            index.store(out, "zstd dictionary versions");
+        }
+        Files.move(temp, home.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,200 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.io.ChunkedCipher;
+import com.dbbackup.io.ChunkedEncryptingOutputStream;
+import com.dbbackup.io.DurableFile;
+import com.dbbackup.io.EncryptedFileReader;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.EncryptionAlgorithm;
+import com.dbbackup.model.ThrottleStage;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service for the streaming authenticated encryption stage.
+ * Each backup gets a random data key, which is wrapped with the configured master key
+ * (AES Key Wrap, RFC 3394) and stored in the backup metadata sidecar.
+ */
+@Service
+@Slf4j
+public class EncryptionService {
+
+    public static final String SUFFIX = ".enc";
+    private static final String KEY_WRAP = "AESWrap";
+
+    private final BackupProperties.Encryption settings;
+    private final BackupMetadataService metadataService;
+    private final ThrottleService throttleService;
+    private final LocalWriteService localWriteService;
+    private final ExecutorService executor;
+    private final SecureRandom random = new SecureRandom();
+    private final int threads;
+
+    public EncryptionService(BackupProperties properties, BackupMetadataService metadataService,
+                             ThrottleService throttleService, LocalWriteService localWriteService) {
+        this.settings = properties.getEncryption();
+        this.metadataService = metadataService;
+        this.throttleService = throttleService;
+        this.localWriteService = localWriteService;
+        this.threads = settings.getThreads() > 0
+                ? settings.getThreads() : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "encryption-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Wraps an output stream with the encryption stage and records the wrapped data key
+     * in the metadata of the artifact being written
+     *
+     * @param out          the stream receiving the encrypted artifact
+     * @param artifactPath the path of the encrypted artifact
+     * @return the encrypting stream
+     * @throws IOException if the key cannot be generated or the metadata cannot be written
+     */
+    public OutputStream encrypt(OutputStream out, String artifactPath) throws IOException {
+        EncryptionAlgorithm algorithm = settings.getAlgorithm();
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance(algorithm.getKeyAlgorithm());
+            generator.init(256, random);
+            SecretKey dataKey = generator.generateKey();
+
+            Cipher wrapper = Cipher.getInstance(KEY_WRAP);
+            wrapper.init(Cipher.WRAP_MODE, loadMasterKey());
+            byte[] wrappedKey = wrapper.wrap(dataKey);
+
+            int chunkSize = (int) settings.getChunkSize().toBytes();
+            metadataService.update(artifactPath, Map.of(
+                    "encryption.algorithm", algorithm.name(),
+                    "encryption.chunk-size", String.valueOf(chunkSize),
+                    "encryption.key-wrap", KEY_WRAP,
+                    "encryption.key-id", settings.getKeyId(),
+                    "encryption.wrapped-key", Base64.getEncoder().encodeToString(wrappedKey)));
+
+            ChunkedCipher cipher = new ChunkedCipher(algorithm, dataKey, chunkSize, random.nextInt());
+            return new ChunkedEncryptingOutputStream(out, cipher, executor, threads * 2);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to initialize backup encryption", e);
+        }
+    }
+
+    /**
+     * Encrypts an existing backup file in a separate pass, for artifacts that did not go
+     * through the compression stage
+     *
+     * @param sourceFile the file to encrypt
+     * @param config     the backup configuration
+     * @return the path to the encrypted file
+     * @throws IOException if encryption fails
+     */
+    public String encryptFile(String sourceFile, BackupConfig config) throws IOException {
+        String encryptedFile = sourceFile + SUFFIX;
+        log.info("Encrypting file: {} to {}", sourceFile, encryptedFile);
+
+        try (DurableFile file = localWriteService.create(Path.of(encryptedFile), -1)) {
+            try (InputStream in = Files.newInputStream(Path.of(sourceFile));
+                 OutputStream out = encrypt(throttleService.throttle(
+                         new BufferedOutputStream(file.outputStream(), 65536),
+                         ThrottleStage.LOCAL_WRITE, config), encryptedFile)) {
+                in.transferTo(out);
+            }
+            file.commit();
+        }
+
+        Files.deleteIfExists(Path.of(sourceFile));
+        log.info("Encryption completed: {}", encryptedFile);
+        return encryptedFile;
+    }
+
+    /**
+     * Opens an encrypted backup for random-access decryption
+     *
+     * @param encryptedFile the encrypted backup
+     * @return the reader
+     * @throws IOException if the file or its metadata cannot be read
+     */
+    public EncryptedFileReader openReader(String encryptedFile) throws IOException {
+        Properties metadata = metadataService.read(encryptedFile);
+        String wrappedKey = metadata.getProperty("encryption.wrapped-key");
+        if (wrappedKey == null) {
+            throw new IOException("No encryption metadata found for: " + encryptedFile);
+        }
+        EncryptionAlgorithm algorithm = EncryptionAlgorithm.valueOf(metadata.getProperty("encryption.algorithm"));
+        try {
+            Cipher unwrapper = Cipher.getInstance(KEY_WRAP);
+            unwrapper.init(Cipher.UNWRAP_MODE, loadMasterKey());
+            SecretKey dataKey = (SecretKey) unwrapper.unwrap(Base64.getDecoder().decode(wrappedKey),
+                    algorithm.getKeyAlgorithm(), Cipher.SECRET_KEY);
+            return new EncryptedFileReader(Path.of(encryptedFile), dataKey);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to unwrap data key (wrong master key?)", e);
+        }
+    }
+
+    /**
+     * Decrypts an encrypted backup
+     *
+     * @param encryptedFile the encrypted backup
+     * @param outputFile    the destination file
+     * @throws IOException if decryption or authentication fails
+     */
+    public void decryptFile(String encryptedFile, String outputFile) throws IOException {
+        log.info("Decrypting file: {} to {}", encryptedFile, outputFile);
+        try (EncryptedFileReader reader = openReader(encryptedFile);
+             DurableFile file = localWriteService.create(Path.of(outputFile), -1)) {
+            try (OutputStream out = new BufferedOutputStream(file.outputStream(), 65536)) {
+                reader.decryptTo(out);
+            }
+            file.commit();
+        }
+        log.info("Decryption completed: {}", outputFile);
+    }
+
+    private SecretKey loadMasterKey() throws IOException {
+        String encoded;
+        if (settings.getMasterKeyFile() != null) {
+            encoded = Files.readString(Path.of(settings.getMasterKeyFile()), StandardCharsets.US_ASCII);
+        } else {
+            encoded = System.getenv(settings.getMasterKeyEnv());
+        }
+        if (encoded == null || encoded.isBlank()) {
+            throw new IOException("No master key configured: set backup.encryption.master-key-file or "
+                    + settings.getMasterKeyEnv());
+        }
+        byte[] key = Base64.getDecoder().decode(encoded.trim());
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IOException("Master key must be 128, 192 or 256 bits");
+        }
+        return new SecretKeySpec(key, "AES");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,554 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.ThrottleStage;
+import com.google.auth.oauth2.GoogleCredentials;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Google Cloud Storage backend using the JSON API resumable upload protocol.
+ * Data is sent in large chunks; after a network failure the service is asked for the
+ * last committed offset and the upload continues from there. The session URI of a file
+ * upload is kept in a {@code .gcs-session} file so an interrupted upload is also resumed by
+ * the next attempt. Very large files are split into parts uploaded in parallel and joined
+ * with a compose request.
+ */
+@Service
+@Slf4j
+public class GoogleCloudStorageService {
+
+    private static final int CHUNK_GRANULARITY = 256 * 1024;
+    private static final int MAX_COMPOSE_SOURCES = 32;
+    private static final String SESSION_SUFFIX = ".gcs-session";
+    private static final String SCOPE = "https://www.googleapis.com/auth/devstorage.read_write";
+    private static final Pattern RANGE = Pattern.compile("bytes=0-(\\d+)");
+
+    private final BackupProperties.Gcs settings;
+    private final ThrottleService throttleService;
+    private final BackupMetadataService metadataService;
+    /** Created on first use, so that runs without GCS uploads don't start its selector thread */
+    private volatile HttpClient httpClient;
+    private final Map<String, GoogleCredentials> credentials = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    public GoogleCloudStorageService(BackupProperties properties, ThrottleService throttleService,
+                                     BackupMetadataService metadataService) {
+        this.settings = properties.getGcs();
+        this.throttleService = throttleService;
+        this.metadataService = metadataService;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "gcs-upload-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Uploads a backup file and its metadata sidecar
+     *
+     * @param filePath the path to the backup file
+     * @param config   the backup configuration (bucket, optional endpoint and credentials file)
+     * @throws IOException if the upload fails
+     */
+    public void uploadFile(String filePath, BackupConfig config) throws IOException {
+        Path path = Path.of(filePath);
+        String objectName = new File(filePath).getName();
+        long size = Files.size(path);
+        log.info("Uploading to Google Cloud Storage bucket: {}", config.getCloudBucket());
+
+        if (size >= settings.getCompositeThreshold().toBytes() && settings.getCompositeParts() > 1) {
+            uploadComposite(path, objectName, size, config);
+        } else {
+            uploadRange(path, objectName, 0, size, config, Path.of(filePath + SESSION_SUFFIX));
+        }
+
+        Path metadataPath = metadataService.metadataPath(filePath);
+        if (Files.exists(metadataPath)) {
+            uploadRange(metadataPath, objectName + BackupMetadataService.SUFFIX, 0,
+                    Files.size(metadataPath), config, null);
+        }
+
+        log.info("Successfully uploaded to Google Cloud Storage: {}/{}", config.getCloudBucket(), objectName);
+    }
+
+    /**
+     * Uploads a stream of a backup file through one resumable session, then the file's
+     * metadata sidecar. Unlike {@link #uploadFile}, an interrupted upload starts over.
+     *
+     * @param in       the content of the backup, read to the end
+     * @param filePath the path to the backup file, naming the object
+     * @param config   the backup configuration (bucket, optional endpoint and credentials file)
+     * @throws IOException if the upload fails
+     */
+    public void uploadStream(InputStream in, String filePath, BackupConfig config) throws IOException {
+        String objectName = new File(filePath).getName();
+        log.info("Uploading to Google Cloud Storage bucket: {}", config.getCloudBucket());
+
+        ResumableSession session = new ResumableSession(startSession(objectName, null, config), config);
+        try (ResumableOutputStream upload = new ResumableOutputStream(session, chunkSize())) {
+            in.transferTo(throttleService.throttle(upload, ThrottleStage.UPLOAD, config));
+            upload.finish();
+        }
+
+        Path metadataPath = metadataService.metadataPath(filePath);
+        if (Files.exists(metadataPath)) {
+            uploadRange(metadataPath, objectName + BackupMetadataService.SUFFIX, 0,
+                    Files.size(metadataPath), config, null);
+        }
+
+        log.info("Successfully uploaded to Google Cloud Storage: {}/{}", config.getCloudBucket(), objectName);
+    }
+
+    /**
+     * Uploads a byte range of a file as one object, resuming a persisted session when possible
+     */
+    private void uploadRange(Path path, String objectName, long start, long length,
+                             BackupConfig config, Path sessionFile) throws IOException {
+        ResumableSession session = null;
+        long committed = 0;
+        if (sessionFile != null && Files.exists(sessionFile)) {
+            session = new ResumableSession(Files.readString(sessionFile).trim(), config);
+            committed = session.queryCommitted(length);
+            if (committed == Long.MAX_VALUE) {
+                Files.deleteIfExists(sessionFile);
+                return;
+            }
+            if (committed < 0) {
+                log.info("Upload session for {} expired, starting over", objectName);
+                session = null;
+                committed = 0;
+            } else {
+                log.info("Resuming Google Cloud Storage upload of {} at offset {}", objectName, committed);
+            }
+        }
+        if (session == null) {
+            session = new ResumableSession(startSession(objectName, length, config), config);
+            if (sessionFile != null) {
+                Files.writeString(sessionFile, session.uri);
+            }
+        }
+
+        int chunkSize = chunkSize();
+        ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (committed < length) {
+                buffer.clear();
+                int toRead = (int) Math.min(chunkSize, length - committed);
+                buffer.limit(toRead);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + committed + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of file: " + path);
+                    }
+                }
+                throttleService.acquire(ThrottleStage.UPLOAD, config, toRead);
+                committed = session.putChunk(buffer.array(), toRead, committed, length);
+            }
+            if (length == 0) {
+                session.putChunk(new byte[0], 0, 0, 0L);
+            }
+        }
+        if (sessionFile != null) {
+            Files.deleteIfExists(sessionFile);
+        }
+    }
+
+    /**
+     * Uploads a large file as parallel parts and composes them into the final object
+     */
+    private void uploadComposite(Path path, String objectName, long size, BackupConfig config) throws IOException {
+        int parts = Math.min(settings.getCompositeParts(), MAX_COMPOSE_SOURCES);
+        long partSize = ((size / parts) / CHUNK_GRANULARITY + 1) * CHUNK_GRANULARITY;
+        log.info("Uploading {} as a parallel composite upload of {} parts", objectName, parts);
+
+        List<String> partNames = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (long offset = 0; offset < size; offset += partSize) {
+            String partName = objectName + ".part-" + partNames.size();
+            long start = offset;
+            long length = Math.min(partSize, size - offset);
+            Path sessionFile = Path.of(path + "." + partNames.size() + SESSION_SUFFIX);
+            partNames.add(partName);
+            futures.add(executor.submit(() -> {
+                uploadRange(path, partName, start, length, config, sessionFile);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted during composite upload");
+            } catch (ExecutionException e) {
+                throw new IOException("Composite part upload failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        StringBuilder body = new StringBuilder("{\"sourceObjects\":[");
+        for (int i = 0; i < partNames.size(); i++) {
+            body.append(i > 0 ? "," : "").append("{\"name\":\"").append(jsonEscape(partNames.get(i))).append("\"}");
+        }
+        body.append("],\"destination\":{\"contentType\":\"application/octet-stream\"}}");
+
+        HttpResponse<String> response = send(authorized(HttpRequest.newBuilder(URI.create(String.format(
+                        "%s/storage/v1/b/%s/o/%s/compose", endpoint(config),
+                        encode(config.getCloudBucket()), encode(objectName)))), config)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Compose failed with status " + response.statusCode() + ": " + response.body());
+        }
+
+        for (String partName : partNames) {
+            HttpResponse<String> deleted = send(authorized(HttpRequest.newBuilder(URI.create(String.format(
+                    "%s/storage/v1/b/%s/o/%s", endpoint(config),
+                    encode(config.getCloudBucket()), encode(partName)))), config)
+                    .DELETE().build(), HttpResponse.BodyHandlers.ofString());
+            if (deleted.statusCode() >= 300) {
+                log.warn("Failed to delete composite part {}: {}", partName, deleted.statusCode());
+            }
+        }
+    }
+
+    private String startSession(String objectName, Long length, BackupConfig config) throws IOException {
+        HttpRequest.Builder builder = authorized(HttpRequest.newBuilder(URI.create(String.format(
+                "%s/upload/storage/v1/b/%s/o?uploadType=resumable&name=%s", endpoint(config),
+                encode(config.getCloudBucket()), encode(objectName)))), config)
+                .header("Content-Type", "application/json; charset=UTF-8")
+                .header("X-Upload-Content-Type", "application/octet-stream");
+        if (length != null) {
+            builder.header("X-Upload-Content-Length", String.valueOf(length));
+        }
+        HttpResponse<String> response = send(builder.POST(HttpRequest.BodyPublishers.ofString("{}")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        String location = response.headers().firstValue("Location").orElse(null);
+        if (response.statusCode() != 200 || location == null) {
+            throw new IOException("Failed to start resumable upload (status " + response.statusCode() + "): "
+                    + response.body());
+        }
+        return location;
+    }
+
+    private HttpRequest.Builder authorized(HttpRequest.Builder builder, BackupConfig config) throws IOException {
+        GoogleCredentials credential = credentials(config);
+        if (credential != null) {
+            credential.refreshIfExpired();
+            builder.header("Authorization", "Bearer " + credential.getAccessToken().getTokenValue());
+        }
+        return builder;
+    }
+
+    private GoogleCredentials credentials(BackupConfig config) throws IOException {
+        if (config.getCloudCredentialsFile() != null) {
+            GoogleCredentials credential = credentials.get(config.getCloudCredentialsFile());
+            if (credential == null) {
+                try (InputStream in = Files.newInputStream(Path.of(config.getCloudCredentialsFile()))) {
+                    credential = GoogleCredentials.fromStream(in).createScoped(SCOPE);
+                }
+                credentials.put(config.getCloudCredentialsFile(), credential);
+            }
+            return credential;
+        }
+        if (config.getCloudEndpoint() != null) {
+            // Local emulators such as fake-gcs-server don't require authentication
+            return null;
+        }
+        GoogleCredentials credential = credentials.get("");
+        if (credential == null) {
+            credential = GoogleCredentials.getApplicationDefault().createScoped(SCOPE);
+            credentials.put("", credential);
+        }
+        return credential;
+    }
+
+    private String endpoint(BackupConfig config) {
+        String endpoint = config.getCloudEndpoint() != null ? config.getCloudEndpoint() : settings.getEndpoint();
+        return endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+    }
+
+    private int chunkSize() {
+        long configured = settings.getChunkSize().toBytes();
+        return (int) Math.max(CHUNK_GRANULARITY, configured / CHUNK_GRANULARITY * CHUNK_GRANULARITY);
+    }
+
+    private HttpClient httpClient() {
+        HttpClient client = httpClient;
+        if (client == null) {
+            synchronized (this) {
+                if (httpClient == null) {
+                    httpClient = HttpClient.newBuilder()
+                            .connectTimeout(Duration.ofSeconds(30))
+                            .build();
+                }
+                client = httpClient;
+            }
+        }
+        return client;
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return httpClient().send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during Google Cloud Storage request");
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    private static String jsonEscape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * One resumable upload session: sends chunks and recovers the committed offset after failures
+     */
+    private class ResumableSession {
+
+        private final String uri;
+        private final BackupConfig config;
+
+        ResumableSession(String uri, BackupConfig config) {
+            this.uri = uri;
+            this.config = config;
+        }
+
+        /**
+         * Sends bytes {@code [start, start + length)} and returns the new committed offset.
+         * Failed requests are retried with exponential backoff from whatever offset the
+         * service reports as committed.
+         *
+         * @param data   the chunk data, beginning at offset {@code start}
+         * @param length the number of bytes in {@code data}
+         * @param start  the object offset of the first byte
+         * @param total  the total object size, or null when still unknown
+         */
+        long putChunk(byte[] data, int length, long start, Long total) throws IOException {
+            long committed = start;
+            IOException lastFailure = null;
+            for (int attempt = 0; attempt < settings.getMaxRetries(); attempt++) {
+                if (attempt > 0) {
+                    backoff(attempt);
+                    long status = queryCommitted(total);
+                    if (status < 0) {
+                        throw new IOException("Upload session expired", lastFailure);
+                    }
+                    if (status == Long.MAX_VALUE || status >= start + length) {
+                        return status == Long.MAX_VALUE ? start + length : status;
+                    }
+                    committed = Math.max(start, status);
+                }
+                int offset = (int) (committed - start);
+                int count = length - offset;
+                String range = count > 0
+                        ? String.format("bytes %d-%d/%s", committed, committed + count - 1, total != null ? total : "*")
+                        : String.format("bytes */%d", total);
+                HttpResponse<String> response;
+                try {
+                    response = send(authorized(HttpRequest.newBuilder(URI.create(uri)), config)
+                            .header("Content-Range", range)
+                            .PUT(HttpRequest.BodyPublishers.ofByteArray(data, offset, count))
+                            .build(), HttpResponse.BodyHandlers.ofString());
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    lastFailure = e;
+                    log.warn("Google Cloud Storage chunk at offset {} failed (attempt {}): {}",
+                            committed, attempt + 1, e.getMessage());
+                    continue;
+                }
+                int status = response.statusCode();
+                if (status == 200 || status == 201) {
+                    return start + length;
+                }
+                if (status == 308) {
+                    return committedFrom(response);
+                }
+                lastFailure = new IOException("Chunk upload failed with status " + status + ": " + response.body());
+                if (status < 500 && status != 429) {
+                    throw lastFailure;
+                }
+                log.warn("Google Cloud Storage chunk at offset {} failed (attempt {}): {}",
+                        committed, attempt + 1, lastFailure.getMessage());
+            }
+            throw new IOException("Chunk upload failed after " + settings.getMaxRetries() + " attempts", lastFailure);
+        }
+
+        /**
+         * Cancels the session, so that the bytes sent so far never become an object. A failed
+         * cancellation is only logged; the session expires on the service side after a week.
+         */
+        void cancel() {
+            try {
+                HttpResponse<String> response = send(authorized(HttpRequest.newBuilder(URI.create(uri)), config)
+                        .DELETE()
+                        .build(), HttpResponse.BodyHandlers.ofString());
+                // The service answers a cancelled session with 499
+                if (response.statusCode() != 499 && response.statusCode() != 204) {
+                    log.warn("Cancelling upload session failed with status {}", response.statusCode());
+                }
+            } catch (IOException e) {
+                log.warn("Cancelling upload session failed: {}", e.getMessage());
+            }
+        }
+
+        /**
+         * Asks the service how many bytes it has persisted
+         *
+         * @return the committed offset, Long.MAX_VALUE if the upload is complete, -1 if the session is gone
+         */
+        long queryCommitted(Long total) throws IOException {
+            HttpResponse<String> response = send(authorized(HttpRequest.newBuilder(URI.create(uri)), config)
+                    .header("Content-Range", "bytes */" + (total != null ? total : "*"))
+                    .PUT(HttpRequest.BodyPublishers.noBody())
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            int status = response.statusCode();
+            if (status == 200 || status == 201) {
+                return Long.MAX_VALUE;
+            }
+            if (status == 308) {
+                return committedFrom(response);
+            }
+            if (status == 404 || status == 410) {
+                return -1;
+            }
+            throw new IOException("Upload status query failed with status " + status);
+        }
+
+        private long committedFrom(HttpResponse<?> response) {
+            return response.headers().firstValue("Range")
+                    .map(RANGE::matcher)
+                    .filter(Matcher::matches)
+                    .map(m -> Long.parseLong(m.group(1)) + 1)
+                    .orElse(0L);
+        }
+
+        private void backoff(int attempt) throws IOException {
+            try {
+                Thread.sleep(Math.min(32_000L, 500L << Math.min(attempt, 6)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry");
+            }
+        }
+    }
+
+    /**
+     * Uploads everything written to it as one object through a resumable session of unknown
+     * length, buffering one chunk at a time and keeping bytes the service has not committed yet.
+     * The object is finalized by {@link #finish()}; closing the stream without it cancels the session.
+     */
+    private static class ResumableOutputStream extends OutputStream {
+
+        private final ResumableSession session;
+        private final byte[] buffer;
+        private int position;
+        private long bufferStart;
+        private boolean closed;
+
+        ResumableOutputStream(ResumableSession session, int chunkSize) {
+            this.session = session;
+            this.buffer = new byte[chunkSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (position == buffer.length) {
+                    sendBuffer();
+                }
+                int n = Math.min(len, buffer.length - position);
+                System.arraycopy(b, off, buffer, position, n);
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Sends the final chunk, which finalizes the object
+         */
+        void finish() throws IOException {
+            if (closed) {
+                throw new IOException("Upload session already closed");
+            }
+            long total = bufferStart + position;
+            long committed = bufferStart;
+            while (committed < total || total == 0) {
+                byte[] remaining = new byte[(int) (total - committed)];
+                System.arraycopy(buffer, (int) (committed - bufferStart), remaining, 0, remaining.length);
+                committed = session.putChunk(remaining, remaining.length, committed, total);
+                if (total == 0) {
+                    break;
+                }
+            }
+            closed = true;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            log.warn("Upload abandoned after {} bytes, cancelling the session", bufferStart + position);
+            session.cancel();
+        }
+
+        private void sendBuffer() throws IOException {
+            // Intermediate chunks must be multiples of 256 KiB; the buffer size already is
+            long committed = session.putChunk(buffer, position, bufferStart, null);
+            int consumed = (int) (committed - bufferStart);
+            System.arraycopy(buffer, consumed, buffer, 0, position - consumed);
+            position -= consumed;
+            bufferStart = committed;
+        }
+    }
+}
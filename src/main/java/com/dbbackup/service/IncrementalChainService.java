@@ -0,0 +1,108 @@
+package com.dbbackup.service;
+
+import com.dbbackup.dump.JdbcDumpEngine;
+import com.dbbackup.io.CompressionFrames;
+import com.dbbackup.io.EncryptedFileReader;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.CompressionCodec;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Restores from incremental backup chains. The full backup of a chain and every incremental
+ * backup after it are plain SQL scripts, so they are decrypted, decompressed and joined into one
+ * script that brings an empty database to the state of the latest backup.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class IncrementalChainService {
+
+    private final JdbcDumpEngine jdbcDumpEngine;
+    private final EncryptionService encryptionService;
+    private final DictionaryService dictionaryService;
+
+    /**
+     * Returns the backups of a database's current chain, full backup first
+     *
+     * @param config the host, port and name of the database
+     * @return the backup files, empty if the database has no incremental chain
+     * @throws IOException if the chain cannot be read
+     */
+    public List<Path> chain(BackupConfig config) throws IOException {
+        return jdbcDumpEngine.incrementalChain(config).stream()
+                .map(artifact -> {
+                    // Backups stored without compression are encrypted after the chain is recorded
+                    Path path = Path.of(artifact);
+                    Path encrypted = Path.of(artifact + EncryptionService.SUFFIX);
+                    return !Files.exists(path) && Files.exists(encrypted) ? encrypted : path;
+                })
+                .toList();
+    }
+
+    /**
+     * Writes a single restore script from the current chain of a database
+     *
+     * @param config the host, port and name of the database
+     * @param output the script to write
+     * @return the number of backups joined
+     * @throws IOException if there is no chain or one of its backups cannot be read
+     */
+    public int writeRestoreScript(BackupConfig config, Path output) throws IOException {
+        List<Path> backups = chain(config);
+        if (backups.isEmpty()) {
+            throw new IOException("No incremental chain recorded for " + config.instanceKey());
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), 65536)) {
+            for (Path backup : backups) {
+                if (!Files.exists(backup)) {
+                    throw new IOException("Backup of the chain is missing: " + backup);
+                }
+                decode(backup, out);
+                log.info("Added {} to restore script {}", backup, output);
+            }
+        }
+        return backups.size();
+    }
+
+    /**
+     * Writes the plain script of a backup of the chain, decrypted and decompressed
+     *
+     * @param backup the backup file
+     * @param out    the stream to write the script to
+     * @throws IOException if the backup cannot be read
+     */
+    void decode(Path backup, OutputStream out) throws IOException {
+        String name = backup.getFileName().toString();
+        Path decrypted = null;
+        try {
+            if (name.endsWith(EncryptionService.SUFFIX)) {
+                name = name.substring(0, name.length() - EncryptionService.SUFFIX.length());
+                decrypted = Files.createTempFile(backup.toAbsolutePath().getParent(), name, ".tmp");
+                try (EncryptedFileReader reader = encryptionService.openReader(backup.toString());
+                     OutputStream plain = new BufferedOutputStream(Files.newOutputStream(decrypted), 65536)) {
+                    reader.decryptTo(plain);
+                }
+            }
+            CompressionCodec codec = CompressionCodec.fromFileName(name);
+            try (InputStream raw = new BufferedInputStream(Files.newInputStream(decrypted != null ? decrypted : backup), 65536);
+                 InputStream in = codec != null ? CompressionFrames.decode(raw, codec, dictionaryService::findById) : raw) {
+                in.transferTo(out);
+            }
+        } finally {
+            if (decrypted != null) {
+                Files.deleteIfExists(decrypted);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.dbbackup.service;
+
+import com.dbbackup.io.IndexedArchive;
+import com.dbbackup.io.IndexedArchive.Block;
+import com.dbbackup.io.IndexedArchive.RangeSource;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.StorageType;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Reads indexed archives: lists their tables and extracts single tables or whole databases.
+ * Local archives are read in place, encrypted ones chunk by chunk, and archives in S3 with
+ * ranged GETs, so extracting one table transfers only its blocks and the index.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class IndexedArchiveService {
+
+    private final EncryptionService encryptionService;
+    private final DictionaryService dictionaryService;
+
+    /**
+     * Lists the blocks of an archive
+     *
+     * @param archive the local file, or the object key when {@code cloud} is given
+     * @param cloud   the bucket and credentials of an archive in S3, or null for a local file
+     * @return the blocks in archive order
+     * @throws IOException if the archive cannot be read
+     */
+    public List<Block> list(String archive, BackupConfig cloud) throws IOException {
+        try (RangeSource source = open(archive, cloud)) {
+            return IndexedArchive.readIndex(source);
+        }
+    }
+
+    /**
+     * Extracts a table, collection or the whole database from an archive. SQL blocks are joined
+     * into one restorable script; files stored as-is (e.g. the archive of a MongoDB collection)
+     * are written into {@code output} as a directory.
+     *
+     * @param archive the local file, or the object key when {@code cloud} is given
+     * @param table   the table or collection ({@code schema.table} or just the table name), or
+     *                null for everything
+     * @param output  the script or directory to write
+     * @param cloud   the bucket and credentials of an archive in S3, or null for a local file
+     * @return the number of blocks extracted
+     * @throws IOException              if the archive cannot be read or the output written
+     * @throws IllegalArgumentException if the table is not in the archive
+     */
+    public int extract(String archive, String table, Path output, BackupConfig cloud) throws IOException {
+        try (RangeSource source = open(archive, cloud)) {
+            List<Block> blocks = select(IndexedArchive.readIndex(source), table);
+            long bytes = blocks.stream().mapToLong(Block::getLength).sum();
+            log.info("Extracting {} blocks ({} bytes) of {} from {}", blocks.size(), bytes,
+                    table != null ? table : "the whole database", archive);
+
+            if (blocks.stream().allMatch(block -> block.getFile() != null)) {
+                extractFiles(source, blocks, output);
+            } else if (blocks.stream().noneMatch(block -> block.getFile() != null)) {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), 65536)) {
+                    for (Block block : blocks) {
+                        try (InputStream in = IndexedArchive.openBlock(source, block, dictionaryService::findById)) {
+                            in.transferTo(out);
+                        }
+                    }
+                }
+            } else {
+                throw new IOException("Archive mixes SQL blocks and stored files");
+            }
+            return blocks.size();
+        }
+    }
+
+    /**
+     * Returns the tables and collections of an archive
+     *
+     * @param blocks the blocks of the archive
+     * @return the names, sorted
+     */
+    public static Set<String> objects(List<Block> blocks) {
+        Set<String> objects = new TreeSet<>();
+        blocks.stream()
+                .map(Block::getObject)
+                .filter(object -> !IndexedArchive.DATABASE.equals(object))
+                .forEach(objects::add);
+        return objects;
+    }
+
+    private List<Block> select(List<Block> blocks, String table) {
+        if (table == null) {
+            return blocks;
+        }
+        // A table name without schema matches the table in any schema, as long as there is only one
+        Set<String> matches = new TreeSet<>();
+        for (String object : objects(blocks)) {
+            if (object.equals(table) || object.endsWith("." + table)) {
+                matches.add(object);
+            }
+        }
+        if (matches.size() > 1) {
+            matches.retainAll(Set.of(table));
+        }
+        if (matches.size() != 1) {
+            throw new IllegalArgumentException(matches.isEmpty()
+                    ? "No table or collection '" + table + "' in archive; it contains " + objects(blocks)
+                    : "'" + table + "' is ambiguous: " + matches);
+        }
+        String object = matches.iterator().next();
+        return blocks.stream().filter(block -> block.getObject().equals(object)).toList();
+    }
+
+    private void extractFiles(RangeSource source, List<Block> blocks, Path directory) throws IOException {
+        Path root = directory.toAbsolutePath().normalize();
+        for (Block block : blocks) {
+            Path file = root.resolve(block.getFile()).normalize();
+            if (!file.startsWith(root)) {
+                throw new IOException("Archive entry points outside the output directory: " + block.getFile());
+            }
+            Files.createDirectories(file.getParent());
+            try (InputStream in = IndexedArchive.openBlock(source, block, dictionaryService::findById);
+                 OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 65536)) {
+                in.transferTo(out);
+            }
+        }
+    }
+
+    private RangeSource open(String archive, BackupConfig cloud) throws IOException {
+        if (cloud != null && cloud.getStorageType() == StorageType.AWS_S3) {
+            if (archive.endsWith(EncryptionService.SUFFIX)) {
+                throw new IOException("Encrypted archives cannot be read in place from S3; download the archive "
+                        + "and its metadata file first");
+            }
+            return s3(archive, cloud);
+        }
+        if (cloud != null && cloud.getStorageType() != StorageType.LOCAL) {
+            throw new IOException("Reading archives in place is supported for S3 only");
+        }
+        if (!Files.isRegularFile(Path.of(archive))) {
+            throw new IOException("Archive not found: " + archive);
+        }
+        return archive.endsWith(EncryptionService.SUFFIX)
+                ? IndexedArchive.encrypted(encryptionService.openReader(archive))
+                : IndexedArchive.localFile(Path.of(archive));
+    }
+
+    private RangeSource s3(String key, BackupConfig config) {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(Region.of(config.getCloudRegion()))
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(config.getCloudAccessKey(), config.getCloudSecretKey())));
+        if (config.getCloudEndpoint() != null) {
+            builder.endpointOverride(URI.create(config.getCloudEndpoint())).forcePathStyle(true);
+        }
+        S3Client client = builder.build();
+        String bucket = config.getCloudBucket();
+        return new RangeSource() {
+            @Override
+            public long size() {
+                return client.headObject(request -> request.bucket(bucket).key(key)).contentLength();
+            }
+
+            @Override
+            public InputStream open(long offset, long length) {
+                if (length == 0) {
+                    return InputStream.nullInputStream();
+                }
+                log.debug("GET s3://{}/{} bytes {}-{}", bucket, key, offset, offset + length - 1);
+                return client.getObject(GetObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .range("bytes=" + offset + "-" + (offset + length - 1))
+                        .build());
+            }
+
+            @Override
+            public void close() {
+                client.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,623 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.dump.DumpDialect;
+import com.dbbackup.dump.MySQLDumpDialect;
+import com.dbbackup.dump.PostgreSQLDumpDialect;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.BackupProgress;
+import com.dbbackup.model.DatabaseType;
+import com.dbbackup.model.SourceLoad;
+import com.dbbackup.model.ThrottleStage;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoCredential;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces running backups by the load of their source database. While a backup runs, its source
+ * is sampled over a connection of its own for replication lag, active sessions, lock waits and
+ * running threads. When a value passes its threshold, dump reads are slowed to half their
+ * current rate and half the dump workers are held back, again on every sample that is still
+ * over; at {@code pause-above} times a threshold reads stop entirely. Once every value is
+ * below {@code resume-below} of its threshold, reads and workers are raised step by step until
+ * the backup runs unpaced again. Pacing goes through {@link ThrottleService} and comes on top
+ * of the configured bandwidth limits.
+ */
+@Service
+@Slf4j
+public class LoadMonitorService {
+
+    /** Factor by which the read rate grows on every calm sample */
+    private static final double SPEED_UP = 1.5;
+
+    private final ThrottleService throttleService;
+    private final List<DumpDialect> dialects;
+    private final BackupProperties.Pacing settings;
+    private final int jdbcParallelism;
+    private final Map<String, Watch> watches = new ConcurrentHashMap<>();
+    private ScheduledExecutorService sampler;
+
+    public LoadMonitorService(ThrottleService throttleService, List<DumpDialect> dialects, BackupProperties properties) {
+        this.throttleService = throttleService;
+        this.dialects = dialects;
+        this.settings = properties.getPacing();
+        this.jdbcParallelism = properties.getJdbcDump().getParallelism();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!settings.isEnabled()) {
+            return;
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts sampling the source of a backup; must be called after the job is registered with
+     * the throttle service. Does nothing when pacing is disabled or the source has no server.
+     *
+     * @param config the backup configuration
+     */
+    public void watch(BackupConfig config) {
+        if (sampler == null || config.getHost() == null || config.getJobId() == null) {
+            return;
+        }
+        Probe probe = probeFor(config);
+        if (probe == null) {
+            return;
+        }
+        int parallelism = config.getDatabaseType() == DatabaseType.MONGODB
+                ? Math.max(1, config.getParallelism())
+                : Math.max(1, config.getParallelism() > 0 ? config.getParallelism() : jdbcParallelism);
+        Watch watch = new Watch(config.getDatabaseName(), config.getJobId(), probe, parallelism);
+        Watch previous = watches.put(watch.jobId, watch);
+        if (previous != null) {
+            stop(previous);
+        }
+        long interval = Math.max(100, settings.getInterval().toMillis());
+        watch.task = sampler.scheduleWithFixedDelay(() -> sample(watch), interval, interval, TimeUnit.MILLISECONDS);
+        log.info("Pacing the backup of {} by the load of its source, sampled every {} ms", watch.databaseName, interval);
+    }
+
+    /**
+     * Stops sampling the source of a finished backup
+     *
+     * @param config the backup configuration
+     */
+    public void unwatch(BackupConfig config) {
+        if (config.getJobId() == null) {
+            return;
+        }
+        Watch watch = watches.remove(config.getJobId());
+        if (watch != null) {
+            stop(watch);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+        }
+    }
+
+    private void stop(Watch watch) {
+        watch.task.cancel(false);
+        // Closed on the sampler thread, so never in the middle of a sample
+        sampler.execute(() -> {
+            watch.stopped = true;
+            watch.probe.close();
+        });
+    }
+
+    private void sample(Watch watch) {
+        if (watch.stopped) {
+            return;
+        }
+        try {
+            SourceLoad load;
+            try {
+                load = watch.probe.sample();
+                watch.failing = false;
+            } catch (Exception e) {
+                // Pacing stays as it is until the source can be sampled again
+                if (!watch.failing) {
+                    log.warn("Cannot sample the load of {}: {}", watch.databaseName, e.getMessage());
+                    watch.failing = true;
+                }
+                watch.probe.close();
+                return;
+            }
+
+            long now = System.nanoTime();
+            long bytes = throttleService.jobBytes(watch.jobId).getOrDefault(ThrottleStage.DUMP_READ, 0L);
+            long throughput = watch.lastNanos == 0 ? 0
+                    : (long) ((bytes - watch.lastBytes) * 1e9 / Math.max(1, now - watch.lastNanos));
+            watch.lastNanos = now;
+            watch.lastBytes = bytes;
+            if (!watch.isPaced()) {
+                watch.peakRate = Math.max(watch.peakRate, throughput);
+            }
+
+            adjust(watch, load, throughput);
+            if (!throttleService.pace(watch.jobId, watch.rate, watch.paused, watch.workers)) {
+                log.debug("Backup of {} no longer running", watch.databaseName);
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic task
+            log.warn("Failed to pace the backup of {}", watch.databaseName, e);
+        }
+    }
+
+    private void adjust(Watch watch, SourceLoad load, long throughput) {
+        double pressure = pressure(load);
+        long minRate = Math.max(1, settings.getMinRate().toBytes());
+        if (pressure >= settings.getPauseAbove()) {
+            if (!watch.paused) {
+                log.warn("Pausing the backup of {}: {}", watch.databaseName, overThresholds(load));
+            }
+            // Recovery starts again from the slowest pace
+            watch.paused = true;
+            watch.rate = minRate;
+            watch.workers = 1;
+        } else if (pressure >= 1) {
+            long current = watch.rate > 0 ? watch.rate : Math.max(throughput, 2 * minRate);
+            long rate = Math.max(minRate, current / 2);
+            int workers = Math.max(1, (watch.workers > 0 ? watch.workers : watch.parallelism) / 2);
+            if (watch.paused || rate != watch.rate || workers != watch.workers) {
+                log.info("Source of {} under pressure ({}): reads slowed to {}/s on {} workers", watch.databaseName,
+                        overThresholds(load), BackupProgress.formatBytes(rate), workers);
+            }
+            watch.rate = rate;
+            watch.workers = workers;
+            watch.paused = false;
+        } else if (pressure < settings.getResumeBelow() && watch.isPaced()) {
+            if (watch.paused) {
+                watch.paused = false;
+                log.info("Resuming the backup of {} at {}/s", watch.databaseName, BackupProgress.formatBytes(watch.rate));
+                return;
+            }
+            if (watch.rate > 0) {
+                // Unpaced once faster than before the pressure, or once the pace no longer holds the reads back
+                long raised = (long) (watch.rate * SPEED_UP);
+                boolean unbound = throughput < watch.rate / 2;
+                watch.rate = (watch.peakRate > 0 && raised >= watch.peakRate) || unbound ? 0 : raised;
+            }
+            if (watch.workers > 0) {
+                watch.workers = watch.workers + 1 >= watch.parallelism ? 0 : watch.workers + 1;
+            }
+            if (!watch.isPaced()) {
+                log.info("Source of {} has recovered; the backup runs unpaced again", watch.databaseName);
+            }
+        }
+    }
+
+    /**
+     * Returns the highest ratio of a sampled value to its threshold, 0 if nothing is checked
+     */
+    private double pressure(SourceLoad load) {
+        double pressure = 0;
+        long maxLag = settings.getMaxReplicationLag().toMillis();
+        if (maxLag > 0 && load.getReplicationLagSeconds() != null) {
+            pressure = Math.max(pressure, load.getReplicationLagSeconds() * 1000 / maxLag);
+        }
+        pressure = Math.max(pressure, ratio(load.getActiveConnections(), settings.getMaxActiveConnections()));
+        pressure = Math.max(pressure, ratio(load.getLockWaits(), settings.getMaxLockWaits()));
+        pressure = Math.max(pressure, ratio(load.getThreadsRunning(), settings.getMaxThreadsRunning()));
+        return pressure;
+    }
+
+    private static double ratio(Integer value, int threshold) {
+        return value != null && threshold > 0 ? (double) value / threshold : 0;
+    }
+
+    private String overThresholds(SourceLoad load) {
+        List<String> over = new ArrayList<>();
+        long maxLag = settings.getMaxReplicationLag().toSeconds();
+        if (maxLag > 0 && load.getReplicationLagSeconds() != null && load.getReplicationLagSeconds() >= maxLag) {
+            over.add(String.format("replication lag %.0f s, max %d s", load.getReplicationLagSeconds(), maxLag));
+        }
+        addIfOver(over, "active connections", load.getActiveConnections(), settings.getMaxActiveConnections());
+        addIfOver(over, "lock waits", load.getLockWaits(), settings.getMaxLockWaits());
+        addIfOver(over, "threads running", load.getThreadsRunning(), settings.getMaxThreadsRunning());
+        return String.join(", ", over);
+    }
+
+    private static void addIfOver(List<String> over, String name, Integer value, int threshold) {
+        if (value != null && threshold > 0 && value >= threshold) {
+            over.add(String.format("%d %s, max %d", value, name, threshold));
+        }
+    }
+
+    private Probe probeFor(BackupConfig config) {
+        return switch (config.getDatabaseType()) {
+            case MYSQL, MARIADB -> new MySqlProbe(config, jdbcUrl(config));
+            case POSTGRESQL -> new PostgresProbe(config, jdbcUrl(config));
+            case MONGODB -> new MongoProbe(config);
+            default -> null;
+        };
+    }
+
+    private String jdbcUrl(BackupConfig config) {
+        return dialects.stream()
+                .filter(dialect -> dialect.supports(config))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No JDBC dialect for " + config.getDatabaseType()))
+                .jdbcUrl(config);
+    }
+
+    private int timeoutSeconds() {
+        return (int) Math.max(1, settings.getInterval().toSeconds());
+    }
+
+    /**
+     * Pacing state of one running backup
+     */
+    private static final class Watch {
+        private final String databaseName;
+        private final String jobId;
+        private final Probe probe;
+        private final int parallelism;
+        private ScheduledFuture<?> task;
+        private volatile boolean stopped;
+        private boolean failing;
+        private long lastNanos;
+        private long lastBytes;
+        /** Fastest read rate seen while unpaced */
+        private long peakRate;
+        private long rate;
+        private int workers;
+        private boolean paused;
+
+        Watch(String databaseName, String jobId, Probe probe, int parallelism) {
+            this.databaseName = String.valueOf(databaseName);
+            this.jobId = jobId;
+            this.probe = probe;
+            this.parallelism = parallelism;
+        }
+
+        boolean isPaced() {
+            return paused || rate > 0 || workers > 0;
+        }
+    }
+
+    /**
+     * Samples the load of one source database
+     */
+    private interface Probe {
+
+        SourceLoad sample() throws Exception;
+
+        void close();
+    }
+
+    /**
+     * Probe over a JDBC connection that is opened on first use and again after a failure.
+     * Statements the account may not run are skipped from then on.
+     */
+    private abstract class JdbcProbe implements Probe {
+        private final BackupConfig config;
+        private final String url;
+        private final Set<String> unavailable = new HashSet<>();
+        private Connection connection;
+
+        JdbcProbe(BackupConfig config, String url) {
+            this.config = config;
+            this.url = url;
+        }
+
+        Connection connection() throws SQLException {
+            if (connection == null || connection.isClosed()) {
+                DriverManager.setLoginTimeout(timeoutSeconds());
+                connection = DriverManager.getConnection(url, config.getUsername(), config.getPassword());
+            }
+            return connection;
+        }
+
+        /**
+         * Runs a query the account may not have the privileges for
+         *
+         * @return the result of the reader, or null if the statement failed on a healthy connection
+         */
+        <T> T optional(String sql, ResultReader<T> reader) throws SQLException {
+            if (unavailable.contains(sql)) {
+                return null;
+            }
+            try (Statement statement = connection().createStatement()) {
+                statement.setQueryTimeout(timeoutSeconds());
+                try (ResultSet rows = statement.executeQuery(sql)) {
+                    return reader.read(rows);
+                }
+            } catch (SQLException e) {
+                if (connection == null || !connection.isValid(timeoutSeconds())) {
+                    throw e;
+                }
+                log.info("Load monitor of {} skips '{}': {}", config.getDatabaseName(), sql, e.getMessage());
+                unavailable.add(sql);
+                return null;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    log.debug("Failed to close load monitor connection", e);
+                }
+                connection = null;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ResultReader<T> {
+        T read(ResultSet rows) throws SQLException;
+    }
+
+    /**
+     * MySQL and MariaDB: sessions from the process list, leaving out this application's own and
+     * mysqldump's, which are told apart by their {@code program_name} connection attribute;
+     * running threads, InnoDB lock waits, and the lag of the replica being read. A primary does
+     * not know the lag of its replicas, so there it is not checked. Without performance_schema
+     * the backup's own sessions cannot be told apart and are counted too.
+     */
+    private final class MySqlProbe extends JdbcProbe {
+
+        private static final String PROCESSES = """
+                SELECT COUNT(CASE WHEN a.PROCESSLIST_ID IS NULL THEN 1 END),
+                       COUNT(a.PROCESSLIST_ID)
+                FROM information_schema.PROCESSLIST p
+                LEFT JOIN (SELECT DISTINCT PROCESSLIST_ID FROM performance_schema.session_connect_attrs
+                           WHERE ATTR_NAME = 'program_name' AND ATTR_VALUE IN ('%s', 'mysqldump')) a
+                       ON a.PROCESSLIST_ID = p.ID
+                WHERE p.ID <> CONNECTION_ID() AND p.COMMAND NOT IN ('Sleep', 'Daemon', 'Binlog Dump', 'Binlog Dump GTID')
+                  AND p.USER NOT IN ('system user', 'event_scheduler')
+                """.formatted(MySQLDumpDialect.APPLICATION_NAME);
+
+        MySqlProbe(BackupConfig config, String url) {
+            super(config, url);
+        }
+
+        @Override
+        public SourceLoad sample() throws SQLException {
+            SourceLoad.SourceLoadBuilder load = SourceLoad.builder();
+            int[] sessions = optional(PROCESSES, rows -> rows.next() ? new int[]{rows.getInt(1), rows.getInt(2)} : null);
+            int own = 0;
+            if (sessions != null) {
+                load.activeConnections(sessions[0]);
+                own = sessions[1];
+            }
+            // The probe's own statement is running too
+            int ownRunning = own + 1;
+            optional("SHOW GLOBAL STATUS WHERE Variable_name IN ('Threads_running', 'Threads_connected')", rows -> {
+                while (rows.next()) {
+                    int value = rows.getInt(2);
+                    if ("Threads_running".equalsIgnoreCase(rows.getString(1))) {
+                        load.threadsRunning(Math.max(0, value - ownRunning));
+                    } else if (sessions == null) {
+                        load.activeConnections(value);
+                    }
+                }
+                return null;
+            });
+            load.lockWaits(optional("SELECT COUNT(*) FROM information_schema.INNODB_TRX WHERE trx_state = 'LOCK WAIT'",
+                    rows -> rows.next() ? rows.getInt(1) : null));
+            // SHOW REPLICA STATUS is MySQL 8.0.22 and MariaDB 10.5 onwards
+            Double lag = optional("SHOW REPLICA STATUS", MySqlProbe::secondsBehind);
+            load.replicationLagSeconds(lag != null ? lag : optional("SHOW SLAVE STATUS", MySqlProbe::secondsBehind));
+            return load.build();
+        }
+
+        private static Double secondsBehind(ResultSet rows) throws SQLException {
+            if (!rows.next()) {
+                return null;
+            }
+            for (String column : List.of("Seconds_Behind_Source", "Seconds_Behind_Master")) {
+                try {
+                    long seconds = rows.getLong(column);
+                    // NULL while replication is stopped
+                    return rows.wasNull() ? null : (double) seconds;
+                } catch (SQLException e) {
+                    // Column named after the other version
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * PostgreSQL: sessions from pg_stat_activity, leaving out this application's own, and the
+     * replay lag of the standby being read, or of the slowest standby of the primary being read
+     */
+    private final class PostgresProbe extends JdbcProbe {
+
+        private static final String ACTIVITY = """
+                SELECT count(*) FILTER (WHERE state = 'active' AND backend_type = 'client backend'
+                                          AND pid <> pg_backend_pid()
+                                          AND NOT (usename = current_user AND application_name IN ('%s', 'pg_dump'))),
+                       count(*) FILTER (WHERE wait_event_type = 'Lock')
+                FROM pg_stat_activity
+                """.formatted(PostgreSQLDumpDialect.APPLICATION_NAME);
+
+        private static final String LAG = """
+                SELECT CASE WHEN pg_is_in_recovery() THEN
+                           CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                                ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) END
+                       ELSE (SELECT EXTRACT(EPOCH FROM max(replay_lag)) FROM pg_stat_replication) END
+                """;
+
+        PostgresProbe(BackupConfig config, String url) {
+            super(config, url);
+        }
+
+        @Override
+        public SourceLoad sample() throws SQLException {
+            SourceLoad.SourceLoadBuilder load = SourceLoad.builder();
+            optional(ACTIVITY, rows -> {
+                if (rows.next()) {
+                    load.activeConnections(rows.getInt(1)).lockWaits(rows.getInt(2));
+                }
+                return null;
+            });
+            load.replicationLagSeconds(optional(LAG, rows -> {
+                if (!rows.next()) {
+                    return null;
+                }
+                double lag = rows.getDouble(1);
+                return rows.wasNull() ? null : lag;
+            }));
+            return load.build();
+        }
+    }
+
+    /**
+     * MongoDB: serverStatus counters and, on a replica set, the replication lag from replSetGetStatus
+     */
+    private final class MongoProbe implements Probe {
+        private final BackupConfig config;
+        private final Set<String> unavailable = new HashSet<>();
+        private MongoClient client;
+
+        MongoProbe(BackupConfig config) {
+            this.config = config;
+        }
+
+        @Override
+        public SourceLoad sample() {
+            if (client == null) {
+                int timeout = timeoutSeconds();
+                MongoClientSettings.Builder builder = MongoClientSettings.builder()
+                        .applyToClusterSettings(cluster -> cluster
+                                .hosts(List.of(new ServerAddress(config.getHost(), config.getPort())))
+                                .serverSelectionTimeout(timeout, TimeUnit.SECONDS))
+                        .applyToSocketSettings(socket -> socket
+                                .connectTimeout(timeout, TimeUnit.SECONDS)
+                                .readTimeout(timeout, TimeUnit.SECONDS));
+                if (config.getUsername() != null) {
+                    builder.credential(MongoCredential.createCredential(config.getUsername(), config.getDatabaseName(),
+                            config.getPassword() != null ? config.getPassword().toCharArray() : new char[0]));
+                }
+                client = MongoClients.create(builder.build());
+            }
+            MongoDatabase admin = client.getDatabase("admin");
+            SourceLoad.SourceLoadBuilder load = SourceLoad.builder();
+
+            Document status = optional(admin, "serverStatus");
+            if (status != null) {
+                Document connections = status.get("connections", Document.class);
+                if (connections != null) {
+                    Number active = connections.get("active", Number.class);
+                    load.activeConnections((active != null ? active : connections.get("current", Number.class)).intValue());
+                }
+                Document globalLock = status.get("globalLock", Document.class);
+                if (globalLock != null) {
+                    load.lockWaits(total(globalLock.get("currentQueue", Document.class)));
+                    load.threadsRunning(total(globalLock.get("activeClients", Document.class)));
+                }
+            }
+
+            Document replicaSet = optional(admin, "replSetGetStatus");
+            if (replicaSet != null) {
+                load.replicationLagSeconds(lag(replicaSet.getList("members", Document.class)));
+            }
+            return load.build();
+        }
+
+        private Document optional(MongoDatabase admin, String command) {
+            if (unavailable.contains(command)) {
+                return null;
+            }
+            try {
+                return admin.runCommand(new Document(command, 1));
+            } catch (MongoException e) {
+                // Not a replica set, or no clusterMonitor role
+                if (!(e instanceof MongoCommandException)) {
+                    throw e;
+                }
+                log.info("Load monitor of {} skips {}: {}", config.getDatabaseName(), command, e.getMessage());
+                unavailable.add(command);
+                return null;
+            }
+        }
+
+        private static Integer total(Document counters) {
+            Number total = counters != null ? counters.get("total", Number.class) : null;
+            return total != null ? total.intValue() : null;
+        }
+
+        /**
+         * Lag of this member behind the primary or, on the primary, of its slowest secondary
+         */
+        private static Double lag(List<Document> members) {
+            if (members == null) {
+                return null;
+            }
+            Date primary = null;
+            Document self = null;
+            for (Document member : members) {
+                if ("PRIMARY".equals(member.getString("stateStr"))) {
+                    primary = member.getDate("optimeDate");
+                }
+                if (Boolean.TRUE.equals(member.getBoolean("self"))) {
+                    self = member;
+                }
+            }
+            if (primary == null || self == null) {
+                return null;
+            }
+            long lagMillis = 0;
+            if ("PRIMARY".equals(self.getString("stateStr"))) {
+                for (Document member : members) {
+                    Date optime = member.getDate("optimeDate");
+                    if ("SECONDARY".equals(member.getString("stateStr")) && optime != null) {
+                        lagMillis = Math.max(lagMillis, primary.getTime() - optime.getTime());
+                    }
+                }
+            } else if (self.getDate("optimeDate") != null) {
+                lagMillis = primary.getTime() - self.getDate("optimeDate").getTime();
+            }
+            return Math.max(0, lagMillis) / 1000.0;
+        }
+
+        @Override
+        public void close() {
+            if (client != null) {
+                client.close();
+                client = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.io.DurableFile;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.ThrottleStage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+
+/**
+ * Service for writing backup files to local disk under the configured durability policy
+ * ({@code backup.local-write}): whether the rename of a finished file is atomic and forced to
+ * disk, and when the data is forced to disk. A backup is only reported as written once
+ * its file is committed, so a crash cannot leave a truncated file that looks complete.
+ */
+@Service
+@Slf4j
+public class LocalWriteService {
+
+    private final ThrottleService throttleService;
+    private final BackupProperties.LocalWrite settings;
+
+    public LocalWriteService(ThrottleService throttleService, BackupProperties properties) {
+        this.throttleService = throttleService;
+        this.settings = properties.getLocalWrite();
+    }
+
+    /**
+     * Creates a backup file; nothing is visible under its name until it is committed
+     *
+     * @param target       the file to write
+     * @param expectedSize the expected size, checked and set as a size hint if preallocation is on, or -1 if unknown
+     * @return the file, to be committed once complete and closed in any case
+     * @throws IOException if the file cannot be created or there is not enough space for it
+     */
+    public DurableFile create(Path target, long expectedSize) throws IOException {
+        return new DurableFile(target, settings.getSync(), settings.getSyncInterval().toBytes(),
+                settings.isAtomicRename(), settings.isPreallocate() ? expectedSize : -1);
+    }
+
+    /**
+     * Writes a file through a buffered stream charged against the write limit, committing it
+     * once the body returned
+     *
+     * @param file   the file to write
+     * @param config the backup configuration
+     * @param body   writes the contents
+     * @return what the body returned
+     * @throws IOException  if the file cannot be written
+     * @throws SQLException if the body fails to read the database
+     */
+    public <T> T write(Path file, BackupConfig config, Body<T> body) throws IOException, SQLException {
+        return write(file, config, null, body);
+    }
+
+    /**
+     * Writes a file like {@link #write(Path, BackupConfig, Body)}, hashing every byte that
+     * reaches the file
+     *
+     * @param digest updated with the contents, or null
+     */
+    public <T> T write(Path file, BackupConfig config, MessageDigest digest, Body<T> body)
+            throws IOException, SQLException {
+        try (DurableFile durable = create(file, -1)) {
+            T result;
+            OutputStream target = digest != null ? new DigestOutputStream(durable.outputStream(), digest)
+                    : durable.outputStream();
+            try (OutputStream out = throttleService.throttle(new BufferedOutputStream(target, 65536),
+                    ThrottleStage.LOCAL_WRITE, config)) {
+                result = body.write(out);
+            }
+            durable.commit();
+            return result;
+        }
+    }
+
+    /**
+     * Copies a file without passing its contents through the heap, charging the read and
+     * write limits for every chunk handed to the kernel
+     *
+     * @param source    the file to copy
+     * @param target    the file to write
+     * @param readStage the limit reading the source is charged against, or null
+     * @param config    the backup configuration
+     * @return the number of bytes copied
+     * @throws IOException if the copy fails
+     */
+    public long copy(Path source, Path target, ThrottleStage readStage, BackupConfig config) throws IOException {
+        long chunk = Math.max(64 * 1024, settings.getTransferChunkSize().toBytes());
+        try (FileChannel in = FileChannel.open(source);
+             DurableFile out = create(target, in.size())) {
+            long position = 0;
+            long transferred;
+            // Up to the end, not the size at the start: a file may grow while it is copied
+            while ((transferred = out.transferFrom(in, position, chunk)) > 0) {
+                position += transferred;
+                if (readStage != null) {
+                    throttleService.acquire(readStage, config, transferred);
+                }
+                throttleService.acquire(ThrottleStage.LOCAL_WRITE, config, transferred);
+            }
+            out.commit();
+            log.debug("Copied {} bytes from {} to {}", position, source, target);
+            return position;
+        }
+    }
+
+    /**
+     * Writes the contents of a file
+     */
+    @FunctionalInterface
+    public interface Body<T> {
+        T write(OutputStream out) throws IOException, SQLException;
+    }
+}
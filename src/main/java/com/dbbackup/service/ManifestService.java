@@ -0,0 +1,272 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.BackupManifest;
+import com.dbbackup.model.BackupResult;
+import com.dbbackup.model.BackupRun;
+import com.dbbackup.model.DatabaseType;
+import com.dbbackup.model.ManifestJob;
+import com.dbbackup.model.StorageType;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.CronExpression;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.PropertiesPropertySourceLoader;
+import org.springframework.boot.env.PropertySourceLoader;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads backup manifests and runs their jobs together.
+ * A manifest is a YAML or JSON file with {@code defaults} (any backup property, applied to
+ * every job), named {@code credentials} that jobs refer to, {@code limits} for running jobs
+ * together and the {@code jobs} themselves, each with an optional {@code cron} schedule.
+ */
+@Service
+@Slf4j
+public class ManifestService {
+
+    private final BackupOrchestrator backupOrchestrator;
+    private final BackupCatalogService catalogService;
+    private final BackupProperties properties;
+
+    public ManifestService(BackupOrchestrator backupOrchestrator, BackupCatalogService catalogService,
+                           BackupProperties properties) {
+        this.backupOrchestrator = backupOrchestrator;
+        this.catalogService = catalogService;
+        this.properties = properties;
+    }
+
+    /**
+     * Loads a manifest and resolves the defaults and credentials of its jobs
+     *
+     * @param file the YAML, JSON or properties file
+     * @return the manifest
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if a job is incomplete or refers to unknown credentials
+     */
+    public BackupManifest load(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            throw new IOException("Manifest not found: " + file);
+        }
+        // JSON is valid YAML, so one loader reads both
+        PropertySourceLoader loader = file.toString().endsWith(".properties")
+                ? new PropertiesPropertySourceLoader() : new YamlPropertySourceLoader();
+        List<PropertySource<?>> sources = loader.load(file.toString(), new FileSystemResource(file));
+        Binder binder = new Binder(ConfigurationPropertySources.from(sources));
+
+        Map<String, Credentials> credentials = binder.bind("credentials",
+                Bindable.mapOf(String.class, Credentials.class)).orElse(Map.of());
+        String defaultCron = binder.bind("defaults.cron", String.class).orElse(null);
+        String defaultCredentials = binder.bind("defaults.credentials", String.class).orElse(null);
+
+        List<ManifestJob> jobs = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (int index = 0; ; index++) {
+            String prefix = "jobs[" + index + "]";
+            if (!binder.bind(prefix, Bindable.mapOf(String.class, Object.class)).isBound()) {
+                break;
+            }
+            BackupConfig config = new BackupConfig();
+            config.setBackupPath(properties.getDefaultPath());
+            config.setCompress(properties.isCompressionEnabled());
+            config.setStorageType(StorageType.LOCAL);
+            binder.bind("defaults", Bindable.ofInstance(config));
+            binder.bind(prefix, Bindable.ofInstance(config));
+            if (config.getDatabaseType() == null || config.getDatabaseName() == null) {
+                throw new IllegalArgumentException("Job " + index + " needs a database-type and a database-name");
+            }
+            if (config.getPort() == 0) {
+                config.setPort(config.getDatabaseType().getDefaultPort());
+            }
+
+            String name = binder.bind(prefix + ".name", String.class).orElse(config.getDatabaseName());
+            if (!names.add(name)) {
+                throw new IllegalArgumentException("Duplicate job name '" + name + "'; give one of the jobs a name");
+            }
+            String credentialsName = binder.bind(prefix + ".credentials", String.class).orElse(defaultCredentials);
+            // An empty reference (e.g. credentials: ~) opts a job out of the default credentials
+            if (credentialsName != null && !credentialsName.isBlank()) {
+                Credentials entry = credentials.get(credentialsName);
+                if (entry == null) {
+                    throw new IllegalArgumentException("Job '" + name + "' refers to unknown credentials '" + credentialsName + "'");
+                }
+                entry.applyTo(config, credentialsName);
+            }
+            String cron = binder.bind(prefix + ".cron", String.class).orElse(defaultCron);
+            if (cron != null && !CronExpression.isValidExpression(cron)) {
+                throw new IllegalArgumentException("Job '" + name + "' has an invalid cron expression: " + cron);
+            }
+            jobs.add(ManifestJob.builder().name(name).config(config).cron(cron).build());
+        }
+        if (jobs.isEmpty()) {
+            throw new IllegalArgumentException("No jobs defined in " + file);
+        }
+
+        BackupProperties.Manifest limits = properties.getManifest();
+        return BackupManifest.builder()
+                .source(file.toAbsolutePath().normalize().toString())
+                .jobs(jobs)
+                .maxParallel(binder.bind("limits.max-parallel", Integer.class).orElse(limits.getMaxParallel()))
+                .maxPerHost(binder.bind("limits.max-per-host", Integer.class).orElse(limits.getMaxPerHost()))
+                .build();
+    }
+
+    /**
+     * Runs every job of a manifest, as many at a time as the limits allow. Jobs that took
+     * longest last time start first, so that no long job is left running alone at the end.
+     * Jobs for the same database on the same server never overlap.
+     *
+     * @param manifest the manifest
+     * @return the result of each job by job name, in manifest order
+     * @throws InterruptedException if the wait for running jobs is interrupted
+     */
+    public Map<String, BackupResult> runAll(BackupManifest manifest) throws InterruptedException {
+        List<ManifestJob> pending = new ArrayList<>(manifest.getJobs());
+        Map<ManifestJob, Long> expected = new IdentityHashMap<>();
+        pending.forEach(job -> expected.put(job, expectedMillis(job)));
+        pending.sort(Comparator.comparingLong((ManifestJob job) -> expected.get(job)).reversed());
+        int maxParallel = Math.max(1, manifest.getMaxParallel());
+        int maxPerHost = manifest.getMaxPerHost() > 0 ? manifest.getMaxPerHost() : Integer.MAX_VALUE;
+        log.info("Running {} jobs of {} ({} at a time, {} per host)", pending.size(), manifest.getSource(),
+                maxParallel, manifest.getMaxPerHost() > 0 ? maxPerHost : "any");
+
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxParallel, pending.size()), runnable -> {
+            Thread thread = new Thread(runnable, "manifest-job-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Map.Entry<ManifestJob, BackupResult>> completion = new ExecutorCompletionService<>(executor);
+        Map<String, BackupResult> results = new HashMap<>();
+        Map<String, Integer> runningPerHost = new HashMap<>();
+        Set<String> runningDatabases = new HashSet<>();
+        int running = 0;
+        try {
+            while (!pending.isEmpty() || running > 0) {
+                Iterator<ManifestJob> iterator = pending.iterator();
+                while (running < maxParallel && iterator.hasNext()) {
+                    ManifestJob job = iterator.next();
+                    String host = hostOf(job.getConfig());
+                    if (runningPerHost.getOrDefault(host, 0) >= maxPerHost
+                            || runningDatabases.contains(job.getConfig().instanceKey())) {
+                        continue;
+                    }
+                    iterator.remove();
+                    runningPerHost.merge(host, 1, Integer::sum);
+                    runningDatabases.add(job.getConfig().instanceKey());
+                    running++;
+                    completion.submit(() -> Map.entry(job, run(job)));
+                }
+
+                Future<Map.Entry<ManifestJob, BackupResult>> done = completion.take();
+                running--;
+                ManifestJob job;
+                try {
+                    job = done.get().getKey();
+                    results.put(job.getName(), done.get().getValue());
+                } catch (ExecutionException e) {
+                    // run() handles every failure, so this would be a bug
+                    throw new IllegalStateException(e.getCause());
+                }
+                runningPerHost.merge(hostOf(job.getConfig()), -1, Integer::sum);
+                runningDatabases.remove(job.getConfig().instanceKey());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, BackupResult> ordered = new LinkedHashMap<>();
+        for (ManifestJob job : manifest.getJobs()) {
+            ordered.put(job.getName(), results.get(job.getName()));
+        }
+        return ordered;
+    }
+
+    private BackupResult run(ManifestJob job) {
+        try {
+            BackupResult result = backupOrchestrator.executeBackup(job.getConfig());
+            log.info("{} job {}: {}", result.isSuccess() ? "Finished" : "Failed", job.getName(), result.getMessage());
+            return result;
+        } catch (RuntimeException e) {
+            log.error("Job {} failed", job.getName(), e);
+            return BackupResult.builder()
+                    .success(false)
+                    .message("Backup failed: " + e.getMessage())
+                    .timestamp(LocalDateTime.now())
+                    .build();
+        }
+    }
+
+    private long expectedMillis(ManifestJob job) {
+        // Jobs never run before are assumed to be long
+        return catalogService.lastSuccessful(job.getConfig().getDatabaseName())
+                .map(BackupRun::getDurationMillis)
+                .orElse(Long.MAX_VALUE);
+    }
+
+    private static String hostOf(BackupConfig config) {
+        // SQLite jobs all compete for the local disk
+        return config.getDatabaseType() == DatabaseType.SQLITE ? "local" : config.getHost() + ":" + config.getPort();
+    }
+
+    /**
+     * A named credentials entry. The password comes from the manifest itself, an environment
+     * variable or a file (e.g. a mounted secret), read when the manifest is loaded.
+     */
+    @Data
+    static class Credentials {
+        private String username;
+        private String password;
+        private String passwordEnv;
+        private String passwordFile;
+
+        void applyTo(BackupConfig config, String name) throws IOException {
+            if (config.getUsername() == null) {
+                config.setUsername(username);
+            }
+            if (config.getPassword() != null) {
+                return;
+            }
+            if (passwordEnv != null) {
+                String value = System.getenv(passwordEnv);
+                if (value == null) {
+                    throw new IllegalArgumentException("Credentials '" + name + "': environment variable "
+                            + passwordEnv + " is not set");
+                }
+                config.setPassword(value);
+            } else if (passwordFile != null) {
+                config.setPassword(Files.readString(Path.of(passwordFile)).strip());
+            } else {
+                config.setPassword(password);
+            }
+        }
+    }
+}
@@ -1,19 +1,52 @@
 package com.dbbackup.service;
 
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.dump.ProgressJournal;
+import com.dbbackup.dump.TableFilter;
+import com.dbbackup.dump.TableInfo;
+import com.dbbackup.dump.WorkUnit;
+import com.dbbackup.io.DurableFile;
+import com.dbbackup.io.WorkerGate;
 import com.dbbackup.model.BackupConfig;
 import com.dbbackup.model.BackupResult;
 import com.dbbackup.model.DatabaseType;
+import com.dbbackup.model.ThrottleStage;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCredential;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * MongoDB database backup service using mongodump
@@ -23,7 +56,12 @@ import java.time.format.DateTimeFormatter;
 @RequiredArgsConstructor
 public class MongoDBBackupService implements BackupService {
 
+    private static final String CHUNKS_SUFFIX = "_mongodb.chunks";
+
     private final CompressionService compressionService;
+    private final BackupProperties properties;
+    private final ThrottleService throttleService;
+    private final LocalWriteService localWriteService;
 
     @Override
     public BackupResult backup(BackupConfig config) {
@@ -37,6 +75,12 @@ public class MongoDBBackupService implements BackupService {
                 backupDir.mkdirs();
             }
 
+            // mongodump takes a single collection, so filtered backups always go collection by collection,
+            // as do indexed archives, which index the archive of each collection
+            if (config.isPerCollection() || config.isIndexedArchive() || !TableFilter.of(config).isEmpty()) {
+                return perCollectionBackup(config, startTime);
+            }
+
             // Generate backup directory with timestamp
             String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
             String backupDirName = String.format("%s_%s_mongodb", config.getDatabaseName(), timestamp);
@@ -110,6 +154,222 @@ public class MongoDBBackupService implements BackupService {
         }
     }
 
+    /**
+     * Dumps each collection into its own gzip archive and journals finished collections, so a
+     * failed run is resumed by the next attempt instead of starting over. With parallelism,
+     * collections are dumped concurrently, largest first.
+     */
+    private BackupResult perCollectionBackup(BackupConfig config, long startTime) throws Exception {
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+        Path directory = Path.of(config.getBackupPath(),
+                String.format("%s_%s%s", config.getDatabaseName(), timestamp, CHUNKS_SUFFIX));
+        BackupProperties.Resume resume = properties.getResume();
+        if (resume.isEnabled()) {
+            Optional<Path> incomplete = ProgressJournal.findIncompleteRun(Path.of(config.getBackupPath()),
+                    config.getDatabaseName(), config.instanceKey(), CHUNKS_SUFFIX, resume.getMaxAge());
+            if (incomplete.isPresent()) {
+                log.info("Resuming failed run {}", incomplete.get());
+                directory = incomplete.get();
+            }
+        }
+        Files.createDirectories(directory);
+        ProgressJournal journal = ProgressJournal.open(directory, config.instanceKey());
+        List<WorkUnit> units;
+        int reused;
+        try {
+            List<TableInfo> collections = TableFilter.of(config).apply(listCollections(config));
+            if (collections.isEmpty()) {
+                throw new IllegalArgumentException("No collections match the include/exclude filters");
+            }
+            if (journal.hasPlan()) {
+                units = journal.reconcile(collections);
+            } else {
+                units = new ArrayList<>();
+                collections.sort(Comparator.comparingLong(TableInfo::getEstimatedBytes).reversed());
+                for (TableInfo collection : collections) {
+                    units.add(WorkUnit.builder().index(units.size()).table(collection).build());
+                }
+                journal.savePlan(units);
+            }
+
+            List<WorkUnit> pending = new ArrayList<>();
+            for (WorkUnit unit : units) {
+                if (!journal.isComplete(unit, chunkPath(directory, unit))) {
+                    pending.add(unit);
+                }
+            }
+            reused = units.size() - pending.size();
+            if (reused > 0) {
+                log.info("Reused {} of {} collections from the failed run", reused, units.size());
+            }
+
+            List<String> failed = dumpCollections(config, directory, journal, pending);
+            if (!failed.isEmpty()) {
+                return BackupResult.builder()
+                        .success(false)
+                        .message(String.format("MongoDB backup of collections %s failed "
+                                + "(finished collections are kept for the next attempt)", failed))
+                        .timestamp(LocalDateTime.now())
+                        .durationMillis(System.currentTimeMillis() - startTime)
+                        .build();
+            }
+            journal.finish();
+        } finally {
+            journal.close();
+        }
+
+        // Collections are already compressed, so the directory is only packed into a single file
+        String finalPath;
+        if (config.isIndexedArchive()) {
+            Map<String, String> collectionsByFile = new HashMap<>();
+            for (WorkUnit unit : units) {
+                collectionsByFile.put(chunkPath(directory, unit).getFileName().toString(), unit.getTable().getName());
+            }
+            finalPath = compressionService.archiveDirectoryIndexed(directory.toString(), collectionsByFile, config);
+        } else {
+            finalPath = compressionService.archiveDirectory(directory.toString(), config);
+        }
+        long fileSize = Files.size(Path.of(finalPath));
+        log.info("MongoDB backup completed successfully: {}", finalPath);
+
+        return BackupResult.builder()
+                .success(true)
+                .message(String.format("MongoDB backup completed successfully (%d collections, %d reused)",
+                        units.size(), reused))
+                .backupFilePath(finalPath)
+                .fileSizeBytes(fileSize)
+                .timestamp(LocalDateTime.now())
+                .durationMillis(System.currentTimeMillis() - startTime)
+                .build();
+    }
+
+    /**
+     * Runs one mongodump per collection on up to {@code parallelism} threads, in plan order
+     *
+     * @return the collections that failed
+     */
+    private List<String> dumpCollections(BackupConfig config, Path directory, ProgressJournal journal,
+                                         List<WorkUnit> pending) throws Exception {
+        List<String> failed = new ArrayList<>();
+        if (pending.isEmpty()) {
+            return failed;
+        }
+        int parallelism = Math.min(Math.max(1, config.getParallelism()), pending.size());
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "mongodump-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        WorkerGate gate = throttleService.workers(config);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (WorkUnit unit : pending) {
+                futures.add(executor.submit(() -> {
+                    gate.enter();
+                    try {
+                        Path chunk = chunkPath(directory, unit);
+                        MessageDigest digest = ProgressJournal.newDigest();
+                        int exitCode = dumpCollection(config, unit.getTable().getName(), chunk, digest);
+                        if (exitCode == 0) {
+                            journal.markDone(unit, chunk, unit.getTable().getEstimatedRows(), digest);
+                        }
+                        return exitCode;
+                    } finally {
+                        gate.exit();
+                    }
+                }));
+            }
+            // Collections still running when one fails are finished, so the next attempt can reuse them
+            for (int i = 0; i < futures.size(); i++) {
+                String collection = pending.get(i).getTable().getName();
+                try {
+                    int exitCode = futures.get(i).get();
+                    if (exitCode != 0) {
+                        log.error("mongodump of collection {} failed with exit code: {}", collection, exitCode);
+                        failed.add(collection);
+                    }
+                } catch (ExecutionException e) {
+                    log.error("mongodump of collection {} failed", collection, e.getCause());
+                    failed.add(collection);
+                }
+            }
+            return failed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int dumpCollection(BackupConfig config, String collection, Path chunk, MessageDigest digest)
+            throws Exception {
+        ProcessBuilder processBuilder = new ProcessBuilder(
+                "mongodump",
+                "--host=" + config.getHost(),
+                "--port=" + String.valueOf(config.getPort()),
+                "--username=" + config.getUsername(),
+                "--password=" + config.getPassword(),
+                "--db=" + config.getDatabaseName(),
+                "--collection=" + collection,
+                "--gzip",
+                "--archive"
+        );
+        Process process = processBuilder.start();
+        Thread outputLogger = ProcessOutputLogger.start(process.getErrorStream(), "mongodump");
+        // The archive comes through stdout so that the read limits hold mongodump back; the chunk
+        // is only committed once mongodump has exited cleanly
+        try (InputStream in = throttleService.throttle(process.getInputStream(), ThrottleStage.DUMP_READ, config);
+             DurableFile durable = localWriteService.create(chunk, -1)) {
+            try (OutputStream out = throttleService.throttle(new BufferedOutputStream(
+                    new DigestOutputStream(durable.outputStream(), digest), 65536), ThrottleStage.LOCAL_WRITE, config)) {
+                in.transferTo(out);
+            }
+            int exitCode = process.waitFor();
+            outputLogger.join();
+            if (exitCode == 0) {
+                durable.commit();
+            }
+            return exitCode;
+        } catch (IOException | InterruptedException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+    }
+
+    private Path chunkPath(Path directory, WorkUnit unit) {
+        return directory.resolve(String.format("%06d.archive.gz", unit.getIndex()));
+    }
+
+    /**
+     * Lists the collections with their uncompressed data size from collStats, which is what
+     * mongodump has to read
+     */
+    private List<TableInfo> listCollections(BackupConfig config) {
+        MongoClientSettings.Builder settings = MongoClientSettings.builder()
+                .applyToClusterSettings(cluster -> cluster.hosts(List.of(new ServerAddress(config.getHost(), config.getPort()))));
+        if (config.getUsername() != null) {
+            settings.credential(MongoCredential.createCredential(config.getUsername(), config.getDatabaseName(),
+                    config.getPassword() != null ? config.getPassword().toCharArray() : new char[0]));
+        }
+        try (MongoClient client = MongoClients.create(settings.build())) {
+            MongoDatabase database = client.getDatabase(config.getDatabaseName());
+            List<TableInfo> collections = new ArrayList<>();
+            for (String name : database.listCollectionNames()) {
+                TableInfo.TableInfoBuilder collection = TableInfo.builder().name(name);
+                try {
+                    Document stats = database.runCommand(new Document("collStats", name));
+                    collection.estimatedRows(((Number) stats.get("count", 0)).longValue())
+                            .estimatedBytes(((Number) stats.get("size", 0)).longValue());
+                } catch (MongoException e) {
+                    // Views have no statistics
+                    log.debug("No collStats for {}: {}", name, e.getMessage());
+                    collection.estimatedRows(database.getCollection(name).estimatedDocumentCount());
+                }
+                collections.add(collection.build());
+            }
+            return collections;
+        }
+    }
+
     private String archiveBackupDirectory(String dirPath, String archivePath) throws Exception {
         ProcessBuilder processBuilder = new ProcessBuilder(
                 "tar",
@@ -1,20 +1,32 @@
 package com.dbbackup.service;
 
+import com.dbbackup.dump.IncrementalDump;
+import com.dbbackup.dump.JdbcDumpEngine;
+import com.dbbackup.dump.TableFilter;
+import com.dbbackup.dump.TableInfo;
+import com.dbbackup.io.DurableFile;
+import com.dbbackup.io.IndexedArchive;
 import com.dbbackup.model.BackupConfig;
 import com.dbbackup.model.BackupResult;
 import com.dbbackup.model.DatabaseType;
+import com.dbbackup.model.DumpEngine;
+import com.dbbackup.model.ThrottleStage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -26,6 +38,9 @@ import java.util.Map;
 public class MySQLBackupService implements BackupService {
 
     private final CompressionService compressionService;
+    private final PipelineService pipelineService;
+    private final JdbcDumpEngine jdbcDumpEngine;
+    private final LocalWriteService localWriteService;
 
     @Override
     public BackupResult backup(BackupConfig config) {
@@ -44,37 +59,31 @@ public class MySQLBackupService implements BackupService {
             String backupFileName = String.format("%s_%s_mysql.sql", config.getDatabaseName(), timestamp);
             String backupFilePath = config.getBackupPath() + File.separator + backupFileName;
 
-            // Build mysqldump command
-            // Use environment variable for password to avoid exposing it in process list
-            ProcessBuilder processBuilder = new ProcessBuilder(
-                    "mysqldump",
-                    "--host=" + config.getHost(),
-                    "--port=" + config.getPort(),
-                    "--user=" + config.getUsername(),
-                    "--result-file=" + backupFilePath,
-                    "--single-transaction",
-                    "--routines",
-                    "--triggers",
-                    config.getDatabaseName()
-            );
-
-            // Set MYSQL_PWD environment variable for password
-            Map<String, String> env = new HashMap<>(processBuilder.environment());
-            env.put("MYSQL_PWD", config.getPassword());
-            processBuilder.environment().putAll(env);
-
-            processBuilder.redirectErrorStream(true);
-            Process process = processBuilder.start();
-
-            // Read output
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    log.debug("mysqldump output: {}", line);
-                }
+            if (config.isIncremental()) {
+                return incrementalBackup(config, backupFilePath, startTime);
             }
 
-            int exitCode = process.waitFor();
+            if (config.getDumpEngine() == DumpEngine.PARALLEL_COPY) {
+                throw new IllegalArgumentException("The PARALLEL_COPY engine is only available for PostgreSQL");
+            }
+
+            int exitCode;
+            if (config.isIndexedArchive()) {
+                // Indexed archives are built from the per-table parts of the JDBC engine
+                String suffix = "_mysql" + IndexedArchive.EXTENSION;
+                backupFilePath = backupFilePath.replaceFirst("\\.sql$", IndexedArchive.EXTENSION);
+                Path output = jdbcDumpEngine.resumeOrDefault(config, Path.of(backupFilePath), suffix);
+                backupFilePath = output.toString();
+                jdbcDumpEngine.dump(config, output);
+                exitCode = 0;
+            } else if (config.getDumpEngine() == DumpEngine.JDBC) {
+                Path output = jdbcDumpEngine.resumeOrDefault(config, Path.of(backupFilePath), "_mysql.sql");
+                backupFilePath = output.toString();
+                jdbcDumpEngine.dump(config, output);
+                exitCode = 0;
+            } else {
+                exitCode = runMysqldump(config, backupFilePath);
+            }
 
             if (exitCode != 0) {
                 return BackupResult.builder()
@@ -85,9 +94,9 @@ public class MySQLBackupService implements BackupService {
                         .build();
             }
 
-            // Compress if requested
-            if (config.isCompress()) {
-                backupFilePath = compressionService.compressFile(backupFilePath);
+            // Compress if requested; the blocks of an indexed archive are compressed already
+            if (config.isCompress() && !config.isIndexedArchive()) {
+                backupFilePath = compressionService.compressFile(backupFilePath, config);
             }
 
             long fileSize = Files.size(Path.of(backupFilePath));
@@ -115,9 +124,86 @@ public class MySQLBackupService implements BackupService {
         }
     }
 
+    private BackupResult incrementalBackup(BackupConfig config, String backupFilePath, long startTime)
+            throws IOException, SQLException {
+        // Chunks are hashed over JDBC, so incremental backups always use the JDBC engine
+        IncrementalDump dump = jdbcDumpEngine.dumpIncremental(config, Path.of(backupFilePath));
+        backupFilePath = dump.getOutput().toString();
+        if (config.isCompress()) {
+            backupFilePath = compressionService.compressFile(backupFilePath, config);
+        }
+        jdbcDumpEngine.commitIncremental(config, dump, backupFilePath);
+
+        long fileSize = Files.size(Path.of(backupFilePath));
+        log.info("MySQL {} backup completed successfully: {}", dump.isFull() ? "full" : "incremental", backupFilePath);
+        String message = dump.isFull()
+                ? "MySQL backup completed successfully (full backup starting a new incremental chain: " + dump.getReason() + ")"
+                : String.format("MySQL incremental backup completed successfully (%d of %d chunks changed, %d rows)",
+                        dump.getChangedChunks(), dump.getChunks(), dump.getRows());
+
+        return BackupResult.builder()
+                .success(true)
+                .message(message)
+                .backupFilePath(backupFilePath)
+                .fileSizeBytes(fileSize)
+                .timestamp(LocalDateTime.now())
+                .durationMillis(System.currentTimeMillis() - startTime)
+                .build();
+    }
+
+    private int runMysqldump(BackupConfig config, String backupFilePath)
+            throws IOException, InterruptedException, SQLException {
+        // Build mysqldump command
+        // Use environment variable for password to avoid exposing it in process list
+        List<String> command = new ArrayList<>(List.of(
+                "mysqldump",
+                "--host=" + config.getHost(),
+                "--port=" + config.getPort(),
+                "--user=" + config.getUsername(),
+                "--single-transaction",
+                "--routines",
+                "--triggers",
+                config.getDatabaseName()
+        ));
+        if (!TableFilter.of(config).isEmpty()) {
+            // mysqldump has no pattern matching, so the filters are resolved to table names
+            List<TableInfo> tables = jdbcDumpEngine.listTables(config);
+            if (tables.isEmpty()) {
+                throw new IllegalArgumentException("No tables match the include/exclude filters");
+            }
+            tables.forEach(table -> command.add(table.getName()));
+        }
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+
+        // Set MYSQL_PWD environment variable for password
+        Map<String, String> env = new HashMap<>(processBuilder.environment());
+        env.put("MYSQL_PWD", config.getPassword());
+        processBuilder.environment().putAll(env);
+
+        Process process = processBuilder.start();
+        Thread outputLogger = ProcessOutputLogger.start(process.getErrorStream(), "mysqldump");
+
+        // Stream the dump to the backup file in pooled buffers, through the read and write limits;
+        // the file is only committed once mysqldump has exited cleanly, and deleted otherwise
+        try (ReadableByteChannel in = Channels.newChannel(process.getInputStream());
+             DurableFile out = localWriteService.create(Path.of(backupFilePath), -1)) {
+            pipelineService.copy(in, out, ThrottleStage.DUMP_READ, config);
+            int exitCode = process.waitFor();
+            outputLogger.join();
+            if (exitCode == 0) {
+                out.commit();
+            }
+            return exitCode;
+        } catch (IOException | InterruptedException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+    }
+
     @Override
     public boolean supports(BackupConfig config) {
-        return config.getDatabaseType() == DatabaseType.MYSQL || 
-               config.getDatabaseType() == DatabaseType.MARIADB;
+        // Physical backups are taken by PhysicalBackupService
+        return (config.getDatabaseType() == DatabaseType.MYSQL ||
+               config.getDatabaseType() == DatabaseType.MARIADB) && config.getDumpEngine() != DumpEngine.PHYSICAL;
     }
 }
@@ -0,0 +1,354 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.io.DurableFile;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.BackupResult;
+import com.dbbackup.model.DatabaseType;
+import com.dbbackup.model.DumpEngine;
+import com.dbbackup.model.ThrottleStage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * Physical hot backups of MySQL and MariaDB with xtrabackup or mariabackup. The tool streams
+ * the data files as xbstream on its standard output, which is compressed and written on the
+ * fly, so a large instance is never staged uncompressed on disk. Incremental backups copy only
+ * the pages changed since the log sequence number (LSN) the previous backup of the chain ended
+ * at; the chain and its last LSN are kept in the catalog directory.
+ */
+@Service
+@Slf4j
+public class PhysicalBackupService implements BackupService {
+
+    private static final String STATE_SUFFIX = ".physical";
+    private static final String CHECKPOINTS = "xtrabackup_checkpoints";
+
+    private final CompressionService compressionService;
+    private final PipelineService pipelineService;
+    private final LocalWriteService localWriteService;
+    private final BackupMetadataService metadataService;
+    private final BackupProperties.Physical settings;
+    private final Path catalogDirectory;
+    private final int maxChain;
+
+    public PhysicalBackupService(CompressionService compressionService, PipelineService pipelineService,
+                                 LocalWriteService localWriteService, BackupMetadataService metadataService,
+                                 BackupProperties properties) {
+        this.compressionService = compressionService;
+        this.pipelineService = pipelineService;
+        this.localWriteService = localWriteService;
+        this.metadataService = metadataService;
+        this.settings = properties.getPhysical();
+        this.catalogDirectory = Path.of(properties.getCatalog().getDirectory());
+        this.maxChain = properties.getIncremental().getMaxChain();
+    }
+
+    @Override
+    public BackupResult backup(BackupConfig config) {
+        long startTime = System.currentTimeMillis();
+        String tool = tool(config);
+        String typeName = config.getDatabaseType() == DatabaseType.MARIADB ? "MariaDB" : "MySQL";
+        log.info("Starting {} physical backup of {} with {}", typeName, config.getDatabaseName(), tool);
+
+        Path scratch = null;
+        String backupFilePath = null;
+        try {
+            File backupDir = new File(config.getBackupPath());
+            if (!backupDir.exists()) {
+                backupDir.mkdirs();
+            }
+
+            Properties state = loadState(config);
+            String reason = config.isIncremental() ? fullBackupReason(state, tool) : "incremental backups not requested";
+            boolean incremental = reason == null;
+            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+            backupFilePath = config.getBackupPath() + File.separator + String.format("%s_%s_%s%s.xbstream",
+                    config.getDatabaseName(), timestamp, config.getDatabaseType().name().toLowerCase(),
+                    incremental ? ".incr" : "");
+            if (config.isCompress()) {
+                backupFilePath += config.isEncrypt() ? ".gz" + EncryptionService.SUFFIX : ".gz";
+            }
+
+            // The tool keeps temporary files in the target directory and writes its LSNs to the extra one
+            scratch = Files.createTempDirectory(backupDir.toPath(), ".physical-");
+            Path lsnDirectory = Files.createDirectory(scratch.resolve("lsn"));
+            List<String> command = new ArrayList<>(List.of(
+                    tool,
+                    "--backup",
+                    "--stream=xbstream",
+                    "--host=" + config.getHost(),
+                    "--port=" + config.getPort(),
+                    "--user=" + config.getUsername(),
+                    "--target-dir=" + Files.createDirectory(scratch.resolve("target")),
+                    "--extra-lsndir=" + lsnDirectory,
+                    "--parallel=" + Math.max(1, settings.getParallel())
+            ));
+            if (incremental) {
+                command.add("--incremental-lsn=" + state.getProperty("to-lsn"));
+            }
+            command.addAll(settings.getExtraOptions());
+
+            int exitCode = stream(command, config, backupFilePath, tool);
+            if (exitCode != 0) {
+                Files.deleteIfExists(Path.of(backupFilePath));
+                return BackupResult.builder()
+                        .success(false)
+                        .message(typeName + " physical backup failed: " + tool + " exited with code " + exitCode)
+                        .timestamp(LocalDateTime.now())
+                        .durationMillis(System.currentTimeMillis() - startTime)
+                        .build();
+            }
+
+            Properties checkpoints = readCheckpoints(lsnDirectory);
+            String fromLsn = checkpoints.getProperty("from_lsn", "0");
+            String toLsn = checkpoints.getProperty("to_lsn");
+            Map<String, String> metadata = new LinkedHashMap<>();
+            metadata.put("physical.tool", tool);
+            metadata.put("physical.backup-type", incremental ? "incremental" : "full");
+            metadata.put("physical.from-lsn", fromLsn);
+            metadata.put("physical.to-lsn", toLsn);
+            List<String> chain = incremental ? chain(state) : new ArrayList<>();
+            if (incremental) {
+                metadata.put("physical.base", chain.get(chain.size() - 1));
+            }
+            metadataService.update(backupFilePath, metadata);
+            chain.add(backupFilePath);
+            saveState(config, tool, toLsn, chain);
+
+            long fileSize = Files.size(Path.of(backupFilePath));
+            log.info("{} physical {} backup completed successfully: {} (LSN {} to {})", typeName,
+                    incremental ? "incremental" : "full", backupFilePath, fromLsn, toLsn);
+            String message = incremental
+                    ? String.format("%s physical incremental backup completed successfully (LSN %s to %s, %d backups in the chain)",
+                            typeName, fromLsn, toLsn, chain.size())
+                    : config.isIncremental()
+                    ? String.format("%s physical backup completed successfully (full backup starting a new incremental chain: %s, LSN %s)",
+                            typeName, reason, toLsn)
+                    : String.format("%s physical backup completed successfully (LSN %s)", typeName, toLsn);
+
+            return BackupResult.builder()
+                    .success(true)
+                    .message(message)
+                    .backupFilePath(backupFilePath)
+                    .fileSizeBytes(fileSize)
+                    .timestamp(LocalDateTime.now())
+                    .durationMillis(System.currentTimeMillis() - startTime)
+                    .build();
+
+        } catch (Exception e) {
+            log.error("Error during {} physical backup", typeName, e);
+            if (backupFilePath != null) {
+                try {
+                    Files.deleteIfExists(Path.of(backupFilePath));
+                } catch (IOException ignored) {
+                    // The failure is reported below
+                }
+            }
+            return BackupResult.builder()
+                    .success(false)
+                    .message(typeName + " physical backup failed: " + e.getMessage())
+                    .timestamp(LocalDateTime.now())
+                    .durationMillis(System.currentTimeMillis() - startTime)
+                    .build();
+        } finally {
+            if (scratch != null) {
+                deleteDirectory(scratch);
+            }
+        }
+    }
+
+    /**
+     * Returns the backups of a database's physical chain in the order they are prepared in,
+     * full backup first
+     *
+     * @param config the host, port and name of the database
+     * @return the backup files, empty if no physical backup was recorded
+     * @throws IOException if the chain cannot be read
+     */
+    public List<Path> chain(BackupConfig config) throws IOException {
+        Properties state = loadState(config);
+        if (state == null) {
+            return List.of();
+        }
+        return chain(state).stream().map(PhysicalBackupService::stored).toList();
+    }
+
+    /**
+     * Returns the metadata recorded for a physical backup, such as its LSN range
+     *
+     * @param backup a backup of the chain
+     * @return the metadata, empty if none was recorded
+     * @throws IOException if the metadata cannot be read
+     */
+    public Properties describe(Path backup) throws IOException {
+        String path = backup.toString();
+        Properties metadata = metadataService.read(path);
+        if (metadata.isEmpty() && path.endsWith(EncryptionService.SUFFIX)) {
+            // Encrypted after the backup, so the metadata is that of the unencrypted file
+            metadata = metadataService.read(path.substring(0, path.length() - EncryptionService.SUFFIX.length()));
+        }
+        return metadata;
+    }
+
+    private int stream(List<String> command, BackupConfig config, String backupFilePath, String tool)
+            throws IOException, InterruptedException {
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        // Passed in the environment so that it does not show in the process list
+        processBuilder.environment().put("MYSQL_PWD", config.getPassword() != null ? config.getPassword() : "");
+        Process process = processBuilder.start();
+        Thread outputLogger = ProcessOutputLogger.start(process.getErrorStream(), Path.of(tool).getFileName().toString());
+
+        // The stream goes through the read limit and, when compressed, through gzip on the way to disk
+        try (ReadableByteChannel in = Channels.newChannel(process.getInputStream())) {
+            if (config.isCompress()) {
+                compressionService.compressStream(in, ThrottleStage.DUMP_READ, backupFilePath, config);
+            } else {
+                try (DurableFile out = localWriteService.create(Path.of(backupFilePath), -1)) {
+                    pipelineService.copy(in, out, ThrottleStage.DUMP_READ, config);
+                    out.commit();
+                }
+            }
+        } catch (IOException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+
+        int exitCode = process.waitFor();
+        outputLogger.join();
+        return exitCode;
+    }
+
+    private String fullBackupReason(Properties state, String tool) {
+        if (state == null) {
+            return "no previous physical backup";
+        }
+        if (!tool.equals(state.getProperty("tool"))) {
+            return "the chain was taken with " + state.getProperty("tool");
+        }
+        List<String> chain = chain(state);
+        if (chain.isEmpty() || state.getProperty("to-lsn") == null) {
+            return "no previous physical backup";
+        }
+        if (chain.size() > maxChain) {
+            return "the chain has reached " + (chain.size() - 1) + " incremental backups";
+        }
+        for (String backup : chain) {
+            if (!Files.exists(stored(backup))) {
+                return "backup of the chain is missing: " + backup;
+            }
+        }
+        return null;
+    }
+
+    private Properties readCheckpoints(Path lsnDirectory) throws IOException {
+        Path file = lsnDirectory.resolve(CHECKPOINTS);
+        if (!Files.exists(file)) {
+            throw new IOException("The backup tool wrote no " + CHECKPOINTS);
+        }
+        // "key = value" lines, which Properties reads as they are
+        Properties checkpoints = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            checkpoints.load(in);
+        }
+        if (checkpoints.getProperty("to_lsn") == null) {
+            throw new IOException("No to_lsn in " + CHECKPOINTS);
+        }
+        return checkpoints;
+    }
+
+    private static List<String> chain(Properties state) {
+        List<String> chain = new ArrayList<>();
+        int count = Integer.parseInt(state.getProperty("chain", "0"));
+        for (int i = 0; i < count; i++) {
+            chain.add(state.getProperty("chain." + i));
+        }
+        return chain;
+    }
+
+    /** Backups stored without compression are encrypted after the chain is recorded */
+    private static Path stored(String backup) {
+        Path path = Path.of(backup);
+        Path encrypted = Path.of(backup + EncryptionService.SUFFIX);
+        return !Files.exists(path) && Files.exists(encrypted) ? encrypted : path;
+    }
+
+    private synchronized Properties loadState(BackupConfig config) throws IOException {
+        Path path = statePath(config);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        Properties state = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            state.load(in);
+        }
+        return state;
+    }
+
+    private synchronized void saveState(BackupConfig config, String tool, String toLsn, List<String> chain)
+            throws IOException {
+        Properties state = new Properties();
+        state.setProperty("tool", tool);
+        state.setProperty("to-lsn", toLsn);
+        state.setProperty("chain", String.valueOf(chain.size()));
+        for (int i = 0; i < chain.size(); i++) {
+            state.setProperty("chain." + i, chain.get(i));
+        }
+        Files.createDirectories(catalogDirectory);
+        Path path = statePath(config);
+        Path temp = Path.of(path + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            state.store(out, "Physical backup chain of " + config.instanceKey());
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** One chain per server and database, since the LSNs are those of the server */
+    private Path statePath(BackupConfig config) {
+        return catalogDirectory.resolve(config.instanceKey().replaceAll("[^A-Za-z0-9._-]", "_") + STATE_SUFFIX);
+    }
+
+    private static void deleteDirectory(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    log.warn("Failed to delete {}", path);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Failed to clean up {}", directory, e);
+        }
+    }
+
+    private String tool(BackupConfig config) {
+        return config.getDatabaseType() == DatabaseType.MARIADB
+                ? settings.getMariabackupCommand() : settings.getXtrabackupCommand();
+    }
+
+    @Override
+    public boolean supports(BackupConfig config) {
+        return config.getDumpEngine() == DumpEngine.PHYSICAL
+                && (config.getDatabaseType() == DatabaseType.MYSQL || config.getDatabaseType() == DatabaseType.MARIADB);
+    }
+}
@@ -0,0 +1,91 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.io.BufferPipeline;
+import com.dbbackup.io.BufferPool;
+import com.dbbackup.io.PipelineStage;
+import com.dbbackup.io.PipelineStages;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.ThrottleStage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.Function;
+
+/**
+ * Service for the buffer pipeline that file copies and compression run through. All jobs
+ * share one pool of direct buffers, so the memory they use for streaming stays at
+ * {@code backup.pipeline.buffer-size * max-buffers} however many run at once; a job that
+ * finds the pool exhausted waits for a running one to finish.
+ */
+@Service
+@Slf4j
+public class PipelineService {
+
+    private final ThrottleService throttleService;
+    private final BufferPool pool;
+    private final int buffersPerJob;
+
+    public PipelineService(ThrottleService throttleService, BackupProperties properties) {
+        BackupProperties.Pipeline settings = properties.getPipeline();
+        this.throttleService = throttleService;
+        this.pool = new BufferPool((int) settings.getBufferSize().toBytes(), settings.getMaxBuffers());
+        this.buffersPerJob = Math.max(2, Math.min(settings.getBuffersPerJob(), settings.getMaxBuffers()));
+        if (buffersPerJob > settings.getMaxBuffers()) {
+            throw new IllegalStateException("backup.pipeline.max-buffers must be at least 2");
+        }
+    }
+
+    /**
+     * Runs a source through stages built on a lease of the job's buffers
+     *
+     * @param source the source
+     * @param stages builds the stages; stages that need an output buffer take it from the lease
+     * @return the number of bytes read from the source
+     * @throws IOException if reading or a stage fails
+     */
+    public long run(ReadableByteChannel source, Function<BufferPool.Lease, PipelineStage> stages) throws IOException {
+        if (pool.available() < buffersPerJob) {
+            log.debug("Pipeline buffers exhausted, waiting for {} of {}", buffersPerJob, pool.getMaxBuffers());
+        }
+        try (BufferPool.Lease lease = pool.acquire(buffersPerJob)) {
+            return BufferPipeline.run(source, stages.apply(lease), lease);
+        }
+    }
+
+    /**
+     * Copies a source to a channel, charging both the read and the write limits of a stage
+     *
+     * @param source    the source
+     * @param target    the target channel
+     * @param readStage the limit the source is charged against, or null
+     * @param config    the backup configuration
+     * @return the number of bytes copied
+     * @throws IOException if the copy fails
+     */
+    public long copy(ReadableByteChannel source, WritableByteChannel target, ThrottleStage readStage,
+                     BackupConfig config) throws IOException {
+        PipelineStage sink = limited(ThrottleStage.LOCAL_WRITE, config, PipelineStages.channel(target));
+        return run(source, lease -> readStage != null ? limited(readStage, config, sink) : sink);
+    }
+
+    /**
+     * Wraps a stage so that every buffer passing it is charged against a throttle stage
+     */
+    public PipelineStage limited(ThrottleStage stage, BackupConfig config, PipelineStage next) {
+        return PipelineStages.limited(bytes -> throttleService.acquire(stage, config, bytes), next);
+    }
+
+    /**
+     * Describes the pool
+     *
+     * @return a human-readable summary
+     */
+    public String describe() {
+        return String.format("%d of %d buffers free (%d allocated, %d KB each, %d per job)",
+                pool.available(), pool.getMaxBuffers(), pool.allocated(), pool.getBufferSize() / 1024, buffersPerJob);
+    }
+}
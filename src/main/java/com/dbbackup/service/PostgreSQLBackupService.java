@@ -1,20 +1,33 @@
 package com.dbbackup.service;
 
+import com.dbbackup.dump.IncrementalDump;
+import com.dbbackup.dump.JdbcDumpEngine;
+import com.dbbackup.dump.PostgreSQLParallelCopyEngine;
+import com.dbbackup.dump.TableFilter;
+import com.dbbackup.dump.TableInfo;
+import com.dbbackup.io.DurableFile;
+import com.dbbackup.io.IndexedArchive;
 import com.dbbackup.model.BackupConfig;
 import com.dbbackup.model.BackupResult;
 import com.dbbackup.model.DatabaseType;
+import com.dbbackup.model.DumpEngine;
+import com.dbbackup.model.ThrottleStage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -26,6 +39,10 @@ import java.util.Map;
 public class PostgreSQLBackupService implements BackupService {
 
     private final CompressionService compressionService;
+    private final PipelineService pipelineService;
+    private final LocalWriteService localWriteService;
+    private final JdbcDumpEngine jdbcDumpEngine;
+    private final PostgreSQLParallelCopyEngine parallelCopyEngine;
 
     @Override
     public BackupResult backup(BackupConfig config) {
@@ -44,35 +61,35 @@ public class PostgreSQLBackupService implements BackupService {
             String backupFileName = String.format("%s_%s_postgresql.sql", config.getDatabaseName(), timestamp);
             String backupFilePath = config.getBackupPath() + File.separator + backupFileName;
 
-            // Build pg_dump command
-            ProcessBuilder processBuilder = new ProcessBuilder(
-                    "pg_dump",
-                    "--host=" + config.getHost(),
-                    "--port=" + config.getPort(),
-                    "--username=" + config.getUsername(),
-                    "--dbname=" + config.getDatabaseName(),
-                    "--file=" + backupFilePath,
-                    "--format=plain",
-                    "--verbose"
-            );
-
-            // Set PGPASSWORD environment variable
-            Map<String, String> env = new HashMap<>(processBuilder.environment());
-            env.put("PGPASSWORD", config.getPassword());
-            processBuilder.environment().putAll(env);
-
-            processBuilder.redirectErrorStream(true);
-            Process process = processBuilder.start();
-
-            // Read output
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    log.debug("pg_dump output: {}", line);
-                }
+            if (config.getDumpEngine() == DumpEngine.PHYSICAL) {
+                throw new IllegalArgumentException("The PHYSICAL engine is only available for MySQL and MariaDB");
             }
 
-            int exitCode = process.waitFor();
+            if (config.isIncremental()) {
+                return incrementalBackup(config, backupFilePath, startTime);
+            }
+
+            if (config.getDumpEngine() == DumpEngine.PARALLEL_COPY) {
+                return parallelCopyBackup(config, backupFilePath.replaceFirst("\\.sql$", ".copy"), startTime);
+            }
+
+            int exitCode;
+            if (config.isIndexedArchive()) {
+                // Indexed archives are built from the per-table parts of the JDBC engine
+                String suffix = "_postgresql" + IndexedArchive.EXTENSION;
+                backupFilePath = backupFilePath.replaceFirst("\\.sql$", IndexedArchive.EXTENSION);
+                Path output = jdbcDumpEngine.resumeOrDefault(config, Path.of(backupFilePath), suffix);
+                backupFilePath = output.toString();
+                jdbcDumpEngine.dump(config, output);
+                exitCode = 0;
+            } else if (config.getDumpEngine() == DumpEngine.JDBC) {
+                Path output = jdbcDumpEngine.resumeOrDefault(config, Path.of(backupFilePath), "_postgresql.sql");
+                backupFilePath = output.toString();
+                jdbcDumpEngine.dump(config, output);
+                exitCode = 0;
+            } else {
+                exitCode = runPgDump(config, backupFilePath);
+            }
 
             if (exitCode != 0) {
                 return BackupResult.builder()
@@ -83,9 +100,9 @@ public class PostgreSQLBackupService implements BackupService {
                         .build();
             }
 
-            // Compress if requested
-            if (config.isCompress()) {
-                backupFilePath = compressionService.compressFile(backupFilePath);
+            // Compress if requested; the blocks of an indexed archive are compressed already
+            if (config.isCompress() && !config.isIndexedArchive()) {
+                backupFilePath = compressionService.compressFile(backupFilePath, config);
             }
 
             long fileSize = Files.size(Path.of(backupFilePath));
@@ -113,6 +130,110 @@ public class PostgreSQLBackupService implements BackupService {
         }
     }
 
+    private BackupResult incrementalBackup(BackupConfig config, String backupFilePath, long startTime)
+            throws IOException, SQLException {
+        // Chunks are hashed over JDBC, so incremental backups always use the JDBC engine
+        IncrementalDump dump = jdbcDumpEngine.dumpIncremental(config, Path.of(backupFilePath));
+        backupFilePath = dump.getOutput().toString();
+        if (config.isCompress()) {
+            backupFilePath = compressionService.compressFile(backupFilePath, config);
+        }
+        jdbcDumpEngine.commitIncremental(config, dump, backupFilePath);
+
+        long fileSize = Files.size(Path.of(backupFilePath));
+        log.info("PostgreSQL {} backup completed successfully: {}", dump.isFull() ? "full" : "incremental", backupFilePath);
+        String message = dump.isFull()
+                ? "PostgreSQL backup completed successfully (full backup starting a new incremental chain: " + dump.getReason() + ")"
+                : String.format("PostgreSQL incremental backup completed successfully (%d of %d chunks changed, %d rows)",
+                        dump.getChangedChunks(), dump.getChunks(), dump.getRows());
+
+        return BackupResult.builder()
+                .success(true)
+                .message(message)
+                .backupFilePath(backupFilePath)
+                .fileSizeBytes(fileSize)
+                .timestamp(LocalDateTime.now())
+                .durationMillis(System.currentTimeMillis() - startTime)
+                .build();
+    }
+
+    private BackupResult parallelCopyBackup(BackupConfig config, String exportDirectory, long startTime)
+            throws IOException, SQLException {
+        Path directory = parallelCopyEngine.resumeOrDefault(config, Path.of(exportDirectory), "_postgresql.copy");
+        long rows = parallelCopyEngine.export(config, directory);
+        // Chunks are already compressed, so the export is only packed into a single file
+        String backupFilePath = config.isIndexedArchive()
+                ? compressionService.archiveDirectoryIndexed(directory.toString(),
+                        PostgreSQLParallelCopyEngine.tablesByFile(directory), config)
+                : compressionService.archiveDirectory(directory.toString(), config);
+
+        long fileSize = Files.size(Path.of(backupFilePath));
+        log.info("PostgreSQL parallel COPY backup completed successfully: {}", backupFilePath);
+
+        return BackupResult.builder()
+                .success(true)
+                .message("PostgreSQL backup completed successfully (" + rows + " rows via parallel COPY)")
+                .backupFilePath(backupFilePath)
+                .fileSizeBytes(fileSize)
+                .timestamp(LocalDateTime.now())
+                .durationMillis(System.currentTimeMillis() - startTime)
+                .build();
+    }
+
+    private int runPgDump(BackupConfig config, String backupFilePath)
+            throws IOException, InterruptedException, SQLException {
+        // Build pg_dump command
+        List<String> command = new ArrayList<>(List.of(
+                "pg_dump",
+                "--host=" + config.getHost(),
+                "--port=" + config.getPort(),
+                "--username=" + config.getUsername(),
+                "--dbname=" + config.getDatabaseName(),
+                "--format=plain",
+                "--verbose"
+        ));
+        if (!TableFilter.of(config).isEmpty()) {
+            // Resolved here so that filters mean the same for every engine; quoted names are
+            // taken literally by pg_dump
+            List<TableInfo> tables = jdbcDumpEngine.listTables(config);
+            if (tables.isEmpty()) {
+                throw new IllegalArgumentException("No tables match the include/exclude filters");
+            }
+            for (TableInfo table : tables) {
+                command.add("--table=" + quote(table.getSchema()) + "." + quote(table.getName()));
+            }
+        }
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+
+        // Set PGPASSWORD environment variable
+        Map<String, String> env = new HashMap<>(processBuilder.environment());
+        env.put("PGPASSWORD", config.getPassword());
+        processBuilder.environment().putAll(env);
+
+        Process process = processBuilder.start();
+        Thread outputLogger = ProcessOutputLogger.start(process.getErrorStream(), "pg_dump");
+
+        // Stream the dump to the backup file in pooled buffers, through the read and write limits;
+        // the file is only committed once pg_dump has exited cleanly, and deleted otherwise
+        try (ReadableByteChannel in = Channels.newChannel(process.getInputStream());
+             DurableFile out = localWriteService.create(Path.of(backupFilePath), -1)) {
+            pipelineService.copy(in, out, ThrottleStage.DUMP_READ, config);
+            int exitCode = process.waitFor();
+            outputLogger.join();
+            if (exitCode == 0) {
+                out.commit();
+            }
+            return exitCode;
+        } catch (IOException | InterruptedException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+    }
+
+    private String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
     @Override
     public boolean supports(BackupConfig config) {
         return config.getDatabaseType() == DatabaseType.POSTGRESQL;
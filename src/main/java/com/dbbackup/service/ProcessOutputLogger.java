@@ -0,0 +1,42 @@
+package com.dbbackup.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Drains a process diagnostic stream on a background thread and logs it at debug level,
+ * leaving the standard output free to carry the dump data
+ */
+@Slf4j
+final class ProcessOutputLogger {
+
+    private ProcessOutputLogger() {
+    }
+
+    /**
+     * Starts logging the given stream
+     *
+     * @param stream   the process stream to drain
+     * @param toolName the tool name used as log prefix
+     * @return the started thread, to be joined once the process exits
+     */
+    static Thread start(InputStream stream, String toolName) {
+        Thread thread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    log.debug("{} output: {}", toolName, line);
+                }
+            } catch (IOException e) {
+                log.debug("{} output closed: {}", toolName, e.getMessage());
+            }
+        }, toolName + "-output");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,293 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.BackupPhase;
+import com.dbbackup.model.BackupProgress;
+import com.dbbackup.model.BackupResult;
+import com.dbbackup.model.BackupRun;
+import com.dbbackup.model.ThrottleStage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Tracks running backups and reports their progress. A sampler reads the bytes each job has
+ * moved through the throttle buckets, smooths them into per-stage rates and estimates the time
+ * left from the expected dump size (the previous run's, or an engine's catalog estimate).
+ * Subscribers receive a snapshot of every running job after each sample; finished runs are
+ * recorded in the backup catalog.
+ */
+@Service
+@Slf4j
+public class ProgressService {
+
+    /** Weight of the newest sample in the smoothed rate */
+    private static final double SMOOTHING = 0.3;
+
+    private final ThrottleService throttleService;
+    private final BackupCatalogService catalogService;
+    private final BackupProperties.Progress settings;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final List<Consumer<List<BackupProgress>>> subscribers = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService sampler;
+
+    public ProgressService(ThrottleService throttleService, BackupCatalogService catalogService,
+                           BackupProperties properties) {
+        this.throttleService = throttleService;
+        this.catalogService = catalogService;
+        this.settings = properties.getProgress();
+    }
+
+    @PostConstruct
+    public void start() {
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "progress-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(100, settings.getSampleInterval().toMillis());
+        sampler.scheduleAtFixedRate(this::sample, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts tracking a backup; must be called after the job is registered with the throttle
+     * service. Runs are told apart by their job id; a configuration without one is not tracked.
+     *
+     * @param config the backup configuration
+     */
+    public void begin(BackupConfig config) {
+        if (config.getJobId() == null) {
+            return;
+        }
+        Job job = new Job(config);
+        catalogService.lastSuccessful(config.getDatabaseName()).ifPresent(run -> {
+            job.expectedDumpBytes = run.getDumpBytes();
+            job.previousDuration = Duration.ofMillis(run.getDurationMillis());
+        });
+        jobs.put(config.getJobId(), job);
+    }
+
+    /**
+     * Moves a running backup to the next phase
+     *
+     * @param config the backup configuration
+     * @param phase  the phase now running
+     */
+    public void setPhase(BackupConfig config, BackupPhase phase) {
+        Job job = jobOf(config);
+        if (job != null) {
+            job.phase = phase;
+        }
+    }
+
+    /**
+     * Offers an estimate of the bytes the dump will read, e.g. from table statistics. The size
+     * of the previous run is preferred when there is one, since catalog sizes include indexes.
+     *
+     * @param config the backup configuration
+     * @param bytes  the estimated dump size
+     */
+    public void estimateDumpBytes(BackupConfig config, long bytes) {
+        Job job = jobOf(config);
+        if (job != null && job.expectedDumpBytes <= 0 && bytes > 0) {
+            job.expectedDumpBytes = bytes;
+        }
+    }
+
+    /**
+     * Stops tracking a backup and records the run in the catalog; must be called before the job
+     * is unregistered from the throttle service
+     *
+     * @param config the backup configuration
+     * @param result the result of the backup
+     */
+    public void finish(BackupConfig config, BackupResult result) {
+        Job job = config.getJobId() != null ? jobs.remove(config.getJobId()) : null;
+        if (job == null) {
+            return;
+        }
+        Map<ThrottleStage, Long> bytes = throttleService.jobBytes(config.getJobId());
+        BackupRun run = BackupRun.builder()
+                .databaseName(config.getDatabaseName())
+                .databaseType(config.getDatabaseType())
+                .startedAt(job.startedAt)
+                .durationMillis((System.nanoTime() - job.startNanos) / 1_000_000)
+                .success(result.isSuccess())
+                .dumpBytes(bytes.getOrDefault(ThrottleStage.DUMP_READ, 0L))
+                .writeBytes(bytes.getOrDefault(ThrottleStage.LOCAL_WRITE, 0L))
+                .uploadBytes(bytes.getOrDefault(ThrottleStage.UPLOAD, 0L))
+                .artifactPath(result.getBackupFilePath())
+                .artifactBytes(result.getFileSizeBytes())
+                .build();
+        try {
+            catalogService.record(run);
+        } catch (IOException e) {
+            log.warn("Failed to record backup run of {} in the catalog", config.getDatabaseName(), e);
+        }
+    }
+
+    /**
+     * Returns the progress of every running backup, longest running first
+     *
+     * @return the progress snapshots
+     */
+    public List<BackupProgress> snapshot() {
+        List<BackupProgress> snapshot = new ArrayList<>();
+        jobs.values().stream()
+                .sorted(Comparator.comparingLong(job -> job.startNanos))
+                .forEach(job -> snapshot.add(job.toProgress()));
+        return snapshot;
+    }
+
+    /**
+     * Registers a listener that receives the progress of all running backups after each sample.
+     * Listeners run on the sampler thread and must not block.
+     *
+     * @param listener the listener
+     * @return a handle that removes the listener when closed
+     */
+    public Subscription subscribe(Consumer<List<BackupProgress>> listener) {
+        subscribers.add(listener);
+        return () -> subscribers.remove(listener);
+    }
+
+    private Job jobOf(BackupConfig config) {
+        return config.getJobId() != null ? jobs.get(config.getJobId()) : null;
+    }
+
+    private void sample() {
+        try {
+            if (jobs.isEmpty()) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Job job : jobs.values()) {
+                job.update(throttleService.jobBytes(job.config.getJobId()), now);
+            }
+            List<BackupProgress> snapshot = snapshot();
+            for (Consumer<List<BackupProgress>> subscriber : subscribers) {
+                try {
+                    subscriber.accept(snapshot);
+                } catch (RuntimeException e) {
+                    log.debug("Progress listener failed", e);
+                }
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic task
+            log.warn("Failed to sample backup progress", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+        }
+    }
+
+    /**
+     * Handle of a progress listener
+     */
+    @FunctionalInterface
+    public interface Subscription extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Sampling state of one running backup; written by the sampler thread only, apart from
+     * the phase and estimate set by the backup thread
+     */
+    private class Job {
+        private final BackupConfig config;
+        private final Instant startedAt = Instant.now();
+        private final long startNanos = System.nanoTime();
+        private final Map<ThrottleStage, Long> bytes = new EnumMap<>(ThrottleStage.class);
+        private final Map<ThrottleStage, Double> rates = new EnumMap<>(ThrottleStage.class);
+        private volatile BackupPhase phase = BackupPhase.DUMP;
+        private volatile long expectedDumpBytes;
+        private volatile Duration previousDuration;
+        private long lastSampleNanos = startNanos;
+        private long lastChangeNanos = startNanos;
+        private volatile BackupProgress progress;
+
+        Job(BackupConfig config) {
+            this.config = config;
+            this.progress = toProgress(System.nanoTime());
+        }
+
+        void update(Map<ThrottleStage, Long> current, long now) {
+            double seconds = (now - lastSampleNanos) / 1e9;
+            if (seconds <= 0) {
+                return;
+            }
+            for (ThrottleStage stage : ThrottleStage.values()) {
+                long total = current.getOrDefault(stage, 0L);
+                long delta = total - bytes.getOrDefault(stage, 0L);
+                if (delta > 0) {
+                    lastChangeNanos = now;
+                }
+                double rate = delta / seconds;
+                Double previous = rates.get(stage);
+                rates.put(stage, previous == null ? rate : SMOOTHING * rate + (1 - SMOOTHING) * previous);
+                bytes.put(stage, total);
+            }
+            lastSampleNanos = now;
+            progress = toProgress(now);
+        }
+
+        BackupProgress toProgress() {
+            return progress;
+        }
+
+        private BackupProgress toProgress(long now) {
+            Duration elapsed = Duration.ofNanos(now - startNanos);
+            Map<ThrottleStage, Long> rounded = new EnumMap<>(ThrottleStage.class);
+            rates.forEach((stage, rate) -> rounded.put(stage, Math.round(rate)));
+            return BackupProgress.builder()
+                    .databaseName(config.getDatabaseName())
+                    .jobId(config.getJobId())
+                    .databaseType(config.getDatabaseType())
+                    .phase(phase)
+                    .startedAt(startedAt)
+                    .elapsed(elapsed)
+                    .bytes(new EnumMap<>(bytes))
+                    .rates(rounded)
+                    .expectedDumpBytes(expectedDumpBytes)
+                    .eta(eta(elapsed))
+                    .stalled(now - lastChangeNanos > settings.getStallTimeout().toNanos())
+                    .build();
+        }
+
+        private Duration eta(Duration elapsed) {
+            double rate = rates.getOrDefault(ThrottleStage.DUMP_READ, 0.0);
+            long remaining = expectedDumpBytes - bytes.getOrDefault(ThrottleStage.DUMP_READ, 0L);
+            if (phase == BackupPhase.DUMP && expectedDumpBytes > 0 && rate >= 1) {
+                return Duration.ofSeconds((long) (Math.max(0, remaining) / rate));
+            }
+            // No live rate to go on: assume the run takes as long as the previous one
+            if (previousDuration != null) {
+                Duration left = previousDuration.minus(elapsed);
+                return left.isNegative() ? Duration.ZERO : left;
+            }
+            return null;
+        }
+    }
+}
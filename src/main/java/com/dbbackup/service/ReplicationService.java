@@ -0,0 +1,719 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.io.IndexedArchive;
+import com.dbbackup.model.BackupDestination;
+import com.dbbackup.model.BackupRun;
+import com.dbbackup.model.ReplicationResult;
+import com.dbbackup.model.StorageType;
+import com.dbbackup.model.ThrottleStage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Copies the backups recorded in the catalog, with their metadata files, from one destination
+ * to another: from the local backups to S3, from one bucket to another for disaster recovery,
+ * or back to the local paths. Between two S3 buckets of one account the storage service copies
+ * the data itself; otherwise large objects are streamed through this host in ranges, several
+ * at once. Streamed copies carry the SHA-256 of their content, and objects already present at
+ * the target with the same checksum are skipped, so repeated runs only copy new backups. Copies
+ * the storage service makes itself are never read here: they carry the ETag of their source,
+ * and are up to date while it still matches.
+ */
+@Service
+@Slf4j
+public class ReplicationService {
+
+    /** Source or target name for the local backups recorded in the catalog */
+    public static final String LOCAL = "local";
+
+    /** User metadata key holding the SHA-256 of an object */
+    private static final String SHA256 = "sha256";
+    /** User metadata key holding the ETag of the object a server-side copy was made from */
+    private static final String SOURCE_ETAG = "source-etag";
+    private static final long MAX_COPY_OBJECT = 5L * 1024 * 1024 * 1024;
+    private static final long MIN_PART = 5L * 1024 * 1024;
+    private static final int MAX_PARTS = 10_000;
+    private static final String CHECKSUMS_FILE = "replication.checksums";
+
+    private final BackupCatalogService catalogService;
+    private final BackupMetadataService metadataService;
+    private final ThrottleService throttleService;
+    private final BackupProperties properties;
+    private final Path checksumsFile;
+
+    public ReplicationService(BackupCatalogService catalogService, BackupMetadataService metadataService,
+                              ThrottleService throttleService, BackupProperties properties) {
+        this.catalogService = catalogService;
+        this.metadataService = metadataService;
+        this.throttleService = throttleService;
+        this.properties = properties;
+        this.checksumsFile = Path.of(properties.getCatalog().getDirectory()).resolve(CHECKSUMS_FILE);
+    }
+
+    /**
+     * Copies the successful backups in the catalog, and their metadata files, that the target
+     * does not hold yet
+     *
+     * @param databaseName the database whose backups to copy, or null for every database in the catalog
+     * @param from         {@value #LOCAL} or the name of a destination under {@code backup.destinations}
+     * @param to           {@value #LOCAL} or the name of a destination under {@code backup.destinations}
+     * @param dryRun       only report what would be copied
+     * @return what was copied, skipped and missing
+     * @throws IOException              if the catalog cannot be read
+     * @throws IllegalArgumentException if a destination is unknown or cannot be replicated
+     */
+    public ReplicationResult replicate(String databaseName, String from, String to, boolean dryRun) throws IOException {
+        if (from.equals(to)) {
+            throw new IllegalArgumentException("Source and target are the same");
+        }
+        long startTime = System.currentTimeMillis();
+        Map<String, Path> localPaths = catalogEntries(databaseName);
+        Checksums checksums = new Checksums(checksumsFile);
+        BackupProperties.Replication settings = properties.getReplication();
+        int threads = Math.max(1, settings.getThreads());
+
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService objects = Executors.newFixedThreadPool(threads, runnable -> daemon(runnable, "replicate-" + counter.incrementAndGet()));
+        ExecutorService parts = Executors.newFixedThreadPool(threads, runnable -> daemon(runnable, "replicate-part-" + counter.incrementAndGet()));
+        Progress progress = new Progress();
+        try (Store source = store(from, localPaths, checksums, parts);
+             Store target = store(to, localPaths, checksums, parts)) {
+            log.info("Replicating {} objects from {} to {}{}", localPaths.size(), from, to, dryRun ? " (dry run)" : "");
+            List<Future<?>> futures = new ArrayList<>();
+            for (String name : localPaths.keySet()) {
+                futures.add(objects.submit(() -> replicate(name, source, target, dryRun, progress)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Replication interrupted");
+                } catch (ExecutionException e) {
+                    // replicate() records every failure, so this would be a bug
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            objects.shutdownNow();
+            parts.shutdownNow();
+            checksums.save();
+        }
+
+        ReplicationResult result = progress.result(localPaths.size(), System.currentTimeMillis() - startTime);
+        log.info("Replication from {} to {} finished: {} streamed, {} copied server-side, {} skipped, {} missing, {} failed",
+                from, to, result.getStreamed(), result.getCopiedServerSide(), result.getSkipped(),
+                result.getMissing(), result.getFailed());
+        return result;
+    }
+
+    private void replicate(String name, Store source, Store target, boolean dryRun, Progress progress) {
+        try {
+            ObjectInfo info = source.stat(name);
+            if (info == null) {
+                // Backups without a metadata file are normal
+                if (!name.endsWith(BackupMetadataService.SUFFIX)) {
+                    log.info("{} not found, skipped", source.describe(name));
+                    progress.missing.incrementAndGet();
+                } else {
+                    progress.absentMetadata.incrementAndGet();
+                }
+                return;
+            }
+            boolean serverSide = target.copiesServerSide(source);
+            ObjectInfo existing = target.stat(name);
+            if (existing != null && existing.size == info.size
+                    && (serverSide ? sameSource(info, existing) : sameChecksum(source, target, name, info, existing))) {
+                log.debug("{} is up to date", target.describe(name));
+                progress.skipped.incrementAndGet();
+                return;
+            }
+            if (dryRun) {
+                log.info("Would copy {} to {} ({} bytes)", source.describe(name), target.describe(name), info.size);
+                progress.streamed.incrementAndGet();
+                return;
+            }
+            if (!serverSide) {
+                checksum(source, name, info);
+            }
+            long start = System.currentTimeMillis();
+            target.write(name, info, source);
+            log.info("Copied {} to {}{} ({} bytes in {} ms)", source.describe(name), target.describe(name),
+                    serverSide ? " server-side" : "", info.size, System.currentTimeMillis() - start);
+            if (serverSide) {
+                progress.copiedServerSide.incrementAndGet();
+                progress.bytesCopiedServerSide.addAndGet(info.size);
+            } else {
+                progress.streamed.incrementAndGet();
+                progress.bytesStreamed.addAndGet(info.size);
+            }
+        } catch (Exception e) {
+            log.error("Failed to replicate {}", name, e);
+            progress.failed.incrementAndGet();
+            progress.errors.add(name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Whether a target object is a copy of a source object, judged without reading either: by
+     * the ETag, which a plain copy keeps, by the source ETag recorded on a server-side copy, or
+     * by the checksums both carry
+     */
+    private static boolean sameSource(ObjectInfo source, ObjectInfo target) {
+        if (source.etag != null && (source.etag.equals(target.etag) || source.etag.equals(target.sourceEtag))) {
+            return true;
+        }
+        return source.sha256 != null && source.sha256.equals(target.sha256);
+    }
+
+    private boolean sameChecksum(Store source, Store target, String name, ObjectInfo info, ObjectInfo existing)
+            throws IOException {
+        String targetSum = target.checksum(name, existing);
+        return targetSum != null && targetSum.equals(checksum(source, name, info));
+    }
+
+    /**
+     * Returns the checksum of a source object, reading the object when the store does not know it
+     */
+    private String checksum(Store source, String name, ObjectInfo info) throws IOException {
+        if (info.sha256 == null) {
+            info.sha256 = source.checksum(name, info);
+        }
+        if (info.sha256 == null) {
+            try (InputStream in = source.open(name, 0, info.size)) {
+                info.sha256 = sha256(in);
+            }
+        }
+        return info.sha256;
+    }
+
+    /**
+     * Maps the file names of the successful backups in the catalog, and of their metadata
+     * files, to their local paths
+     */
+    private Map<String, Path> catalogEntries(String databaseName) throws IOException {
+        List<String> databases = databaseName != null ? List.of(databaseName) : catalogService.databases();
+        Map<String, Path> entries = new LinkedHashMap<>();
+        for (String database : databases) {
+            for (BackupRun run : catalogService.history(database)) {
+                if (!run.isSuccess() || run.getArtifactPath() == null) {
+                    continue;
+                }
+                Path artifact = Path.of(run.getArtifactPath());
+                Path previous = entries.put(artifact.getFileName().toString(), artifact);
+                if (previous != null && !previous.equals(artifact)) {
+                    log.warn("{} and {} share a name; only the first is replicated", previous, artifact);
+                    entries.put(artifact.getFileName().toString(), previous);
+                    continue;
+                }
+                entries.put(artifact.getFileName() + BackupMetadataService.SUFFIX,
+                        metadataService.metadataPath(artifact.toString()));
+            }
+        }
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException(databaseName != null
+                    ? "No successful backups of " + databaseName + " in the catalog"
+                    : "No successful backups in the catalog");
+        }
+        return entries;
+    }
+
+    private Store store(String name, Map<String, Path> localPaths, Checksums checksums, ExecutorService parts) {
+        if (LOCAL.equals(name)) {
+            return new LocalStore(localPaths::get, checksums, parts);
+        }
+        BackupDestination destination = properties.getDestinations().get(name);
+        if (destination == null) {
+            throw new IllegalArgumentException("Unknown destination '" + name + "'; define it under backup.destinations");
+        }
+        if (destination.getStorageType() == StorageType.LOCAL) {
+            if (destination.getBackupPath() == null) {
+                throw new IllegalArgumentException("Destination '" + name + "' needs a backup-path");
+            }
+            Path directory = Path.of(destination.getBackupPath());
+            return new LocalStore(directory::resolve, checksums, parts);
+        }
+        if (destination.getStorageType() == StorageType.AWS_S3) {
+            return new S3Store(destination, parts);
+        }
+        throw new IllegalArgumentException("Destination '" + name + "' is " + destination.getStorageType()
+                + "; backups can be replicated between LOCAL and AWS_S3 destinations");
+    }
+
+    private long partSize(long size) {
+        long configured = Math.max(MIN_PART, properties.getReplication().getPartSize().toBytes());
+        return Math.max(configured, (size + MAX_PARTS - 1) / MAX_PARTS);
+    }
+
+    private InputStream throttled(InputStream in) {
+        // Only the global limit: replication runs outside of any backup job
+        return throttleService.throttle(in, ThrottleStage.UPLOAD, null);
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static String sha256(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[65536];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            digest.update(buffer, 0, n);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Runs the parts of one object at once and waits for all of them; the first failure cancels the rest
+     */
+    private static <T> List<T> runParts(ExecutorService executor, List<Callable<T>> parts) throws IOException {
+        List<Future<T>> futures = new ArrayList<>();
+        for (Callable<T> part : parts) {
+            futures.add(executor.submit(part));
+        }
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Replication interrupted");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private static final class ObjectInfo {
+        private final long size;
+        private volatile String sha256;
+        /** ETag of an S3 object, else null */
+        private final String etag;
+        /** ETag of the object an S3 object was copied from server-side, else null */
+        private final String sourceEtag;
+
+        ObjectInfo(long size, String sha256) {
+            this(size, sha256, null, null);
+        }
+
+        ObjectInfo(long size, String sha256, String etag, String sourceEtag) {
+            this.size = size;
+            this.sha256 = sha256;
+            this.etag = etag;
+            this.sourceEtag = sourceEtag;
+        }
+    }
+
+    private static final class Progress {
+        private final AtomicInteger streamed = new AtomicInteger();
+        private final AtomicInteger copiedServerSide = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger missing = new AtomicInteger();
+        private final AtomicInteger absentMetadata = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicLong bytesStreamed = new AtomicLong();
+        private final AtomicLong bytesCopiedServerSide = new AtomicLong();
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+        ReplicationResult result(int entries, long durationMillis) {
+            return ReplicationResult.builder()
+                    .objects(entries - absentMetadata.get())
+                    .streamed(streamed.get())
+                    .copiedServerSide(copiedServerSide.get())
+                    .skipped(skipped.get())
+                    .missing(missing.get())
+                    .failed(failed.get())
+                    .bytesStreamed(bytesStreamed.get())
+                    .bytesCopiedServerSide(bytesCopiedServerSide.get())
+                    .durationMillis(durationMillis)
+                    .errors(new ArrayList<>(errors))
+                    .build();
+        }
+    }
+
+    /**
+     * Checksums of local files, kept in the catalog directory so that files unchanged since
+     * the last run, by size and modification time, are not read again
+     */
+    private static final class Checksums {
+        private final Path file;
+        private final Properties entries = new Properties();
+        private boolean changed;
+
+        Checksums(Path file) throws IOException {
+            this.file = file;
+            if (Files.exists(file)) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    entries.load(in);
+                }
+            }
+        }
+
+        synchronized String get(Path path, long size, long modified) {
+            String entry = entries.getProperty(path.toAbsolutePath().normalize().toString());
+            String prefix = size + "," + modified + ",";
+            return entry != null && entry.startsWith(prefix) ? entry.substring(prefix.length()) : null;
+        }
+
+        synchronized void put(Path path, long size, long modified, String sha256) {
+            entries.setProperty(path.toAbsolutePath().normalize().toString(), size + "," + modified + "," + sha256);
+            changed = true;
+        }
+
+        synchronized void save() throws IOException {
+            if (!changed) {
+                return;
+            }
+            Files.createDirectories(file.getParent());
+            Path temp = Path.of(file + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                entries.store(out, "SHA-256 of replicated local files");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * One end of a replication
+     */
+    private interface Store extends Closeable {
+
+        String describe(String name);
+
+        /**
+         * @return the size and, if the store keeps it, the checksum of an object; null if absent
+         */
+        ObjectInfo stat(String name) throws IOException;
+
+        /**
+         * @return the SHA-256 of an object if the store has or can compute it without a download, else null
+         */
+        String checksum(String name, ObjectInfo info) throws IOException;
+
+        InputStream open(String name, long offset, long length) throws IOException;
+
+        /**
+         * @return true if the storage service copies objects from the source itself, so that
+         * they are neither read nor hashed here
+         */
+        default boolean copiesServerSide(Store source) {
+            return false;
+        }
+
+        /**
+         * Writes an object from a source, whose checksum is known by now unless the storage
+         * service copies it
+         */
+        void write(String name, ObjectInfo info, Store source) throws IOException;
+
+        @Override
+        default void close() {
+        }
+    }
+
+    private final class LocalStore implements Store {
+        private final Function<String, Path> paths;
+        private final Checksums checksums;
+        private final ExecutorService parts;
+
+        LocalStore(Function<String, Path> paths, Checksums checksums, ExecutorService parts) {
+            this.paths = paths;
+            this.checksums = checksums;
+            this.parts = parts;
+        }
+
+        @Override
+        public String describe(String name) {
+            return String.valueOf(paths.apply(name));
+        }
+
+        @Override
+        public ObjectInfo stat(String name) throws IOException {
+            Path path = paths.apply(name);
+            return path != null && Files.isRegularFile(path) ? new ObjectInfo(Files.size(path), null) : null;
+        }
+
+        @Override
+        public String checksum(String name, ObjectInfo info) throws IOException {
+            Path path = paths.apply(name);
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            String sha256 = checksums.get(path, info.size, modified);
+            if (sha256 == null) {
+                try (InputStream in = Files.newInputStream(path)) {
+                    sha256 = sha256(in);
+                }
+                checksums.put(path, info.size, modified, sha256);
+            }
+            return sha256;
+        }
+
+        @Override
+        public InputStream open(String name, long offset, long length) throws IOException {
+            return IndexedArchive.localFile(paths.apply(name)).open(offset, length);
+        }
+
+        @Override
+        public void write(String name, ObjectInfo info, Store source) throws IOException {
+            Path target = paths.apply(name);
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            Path partial = Path.of(target + ".part");
+            long partSize = partSize(info.size);
+            try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                List<Callable<Void>> ranges = new ArrayList<>();
+                for (long offset = 0; offset < info.size; offset += partSize) {
+                    long start = offset;
+                    long length = Math.min(partSize, info.size - offset);
+                    ranges.add(() -> {
+                        try (InputStream in = throttled(source.open(name, start, length))) {
+                            byte[] buffer = new byte[65536];
+                            long position = start;
+                            int n;
+                            while ((n = in.read(buffer)) > 0) {
+                                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+                                while (bytes.hasRemaining()) {
+                                    position += channel.write(bytes, position);
+                                }
+                            }
+                            if (position != start + length) {
+                                throw new IOException("Short read of " + source.describe(name) + " at " + position);
+                            }
+                        }
+                        return null;
+                    });
+                }
+                runParts(parts, ranges);
+                channel.force(true);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(partial);
+                throw e;
+            }
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checksums.put(target, info.size, Files.getLastModifiedTime(target).toMillis(), info.sha256);
+        }
+    }
+
+    private final class S3Store implements Store {
+        private final BackupDestination destination;
+        private final S3Client client;
+        private final ExecutorService parts;
+
+        S3Store(BackupDestination destination, ExecutorService parts) {
+            this.destination = destination;
+            this.parts = parts;
+            S3ClientBuilder builder = S3Client.builder()
+                    .region(Region.of(destination.getCloudRegion() != null ? destination.getCloudRegion() : "us-east-1"))
+                    .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(
+                            destination.getCloudAccessKey(), destination.getCloudSecretKey())));
+            if (destination.getCloudEndpoint() != null) {
+                builder.endpointOverride(URI.create(destination.getCloudEndpoint())).forcePathStyle(true);
+            }
+            this.client = builder.build();
+        }
+
+        private String bucket() {
+            return destination.getCloudBucket();
+        }
+
+        /**
+         * Whether this store can read the other's objects with its own credentials
+         */
+        private boolean sameAccount(S3Store other) {
+            return Objects.equals(destination.getCloudEndpoint(), other.destination.getCloudEndpoint())
+                    && Objects.equals(destination.getCloudAccessKey(), other.destination.getCloudAccessKey());
+        }
+
+        @Override
+        public String describe(String name) {
+            return "s3://" + bucket() + "/" + name;
+        }
+
+        @Override
+        public ObjectInfo stat(String name) {
+            try {
+                HeadObjectResponse head = client.headObject(request -> request.bucket(bucket()).key(name));
+                return new ObjectInfo(head.contentLength(), head.metadata().get(SHA256), head.eTag(),
+                        head.metadata().get(SOURCE_ETAG));
+            } catch (S3Exception e) {
+                if (e.statusCode() == 404) {
+                    return null;
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public String checksum(String name, ObjectInfo info) {
+            return info.sha256;
+        }
+
+        @Override
+        public InputStream open(String name, long offset, long length) {
+            if (length == 0) {
+                return InputStream.nullInputStream();
+            }
+            return client.getObject(GetObjectRequest.builder()
+                    .bucket(bucket())
+                    .key(name)
+                    .range("bytes=" + offset + "-" + (offset + length - 1))
+                    .build());
+        }
+
+        @Override
+        public boolean copiesServerSide(Store source) {
+            return source instanceof S3Store other && sameAccount(other);
+        }
+
+        @Override
+        public void write(String name, ObjectInfo info, Store source) throws IOException {
+            Map<String, String> metadata = new HashMap<>();
+            if (info.sha256 != null) {
+                metadata.put(SHA256, info.sha256);
+            }
+            if (copiesServerSide(source)) {
+                if (info.etag != null) {
+                    metadata.put(SOURCE_ETAG, info.etag);
+                }
+                copyServerSide(name, info, (S3Store) source, metadata);
+                return;
+            }
+            long partSize = partSize(info.size);
+            if (info.size <= partSize) {
+                try (InputStream in = throttled(source.open(name, 0, info.size))) {
+                    client.putObject(request -> request.bucket(bucket()).key(name).metadata(metadata),
+                            RequestBody.fromInputStream(in, info.size));
+                }
+                return;
+            }
+            multipart(name, metadata, info.size, partSize, (partNumber, start, length, uploadId) -> {
+                try (InputStream in = throttled(source.open(name, start, length))) {
+                    return client.uploadPart(request -> request.bucket(bucket()).key(name)
+                                    .uploadId(uploadId).partNumber(partNumber).contentLength(length),
+                            RequestBody.fromInputStream(in, length)).eTag();
+                }
+            });
+        }
+
+        private void copyServerSide(String name, ObjectInfo info, S3Store source, Map<String, String> metadata)
+                throws IOException {
+            if (info.size <= MAX_COPY_OBJECT) {
+                client.copyObject(request -> request
+                        .sourceBucket(source.bucket()).sourceKey(name)
+                        .destinationBucket(bucket()).destinationKey(name)
+                        .metadataDirective(MetadataDirective.REPLACE)
+                        .metadata(metadata));
+                return;
+            }
+            multipart(name, metadata, info.size, partSize(info.size), (partNumber, start, length, uploadId) ->
+                    client.uploadPartCopy(request -> request
+                            .sourceBucket(source.bucket()).sourceKey(name)
+                            .destinationBucket(bucket()).destinationKey(name)
+                            .uploadId(uploadId).partNumber(partNumber)
+                            .copySourceRange("bytes=" + start + "-" + (start + length - 1)))
+                            .copyPartResult().eTag());
+        }
+
+        /**
+         * Uploads an object in parts, several at once, and aborts the upload if a part fails
+         */
+        private void multipart(String name, Map<String, String> metadata, long size, long partSize, Part part)
+                throws IOException {
+            String uploadId = client.createMultipartUpload(request -> request.bucket(bucket()).key(name).metadata(metadata))
+                    .uploadId();
+            try {
+                List<Callable<CompletedPart>> uploads = new ArrayList<>();
+                int partNumber = 1;
+                for (long offset = 0; offset < size; offset += partSize, partNumber++) {
+                    int number = partNumber;
+                    long start = offset;
+                    long length = Math.min(partSize, size - offset);
+                    uploads.add(() -> CompletedPart.builder()
+                            .partNumber(number)
+                            .eTag(part.copy(number, start, length, uploadId))
+                            .build());
+                }
+                List<CompletedPart> completed = runParts(parts, uploads);
+                client.completeMultipartUpload(request -> request.bucket(bucket()).key(name).uploadId(uploadId)
+                        .multipartUpload(upload -> upload.parts(completed)));
+            } catch (IOException | RuntimeException e) {
+                try {
+                    client.abortMultipartUpload(request -> request.bucket(bucket()).key(name).uploadId(uploadId));
+                } catch (RuntimeException abortFailure) {
+                    e.addSuppressed(abortFailure);
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            client.close();
+        }
+    }
+
+    /**
+     * Copies one part of a multipart upload
+     */
+    @FunctionalInterface
+    private interface Part {
+        String copy(int partNumber, long start, long length, String uploadId) throws IOException;
+    }
+}
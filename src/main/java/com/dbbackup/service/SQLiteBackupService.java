@@ -3,19 +3,25 @@ package com.dbbackup.service;
 import com.dbbackup.model.BackupConfig;
 import com.dbbackup.model.BackupResult;
 import com.dbbackup.model.DatabaseType;
+import com.dbbackup.model.ThrottleStage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.sqlite.SQLiteConnection;
 
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
 /**
- * SQLite database backup service using file copy
+ * SQLite database backup service: takes a consistent snapshot with SQLite's online backup API,
+ * which includes the rows committed to the write-ahead log but not yet checkpointed, then
+ * copies the snapshot into place
  */
 @Service
 @Slf4j
@@ -23,6 +29,7 @@ import java.time.format.DateTimeFormatter;
 public class SQLiteBackupService implements BackupService {
 
     private final CompressionService compressionService;
+    private final LocalWriteService localWriteService;
 
     @Override
     public BackupResult backup(BackupConfig config) {
@@ -47,18 +54,24 @@ public class SQLiteBackupService implements BackupService {
                         .build();
             }
 
-            // Generate backup filename with timestamp
+            // Generate backup filename with timestamp; the whole file name, so that app.db and app.sqlite do not clash
             String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            String backupFileName = String.format("%s_%s_sqlite.db", 
-                    sourceFile.getName().replaceFirst("[.][^.]+$", ""), timestamp);
+            String backupFileName = String.format("%s_%s_sqlite.db", sourceFile.getName(), timestamp);
             String backupFilePath = config.getBackupPath() + File.separator + backupFileName;
 
-            // Copy the SQLite database file
-            Files.copy(sourceFile.toPath(), Path.of(backupFilePath), StandardCopyOption.REPLACE_EXISTING);
+            // A plain copy of the file would miss the WAL and could catch a write half done
+            Path snapshot = Files.createTempFile(backupDir.toPath(), "." + backupFileName, ".snapshot");
+            try {
+                snapshot(sourceFile.toPath(), snapshot);
+                // Copied inside the kernel, through the local write limit
+                localWriteService.copy(snapshot, Path.of(backupFilePath), null, config);
+            } finally {
+                Files.deleteIfExists(snapshot);
+            }
 
             // Compress if requested
             if (config.isCompress()) {
-                backupFilePath = compressionService.compressFile(backupFilePath);
+                backupFilePath = compressionService.compressFile(backupFilePath, config);
             }
 
             long fileSize = Files.size(Path.of(backupFilePath));
@@ -86,6 +99,18 @@ public class SQLiteBackupService implements BackupService {
         }
     }
 
+    /**
+     * Copies every page of a database as of one read transaction, including those still in its WAL
+     */
+    private static void snapshot(Path source, Path target) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + source)) {
+            int result = connection.unwrap(SQLiteConnection.class).getDatabase().backup("main", target.toString(), null);
+            if (result != 0) {
+                throw new SQLException("SQLite backup of " + source + " failed with code " + result);
+            }
+        }
+    }
+
     @Override
     public boolean supports(BackupConfig config) {
         return config.getDatabaseType() == DatabaseType.SQLITE;
@@ -0,0 +1,339 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.BackupResult;
+import com.dbbackup.model.DatabaseType;
+import com.dbbackup.model.SweepResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Backs up every changed SQLite database of a directory tree, e.g. one database per user.
+ * Directories are listed and database headers read by a pool of scan threads. A database is
+ * unchanged when its size, modification time, the change counter in its header and the size
+ * and modification time of its write-ahead log all match the last successful backup, as kept
+ * in a scan cache in the catalog directory. Changed databases are backed up while the scan
+ * goes on, a bounded number at once, into the same relative directories under the backup path.
+ */
+@Service
+@Slf4j
+public class SQLiteSweepService {
+
+    private static final byte[] MAGIC = "SQLite format 3\0".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = 100;
+    /** File change counter, incremented by every transaction outside WAL mode */
+    private static final int CHANGE_COUNTER_OFFSET = 24;
+    private static final String CACHE_FILE = "sqlite-sweep.cache";
+
+    private final BackupOrchestrator backupOrchestrator;
+    private final BackupProperties properties;
+    private final Path cacheFile;
+
+    public SQLiteSweepService(BackupOrchestrator backupOrchestrator, BackupProperties properties) {
+        this.backupOrchestrator = backupOrchestrator;
+        this.properties = properties;
+        this.cacheFile = Path.of(properties.getCatalog().getDirectory()).resolve(CACHE_FILE);
+    }
+
+    /**
+     * Backs up the SQLite databases under a directory that changed since the last sweep
+     *
+     * @param root     the directory tree to sweep
+     * @param template settings of every backup; database type, name and backup path are set per database
+     * @param dryRun   only count the databases that would be backed up
+     * @return what was backed up, unchanged and failed
+     * @throws IOException              if the scan cache cannot be read or written
+     * @throws IllegalArgumentException if the root is not a directory
+     */
+    public SweepResult sweep(Path root, BackupConfig template, boolean dryRun) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("Not a directory: " + root);
+        }
+        long startTime = System.currentTimeMillis();
+        BackupProperties.SqliteSweep settings = properties.getSqliteSweep();
+        AtomicInteger counter = new AtomicInteger();
+        ForkJoinPool scanners = new ForkJoinPool(Math.max(1, settings.getScanThreads()));
+        ExecutorService backups = Executors.newFixedThreadPool(Math.max(1, settings.getBackupThreads()), runnable -> {
+            Thread thread = new Thread(runnable, "sqlite-sweep-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Sweep sweep = new Sweep(root.toAbsolutePath().normalize(), template, dryRun, new ScanCache(cacheFile),
+                settings.getInclude().stream()
+                        .map(glob -> FileSystems.getDefault().getPathMatcher("glob:" + glob))
+                        .toList(), backups);
+        log.info("Sweeping SQLite databases under {}{}", sweep.root, dryRun ? " (dry run)" : "");
+        try {
+            scanners.invoke(sweep.new DirectoryScan(sweep.root));
+            // Every backup is submitted by now
+            for (Future<?> future : sweep.pending) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Sweep interrupted");
+                } catch (ExecutionException e) {
+                    // backup() records every failure, so this would be a bug
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            scanners.shutdownNow();
+            backups.shutdownNow();
+            if (!dryRun) {
+                sweep.cache.retain(sweep.root, sweep.seen);
+                sweep.cache.save();
+            }
+        }
+
+        SweepResult result = SweepResult.builder()
+                .scanned(sweep.scanned.get())
+                .unchanged(sweep.unchanged.get())
+                .backedUp(sweep.backedUp.get())
+                .ignored(sweep.ignored.get())
+                .failed(sweep.errors.size())
+                .bytesWritten(sweep.bytesWritten.get())
+                .durationMillis(System.currentTimeMillis() - startTime)
+                .errors(new ArrayList<>(sweep.errors))
+                .build();
+        log.info("Sweep of {} finished: {} scanned, {} backed up, {} unchanged, {} ignored, {} failed",
+                sweep.root, result.getScanned(), result.getBackedUp(), result.getUnchanged(),
+                result.getIgnored(), result.getFailed());
+        return result;
+    }
+
+    /**
+     * @return size, modification time and change counter of a database and its write-ahead log,
+     * or null if the file is not a SQLite database
+     */
+    private static String signature(Path file, BasicFileAttributes attributes) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(file)) {
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the whole header
+            }
+        }
+        if (header.position() < HEADER_SIZE
+                || !ByteBuffer.wrap(MAGIC).equals(header.flip().slice(0, MAGIC.length))) {
+            return null;
+        }
+        StringBuilder signature = new StringBuilder()
+                .append(attributes.size()).append(',')
+                .append(attributes.lastModifiedTime().toMillis()).append(',')
+                .append(Integer.toUnsignedString(header.getInt(CHANGE_COUNTER_OFFSET)));
+        // In WAL mode, committed transactions live in the log until a checkpoint
+        Path wal = file.resolveSibling(file.getFileName() + "-wal");
+        try {
+            BasicFileAttributes walAttributes = Files.readAttributes(wal, BasicFileAttributes.class);
+            signature.append(',').append(walAttributes.size())
+                    .append(',').append(walAttributes.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException e) {
+            // not in WAL mode, or checkpointed and closed
+        }
+        return signature.toString();
+    }
+
+    /**
+     * State of one sweep, shared by its scan and backup threads
+     */
+    private final class Sweep {
+        private final Path root;
+        private final BackupConfig template;
+        private final boolean dryRun;
+        private final ScanCache cache;
+        private final List<PathMatcher> include;
+        private final Path backupRoot;
+        private final Set<String> seen = ConcurrentHashMap.newKeySet();
+        private final Queue<Future<?>> pending = new ConcurrentLinkedQueue<>();
+        private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger scanned = new AtomicInteger();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private final AtomicInteger backedUp = new AtomicInteger();
+        private final AtomicInteger ignored = new AtomicInteger();
+        private final AtomicLong bytesWritten = new AtomicLong();
+        private final ExecutorService backups;
+
+        Sweep(Path root, BackupConfig template, boolean dryRun, ScanCache cache, List<PathMatcher> include,
+              ExecutorService backups) {
+            this.root = root;
+            this.template = template;
+            this.dryRun = dryRun;
+            this.cache = cache;
+            this.include = include;
+            this.backups = backups;
+            this.backupRoot = Path.of(template.getBackupPath()).toAbsolutePath().normalize();
+        }
+
+        private void inspect(Path file, BasicFileAttributes attributes) {
+            Path name = file.getFileName();
+            if (include.stream().noneMatch(matcher -> matcher.matches(name))) {
+                return;
+            }
+            scanned.incrementAndGet();
+            String key = file.toString();
+            seen.add(key);
+            String signature;
+            try {
+                signature = signature(file, attributes);
+            } catch (IOException e) {
+                fail(file, e.getMessage());
+                return;
+            }
+            if (signature == null) {
+                ignored.incrementAndGet();
+            } else if (signature.equals(cache.get(key))) {
+                unchanged.incrementAndGet();
+            } else if (dryRun) {
+                backedUp.incrementAndGet();
+            } else {
+                pending.add(backups.submit(() -> backup(file, signature)));
+            }
+        }
+
+        private void backup(Path file, String signature) {
+            try {
+                // Mirror the tree, so that databases with the same name in different directories do not clash
+                BackupConfig config = template.toBuilder()
+                        .databaseType(DatabaseType.SQLITE)
+                        .databaseName(file.toString())
+                        .backupPath(backupRoot.resolve(root.relativize(file.getParent())).toString())
+                        .build();
+                BackupResult result = backupOrchestrator.executeBackup(config);
+                if (result.isSuccess()) {
+                    // The signature from before the copy, so that changes during the copy are caught next time
+                    cache.put(file.toString(), signature);
+                    backedUp.incrementAndGet();
+                    bytesWritten.addAndGet(result.getFileSizeBytes());
+                } else {
+                    fail(file, result.getMessage());
+                }
+            } catch (RuntimeException e) {
+                log.error("Sweep backup of {} failed", file, e);
+                fail(file, e.getMessage());
+            }
+        }
+
+        private void fail(Path file, String message) {
+            log.warn("✗ {}: {}", file, message);
+            errors.add(file + ": " + message);
+        }
+
+        /**
+         * Lists one directory, inspects its files and scans its subdirectories in parallel
+         */
+        @SuppressWarnings("serial")
+        private final class DirectoryScan extends RecursiveAction {
+            private final Path directory;
+
+            DirectoryScan(Path directory) {
+                this.directory = directory;
+            }
+
+            @Override
+            protected void compute() {
+                List<DirectoryScan> subdirectories = new ArrayList<>();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                    for (Path entry : entries) {
+                        BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                                LinkOption.NOFOLLOW_LINKS);
+                        // Backups are SQLite databases too
+                        if (attributes.isDirectory() && !entry.equals(backupRoot)) {
+                            subdirectories.add(new DirectoryScan(entry));
+                        } else if (attributes.isRegularFile()) {
+                            inspect(entry, attributes);
+                        }
+                    }
+                } catch (IOException e) {
+                    fail(directory, "cannot be listed: " + e.getMessage());
+                }
+                invokeAll(subdirectories);
+            }
+        }
+    }
+
+    /**
+     * Signatures of the databases backed up by earlier sweeps, by absolute path
+     */
+    private static final class ScanCache {
+        private final Path file;
+        private final Map<String, String> entries = new ConcurrentHashMap<>();
+        private volatile boolean changed;
+
+        ScanCache(Path file) throws IOException {
+            this.file = file;
+            if (Files.exists(file)) {
+                Properties properties = new Properties();
+                try (InputStream in = Files.newInputStream(file)) {
+                    properties.load(in);
+                }
+                properties.stringPropertyNames().forEach(key -> entries.put(key, properties.getProperty(key)));
+            }
+        }
+
+        String get(String path) {
+            return entries.get(path);
+        }
+
+        void put(String path, String signature) {
+            entries.put(path, signature);
+            changed = true;
+        }
+
+        /**
+         * Forgets the databases under a root that were not found by its last sweep
+         */
+        void retain(Path root, Set<String> seen) {
+            String prefix = root.toString().endsWith(root.getFileSystem().getSeparator())
+                    ? root.toString() : root + root.getFileSystem().getSeparator();
+            changed |= entries.keySet().removeIf(path -> path.startsWith(prefix) && !seen.contains(path));
+        }
+
+        void save() throws IOException {
+            if (!changed) {
+                return;
+            }
+            Properties properties = new Properties();
+            properties.putAll(entries);
+            Files.createDirectories(file.getParent());
+            Path temp = Path.of(file + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "Size, modification time and change counter of swept SQLite databases");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -1,20 +1,31 @@
 package com.dbbackup.service;
 
 import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.BackupManifest;
+import com.dbbackup.model.BackupResult;
+import com.dbbackup.model.ManifestJob;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.quartz.*;
 import org.quartz.impl.matchers.GroupMatcher;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Service for scheduling automatic backups using Quartz
  */
 @Service
+@Profile("!batch & !agent")
 @Slf4j
 @RequiredArgsConstructor
 public class SchedulerService {
 
+    /** Job data key holding the manifest a scheduled job was registered from */
+    private static final String MANIFEST_KEY = "manifest";
+
     private final Scheduler scheduler;
     private final BackupOrchestrator backupOrchestrator;
     private final BackupLogService logService;
@@ -50,6 +61,51 @@ public class SchedulerService {
         log.info("Backup scheduled successfully for database: {}", config.getDatabaseName());
     }
 
+    /**
+     * Registers the schedules of a manifest in one operation. Jobs with a cron expression are
+     * scheduled or replaced; jobs registered from the same manifest earlier that are no longer
+     * scheduled in it are removed. Schedules are named after the manifest and the job, so they
+     * never replace a schedule made with {@link #scheduleBackup} or from another manifest.
+     *
+     * @param manifest the loaded manifest
+     * @return the number of removed schedules
+     * @throws SchedulerException if scheduling fails
+     */
+    public int syncSchedules(BackupManifest manifest) throws SchedulerException {
+        Set<JobKey> scheduled = new HashSet<>();
+        for (ManifestJob job : manifest.getJobs()) {
+            if (job.getCron() == null) {
+                continue;
+            }
+            JobDataMap jobDataMap = new JobDataMap();
+            jobDataMap.put("config", job.getConfig());
+            jobDataMap.put(MANIFEST_KEY, manifest.getSource());
+            String name = manifest.getSource() + "#" + job.getName();
+            JobDetail jobDetail = JobBuilder.newJob(BackupJob.class)
+                    .withIdentity("manifest-job-" + name, "backup-jobs")
+                    .setJobData(jobDataMap)
+                    .build();
+            CronTrigger trigger = TriggerBuilder.newTrigger()
+                    .withIdentity("manifest-trigger-" + name, "backup-triggers")
+                    .withSchedule(CronScheduleBuilder.cronSchedule(job.getCron()))
+                    .build();
+            scheduler.scheduleJob(jobDetail, Set.of(trigger), true);
+            scheduled.add(jobDetail.getKey());
+        }
+
+        int removed = 0;
+        for (JobKey jobKey : scheduler.getJobKeys(GroupMatcher.jobGroupEquals("backup-jobs"))) {
+            JobDetail jobDetail = scheduler.getJobDetail(jobKey);
+            if (!scheduled.contains(jobKey) && jobDetail != null
+                    && manifest.getSource().equals(jobDetail.getJobDataMap().get(MANIFEST_KEY))) {
+                scheduler.deleteJob(jobKey);
+                removed++;
+            }
+        }
+        log.info("Registered {} schedules from {}, removed {}", scheduled.size(), manifest.getSource(), removed);
+        return removed;
+    }
+
     /**
      * Cancels a scheduled backup job
      *
@@ -66,6 +122,45 @@ public class SchedulerService {
         }
     }
 
+    /**
+     * Schedules recurring compaction of a database's incremental chain into a synthetic full backup
+     *
+     * @param config         the database name, and optionally a dictionary and write limit for the result
+     * @param cronExpression the cron expression for scheduling (e.g., "0 0 3 ? * SUN" for weekly on Sunday at 3 AM)
+     * @throws SchedulerException if scheduling fails
+     */
+    public void scheduleCompaction(BackupConfig config, String cronExpression) throws SchedulerException {
+        JobDataMap jobDataMap = new JobDataMap();
+        jobDataMap.put("config", config);
+
+        JobDetail jobDetail = JobBuilder.newJob(CompactionJob.class)
+                .withIdentity("compact-job-" + config.instanceKey(), "compaction-jobs")
+                .setJobData(jobDataMap)
+                .build();
+        CronTrigger trigger = TriggerBuilder.newTrigger()
+                .withIdentity("compact-trigger-" + config.instanceKey(), "compaction-triggers")
+                .withSchedule(CronScheduleBuilder.cronSchedule(cronExpression))
+                .build();
+        scheduler.scheduleJob(jobDetail, Set.of(trigger), true);
+
+        log.info("Compaction scheduled for database: {} with cron: {}", config.instanceKey(), cronExpression);
+    }
+
+    /**
+     * Cancels the scheduled compaction of a database
+     *
+     * @param config the host, port and name of the database
+     * @return whether a compaction was scheduled
+     * @throws SchedulerException if cancellation fails
+     */
+    public boolean cancelScheduledCompaction(BackupConfig config) throws SchedulerException {
+        boolean deleted = scheduler.deleteJob(JobKey.jobKey("compact-job-" + config.instanceKey(), "compaction-jobs"));
+        if (deleted) {
+            log.info("Cancelled scheduled compaction for database: {}", config.instanceKey());
+        }
+        return deleted;
+    }
+
     /**
      * Lists all scheduled backup jobs
      *
@@ -81,8 +176,10 @@ public class SchedulerService {
     }
 
     /**
-     * Quartz Job implementation for executing backups
+     * Quartz Job implementation for executing backups; a firing waits while the previous one
+     * of the same schedule is still running
      */
+    @DisallowConcurrentExecution
     @RequiredArgsConstructor
     public static class BackupJob implements Job {
 
@@ -106,4 +203,28 @@ public class SchedulerService {
             }
         }
     }
+
+    /**
+     * Quartz Job implementation for compacting incremental chains
+     */
+    @DisallowConcurrentExecution
+    public static class CompactionJob implements Job {
+
+        @Override
+        public void execute(JobExecutionContext context) throws JobExecutionException {
+            BackupConfig config = (BackupConfig) context.getJobDetail().getJobDataMap().get("config");
+            try {
+                SyntheticFullService syntheticFullService =
+                        (SyntheticFullService) context.getScheduler().getContext().get("syntheticFullService");
+                if (syntheticFullService != null) {
+                    BackupResult result = syntheticFullService.compact(config);
+                    if (!result.isSuccess()) {
+                        log.warn("Scheduled compaction of {} failed: {}", config.getDatabaseName(), result.getMessage());
+                    }
+                }
+            } catch (SchedulerException e) {
+                throw new JobExecutionException("Failed to execute compaction job", e);
+            }
+        }
+    }
 }
@@ -1,25 +1,61 @@
 package com.dbbackup.service;
 
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.io.DurableFile;
+import com.dbbackup.io.TeeStage;
+import com.dbbackup.io.ThrottledInputStream;
+import com.dbbackup.io.TokenBucket;
 import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.BackupDestination;
+import com.dbbackup.model.DestinationResult;
 import com.dbbackup.model.StorageType;
+import com.dbbackup.model.ThrottleStage;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Service for managing backup storage (local and cloud)
  */
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class StorageService {
 
+    private final ThrottleService throttleService;
+    private final BackupMetadataService metadataService;
+    private final AzureBlobStorageService azureBlobStorageService;
+    private final GoogleCloudStorageService googleCloudStorageService;
+    private final PipelineService pipelineService;
+    private final LocalWriteService localWriteService;
+    private final BackupProperties properties;
+    /** S3 clients by region, endpoint and credentials; each holds a connection pool */
+    private final Map<List<String>, S3Client> s3Clients = new ConcurrentHashMap<>();
+
     /**
      * Uploads a backup file to cloud storage
      *
@@ -30,11 +66,9 @@ public class StorageService {
         if (config.getStorageType() == StorageType.AWS_S3) {
             uploadToS3(filePath, config);
         } else if (config.getStorageType() == StorageType.AZURE_BLOB) {
-            log.warn("Azure Blob Storage not yet implemented");
-            // TODO: Implement Azure Blob Storage upload
+            uploadToAzure(filePath, config);
         } else if (config.getStorageType() == StorageType.GOOGLE_CLOUD) {
-            log.warn("Google Cloud Storage not yet implemented");
-            // TODO: Implement Google Cloud Storage upload
+            uploadToGcs(filePath, config);
         }
     }
 
@@ -45,39 +79,274 @@ public class StorageService {
      * @param config   the backup configuration
      */
     private void uploadToS3(String filePath, BackupConfig config) {
+        try (InputStream in = Files.newInputStream(Path.of(filePath))) {
+            uploadToS3(in, Files.size(Path.of(filePath)), filePath, config);
+        } catch (Exception e) {
+            log.error("Failed to upload to S3", e);
+            throw new RuntimeException("S3 upload failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Uploads the content of a file to AWS S3, then its metadata sidecar
+     *
+     * @param in            the content of the file
+     * @param contentLength the number of bytes to upload
+     * @param filePath      the path to the file, naming the object
+     * @param config        the backup configuration
+     */
+    private void uploadToS3(InputStream in, long contentLength, String filePath, BackupConfig config) {
         log.info("Uploading to AWS S3 bucket: {}", config.getCloudBucket());
 
-        try {
-            // Create AWS credentials
-            AwsBasicCredentials credentials = AwsBasicCredentials.create(
-                    config.getCloudAccessKey(),
-                    config.getCloudSecretKey()
-            );
+        S3Client s3Client = s3Client(config);
 
-            // Create S3 client
-            S3Client s3Client = S3Client.builder()
-                    .region(Region.of(config.getCloudRegion()))
-                    .credentialsProvider(StaticCredentialsProvider.create(credentials))
-                    .build();
+        // Get file name from path
+        String key = new File(filePath).getName();
 
-            // Get file name from path
-            File file = new File(filePath);
-            String key = file.getName();
+        // Upload file to S3
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(config.getCloudBucket())
+                .key(key)
+                .build();
 
-            // Upload file to S3
-            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                    .bucket(config.getCloudBucket())
-                    .key(key)
-                    .build();
+        // Stream the file through the upload limit
+        s3Client.putObject(putObjectRequest, RequestBody.fromInputStream(
+                throttleService.throttle(in, ThrottleStage.UPLOAD, config), contentLength));
 
-            s3Client.putObject(putObjectRequest, Path.of(filePath));
+        // Keep the metadata sidecar (encryption keys, etc.) next to the backup
+        Path metadataPath = metadataService.metadataPath(filePath);
+        if (Files.exists(metadataPath)) {
+            s3Client.putObject(PutObjectRequest.builder()
+                            .bucket(config.getCloudBucket())
+                            .key(key + BackupMetadataService.SUFFIX)
+                            .build(),
+                    RequestBody.fromFile(metadataPath));
+        }
+
+        log.info("Successfully uploaded to S3: {}/{}", config.getCloudBucket(), key);
+    }
+
+    /**
+     * Returns the shared S3 client of a configuration's region, endpoint and credentials
+     */
+    private S3Client s3Client(BackupConfig config) {
+        List<String> key = Arrays.asList(config.getCloudRegion(), config.getCloudEndpoint(),
+                config.getCloudAccessKey(), config.getCloudSecretKey());
+        return s3Clients.computeIfAbsent(key, ignored -> {
+            S3ClientBuilder builder = S3Client.builder()
+                    .region(Region.of(config.getCloudRegion() != null ? config.getCloudRegion() : "us-east-1"))
+                    .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(
+                            config.getCloudAccessKey(), config.getCloudSecretKey())));
+            if (config.getCloudEndpoint() != null) {
+                builder.endpointOverride(URI.create(config.getCloudEndpoint())).forcePathStyle(true);
+            }
+            return builder.build();
+        });
+    }
 
-            log.info("Successfully uploaded to S3: {}/{}", config.getCloudBucket(), key);
+    @PreDestroy
+    public void shutdown() {
+        s3Clients.values().forEach(S3Client::close);
+        s3Clients.clear();
+    }
 
+    /**
+     * Uploads a file to Azure Blob Storage
+     *
+     * @param filePath the path to the file
+     * @param config   the backup configuration
+     */
+    private void uploadToAzure(String filePath, BackupConfig config) {
+        try {
+            azureBlobStorageService.uploadFile(filePath, config);
         } catch (Exception e) {
-            log.error("Failed to upload to S3", e);
-            throw new RuntimeException("S3 upload failed: " + e.getMessage(), e);
+            log.error("Failed to upload to Azure Blob Storage", e);
+            throw new RuntimeException("Azure Blob upload failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Uploads a file to Google Cloud Storage
+     *
+     * @param filePath the path to the file
+     * @param config   the backup configuration
+     */
+    private void uploadToGcs(String filePath, BackupConfig config) {
+        try {
+            googleCloudStorageService.uploadFile(filePath, config);
+        } catch (Exception e) {
+            log.error("Failed to upload to Google Cloud Storage", e);
+            throw new RuntimeException("Google Cloud Storage upload failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns every place a backup is copied to: its cloud storage type, unless LOCAL, followed
+     * by its further destinations
+     *
+     * @param config the backup configuration
+     * @return the destinations, empty when the backup stays in its local directory only
+     */
+    public List<BackupDestination> destinations(BackupConfig config) {
+        List<BackupDestination> destinations = new ArrayList<>();
+        if (config.getStorageType() != null && config.getStorageType() != StorageType.LOCAL) {
+            destinations.add(BackupDestination.builder()
+                    .storageType(config.getStorageType())
+                    .cloudBucket(config.getCloudBucket())
+                    .cloudRegion(config.getCloudRegion())
+                    .cloudAccessKey(config.getCloudAccessKey())
+                    .cloudSecretKey(config.getCloudSecretKey())
+                    .cloudEndpoint(config.getCloudEndpoint())
+                    .cloudCredentialsFile(config.getCloudCredentialsFile())
+                    .build());
+        }
+        if (config.getDestinations() != null) {
+            destinations.addAll(config.getDestinations());
+        }
+        return destinations;
+    }
+
+    /**
+     * Returns the configuration a single upload to a destination runs with, e.g. from the upload queue
+     *
+     * @param config      the backup configuration
+     * @param destination the destination
+     * @return a configuration holding the destination as its storage
+     */
+    public BackupConfig targetConfig(BackupConfig config, BackupDestination destination) {
+        return BackupConfig.builder()
+                .databaseName(config.getDatabaseName())
+                .storageType(destination.getStorageType())
+                .backupPath(destination.getBackupPath())
+                .cloudBucket(destination.getCloudBucket())
+                .cloudRegion(destination.getCloudRegion())
+                .cloudAccessKey(destination.getCloudAccessKey())
+                .cloudSecretKey(destination.getCloudSecretKey())
+                .cloudEndpoint(destination.getCloudEndpoint())
+                .cloudCredentialsFile(destination.getCloudCredentialsFile())
+                .uploadBytesPerSecond(destination.getUploadBytesPerSecond() > 0
+                        ? destination.getUploadBytesPerSecond() : config.getUploadBytesPerSecond())
+                .writeBytesPerSecond(config.getWriteBytesPerSecond())
+                .jobId(config.getJobId())
+                .build();
+    }
+
+    /**
+     * Copies a backup file to several destinations at once, reading it a single time. Each
+     * destination consumes the stream on its own thread; one that fails, or holds the others
+     * back for longer than {@code backup.fan-out.stall-timeout}, is dropped while the rest
+     * carry on. Uploads are charged against the job's upload limit together, and each against
+     * the limit of its destination.
+     *
+     * @param filePath     the backup file
+     * @param destinations the destinations
+     * @param config       the backup configuration
+     * @return the result per destination, in the order given
+     * @throws IOException if the backup file cannot be read
+     */
+    public List<DestinationResult> uploadToAll(String filePath, List<BackupDestination> destinations,
+                                               BackupConfig config) throws IOException {
+        Path path = Path.of(filePath);
+        long length = Files.size(path);
+        Map<String, TeeStage.Target> targets = new LinkedHashMap<>();
+        for (BackupDestination destination : destinations) {
+            String name = describe(destination, path);
+            if (targets.containsKey(name)) {
+                throw new IllegalArgumentException("Destination listed twice: " + name);
+            }
+            targets.put(name, target(destination, path, length, config));
+        }
+
+        BackupProperties.FanOut settings = properties.getFanOut();
+        int chunks = (int) Math.max(1, settings.getMaxLag().toBytes() / properties.getPipeline().getBufferSize().toBytes());
+        log.info("Copying {} to {} destinations at once", path.getFileName(), targets.size());
+        TeeStage tee = new TeeStage(targets, chunks, settings.getStallTimeout());
+        try (FileChannel source = FileChannel.open(path)) {
+            pipelineService.run(source, lease -> tee);
+        } catch (IOException | RuntimeException e) {
+            // Either reading failed or every destination did; the outcomes tell which
+            tee.abort(e);
+            if (tee.outcomes().stream().allMatch(outcome -> outcome.getFailure() == e)) {
+                throw e;
+            }
+        }
+
+        List<DestinationResult> results = new ArrayList<>();
+        for (TeeStage.Outcome outcome : tee.outcomes()) {
+            if (outcome.isSuccess()) {
+                log.info("Copied {} to {} in {} ms", path.getFileName(), outcome.getName(), outcome.getDurationMillis());
+            } else {
+                log.error("Failed to copy {} to {}", path.getFileName(), outcome.getName(), outcome.getFailure());
+            }
+            results.add(DestinationResult.builder()
+                    .destination(outcome.getName())
+                    .success(outcome.isSuccess())
+                    .message(outcome.isSuccess() ? "Uploaded" : String.valueOf(outcome.getFailure().getMessage()))
+                    .bytes(outcome.getBytes())
+                    .durationMillis(outcome.getDurationMillis())
+                    .build());
+        }
+        return results;
+    }
+
+    private TeeStage.Target target(BackupDestination destination, Path path, long length, BackupConfig config) {
+        BackupConfig target = targetConfig(config, destination);
+        String filePath = path.toString();
+        return in -> {
+            if (destination.getUploadBytesPerSecond() > 0) {
+                in = new ThrottledInputStream(in, List.of(new TokenBucket(destination.getUploadBytesPerSecond())));
+            }
+            switch (destination.getStorageType()) {
+                case AWS_S3 -> uploadToS3(in, length, filePath, target);
+                case AZURE_BLOB -> azureBlobStorageService.uploadStream(in, filePath, target);
+                case GOOGLE_CLOUD -> googleCloudStorageService.uploadStream(in, filePath, target);
+                case LOCAL -> copyToDirectory(in, path, target);
+            }
+            // S3 reads exactly the length; anything left means the file changed while it was read
+            if (in.read() >= 0) {
+                throw new IOException("Backup file grew while it was copied");
+            }
+        };
+    }
+
+    /**
+     * Copies a backup and its metadata sidecar into another directory through the local write
+     * policy, so the backup only appears once complete
+     */
+    private void copyToDirectory(InputStream in, Path source, BackupConfig config) throws IOException {
+        if (config.getBackupPath() == null) {
+            throw new IOException("A LOCAL destination needs a backup-path");
+        }
+        Path directory = Path.of(config.getBackupPath());
+        Files.createDirectories(directory);
+        if (Files.isSameFile(directory, source.toAbsolutePath().getParent())) {
+            throw new IOException("The destination is the backup's own directory");
+        }
+        try (DurableFile target = localWriteService.create(directory.resolve(source.getFileName()), -1)) {
+            try (OutputStream out = new BufferedOutputStream(target.outputStream(), 65536)) {
+                throttleService.throttle(in, ThrottleStage.LOCAL_WRITE, config).transferTo(out);
+            }
+            // The sidecar first, so that a complete backup never lacks it
+            Path metadataPath = metadataService.metadataPath(source.toString());
+            if (Files.exists(metadataPath)) {
+                localWriteService.copy(metadataPath, directory.resolve(metadataPath.getFileName()), null, config);
+            }
+            target.commit();
+        }
+    }
+
+    private static String describe(BackupDestination destination, Path path) {
+        String name = path.getFileName().toString();
+        if (destination.getStorageType() == null) {
+            throw new IllegalArgumentException("Destination without a storage-type");
         }
+        return switch (destination.getStorageType()) {
+            case AWS_S3 -> "s3://" + destination.getCloudBucket() + "/" + name;
+            case AZURE_BLOB -> "azure://" + destination.getCloudBucket() + "/" + name;
+            case GOOGLE_CLOUD -> "gs://" + destination.getCloudBucket() + "/" + name;
+            case LOCAL -> destination.getBackupPath() != null
+                    ? Path.of(destination.getBackupPath()).resolve(name).toString() : "local directory (none given)";
+        };
     }
 
     /**
@@ -0,0 +1,249 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.dump.ChainMerger;
+import com.dbbackup.dump.JdbcDumpEngine;
+import com.dbbackup.io.DurableFile;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.BackupResult;
+import com.dbbackup.model.BackupRun;
+import com.dbbackup.model.CompressionCodec;
+import com.dbbackup.model.ThrottleStage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compacts incremental chains into synthetic full backups, using only the stored backups. The
+ * backups of a chain are decoded in parallel, merged by {@link ChainMerger} and stored with the
+ * compression and encryption of the full backup they replace. The result becomes the whole
+ * chain, so the next incremental backup builds on it and restores replay one script.
+ */
+@Service
+@Slf4j
+public class SyntheticFullService {
+
+    private final IncrementalChainService chainService;
+    private final JdbcDumpEngine jdbcDumpEngine;
+    private final CompressionService compressionService;
+    private final EncryptionService encryptionService;
+    private final BackupMetadataService metadataService;
+    private final BackupCatalogService catalogService;
+    private final ThrottleService throttleService;
+    private final LocalWriteService localWriteService;
+    private final int threads;
+
+    public SyntheticFullService(IncrementalChainService chainService, JdbcDumpEngine jdbcDumpEngine,
+                                CompressionService compressionService, EncryptionService encryptionService,
+                                BackupMetadataService metadataService, BackupCatalogService catalogService,
+                                ThrottleService throttleService, LocalWriteService localWriteService,
+                                BackupProperties properties) {
+        this.chainService = chainService;
+        this.jdbcDumpEngine = jdbcDumpEngine;
+        this.compressionService = compressionService;
+        this.encryptionService = encryptionService;
+        this.metadataService = metadataService;
+        this.catalogService = catalogService;
+        this.throttleService = throttleService;
+        this.localWriteService = localWriteService;
+        int configured = properties.getIncremental().getCompactionThreads();
+        this.threads = configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Merges the current chain of a database into a synthetic full backup
+     *
+     * @param request the host, port and name of the database, and optionally a dictionary and write
+     *                limit for the result
+     * @return the result; successful without a new backup when the chain has no incremental backups
+     */
+    public BackupResult compact(BackupConfig request) {
+        long startTime = System.currentTimeMillis();
+        Instant startedAt = Instant.now();
+        String databaseName = request.getDatabaseName();
+        // Limited as a job of its own, apart from any backup of the database running meanwhile
+        BackupConfig config = request.toBuilder().jobId("compact-" + BackupOrchestrator.newJobId()).build();
+        throttleService.register(config);
+        try {
+            List<String> recorded = jdbcDumpEngine.incrementalChain(config);
+            List<Path> chain = chainService.chain(config);
+            if (chain.size() < 2) {
+                return BackupResult.builder()
+                        .success(true)
+                        .message(chain.isEmpty()
+                                ? "No incremental chain recorded for " + databaseName
+                                : "Nothing to compact: the chain of " + databaseName + " is a single full backup")
+                        .backupFilePath(chain.isEmpty() ? null : chain.get(0).toString())
+                        .timestamp(LocalDateTime.now())
+                        .durationMillis(System.currentTimeMillis() - startTime)
+                        .build();
+            }
+            for (Path backup : chain) {
+                if (!Files.exists(backup)) {
+                    throw new IOException("Backup of the chain is missing: " + backup);
+                }
+            }
+            log.info("Compacting the chain of {}: a full and {} incremental backups", databaseName, chain.size() - 1);
+
+            Path full = chain.get(0);
+            Path output = full.toAbsolutePath().resolveSibling(syntheticName(full));
+            long rows = merge(chain, output, config);
+
+            // Stored like the full backup it replaces
+            String fullName = full.getFileName().toString();
+            boolean encrypted = fullName.endsWith(EncryptionService.SUFFIX);
+            String plainName = encrypted ? fullName.substring(0, fullName.length() - EncryptionService.SUFFIX.length()) : fullName;
+            BackupConfig storage = BackupConfig.builder()
+                    .databaseName(databaseName)
+                    .encrypt(encrypted)
+                    .dictionary(config.getDictionary())
+                    .writeBytesPerSecond(config.getWriteBytesPerSecond())
+                    .jobId(config.getJobId())
+                    .build();
+            String artifact = output.toString();
+            if (CompressionCodec.fromFileName(plainName) != null) {
+                artifact = compressionService.compressFile(artifact, storage);
+            } else if (encrypted) {
+                artifact = encryptionService.encryptFile(artifact, storage);
+            }
+            metadataService.update(artifact, Map.of(
+                    "backup.synthetic", "true",
+                    "backup.synthetic.sources", String.join(",", recorded)));
+            jdbcDumpEngine.replaceChain(config, recorded, artifact);
+
+            long fileSize = Files.size(Path.of(artifact));
+            long duration = System.currentTimeMillis() - startTime;
+            catalogService.record(BackupRun.builder()
+                    .databaseName(databaseName)
+                    .databaseType(config.getDatabaseType())
+                    .startedAt(startedAt)
+                    .durationMillis(duration)
+                    .success(true)
+                    .writeBytes(throttleService.jobBytes(config.getJobId()).getOrDefault(ThrottleStage.LOCAL_WRITE, 0L))
+                    .artifactPath(artifact)
+                    .artifactBytes(fileSize)
+                    .synthetic(true)
+                    .build());
+            log.info("Synthetic full backup of {} completed: {} ({} rows)", databaseName, artifact, rows);
+
+            return BackupResult.builder()
+                    .success(true)
+                    .message(String.format("Merged a full and %d incremental backups (%d rows)", chain.size() - 1, rows))
+                    .backupFilePath(artifact)
+                    .fileSizeBytes(fileSize)
+                    .timestamp(LocalDateTime.now())
+                    .durationMillis(duration)
+                    .build();
+        } catch (Exception e) {
+            log.error("Error while compacting the chain of {}", databaseName, e);
+            return BackupResult.builder()
+                    .success(false)
+                    .message("Compaction failed: " + e.getMessage())
+                    .timestamp(LocalDateTime.now())
+                    .durationMillis(System.currentTimeMillis() - startTime)
+                    .build();
+        } finally {
+            throttleService.unregister(config);
+        }
+    }
+
+    private long merge(List<Path> chain, Path output, BackupConfig config) throws IOException {
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "compaction-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Path work = Files.createTempDirectory(output.getParent(), ".compact-");
+        try {
+            // Decryption and decompression are the expensive part, so every backup is decoded at once
+            List<Future<Path>> decoding = new ArrayList<>();
+            for (int i = 0; i < chain.size(); i++) {
+                Path backup = chain.get(i);
+                Path plain = work.resolve(String.format("%06d.sql", i));
+                decoding.add(executor.submit(() -> {
+                    try (DurableFile file = localWriteService.create(plain, -1)) {
+                        try (OutputStream out = throttleService.throttle(new BufferedOutputStream(file.outputStream(), 65536),
+                                ThrottleStage.LOCAL_WRITE, config)) {
+                            chainService.decode(backup, out);
+                        }
+                        file.commit();
+                    }
+                    return plain;
+                }));
+            }
+            List<Path> plain = new ArrayList<>();
+            for (Future<Path> future : decoding) {
+                plain.add(await(future));
+            }
+
+            try (DurableFile file = localWriteService.create(output, -1)) {
+                long rows;
+                try (OutputStream out = throttleService.throttle(new BufferedOutputStream(file.outputStream(), 65536),
+                        ThrottleStage.LOCAL_WRITE, config)) {
+                    rows = new ChainMerger(executor, threads * 2).merge(plain.get(0), plain.subList(1, plain.size()), out);
+                }
+                file.commit();
+                return rows;
+            }
+        } finally {
+            executor.shutdownNow();
+            try (var files = Files.list(work)) {
+                for (Path file : files.toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(work);
+        }
+    }
+
+    /**
+     * Names the synthetic backup after the full one, with the current time:
+     * {@code mydb_20240101_020000_postgresql.sql.gz} becomes {@code mydb_<now>_postgresql.synthetic.sql}
+     */
+    private static String syntheticName(Path full) {
+        String name = full.getFileName().toString();
+        if (name.endsWith(EncryptionService.SUFFIX)) {
+            name = name.substring(0, name.length() - EncryptionService.SUFFIX.length());
+        }
+        CompressionCodec codec = CompressionCodec.fromFileName(name);
+        if (codec != null) {
+            name = name.substring(0, name.length() - codec.getExtension().length());
+        }
+        name = name.replaceFirst("\\.sql$", "");
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
+        String renamed = name.replaceFirst("_\\d{8}_\\d{6}(_|$)", "_" + timestamp + "$1");
+        return (renamed.equals(name) ? name + "_" + timestamp : renamed) + ".synthetic.sql";
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding backups");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Failed to decode backup", e.getCause());
+        }
+    }
+}
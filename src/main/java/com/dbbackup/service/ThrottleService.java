@@ -0,0 +1,277 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.io.ThrottledInputStream;
+import com.dbbackup.io.ThrottledOutputStream;
+import com.dbbackup.io.TokenBucket;
+import com.dbbackup.io.WorkerGate;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.ThrottleStage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Service for bandwidth limiting of dump reads, local writes and cloud uploads.
+ * Every stream is charged against the global bucket of its stage and, when the job
+ * defines its own limit, against a per-job bucket. Both can be changed while a backup runs.
+ * Dump reads also pass a pacing bucket, and dump workers a worker gate, which the load monitor
+ * tightens while the source database is under pressure, apart from the configured limits.
+ * Per-job state is kept from {@link #register} to {@link #unregister} under the job id of the
+ * run, so that runs for equally named databases on different servers are limited apart;
+ * configurations of no registered run are charged against the global limits only.
+ */
+@Service
+@Slf4j
+public class ThrottleService {
+
+    private final Map<ThrottleStage, TokenBucket> globalBuckets = new EnumMap<>(ThrottleStage.class);
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public ThrottleService(BackupProperties properties) {
+        BackupProperties.Throttle throttle = properties.getThrottle();
+        globalBuckets.put(ThrottleStage.DUMP_READ, new TokenBucket(throttle.getDumpReadBytesPerSecond()));
+        globalBuckets.put(ThrottleStage.LOCAL_WRITE, new TokenBucket(throttle.getWriteBytesPerSecond()));
+        globalBuckets.put(ThrottleStage.UPLOAD, new TokenBucket(throttle.getUploadBytesPerSecond()));
+    }
+
+    /**
+     * Registers the per-job limits of a backup that is about to start. Configurations without a
+     * job id get no per-job limits.
+     *
+     * @param config the backup configuration, carrying the job id of the run
+     */
+    public void register(BackupConfig config) {
+        if (config.getJobId() == null) {
+            log.debug("Backup of {} has no job id; only the global limits apply", config.getDatabaseName());
+            return;
+        }
+        jobs.put(config.getJobId(), new Job(config));
+    }
+
+    /**
+     * Removes the per-job limits of a finished backup
+     *
+     * @param config the backup configuration
+     */
+    public void unregister(BackupConfig config) {
+        Job job = config.getJobId() != null ? jobs.remove(config.getJobId()) : null;
+        if (job != null) {
+            // Release anything still held by a paused job
+            job.pacing.reads.setPaused(false);
+            job.pacing.workers.setLimit(0);
+        }
+    }
+
+    /**
+     * Wraps an input stream so that reads are limited for the given stage and job
+     *
+     * @param in     the stream to wrap
+     * @param stage  the pipeline stage
+     * @param config the backup configuration
+     * @return the throttled stream
+     */
+    public InputStream throttle(InputStream in, ThrottleStage stage, BackupConfig config) {
+        return new ThrottledInputStream(in, bucketsFor(stage, config));
+    }
+
+    /**
+     * Wraps an output stream so that writes are limited for the given stage and job
+     *
+     * @param out    the stream to wrap
+     * @param stage  the pipeline stage
+     * @param config the backup configuration
+     * @return the throttled stream
+     */
+    public OutputStream throttle(OutputStream out, ThrottleStage stage, BackupConfig config) {
+        return new ThrottledOutputStream(out, bucketsFor(stage, config));
+    }
+
+    /**
+     * Charges bytes that are transferred outside of a wrapped stream, blocking as needed
+     *
+     * @param stage  the pipeline stage
+     * @param config the backup configuration, or null to apply only the global limit
+     * @param bytes  the number of bytes about to be transferred
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void acquire(ThrottleStage stage, BackupConfig config, long bytes) throws InterruptedIOException {
+        try {
+            for (TokenBucket bucket : bucketsFor(stage, config)) {
+                bucket.acquire(bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling " + stage);
+        }
+    }
+
+    /**
+     * Returns the gate that dump workers of a job pass before each task
+     *
+     * @param config the backup configuration
+     * @return the worker gate of the job
+     */
+    public WorkerGate workers(BackupConfig config) {
+        Job job = jobOf(config);
+        return job != null ? job.pacing.workers : new WorkerGate(0);
+    }
+
+    /**
+     * Paces the dump reads and workers of a running job, on top of its configured limits
+     *
+     * @param jobId          the job id of the run
+     * @param bytesPerSecond the pacing rate (0 = not paced)
+     * @param paused         whether reads are held entirely
+     * @param workers        how many dump workers may run at once (0 = all of them)
+     * @return true if a running job was found
+     */
+    public boolean pace(String jobId, long bytesPerSecond, boolean paused, int workers) {
+        Job job = jobId != null ? jobs.get(jobId) : null;
+        if (job == null) {
+            return false;
+        }
+        Pacing pacing = job.pacing;
+        pacing.reads.setRatePerSecond(bytesPerSecond);
+        pacing.reads.setPaused(paused);
+        pacing.workers.setLimit(workers);
+        return true;
+    }
+
+    /**
+     * Changes a global limit at runtime
+     *
+     * @param stage          the pipeline stage
+     * @param bytesPerSecond the new limit (0 = unlimited)
+     */
+    public void setGlobalRate(ThrottleStage stage, long bytesPerSecond) {
+        globalBuckets.get(stage).setRatePerSecond(bytesPerSecond);
+        log.info("Global {} limit set to {} bytes/s", stage, bytesPerSecond);
+    }
+
+    /**
+     * Changes the limit of running jobs at runtime
+     *
+     * @param job            the job id of a run, or a database name for every run of that database
+     * @param stage          the pipeline stage
+     * @param bytesPerSecond the new limit (0 = unlimited)
+     * @return the number of running jobs changed
+     */
+    public int setJobRate(String job, ThrottleStage stage, long bytesPerSecond) {
+        int changed = 0;
+        for (Map.Entry<String, Job> entry : jobs.entrySet()) {
+            if (entry.getKey().equals(job) || job.equals(entry.getValue().databaseName)) {
+                entry.getValue().buckets.get(stage).setRatePerSecond(bytesPerSecond);
+                log.info("{} limit for {} ({}) set to {} bytes/s", stage, entry.getValue().databaseName,
+                        entry.getKey(), bytesPerSecond);
+                changed++;
+            }
+        }
+        if (changed == 0) {
+            log.warn("No running backup found for: {}", job);
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the bytes each stage of a running job has transferred so far
+     *
+     * @param jobId the job id of the run
+     * @return the transferred bytes per stage, empty if the job is not running
+     */
+    public Map<ThrottleStage, Long> jobBytes(String jobId) {
+        Job job = jobId != null ? jobs.get(jobId) : null;
+        Map<ThrottleStage, Long> bytes = new EnumMap<>(ThrottleStage.class);
+        if (job != null) {
+            job.buckets.forEach((stage, bucket) -> bytes.put(stage, bucket.getCharged()));
+        }
+        return bytes;
+    }
+
+    /**
+     * Describes the current global and per-job limits
+     *
+     * @return a human-readable summary
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder("Global: ").append(formatRates(globalBuckets));
+        jobs.forEach((id, job) -> sb.append(System.lineSeparator())
+                .append(job.databaseName).append(" (").append(id).append("): ")
+                .append(formatRates(job.buckets)).append(job.pacing.describe()));
+        return sb.toString();
+    }
+
+    private List<TokenBucket> bucketsFor(ThrottleStage stage, BackupConfig config) {
+        List<TokenBucket> buckets = new ArrayList<>(2);
+        buckets.add(globalBuckets.get(stage));
+        Job job = jobOf(config);
+        if (job != null) {
+            buckets.add(job.buckets.get(stage));
+            if (stage == ThrottleStage.DUMP_READ) {
+                buckets.add(job.pacing.reads);
+            }
+        }
+        return buckets;
+    }
+
+    private Job jobOf(BackupConfig config) {
+        return config != null && config.getJobId() != null ? jobs.get(config.getJobId()) : null;
+    }
+
+    private String formatRates(Map<ThrottleStage, TokenBucket> buckets) {
+        StringBuilder sb = new StringBuilder();
+        buckets.forEach((stage, bucket) -> {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            long rate = bucket.getRatePerSecond();
+            sb.append(stage).append('=').append(rate > 0 ? rate + " B/s" : "unlimited");
+        });
+        return sb.toString();
+    }
+
+    /**
+     * Limits and pacing of one registered run
+     */
+    private static final class Job {
+        private final String databaseName;
+        private final Map<ThrottleStage, TokenBucket> buckets = new EnumMap<>(ThrottleStage.class);
+        private final Pacing pacing = new Pacing();
+
+        Job(BackupConfig config) {
+            this.databaseName = String.valueOf(config.getDatabaseName());
+            buckets.put(ThrottleStage.DUMP_READ, new TokenBucket(config.getDumpReadBytesPerSecond()));
+            buckets.put(ThrottleStage.LOCAL_WRITE, new TokenBucket(config.getWriteBytesPerSecond()));
+            buckets.put(ThrottleStage.UPLOAD, new TokenBucket(config.getUploadBytesPerSecond()));
+        }
+    }
+
+    /**
+     * Load-based pacing of one job, unlimited until the load monitor tightens it
+     */
+    private static final class Pacing {
+        private final TokenBucket reads = new TokenBucket(0);
+        private final WorkerGate workers = new WorkerGate(0);
+
+        String describe() {
+            if (reads.isPaused()) {
+                return " (paused by load monitor)";
+            }
+            long rate = reads.getRatePerSecond();
+            int limit = workers.getLimit();
+            if (rate <= 0 && limit <= 0) {
+                return "";
+            }
+            return " (paced by load monitor: " + (rate > 0 ? rate + " B/s" : "unlimited")
+                    + (limit > 0 ? ", " + limit + " workers" : "") + ")";
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.StorageType;
+import com.dbbackup.model.UploadTask;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent queue that decouples cloud uploads from backup runs.
+ * Each task is stored as a file in the queue directory until its upload succeeds, so pending
+ * uploads survive restarts. A dispatcher hands due tasks to a worker pool; failed uploads are
+ * retried with exponential backoff and moved to {@code failed/} after the configured attempts.
+ */
+@Service
+@Slf4j
+public class UploadQueueService {
+
+    private static final String TASK_SUFFIX = ".task";
+
+    private final BackupProperties.UploadQueue settings;
+    private final StorageService storageService;
+    private final ThrottleService throttleService;
+    private final Map<String, UploadTask> tasks = new ConcurrentHashMap<>();
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Path directory;
+    private final Path failedDirectory;
+    private ScheduledExecutorService dispatcher;
+    private ExecutorService workers;
+
+    public UploadQueueService(BackupProperties properties, StorageService storageService,
+                              ThrottleService throttleService) {
+        this.settings = properties.getUploadQueue();
+        this.storageService = storageService;
+        this.throttleService = throttleService;
+        this.directory = Path.of(settings.getDirectory());
+        this.failedDirectory = directory.resolve("failed");
+    }
+
+    public boolean isEnabled() {
+        return settings.isEnabled();
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!settings.isEnabled()) {
+            return;
+        }
+        Files.createDirectories(failedDirectory);
+        for (Path file : listTaskFiles(directory)) {
+            try {
+                UploadTask task = readTask(file);
+                tasks.put(task.getId(), task);
+            } catch (IOException e) {
+                log.error("Skipping unreadable upload task: {}", file, e);
+            }
+        }
+        if (!tasks.isEmpty()) {
+            log.info("Recovered {} pending cloud uploads", tasks.size());
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(Math.max(1, settings.getWorkers()), runnable -> {
+            Thread thread = new Thread(runnable, "upload-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "upload-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher.scheduleWithFixedDelay(this::dispatch, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Adds a completed backup to the queue
+     *
+     * @param filePath the backup file to upload
+     * @param config   the backup configuration holding the cloud destination
+     * @return the queued task
+     * @throws IOException if the task cannot be persisted
+     */
+    public UploadTask enqueue(String filePath, BackupConfig config) throws IOException {
+        Instant now = Instant.now();
+        UploadTask task = UploadTask.builder()
+                .id(UUID.randomUUID().toString())
+                .filePath(filePath)
+                .config(config)
+                .enqueuedAt(now)
+                .nextAttemptAt(now)
+                .build();
+        writeTask(directory, task);
+        tasks.put(task.getId(), task);
+        log.info("Queued {} for upload to {} (queue depth: {})", filePath, config.getStorageType(), tasks.size());
+        return task;
+    }
+
+    /**
+     * Returns the pending tasks, oldest first
+     *
+     * @return the pending tasks
+     */
+    public List<UploadTask> pendingTasks() {
+        List<UploadTask> pending = new ArrayList<>(tasks.values());
+        pending.sort(Comparator.comparing(UploadTask::getEnqueuedAt));
+        return pending;
+    }
+
+    /**
+     * Returns the number of tasks that exhausted their attempts
+     *
+     * @return the failed task count
+     * @throws IOException if the failed folder cannot be read
+     */
+    public int failedCount() throws IOException {
+        return Files.isDirectory(failedDirectory) ? listTaskFiles(failedDirectory).size() : 0;
+    }
+
+    /**
+     * Returns how long the oldest pending upload has been waiting
+     *
+     * @return the queue lag, zero when the queue is empty
+     */
+    public Duration lag() {
+        return tasks.values().stream()
+                .map(UploadTask::getEnqueuedAt)
+                .min(Comparator.naturalOrder())
+                .map(oldest -> Duration.between(oldest, Instant.now()))
+                .orElse(Duration.ZERO);
+    }
+
+    public boolean isInFlight(String taskId) {
+        return inFlight.contains(taskId);
+    }
+
+    /**
+     * Moves failed tasks back into the queue with a fresh attempt budget
+     *
+     * @return the number of requeued tasks
+     * @throws IOException if the tasks cannot be moved
+     */
+    public int retryFailed() throws IOException {
+        int count = 0;
+        for (Path file : listTaskFiles(failedDirectory)) {
+            UploadTask task = readTask(file);
+            task.setAttempts(0);
+            task.setNextAttemptAt(Instant.now());
+            writeTask(directory, task);
+            Files.delete(file);
+            tasks.put(task.getId(), task);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Waits until every pending upload has completed or given up
+     *
+     * @param timeout the maximum time to wait
+     * @return true if the queue is empty, false if the timeout elapsed first
+     * @throws InterruptedException if the wait is interrupted
+     */
+    public boolean awaitDrained(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (!tasks.isEmpty()) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(200);
+        }
+        return true;
+    }
+
+    private void dispatch() {
+        Instant now = Instant.now();
+        for (UploadTask task : pendingTasks()) {
+            if (!task.getNextAttemptAt().isAfter(now) && inFlight.add(task.getId())) {
+                workers.submit(() -> process(task));
+            }
+        }
+    }
+
+    private void process(UploadTask task) {
+        // The run that queued the upload is over; the upload is limited as a job of its own
+        BackupConfig config = task.getConfig().toBuilder().jobId("upload-" + task.getId()).build();
+        throttleService.register(config);
+        try {
+            task.setAttempts(task.getAttempts() + 1);
+            log.info("Uploading {} to {} (attempt {})", task.getFilePath(),
+                    config.getStorageType(), task.getAttempts());
+            storageService.uploadToCloud(task.getFilePath(), config);
+            tasks.remove(task.getId());
+            Files.deleteIfExists(taskFile(directory, task.getId()));
+            log.info("Cloud upload completed: {} (waited {} s)", task.getFilePath(),
+                    Duration.between(task.getEnqueuedAt(), Instant.now()).toSeconds());
+        } catch (Exception e) {
+            handleFailure(task, e);
+        } finally {
+            throttleService.unregister(config);
+            inFlight.remove(task.getId());
+        }
+    }
+
+    private void handleFailure(UploadTask task, Exception error) {
+        task.setLastError(error.getMessage());
+        try {
+            if (settings.getMaxAttempts() > 0 && task.getAttempts() >= settings.getMaxAttempts()) {
+                tasks.remove(task.getId());
+                writeTask(failedDirectory, task);
+                Files.deleteIfExists(taskFile(directory, task.getId()));
+                log.error("Giving up on upload of {} after {} attempts: {}",
+                        task.getFilePath(), task.getAttempts(), error.getMessage());
+                return;
+            }
+            task.setNextAttemptAt(Instant.now().plus(backoff(task.getAttempts())));
+            writeTask(directory, task);
+            log.warn("Upload of {} failed (attempt {}), retrying at {}: {}",
+                    task.getFilePath(), task.getAttempts(), task.getNextAttemptAt(), error.getMessage());
+        } catch (IOException e) {
+            log.error("Failed to persist upload task {}", task.getId(), e);
+        }
+    }
+
+    private Duration backoff(int attempts) {
+        long initial = settings.getInitialBackoff().toMillis();
+        long max = settings.getMaxBackoff().toMillis();
+        long delay = Math.min(max, initial << Math.min(attempts - 1, 30));
+        // Up to 20% jitter so tasks that failed together don't retry together
+        return Duration.ofMillis(delay + ThreadLocalRandom.current().nextLong(delay / 5 + 1));
+    }
+
+    private List<Path> listTaskFiles(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + TASK_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private Path taskFile(Path dir, String id) {
+        return dir.resolve(id + TASK_SUFFIX);
+    }
+
+    private void writeTask(Path dir, UploadTask task) throws IOException {
+        BackupConfig config = task.getConfig();
+        Properties properties = new Properties();
+        properties.setProperty("id", task.getId());
+        properties.setProperty("file", task.getFilePath());
+        properties.setProperty("attempts", String.valueOf(task.getAttempts()));
+        properties.setProperty("enqueued-at", task.getEnqueuedAt().toString());
+        properties.setProperty("next-attempt-at", task.getNextAttemptAt().toString());
+        if (task.getLastError() != null) {
+            properties.setProperty("last-error", task.getLastError());
+        }
+        properties.setProperty("database", String.valueOf(config.getDatabaseName()));
+        properties.setProperty("storage-type", config.getStorageType().name());
+        setIfPresent(properties, "bucket", config.getCloudBucket());
+        setIfPresent(properties, "region", config.getCloudRegion());
+        setIfPresent(properties, "access-key", config.getCloudAccessKey());
+        setIfPresent(properties, "secret-key", config.getCloudSecretKey());
+        setIfPresent(properties, "endpoint", config.getCloudEndpoint());
+        setIfPresent(properties, "credentials-file", config.getCloudCredentialsFile());
+        properties.setProperty("upload-bytes-per-second", String.valueOf(config.getUploadBytesPerSecond()));
+
+        Files.createDirectories(dir);
+        Path temp = dir.resolve(task.getId() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "Pending cloud upload");
+        }
+        try {
+            // Tasks carry cloud credentials
+            Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            log.debug("POSIX permissions not supported for {}", temp);
+        }
+        Files.move(temp, taskFile(dir, task.getId()), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private UploadTask readTask(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        BackupConfig config = BackupConfig.builder()
+                .databaseName(properties.getProperty("database"))
+                .storageType(StorageType.valueOf(properties.getProperty("storage-type")))
+                .cloudBucket(properties.getProperty("bucket"))
+                .cloudRegion(properties.getProperty("region"))
+                .cloudAccessKey(properties.getProperty("access-key"))
+                .cloudSecretKey(properties.getProperty("secret-key"))
+                .cloudEndpoint(properties.getProperty("endpoint"))
+                .cloudCredentialsFile(properties.getProperty("credentials-file"))
+                .uploadBytesPerSecond(Long.parseLong(properties.getProperty("upload-bytes-per-second", "0")))
+                .build();
+        return UploadTask.builder()
+                .id(properties.getProperty("id"))
+                .filePath(properties.getProperty("file"))
+                .config(config)
+                .attempts(Integer.parseInt(properties.getProperty("attempts", "0")))
+                .enqueuedAt(Instant.parse(properties.getProperty("enqueued-at")))
+                .nextAttemptAt(Instant.parse(properties.getProperty("next-attempt-at")))
+                .lastError(properties.getProperty("last-error"))
+                .build();
+    }
+
+    private void setIfPresent(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Unfinished tasks stay on disk and are picked up again on the next start
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+}
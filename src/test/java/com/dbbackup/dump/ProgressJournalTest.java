@@ -0,0 +1,158 @@
+package com.dbbackup.dump;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProgressJournalTest {
+
+    private static final String INSTANCE = "db1:5432/shop";
+    private static final String OTHER_INSTANCE = "db2:5432/shop";
+    private static final String SUFFIX = ".parallel";
+    private static final Duration MAX_AGE = Duration.ofDays(1);
+
+    @TempDir
+    Path backupDirectory;
+
+    @Test
+    void reopensARunOfTheSameInstance() throws IOException {
+        Path run = run("shop_20260101_120000");
+        try (ProgressJournal journal = ProgressJournal.open(run, INSTANCE)) {
+            assertThat(journal.hasPlan()).isFalse();
+            journal.savePlan(plan());
+        }
+
+        try (ProgressJournal journal = ProgressJournal.open(run, INSTANCE)) {
+            assertThat(journal.hasPlan()).isTrue();
+            assertThat(journal.reconcile(List.of(table("orders"), table("customers"))))
+                    .extracting(unit -> unit.getTable().getName())
+                    .containsExactly("orders", "customers");
+        }
+    }
+
+    @Test
+    void rejectsARunOfAnotherInstance() throws IOException {
+        Path run = run("shop_20260101_120000");
+        try (ProgressJournal journal = ProgressJournal.open(run, INSTANCE)) {
+            journal.savePlan(plan());
+        }
+
+        assertThatThrownBy(() -> ProgressJournal.open(run, OTHER_INSTANCE))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("holds a run of " + INSTANCE);
+        // The failed open must not leave the directory locked
+        ProgressJournal.open(run, INSTANCE).close();
+    }
+
+    @Test
+    void rejectsADirectoryInUse() throws IOException {
+        Path run = run("shop_20260101_120000");
+        try (ProgressJournal ignored = ProgressJournal.open(run, INSTANCE)) {
+            assertThatThrownBy(() -> ProgressJournal.open(run, INSTANCE))
+                    .isInstanceOf(IOException.class)
+                    .hasMessageContaining("in use by another run");
+        }
+    }
+
+    @Test
+    void findsTheIncompleteRunOfTheSameInstance() throws IOException {
+        Path run = run("shop_20260101_120000");
+        try (ProgressJournal journal = ProgressJournal.open(run, INSTANCE)) {
+            journal.savePlan(plan());
+        }
+
+        assertThat(ProgressJournal.findIncompleteRun(backupDirectory, "shop", INSTANCE, SUFFIX, MAX_AGE))
+                .contains(run);
+        assertThat(ProgressJournal.findIncompleteRun(backupDirectory, "shop", OTHER_INSTANCE, SUFFIX, MAX_AGE))
+                .isEmpty();
+        assertThat(ProgressJournal.findIncompleteRun(backupDirectory, "shop", INSTANCE, ".other", MAX_AGE))
+                .isEmpty();
+    }
+
+    @Test
+    void skipsARunStillGoing() throws IOException {
+        Path run = run("shop_20260101_120000");
+        try (ProgressJournal journal = ProgressJournal.open(run, INSTANCE)) {
+            journal.savePlan(plan());
+
+            assertThat(ProgressJournal.findIncompleteRun(backupDirectory, "shop", INSTANCE, SUFFIX, MAX_AGE))
+                    .isEmpty();
+        }
+    }
+
+    @Test
+    void skipsARunOlderThanTheMaximumAge() throws IOException {
+        Path run = run("shop_20260101_120000");
+        try (ProgressJournal journal = ProgressJournal.open(run, INSTANCE)) {
+            journal.savePlan(plan());
+        }
+
+        assertThat(ProgressJournal.findIncompleteRun(backupDirectory, "shop", INSTANCE, SUFFIX, Duration.ZERO))
+                .isEmpty();
+    }
+
+    @Test
+    void finishedRunIsNotResumed() throws IOException {
+        Path run = run("shop_20260101_120000");
+        ProgressJournal journal = ProgressJournal.open(run, INSTANCE);
+        journal.savePlan(plan());
+        journal.finish();
+
+        assertThat(run.resolve(ProgressJournal.PLAN_FILE)).doesNotExist();
+        assertThat(run.resolve(ProgressJournal.JOURNAL_FILE)).doesNotExist();
+        assertThat(run.resolve(ProgressJournal.LOCK_FILE)).doesNotExist();
+        assertThat(ProgressJournal.findIncompleteRun(backupDirectory, "shop", INSTANCE, SUFFIX, MAX_AGE))
+                .isEmpty();
+    }
+
+    @Test
+    void finishedChunkIsCompleteUntilItChanges() throws IOException {
+        Path run = run("shop_20260101_120000");
+        WorkUnit unit = plan().get(0);
+        Path chunk = run.resolve("chunk_0.sql");
+        try (ProgressJournal journal = ProgressJournal.open(run, INSTANCE)) {
+            journal.savePlan(plan());
+            MessageDigest digest = ProgressJournal.newDigest();
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(chunk), digest)) {
+                out.write("INSERT INTO orders VALUES (1);\n".getBytes(StandardCharsets.UTF_8));
+            }
+            journal.markDone(unit, chunk, 1, digest);
+        }
+
+        try (ProgressJournal journal = ProgressJournal.open(run, INSTANCE)) {
+            assertThat(journal.isComplete(unit, chunk)).isTrue();
+            assertThat(journal.completedRows(unit)).isEqualTo(1);
+            assertThat(journal.isComplete(plan().get(1), run.resolve("chunk_1.sql"))).isFalse();
+
+            // Same size, different contents
+            Files.writeString(chunk, "INSERT INTO orders VALUES (2);\n");
+            assertThat(journal.isComplete(unit, chunk)).isFalse();
+        }
+    }
+
+    private Path run(String name) throws IOException {
+        return Files.createDirectory(backupDirectory.resolve(name + SUFFIX));
+    }
+
+    private static List<WorkUnit> plan() {
+        return List.of(
+                WorkUnit.builder().index(0).table(table("orders")).build(),
+                WorkUnit.builder().index(1).table(table("customers")).build());
+    }
+
+    private static TableInfo table(String name) {
+        return TableInfo.builder().schema("public").name(name).build();
+    }
+}
@@ -0,0 +1,194 @@
+package com.dbbackup.io;
+
+import com.dbbackup.model.EncryptionAlgorithm;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChunkedCipherTest {
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final int SEALED_CHUNK_SIZE = CHUNK_SIZE + ChunkedCipher.TAG_SIZE;
+
+    @TempDir
+    Path directory;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    static Stream<Arguments> sizes() {
+        return Stream.of(EncryptionAlgorithm.values()).flatMap(algorithm -> Stream.of(
+                0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, 3 * CHUNK_SIZE, 3 * CHUNK_SIZE + 17)
+                .map(size -> Arguments.of(algorithm, size)));
+    }
+
+    @ParameterizedTest
+    @MethodSource("sizes")
+    void roundTrip(EncryptionAlgorithm algorithm, int size) throws Exception {
+        SecretKey key = key(algorithm);
+        byte[] plaintext = plaintext(size);
+        Path file = encrypt(algorithm, key, plaintext);
+
+        // Whole chunks only: a size that is a multiple of the chunk size gets no empty final chunk
+        assertThat(Files.size(file)).isEqualTo(ChunkedCipher.HEADER_SIZE
+                + (long) Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE) * ChunkedCipher.TAG_SIZE + size);
+        try (EncryptedFileReader reader = new EncryptedFileReader(file, key)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            reader.decryptTo(out);
+            assertThat(out.toByteArray()).isEqualTo(plaintext);
+            assertThat(reader.plaintextSize()).isEqualTo(size);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(EncryptionAlgorithm.class)
+    void readsARangeAcrossChunks(EncryptionAlgorithm algorithm) throws Exception {
+        SecretKey key = key(algorithm);
+        byte[] plaintext = plaintext(3 * CHUNK_SIZE + 17);
+        Path file = encrypt(algorithm, key, plaintext);
+
+        try (EncryptedFileReader reader = new EncryptedFileReader(file, key)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            reader.readRange(CHUNK_SIZE - 10, CHUNK_SIZE + 20, out);
+            assertThat(out.toByteArray())
+                    .isEqualTo(Arrays.copyOfRange(plaintext, CHUNK_SIZE - 10, 2 * CHUNK_SIZE + 10));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(EncryptionAlgorithm.class)
+    void detectsAFlippedByte(EncryptionAlgorithm algorithm) throws Exception {
+        SecretKey key = key(algorithm);
+        Path file = encrypt(algorithm, key, plaintext(3 * CHUNK_SIZE));
+        byte[] sealed = Files.readAllBytes(file);
+        sealed[ChunkedCipher.HEADER_SIZE + SEALED_CHUNK_SIZE + 5] ^= 1;
+        Files.write(file, sealed);
+
+        try (EncryptedFileReader reader = new EncryptedFileReader(file, key)) {
+            assertThat(reader.readChunk(0)).hasSize(CHUNK_SIZE);
+            assertThatThrownBy(() -> reader.readChunk(1))
+                    .isInstanceOf(IOException.class)
+                    .hasMessageContaining("failed authentication");
+            assertThatThrownBy(() -> reader.decryptTo(OutputStream.nullOutputStream()))
+                    .isInstanceOf(IOException.class);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(EncryptionAlgorithm.class)
+    void detectsTruncation(EncryptionAlgorithm algorithm) throws Exception {
+        SecretKey key = key(algorithm);
+        Path file = encrypt(algorithm, key, plaintext(3 * CHUNK_SIZE));
+        // Drop the final chunk: the chunk now last was not sealed as the final one
+        byte[] sealed = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(sealed, sealed.length - SEALED_CHUNK_SIZE));
+
+        try (EncryptedFileReader reader = new EncryptedFileReader(file, key)) {
+            assertThatThrownBy(reader::plaintextSize).isInstanceOf(IOException.class);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(EncryptionAlgorithm.class)
+    void detectsReorderedChunks(EncryptionAlgorithm algorithm) throws Exception {
+        SecretKey key = key(algorithm);
+        Path file = encrypt(algorithm, key, plaintext(3 * CHUNK_SIZE));
+        byte[] sealed = Files.readAllBytes(file);
+        byte[] first = Arrays.copyOfRange(sealed, ChunkedCipher.HEADER_SIZE, ChunkedCipher.HEADER_SIZE + SEALED_CHUNK_SIZE);
+        System.arraycopy(sealed, ChunkedCipher.HEADER_SIZE + SEALED_CHUNK_SIZE, sealed, ChunkedCipher.HEADER_SIZE,
+                SEALED_CHUNK_SIZE);
+        System.arraycopy(first, 0, sealed, ChunkedCipher.HEADER_SIZE + SEALED_CHUNK_SIZE, SEALED_CHUNK_SIZE);
+        Files.write(file, sealed);
+
+        try (EncryptedFileReader reader = new EncryptedFileReader(file, key)) {
+            assertThatThrownBy(() -> reader.readChunk(0)).isInstanceOf(IOException.class);
+            assertThatThrownBy(() -> reader.readChunk(1)).isInstanceOf(IOException.class);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(EncryptionAlgorithm.class)
+    void rejectsTheWrongKey(EncryptionAlgorithm algorithm) throws Exception {
+        Path file = encrypt(algorithm, key(algorithm), plaintext(100));
+
+        try (EncryptedFileReader reader = new EncryptedFileReader(file, key(algorithm))) {
+            assertThatThrownBy(() -> reader.readChunk(0)).isInstanceOf(IOException.class);
+        }
+    }
+
+    @Test
+    void detectsAChangedHeader() throws Exception {
+        SecretKey key = key(EncryptionAlgorithm.AES_GCM);
+        ChunkedCipher cipher = new ChunkedCipher(EncryptionAlgorithm.AES_GCM, key, CHUNK_SIZE, 7);
+        byte[] sealed = cipher.seal(0, plaintext(10), 10, true);
+
+        // The header is part of the associated data, so another nonce prefix fails the chunk
+        ChunkedCipher other = new ChunkedCipher(EncryptionAlgorithm.AES_GCM, key, CHUNK_SIZE, 8);
+        assertThatThrownBy(() -> other.open(0, sealed, sealed.length, true))
+                .isInstanceOf(GeneralSecurityException.class);
+        assertThat(ChunkedCipher.fromHeader(cipher.header(), key).open(0, sealed, sealed.length, true))
+                .isEqualTo(plaintext(10));
+    }
+
+    @Test
+    void rejectsABadHeader() throws Exception {
+        SecretKey key = key(EncryptionAlgorithm.AES_GCM);
+        byte[] header = new ChunkedCipher(EncryptionAlgorithm.AES_GCM, key, CHUNK_SIZE, 7).header();
+        header[0] ^= 1;
+
+        assertThatThrownBy(() -> ChunkedCipher.fromHeader(header, key))
+                .isInstanceOf(IllegalArgumentException.class);
+        Path file = Files.write(directory.resolve("plain.sql"), Arrays.copyOf(header, 64));
+        assertThatThrownBy(() -> new EncryptedFileReader(file, key).close())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private Path encrypt(EncryptionAlgorithm algorithm, SecretKey key, byte[] plaintext) throws IOException {
+        Path file = directory.resolve("backup.sql.enc");
+        ChunkedCipher cipher = new ChunkedCipher(algorithm, key, CHUNK_SIZE, 42);
+        try (OutputStream out = new ChunkedEncryptingOutputStream(Files.newOutputStream(file), cipher, executor, 4)) {
+            // Odd-sized writes, so chunks are filled across write calls
+            for (int offset = 0; offset < plaintext.length; offset += 700) {
+                out.write(plaintext, offset, Math.min(700, plaintext.length - offset));
+            }
+        }
+        return file;
+    }
+
+    private static SecretKey key(EncryptionAlgorithm algorithm) throws GeneralSecurityException {
+        KeyGenerator generator = KeyGenerator.getInstance(algorithm.getKeyAlgorithm());
+        generator.init(256);
+        return generator.generateKey();
+    }
+
+    private static byte[] plaintext(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
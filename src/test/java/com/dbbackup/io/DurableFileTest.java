@@ -0,0 +1,120 @@
+package com.dbbackup.io;
+
+import com.dbbackup.model.SyncPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DurableFileTest {
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void commitReplacesTheTarget(boolean atomicRename) throws IOException {
+        Path target = directory.resolve("backup.sql");
+        Files.writeString(target, "previous backup");
+
+        try (DurableFile file = new DurableFile(target, SyncPolicy.COMMIT, 0, atomicRename, -1)) {
+            write(file, "new backup");
+            file.commit();
+        }
+
+        assertThat(target).hasContent("new backup");
+        assertThat(partial(target)).doesNotExist();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void writesGoToThePartialFileUntilCommit(boolean atomicRename) throws IOException {
+        Path target = directory.resolve("backup.sql");
+        Files.writeString(target, "previous backup");
+
+        try (DurableFile file = new DurableFile(target, SyncPolicy.NONE, 0, atomicRename, -1)) {
+            write(file, "new backup");
+
+            // Without atomic rename too, the previous backup is intact until the new one is complete
+            assertThat(target).hasContent("previous backup");
+            assertThat(partial(target)).exists();
+            file.commit();
+        }
+
+        assertThat(target).hasContent("new backup");
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void closeWithoutCommitKeepsThePreviousTarget(boolean atomicRename) throws IOException {
+        Path target = directory.resolve("backup.sql");
+        Files.writeString(target, "previous backup");
+
+        try (DurableFile file = new DurableFile(target, SyncPolicy.COMMIT, 0, atomicRename, -1)) {
+            write(file, "half a backup");
+        }
+
+        assertThat(target).hasContent("previous backup");
+        assertThat(partial(target)).doesNotExist();
+    }
+
+    @Test
+    void closeWithoutCommitLeavesNoTarget() throws IOException {
+        Path target = directory.resolve("backup.sql");
+
+        new DurableFile(target, SyncPolicy.COMMIT, 0, true, -1).close();
+
+        assertThat(target).doesNotExist();
+        assertThat(partial(target)).doesNotExist();
+    }
+
+    @Test
+    void preallocatedLengthIsTrimmedOnCommit() throws IOException {
+        Path target = directory.resolve("backup.sql");
+
+        try (DurableFile file = new DurableFile(target, SyncPolicy.PERIODIC, 4, true, 1024)) {
+            assertThat(Files.size(partial(target))).isEqualTo(1024);
+            write(file, "short backup");
+            file.commit();
+        }
+
+        assertThat(target).hasContent("short backup");
+    }
+
+    @Test
+    void transferFromCopiesTheSource() throws IOException {
+        Path source = Files.writeString(directory.resolve("chunk.sql"), "copied backup");
+        Path target = directory.resolve("backup.sql");
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             DurableFile file = new DurableFile(target, SyncPolicy.COMMIT, 0, true, Files.size(source))) {
+            long position = 0;
+            while (position < in.size()) {
+                position += file.transferFrom(in, position, in.size() - position);
+            }
+            file.commit();
+        }
+
+        assertThat(target).hasContent("copied backup");
+    }
+
+    private static void write(DurableFile file, String text) throws IOException {
+        try (OutputStream out = file.outputStream()) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Path partial(Path target) {
+        return target.resolveSibling(target.getFileName() + DurableFile.PARTIAL_SUFFIX);
+    }
+}
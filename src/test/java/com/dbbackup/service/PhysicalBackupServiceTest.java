@@ -0,0 +1,118 @@
+package com.dbbackup.service;
+
+import com.dbbackup.config.BackupProperties;
+import com.dbbackup.model.BackupConfig;
+import com.dbbackup.model.BackupResult;
+import com.dbbackup.model.DatabaseType;
+import com.dbbackup.model.DumpEngine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PhysicalBackupServiceTest {
+
+    /**
+     * Stands in for mariabackup: writes the checkpoints of a full backup ending at LSN 1000, or
+     * of an incremental one adding 100 to the LSN it was given, and streams a few bytes
+     */
+    private static final String STUB = """
+            #!/bin/sh
+            from=0
+            to=1000
+            for arg in "$@"; do
+              case "$arg" in
+                --extra-lsndir=*) dir="${arg#--extra-lsndir=}" ;;
+                --incremental-lsn=*) from="${arg#--incremental-lsn=}"; to=$((from + 100)) ;;
+              esac
+            done
+            printf 'backup_type = full-backuped\\nfrom_lsn = %s\\nto_lsn = %s\\n' "$from" "$to" > "$dir/xtrabackup_checkpoints"
+            printf 'xbstream'
+            """;
+
+    @TempDir
+    Path directory;
+
+    private PhysicalBackupService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        assumeTrue(Files.isExecutable(Path.of("/bin/sh")), "needs /bin/sh to run the stub backup tool");
+        Path tool = directory.resolve("mariabackup");
+        Files.writeString(tool, STUB);
+        Files.setPosixFilePermissions(tool, PosixFilePermissions.fromString("rwxr-xr-x"));
+
+        BackupProperties properties = new BackupProperties();
+        properties.getPhysical().setMariabackupCommand(tool.toString());
+        properties.getCatalog().setDirectory(directory.resolve("catalog").toString());
+        ThrottleService throttleService = new ThrottleService(properties);
+        service = new PhysicalBackupService(null, new PipelineService(throttleService, properties),
+                new LocalWriteService(throttleService, properties), new BackupMetadataService(), properties);
+    }
+
+    @Test
+    void incrementalBackupExtendsTheChainOfItsServer() throws IOException {
+        BackupConfig config = config("db1", 3306);
+
+        BackupResult full = service.backup(config);
+        BackupResult incremental = service.backup(config);
+
+        assertThat(full.isSuccess()).as(full.getMessage()).isTrue();
+        assertThat(incremental.isSuccess()).as(incremental.getMessage()).isTrue();
+        assertThat(Files.readString(Path.of(full.getBackupFilePath()))).isEqualTo("xbstream");
+        assertThat(service.chain(config)).containsExactly(
+                Path.of(full.getBackupFilePath()), Path.of(incremental.getBackupFilePath()));
+        assertThat(service.describe(Path.of(incremental.getBackupFilePath())))
+                .containsEntry("physical.backup-type", "incremental")
+                .containsEntry("physical.from-lsn", "1000")
+                .containsEntry("physical.to-lsn", "1100")
+                .containsEntry("physical.base", full.getBackupFilePath());
+    }
+
+    @Test
+    void sameDatabaseOnAnotherServerStartsItsOwnChain() throws IOException {
+        BackupConfig first = config("db1", 3306);
+        BackupConfig otherHost = config("db2", 3306);
+        BackupConfig otherPort = config("db1", 3307);
+
+        BackupResult firstFull = service.backup(first);
+        BackupResult otherHostFull = service.backup(otherHost);
+        BackupResult otherPortFull = service.backup(otherPort);
+
+        assertThat(otherHostFull.isSuccess()).as(otherHostFull.getMessage()).isTrue();
+        assertThat(otherHostFull.getMessage()).contains("full backup starting a new incremental chain");
+        assertThat(otherPortFull.getMessage()).contains("full backup starting a new incremental chain");
+        assertThat(service.describe(Path.of(otherHostFull.getBackupFilePath())))
+                .containsEntry("physical.backup-type", "full")
+                .containsEntry("physical.to-lsn", "1000");
+        assertThat(service.chain(first)).containsExactly(Path.of(firstFull.getBackupFilePath()));
+        assertThat(service.chain(otherHost)).containsExactly(Path.of(otherHostFull.getBackupFilePath()));
+        assertThat(service.chain(otherPort)).containsExactly(Path.of(otherPortFull.getBackupFilePath()));
+    }
+
+    @Test
+    void noChainBeforeTheFirstBackup() throws IOException {
+        assertThat(service.chain(config("db1", 3306))).isEmpty();
+    }
+
+    private BackupConfig config(String host, int port) {
+        return BackupConfig.builder()
+                .databaseType(DatabaseType.MARIADB)
+                .dumpEngine(DumpEngine.PHYSICAL)
+                .host(host)
+                .port(port)
+                .databaseName("shop")
+                .username("backup")
+                // One directory per server, since backups taken in the same second share a file name
+                .backupPath(directory.resolve(host + "_" + port).toString())
+                .incremental(true)
+                .build();
+    }
+}